@@ -0,0 +1,88 @@
+package us.ampre.rets.client;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares CompactRowTokenizer with the StringBuffer/StringTokenizer/LinkedList
+ * split that SearchResultHandler used before it.
+ * <p>
+ * Run with <code>./gradlew jmh</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompactRowTokenizerBenchmark {
+    private static final String DELIMITER = "\t";
+
+    @Param({"30", "300"})
+    private int columns;
+
+    private StringBuilder builder;
+    private StringBuffer buffer;
+    private CompactRowTokenizer tokenizer;
+
+    @Setup
+    public void setup() {
+        StringBuilder line = new StringBuilder(DELIMITER);
+        for (int i = 0; i < this.columns; i++) {
+            // a mix of empty, short lookup style and longer values
+            if (i % 5 != 0) {
+                line.append(i % 3 == 0 ? "Y" : "Value-" + i);
+            }
+            line.append(DELIMITER);
+        }
+        this.builder = line;
+        this.buffer = new StringBuffer(line);
+        this.tokenizer = new CompactRowTokenizer(DELIMITER.charAt(0), this.columns);
+    }
+
+    @Benchmark
+    public String[] tokenizer() {
+        return this.tokenizer.split(this.builder);
+    }
+
+    @Benchmark
+    public String[] stringTokenizer() {
+        return legacySplit(this.buffer.toString());
+    }
+
+    /** the pre CompactRowTokenizer SearchResultHandler.split */
+    private static String[] legacySplit(String input) {
+        StringTokenizer tkn = new StringTokenizer(input, DELIMITER, true);
+        List<String> list = new LinkedList<>();
+        tkn.nextToken(); // junk the first element
+        String last = null;
+        while (tkn.hasMoreTokens()) {
+            String next = tkn.nextToken();
+            if (next.equals(DELIMITER)) {
+                if (last == null) {
+                    list.add("");
+                } else {
+                    last = null;
+                }
+            } else {
+                list.add(next);
+                last = next;
+            }
+        }
+        return list.toArray(new String[0]);
+    }
+}
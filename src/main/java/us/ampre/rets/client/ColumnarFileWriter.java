@@ -0,0 +1,258 @@
+package us.ampre.rets.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * SearchResultCollector that writes rows to a column oriented binary file as
+ * they are parsed.
+ * <p>
+ * Rows are gathered into row groups of <code>rowGroupSize</code> rows; each
+ * full group is written column by column and dropped, so memory use depends on
+ * the group size and not on the size of the result.  Within a group a column
+ * is dictionary encoded when it has few distinct values, as lookup fields
+ * usually do, and written plainly otherwise.
+ * <p>
+ * File layout, all integers unsigned varints unless noted:
+ * <pre>
+ * file    = MAGIC header group* footer footerOffset(8 bytes, big endian) MAGIC
+ * header  = columnCount name*
+ * group   = 'G' rowCount chunk{columnCount}
+ * chunk   = byteLength(4 bytes, big endian) encoding(1 byte) body
+ *           encoding 0, plain:      value{rowCount}
+ *           encoding 1, dictionary: size value{size} code{rowCount}, code 0 is null
+ * value   = 0 for null, otherwise UTF-8 length + 1 followed by the bytes
+ * footer  = 'F' rowCount (COUNT + 1, 0 if no COUNT was sent) maxRows(1 byte)
+ * </pre>
+ * The chunk length lets a reader skip columns it does not need; the trailing
+ * footer offset lets it read the totals without scanning the groups.
+ */
+public class ColumnarFileWriter implements SearchResultCollector, Closeable {
+    public static final byte[] MAGIC = "RETSCOL1".getBytes(StandardCharsets.US_ASCII);
+    public static final int DEFAULT_ROW_GROUP_SIZE = 8192;
+    static final byte PLAIN = 0;
+    static final byte DICTIONARY = 1;
+
+    private final WritableByteChannel channel;
+    private final int rowGroupSize;
+    private final Buffer out = new Buffer(64 * 1024);
+    private final Buffer chunk = new Buffer(64 * 1024);
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private String[][] group;
+    private int groupRows;
+    private long position;
+    private int count = -1;
+    private boolean maxRows;
+    @Getter
+    private long rowCount;
+    @Getter
+    private boolean complete;
+
+    public ColumnarFileWriter(Path file) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), DEFAULT_ROW_GROUP_SIZE);
+    }
+
+    /**
+     * @param channel      written to and closed by this writer
+     * @param rowGroupSize number of rows buffered before a group is written
+     */
+    public ColumnarFileWriter(WritableByteChannel channel, int rowGroupSize) {
+        if (rowGroupSize < 1)
+            throw new IllegalArgumentException("[rowGroupSize=" + rowGroupSize + "] must be positive");
+        this.channel = channel;
+        this.rowGroupSize = rowGroupSize;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public void setColumns(String[] columns) {
+        this.group = new String[columns.length][this.rowGroupSize];
+        this.out.write(MAGIC, 0, MAGIC.length);
+        this.out.writeVarint(columns.length);
+        for (String column : columns) {
+            this.out.writeString(column);
+        }
+    }
+
+    public boolean addRow(String[] row) {
+        if (row.length > this.group.length) {
+            throw new IllegalArgumentException(String.format("Invalid number of result columns: got %s, expected %s", row.length, this.group.length));
+        }
+        for (int i = 0; i < this.group.length; i++) {
+            this.group[i][this.groupRows] = i < row.length ? row[i] : null;
+        }
+        this.rowCount++;
+        if (++this.groupRows == this.rowGroupSize)
+            writeGroup();
+        return true;
+    }
+
+    public void setMaxRows() {
+        this.maxRows = true;
+    }
+
+    public void setComplete() {
+        this.complete = true;
+        if (this.group == null)
+            setColumns(new String[0]);
+        if (this.groupRows > 0)
+            writeGroup();
+        long footerOffset = this.position + this.out.length;
+        this.out.write('F');
+        this.out.writeVarint(this.rowCount);
+        this.out.writeVarint(this.count + 1L);
+        this.out.write(this.maxRows ? 1 : 0);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            this.out.write((int) (footerOffset >>> shift));
+        }
+        this.out.write(MAGIC, 0, MAGIC.length);
+        flush();
+    }
+
+    /**
+     * Write what is buffered and close the channel.  A file closed before
+     * the search completed has no footer.
+     */
+    public void close() throws IOException {
+        if (!this.channel.isOpen())
+            return;
+        try {
+            drain();
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    private void writeGroup() {
+        this.out.write('G');
+        this.out.writeVarint(this.groupRows);
+        for (String[] column : this.group) {
+            encodeColumn(column, this.groupRows);
+            this.out.writeInt(this.chunk.length);
+            this.out.write(this.chunk.bytes, 0, this.chunk.length);
+            Arrays.fill(column, 0, this.groupRows, null);
+            if (this.out.length >= this.out.bytes.length / 2)
+                flush();
+        }
+        this.groupRows = 0;
+        flush();
+    }
+
+    /**
+     * Encode a column of the group into <code>chunk</code>, as a dictionary
+     * if that is smaller than writing the values plainly.
+     */
+    private void encodeColumn(String[] values, int rows) {
+        this.dictionary.clear();
+        int maxDictionary = rows / 2;
+        boolean useDictionary = true;
+        for (int i = 0; i < rows && useDictionary; i++) {
+            if (values[i] != null && this.dictionary.putIfAbsent(values[i], this.dictionary.size() + 1) == null)
+                useDictionary = this.dictionary.size() <= maxDictionary;
+        }
+        this.chunk.length = 0;
+        if (!useDictionary) {
+            this.chunk.write(PLAIN);
+            for (int i = 0; i < rows; i++) {
+                this.chunk.writeString(values[i]);
+            }
+            return;
+        }
+        this.chunk.write(DICTIONARY);
+        this.chunk.writeVarint(this.dictionary.size());
+        String[] entries = new String[this.dictionary.size()];
+        for (Map.Entry<String, Integer> entry : this.dictionary.entrySet()) {
+            entries[entry.getValue() - 1] = entry.getKey();
+        }
+        for (String entry : entries) {
+            this.chunk.writeString(entry);
+        }
+        for (int i = 0; i < rows; i++) {
+            this.chunk.writeVarint(values[i] == null ? 0 : this.dictionary.get(values[i]));
+        }
+    }
+
+    private void flush() {
+        try {
+            drain();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void drain() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(this.out.bytes, 0, this.out.length);
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer);
+        }
+        this.position += this.out.length;
+        this.out.length = 0;
+    }
+
+    /**
+     * Growable byte array.
+     */
+    private static final class Buffer {
+        private byte[] bytes;
+        private int length;
+
+        Buffer(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        void write(int b) {
+            ensure(1);
+            this.bytes[this.length++] = (byte) b;
+        }
+
+        void write(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, this.bytes, this.length, len);
+            this.length += len;
+        }
+
+        void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                write(0);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(utf8.length + 1L);
+            write(utf8, 0, utf8.length);
+        }
+
+        private void ensure(int extra) {
+            if (this.length + extra > this.bytes.length)
+                this.bytes = Arrays.copyOf(this.bytes, Math.max(this.length + extra, this.bytes.length * 2));
+        }
+    }
+}
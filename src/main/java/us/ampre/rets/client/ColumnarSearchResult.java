@@ -0,0 +1,254 @@
+package us.ampre.rets.client;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Column oriented SearchResult that keeps each column in its own store
+ * instead of a String[] per row.
+ * <p>
+ * Every column starts dictionary encoded: each distinct value is kept once and
+ * rows hold a 16 bit code, so lookup style fields (status, Y/N flags, city
+ * names) cost two bytes per row.  A column whose dictionary grows past
+ * <code>maxDictionarySize</code>, or which turns out to be mostly unique
+ * values, is converted to plain storage on the fly.
+ * <p>
+ * Cells are read with {@link #getValue(int, int)} without building a row;
+ * {@link #getRow(int)} and {@link #iterator()} materialize rows on demand.
+ */
+public class ColumnarSearchResult implements SearchResult, SearchResultCollector {
+    /** largest dictionary a 16 bit code can address, code 0 is null */
+    public static final int MAX_DICTIONARY_SIZE = Character.MAX_VALUE;
+    private static final int CARDINALITY_CHECK_ROWS = 1024;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final int maxDictionarySize;
+    private String[] columnNames;
+    private Map<String, Integer> columnMap;
+    private Column[] store;
+    private int rowCount;
+    private int capacity;
+    @Setter
+    private int count;
+    @Getter
+    @Setter
+    private boolean maxRows;
+    @Getter
+    @Setter
+    private boolean complete;
+
+    public ColumnarSearchResult() {
+        this(MAX_DICTIONARY_SIZE);
+    }
+
+    /**
+     * @param maxDictionarySize number of distinct values after which a column
+     *                          is stored plainly, at most MAX_DICTIONARY_SIZE
+     */
+    public ColumnarSearchResult(int maxDictionarySize) {
+        if (maxDictionarySize < 1 || maxDictionarySize > MAX_DICTIONARY_SIZE)
+            throw new IllegalArgumentException("[maxDictionarySize=" + maxDictionarySize + "] must be between 1 and " + MAX_DICTIONARY_SIZE);
+        this.maxDictionarySize = maxDictionarySize;
+        this.capacity = INITIAL_CAPACITY;
+    }
+
+    public void setColumns(String[] columns) {
+        this.columnNames = columns;
+        this.columnMap = new HashMap<>();
+        this.store = new Column[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            this.columnMap.put(columns[i], i);
+            this.store[i] = new Column(this.capacity);
+        }
+    }
+
+    public boolean addRow(String[] row) {
+        if (row.length > this.columnNames.length) {
+            throw new IllegalArgumentException(String.format("Invalid number of result columns: got %s, expected %s", row.length, this.columnNames.length));
+        }
+        if (row.length < this.columnNames.length) {
+            LogFactory.getLog(SearchResultCollector.class).warn(String.format("Row %s: Invalid number of result columns:  got %s, expected %s", this.rowCount, row.length, this.columnNames.length));
+        }
+        if (this.rowCount == this.capacity) {
+            this.capacity = this.capacity + (this.capacity >> 1);
+            for (Column column : this.store) {
+                column.grow(this.capacity);
+            }
+        }
+        for (int i = 0; i < this.store.length; i++) {
+            this.store[i].set(this.rowCount, i < row.length ? row[i] : null);
+        }
+        this.rowCount++;
+        return true;
+    }
+
+    public void setMaxRows() {
+        setMaxRows(true);
+    }
+
+    public void setComplete() {
+        setComplete(true);
+    }
+
+    public String[] getColumns() {
+        return this.columnNames;
+    }
+
+    /**
+     * @return the position of the column, or -1 if it was not returned
+     */
+    public int getColumnIndex(String column) {
+        Integer idx = this.columnMap == null ? null : this.columnMap.get(column);
+        return idx == null ? -1 : idx;
+    }
+
+    public int getCount() {
+        if (this.count > 0) {
+            return this.count;
+        }
+        return this.rowCount;
+    }
+
+    public int getRowCount() {
+        return this.rowCount;
+    }
+
+    /**
+     * Read a single cell without materializing the row.
+     *
+     * @return the value, or null if the row was short
+     */
+    public String getValue(int row, int column) {
+        if (row >= this.rowCount) {
+            throw new NoSuchElementException();
+        }
+        return this.store[column].get(row);
+    }
+
+    public String getValue(int row, String column) {
+        int idx = getColumnIndex(column);
+        if (idx < 0) {
+            throw new IllegalArgumentException("Unknown column: " + column);
+        }
+        return getValue(row, idx);
+    }
+
+    /**
+     * @return true if the column is still dictionary encoded
+     */
+    public boolean isDictionaryEncoded(int column) {
+        return this.store[column].dictionary != null;
+    }
+
+    /**
+     * @return number of distinct values of a dictionary encoded column, or -1
+     * if the column is stored plainly
+     */
+    public int getDistinctValueCount(int column) {
+        Column c = this.store[column];
+        return c.dictionary == null ? -1 : c.dictionary.size();
+    }
+
+    public String[] getRow(int idx) {
+        if (idx >= this.rowCount) {
+            throw new NoSuchElementException();
+        }
+        String[] row = new String[this.store.length];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = this.store[i].get(idx);
+        }
+        return row;
+    }
+
+    public Iterator<String[]> iterator() {
+        return new Iterator<>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return this.next < ColumnarSearchResult.this.rowCount;
+            }
+
+            public String[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return getRow(this.next++);
+            }
+        };
+    }
+
+    /**
+     * Storage for one column: either dictionary codes or plain values.
+     */
+    private final class Column {
+        private Map<String, Character> dictionary;
+        private String[] values;
+        private char[] codes;
+        private String[] plain;
+
+        Column(int capacity) {
+            this.dictionary = new HashMap<>();
+            this.values = new String[16];
+            this.codes = new char[capacity];
+        }
+
+        void grow(int capacity) {
+            if (this.codes != null) {
+                this.codes = Arrays.copyOf(this.codes, capacity);
+            } else {
+                this.plain = Arrays.copyOf(this.plain, capacity);
+            }
+        }
+
+        void set(int row, String value) {
+            if (this.codes == null) {
+                this.plain[row] = value;
+                return;
+            }
+            if (value == null) {
+                this.codes[row] = 0;
+                return;
+            }
+            Character code = this.dictionary.get(value);
+            if (code == null) {
+                int size = this.dictionary.size();
+                if (size >= ColumnarSearchResult.this.maxDictionarySize || (row >= CARDINALITY_CHECK_ROWS && size > row / 2)) {
+                    toPlain(row);
+                    this.plain[row] = value;
+                    return;
+                }
+                code = (char) (size + 1);
+                this.dictionary.put(value, code);
+                if (code == this.values.length) {
+                    this.values = Arrays.copyOf(this.values, this.values.length * 2);
+                }
+                this.values[code] = value;
+            }
+            this.codes[row] = code;
+        }
+
+        String get(int row) {
+            if (this.codes == null) {
+                return this.plain[row];
+            }
+            return this.values[this.codes[row]];
+        }
+
+        private void toPlain(int rows) {
+            this.plain = new String[this.codes.length];
+            for (int i = 0; i < rows; i++) {
+                this.plain[i] = this.values[this.codes[i]];
+            }
+            this.codes = null;
+            this.values = null;
+            this.dictionary = null;
+        }
+    }
+}
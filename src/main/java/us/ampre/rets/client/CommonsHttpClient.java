@@ -3,32 +3,50 @@ package us.ampre.rets.client;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.hc.client5.http.auth.UsernamePasswordCredentials;
 import org.apache.hc.client5.http.auth.AuthScope;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
 import org.apache.hc.client5.http.classic.methods.HttpGet;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
 import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.ConnectionConfig;
 import org.apache.hc.client5.http.config.RequestConfig;
 import org.apache.hc.client5.http.cookie.BasicCookieStore;
 import org.apache.hc.client5.http.cookie.Cookie;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClientBuilder;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
 import org.apache.hc.client5.http.impl.auth.BasicCredentialsProvider;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
 import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpRequest;
 import org.apache.hc.core5.http.HttpStatus;
 import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
 import org.apache.hc.core5.util.Timeout;
 import us.ampre.rets.common.util.CaseInsensitiveTreeMap;
 
 @Slf4j
 public class CommonsHttpClient extends RetsHttpClient {
-    private static final int DEFAULT_TIMEOUT = 300000;
     private static final String RETS_VERSION = "RETS-Version";
     private static final String RETS_SESSION_ID = "RETS-Session-ID";
     private static final String RETS_REQUEST_ID = "RETS-Request-ID";
@@ -36,44 +54,198 @@ public class CommonsHttpClient extends RetsHttpClient {
     public static final String RETS_UA_AUTH_HEADER = "RETS-UA-Authorization";
     private static final String ACCEPT_ENCODING = "Accept-Encoding";
     public static final String CONTENT_ENCODING = "Content-Encoding";
+    public static final String CONTENT_LENGTH = "Content-Length";
     public static final String DEFLATE_ENCODINGS = "gzip,deflate";
     public static final String CONTENT_TYPE = "Content-Type";
 
     private final ConcurrentHashMap<String, String> defaultHeaders;
-    private CloseableHttpClient httpClient;
+    private final HttpClientPoolConfig poolConfig;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final BasicCredentialsProvider credentialsProvider;
     private final BasicCookieStore cookieStore;
+    private final CloseableHttpClient httpClient;
+    private CloseableHttpAsyncClient asyncClient;
     private final String userAgentPassword;
+    private volatile boolean streaming;
+    private final ContentDecoding contentDecoding;
 
     public CommonsHttpClient() {
         this(null, true);
     }
 
     public CommonsHttpClient(String userAgentPassword, boolean gzip) {
+        this(userAgentPassword, gzip, new HttpClientPoolConfig());
+    }
+
+    /**
+     * @param poolConfig connection pool, keep-alive and timeout settings.
+     *                   They are applied once; later changes to the config
+     *                   have no effect on this client.
+     */
+    public CommonsHttpClient(String userAgentPassword, boolean gzip, HttpClientPoolConfig poolConfig) {
         this.userAgentPassword = userAgentPassword;
+        this.contentDecoding = gzip ? new ContentDecoding() : null;
         this.defaultHeaders = new ConcurrentHashMap<>();
-
-        RequestConfig requestConfig = RequestConfig.custom()
-                .setConnectTimeout(Timeout.ofMilliseconds(DEFAULT_TIMEOUT))
-                .setResponseTimeout(Timeout.ofMilliseconds(DEFAULT_TIMEOUT))
-                .build();
-
+        this.poolConfig = poolConfig;
         this.cookieStore = new BasicCookieStore();
-        this.httpClient = HttpClients.custom()
-                .setDefaultRequestConfig(requestConfig)
+        this.credentialsProvider = new BasicCredentialsProvider();
+        this.connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(poolConfig.getMaxTotal())
+                .setMaxConnPerRoute(poolConfig.getMaxPerRoute())
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(poolConfig.getConnectTimeout()))
+                        .setValidateAfterInactivity(TimeValue.ofMilliseconds(poolConfig.getValidateAfterInactivity()))
+                        .build())
                 .build();
+        this.httpClient = buildHttpClient();
 
         if (gzip) {
-            this.addDefaultHeader(ACCEPT_ENCODING, DEFLATE_ENCODINGS);
+            this.addDefaultHeader(ACCEPT_ENCODING, this.contentDecoding.getAcceptEncoding());
+        }
+    }
+
+    /**
+     * The one HttpClient used for the lifetime of this object.  Credentials
+     * and cookies live in the providers handed to it, so logging in again
+     * keeps the pooled connections.
+     */
+    private CloseableHttpClient buildHttpClient() {
+        HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(this.connectionManager)
+                .setDefaultRequestConfig(buildRequestConfig())
+                .setDefaultCredentialsProvider(this.credentialsProvider)
+                .setDefaultCookieStore(this.cookieStore)
+                .evictExpiredConnections();
+        if (this.contentDecoding != null) {
+            // bodies are decoded by ContentDecoding as they are read
+            builder.disableContentCompression();
+        }
+        if (this.poolConfig.getKeepAliveStrategy() != null) {
+            builder.setKeepAliveStrategy(this.poolConfig.getKeepAliveStrategy());
+        }
+        if (this.poolConfig.getIdleEviction() > 0) {
+            builder.evictIdleConnections(TimeValue.ofMilliseconds(this.poolConfig.getIdleEviction()));
+        }
+        return builder.build();
+    }
+
+    private RequestConfig buildRequestConfig() {
+        return RequestConfig.custom()
+                .setResponseTimeout(Timeout.ofMilliseconds(this.poolConfig.getResponseTimeout()))
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(this.poolConfig.getConnectionRequestTimeout()))
+                .setConnectionKeepAlive(TimeValue.ofMilliseconds(this.poolConfig.getKeepAlive()))
+                .build();
+    }
+
+    /**
+     * The non-blocking client behind doRequestAsync, created and started on
+     * first use.  It has its own connection pool and shares credentials and
+     * cookies with the blocking client.  The connections of
+     * HttpClientPoolConfig are split between the two pools when it is
+     * created, so together they stay within the configured limits; a limit
+     * of 1 cannot be split and allows one connection to each pool.
+     */
+    private synchronized CloseableHttpAsyncClient getAsyncClient() {
+        if (this.asyncClient == null) {
+            int asyncTotal = Math.max(this.poolConfig.getMaxTotal() / 2, 1);
+            int asyncPerRoute = Math.max(this.poolConfig.getMaxPerRoute() / 2, 1);
+            this.connectionManager.setMaxTotal(Math.max(this.poolConfig.getMaxTotal() - asyncTotal, 1));
+            this.connectionManager.setDefaultMaxPerRoute(Math.max(this.poolConfig.getMaxPerRoute() - asyncPerRoute, 1));
+            HttpAsyncClientBuilder builder = HttpAsyncClients.custom()
+                    .setConnectionManager(PoolingAsyncClientConnectionManagerBuilder.create()
+                            .setMaxConnTotal(asyncTotal)
+                            .setMaxConnPerRoute(asyncPerRoute)
+                            .setDefaultConnectionConfig(ConnectionConfig.custom()
+                                    .setConnectTimeout(Timeout.ofMilliseconds(this.poolConfig.getConnectTimeout()))
+                                    .setValidateAfterInactivity(TimeValue.ofMilliseconds(this.poolConfig.getValidateAfterInactivity()))
+                                    .build())
+                            .build())
+                    .setDefaultRequestConfig(buildRequestConfig())
+                    .setDefaultCredentialsProvider(this.credentialsProvider)
+                    .setDefaultCookieStore(this.cookieStore)
+                    .evictExpiredConnections();
+            if (this.poolConfig.getKeepAliveStrategy() != null) {
+                builder.setKeepAliveStrategy(this.poolConfig.getKeepAliveStrategy());
+            }
+            if (this.poolConfig.getIdleEviction() > 0) {
+                builder.evictIdleConnections(TimeValue.ofMilliseconds(this.poolConfig.getIdleEviction()));
+            }
+            this.asyncClient = builder.build();
+            this.asyncClient.start();
         }
+        return this.asyncClient;
+    }
+
+    /**
+     * Switch between buffered and streaming responses.  In streaming mode the
+     * body of each response is read straight from the connection, so memory
+     * use no longer grows with the payload; the connection stays leased until
+     * the response InputStream (or the response itself) is closed.
+     *
+     * @param streaming true to stream response bodies, false to buffer them
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public boolean isStreaming() {
+        return this.streaming;
+    }
+
+    /**
+     * Decompression settings and byte counters, or null if this client was
+     * created without compression.
+     */
+    public ContentDecoding getContentDecoding() {
+        return this.contentDecoding;
+    }
+
+    /**
+     * Accept an additional Content-Encoding, such as zstd or br, decoded by
+     * <code>decoder</code>.  It is advertised ahead of gzip and deflate.
+     *
+     * @throws IllegalStateException if this client was created without
+     *                               compression
+     */
+    public void registerContentDecoder(String encoding, ContentDecoder decoder) {
+        if (this.contentDecoding == null)
+            throw new IllegalStateException("Compression is disabled for this client");
+        this.contentDecoding.register(encoding, decoder);
+        this.addDefaultHeader(ACCEPT_ENCODING, this.contentDecoding.getAcceptEncoding());
     }
 
     @Override
     public void setUserCredentials(String userName, String password) {
-        BasicCredentialsProvider credsProvider = new BasicCredentialsProvider();
-        credsProvider.setCredentials(new AuthScope(null, -1), new UsernamePasswordCredentials(userName, password.toCharArray()));
-        this.httpClient = HttpClients.custom()
-                .setDefaultCredentialsProvider(credsProvider)
-                .build();
+        this.credentialsProvider.clear();
+        this.credentialsProvider.setCredentials(new AuthScope(null, -1), new UsernamePasswordCredentials(userName, password.toCharArray()));
+    }
+
+    /**
+     * @return leased, available and pending connection counts of the pool
+     */
+    public PoolStats getPoolStats() {
+        return this.connectionManager.getTotalStats();
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.httpClient.close();
+        } catch (IOException e) {
+            log.warn("Error closing HttpClient", e);
+        }
+        synchronized (this) {
+            if (this.asyncClient != null) {
+                try {
+                    this.asyncClient.close();
+                } catch (IOException e) {
+                    log.warn("Error closing async HttpClient", e);
+                }
+                this.asyncClient = null;
+            }
+        }
+        this.connectionManager.close();
+        super.close();
     }
 
     @Override
@@ -118,19 +290,112 @@ public class CommonsHttpClient extends RetsHttpClient {
                 method.setHeader(RETS_UA_AUTH_HEADER, calculateUaAuthHeader(method, getCookies()));
             }
 
+            if (this.streaming) {
+                return executeStreaming(method);
+            }
             try (CloseableHttpResponse response = this.httpClient.execute(method)) {
                 int statusCode = response.getCode();
                 String reasonPhrase = response.getReasonPhrase();
                 if (statusCode != HttpStatus.SC_OK) {
                     throw new InvalidHttpStatusException(statusCode, reasonPhrase);
                 }
-                return new RetsHttpResponseImpl(response, getCookies());
+                return new RetsHttpResponseImpl(response, getCookies(), false, this.contentDecoding, method.getRequestUri());
             }
         } catch (IOException e) {
             throw new RetsException(e);
         }
     }
 
+    /**
+     * Executes the method without closing the response; ownership passes to
+     * the returned RetsHttpResponseImpl unless the request fails here.
+     */
+    private RetsHttpResponseImpl executeStreaming(final HttpUriRequestBase method) throws IOException, RetsException {
+        CloseableHttpResponse response = this.httpClient.execute(method);
+        try {
+            int statusCode = response.getCode();
+            if (statusCode != HttpStatus.SC_OK) {
+                throw new InvalidHttpStatusException(statusCode, response.getReasonPhrase());
+            }
+            RetsHttpResponseImpl retsResponse = new RetsHttpResponseImpl(response, getCookies(), true, this.contentDecoding, method.getRequestUri());
+            retsResponse.setExchange(method);
+            return retsResponse;
+        } catch (IOException | RetsException | RuntimeException e) {
+            response.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the request on the non-blocking client; no thread waits for the
+     * response.  Responses are always buffered, regardless of the streaming
+     * setting.  The async client in httpclient 5.4 does not decompress
+     * bodies, so they are decoded by ContentDecoding once received.
+     * Cancelling the future aborts the exchange.  The executor is not used.
+     */
+    @Override
+    public CompletableFuture<RetsHttpResponseImpl> doRequestAsync(String httpMethod, RetsHttpRequest request, Executor executor) {
+        SimpleHttpRequest method;
+        if ("GET".equalsIgnoreCase(httpMethod)) {
+            String url = request.getUrl();
+            String args = request.getHttpParameters();
+            if (args != null) {
+                url = url + "?" + args;
+            }
+            log.debug("URL = [{}]", url);
+            method = SimpleRequestBuilder.get(url).build();
+        } else {
+            String body = request.getHttpParameters();
+            method = SimpleRequestBuilder.post(request.getUrl())
+                    .setBody(body == null ? "" : body, ContentType.APPLICATION_FORM_URLENCODED)
+                    .build();
+        }
+        for (Map.Entry<String, String> entry : this.defaultHeaders.entrySet()) {
+            if (this.contentDecoding != null || !ACCEPT_ENCODING.equals(entry.getKey())) {
+                method.setHeader(entry.getKey(), entry.getValue());
+            }
+        }
+        if (request.getHeaders() != null) {
+            for (Map.Entry<String, String> entry : request.getHeaders().entrySet()) {
+                method.setHeader(entry.getKey(), entry.getValue());
+            }
+        }
+        if (this.userAgentPassword != null) {
+            method.setHeader(RETS_UA_AUTH_HEADER, calculateUaAuthHeader(method, getCookies()));
+        }
+
+        CompletableFuture<RetsHttpResponseImpl> future = new CompletableFuture<>();
+        Future<SimpleHttpResponse> exchange = getAsyncClient().execute(method, new FutureCallback<>() {
+            public void completed(SimpleHttpResponse response) {
+                if (response.getCode() != HttpStatus.SC_OK) {
+                    future.completeExceptionally(new InvalidHttpStatusException(response.getCode(), response.getReasonPhrase()));
+                } else if (contentDecoding == null) {
+                    future.complete(new RetsHttpResponseImpl(response, getCookies()));
+                } else {
+                    try {
+                        future.complete(new RetsHttpResponseImpl(response, getCookies(), contentDecoding, method.getRequestUri()));
+                    } catch (IOException e) {
+                        future.completeExceptionally(new RetsException(e));
+                    }
+                }
+            }
+
+            public void failed(Exception e) {
+                future.completeExceptionally(new RetsException(e));
+            }
+
+            public void cancelled() {
+                future.cancel(false);
+            }
+        });
+        // cancelling the future aborts the exchange
+        future.whenComplete((response, e) -> {
+            if (future.isCancelled())
+                exchange.cancel(true);
+        });
+        return future;
+    }
+
     @Override
     public synchronized void addDefaultHeader(String key, String value) {
         this.defaultHeaders.put(key, value);
@@ -147,7 +412,7 @@ public class CommonsHttpClient extends RetsHttpClient {
         return cookieMap;
     }
 
-    protected String calculateUaAuthHeader(HttpUriRequestBase method, Map<String, String> cookies) {
+    protected String calculateUaAuthHeader(HttpRequest method, Map<String, String> cookies) {
         final String userAgent = this.getHeaderValue(method, USER_AGENT);
         final String requestId = this.getHeaderValue(method, RETS_REQUEST_ID);
         final String sessionId = cookies.get(RETS_SESSION_ID);
@@ -157,7 +422,7 @@ public class CommonsHttpClient extends RetsHttpClient {
         return String.format("Digest %s", DigestUtils.md5Hex(pieces));
     }
 
-    protected String getHeaderValue(HttpUriRequestBase method, String key) {
+    protected String getHeaderValue(HttpRequest method, String key) {
         Header requestHeader = method.getFirstHeader(key);
         if (requestHeader == null) return null;
         return requestHeader.getValue();
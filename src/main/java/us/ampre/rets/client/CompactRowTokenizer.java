@@ -0,0 +1,168 @@
+package us.ampre.rets.client;
+
+import java.util.Arrays;
+
+/**
+ * Single pass tokenizer for COMPACT <code>COLUMNS</code> and <code>DATA</code>
+ * lines.
+ * <p>
+ * A line starts with the delimiter and every field is terminated by the next
+ * delimiter, so <code>\tA\t\tB\t</code> yields <code>{"A", "", "B"}</code>.
+ * A trailing field without a closing delimiter is kept only if it is not
+ * empty, which matches the historical StringTokenizer based behaviour.
+ * <p>
+ * The character and field buffers are reused between lines, so the only
+ * allocations per line are the field Strings and the returned array.
+ * Instances are not thread safe; use one per parser.
+ */
+public final class CompactRowTokenizer {
+    private static final int DEFAULT_COLUMNS = 64;
+
+    /**
+     * Receives the fields of a line as ranges of the tokenizer's character
+     * buffer, so no String has to be made for fields that are decoded to
+     * something else.  The range is only valid during the call.
+     */
+    public interface FieldSink {
+        void field(int index, char[] buf, int off, int len);
+    }
+
+    private final char delimiter;
+    private char[] chars;
+    private String[] fields;
+
+    public CompactRowTokenizer(char delimiter) {
+        this(delimiter, DEFAULT_COLUMNS);
+    }
+
+    public CompactRowTokenizer(char delimiter, int columns) {
+        this.delimiter = delimiter;
+        this.chars = new char[1024];
+        this.fields = new String[Math.max(columns, 1)];
+    }
+
+    public char getDelimiter() {
+        return this.delimiter;
+    }
+
+    /**
+     * Size the field buffer for the number of columns announced by
+     * <code>COLUMNS</code>, so rows never need to grow it.
+     */
+    public void setColumnCount(int columns) {
+        if (columns > this.fields.length) {
+            this.fields = new String[columns];
+        }
+    }
+
+    /**
+     * @return true if the line is a well formed COMPACT line, i.e. it starts
+     * with the delimiter
+     */
+    public boolean accepts(CharSequence line) {
+        return line.length() > 0 && line.charAt(0) == this.delimiter;
+    }
+
+    public String[] split(StringBuilder line) {
+        int length = line.length();
+        if (length > this.chars.length) {
+            this.chars = new char[Math.max(length, this.chars.length * 2)];
+        }
+        line.getChars(0, length, this.chars, 0);
+        return split(this.chars, 0, length);
+    }
+
+    /**
+     * @return the number of fields split() would return for the line
+     */
+    public int count(StringBuilder line) {
+        int length = line.length();
+        int count = 0;
+        int start = 1;
+        for (int i = start; i < length; i++) {
+            if (line.charAt(i) == this.delimiter) {
+                count++;
+                start = i + 1;
+            }
+        }
+        return start < length ? count + 1 : count;
+    }
+
+    /**
+     * Pass the fields of the line to <code>sink</code> instead of returning
+     * them as Strings.
+     *
+     * @return the number of fields
+     */
+    public int split(StringBuilder line, FieldSink sink) {
+        return split(line, sink, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Pass at most <code>max</code> fields of the line to <code>sink</code>,
+     * counting the rest, so a caller that expects <code>max</code> fields
+     * learns of a mismatch without a second scan.
+     *
+     * @return the number of fields, including those not passed on
+     */
+    public int split(StringBuilder line, FieldSink sink, int max) {
+        int length = line.length();
+        if (length > this.chars.length) {
+            this.chars = new char[Math.max(length, this.chars.length * 2)];
+        }
+        line.getChars(0, length, this.chars, 0);
+        int count = 0;
+        int start = 1;
+        for (int i = start; i < length; i++) {
+            if (this.chars[i] == this.delimiter) {
+                if (count < max)
+                    sink.field(count, this.chars, start, i - start);
+                count++;
+                start = i + 1;
+            }
+        }
+        if (start < length) {
+            if (count < max)
+                sink.field(count, this.chars, start, length - start);
+            count++;
+        }
+        return count;
+    }
+
+    public String[] split(String line) {
+        int length = line.length();
+        if (length > this.chars.length) {
+            this.chars = new char[Math.max(length, this.chars.length * 2)];
+        }
+        line.getChars(0, length, this.chars, 0);
+        return split(this.chars, 0, length);
+    }
+
+    /**
+     * Split <code>len</code> characters of <code>buf</code> starting at
+     * <code>off</code>.  The first character is assumed to be the delimiter.
+     */
+    public String[] split(char[] buf, int off, int len) {
+        int count = 0;
+        int end = off + len;
+        int start = off + 1;
+        for (int i = start; i < end; i++) {
+            if (buf[i] == this.delimiter) {
+                count = add(count, i == start ? "" : new String(buf, start, i - start));
+                start = i + 1;
+            }
+        }
+        if (start < end) {
+            count = add(count, new String(buf, start, end - start));
+        }
+        return Arrays.copyOf(this.fields, count);
+    }
+
+    private int add(int count, String field) {
+        if (count == this.fields.length) {
+            this.fields = Arrays.copyOf(this.fields, count * 2);
+        }
+        this.fields[count] = field;
+        return count + 1;
+    }
+}
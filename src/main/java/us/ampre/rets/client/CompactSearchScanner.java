@@ -0,0 +1,712 @@
+package us.ampre.rets.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.math.NumberUtils;
+
+/**
+ * Parses COMPACT search responses straight from bytes, without an XML
+ * parser.
+ * <p>
+ * Only the shape servers actually send is understood: an optional XML
+ * declaration, the RETS root with RETS-STATUS, COUNT, DELIMITER, COLUMNS,
+ * DATA and MAXROWS children, the five predefined entities and character
+ * references.  Fields are decoded from a reused byte buffer, pure ASCII
+ * fields without copying through a decoder.  Anything else (comments,
+ * CDATA, a DOCTYPE, unknown tags or entities, a charset that is not ASCII
+ * compatible) hands the rest of the response, starting at the element being
+ * read, to a SearchResultHandler, so the collector sees the same calls as
+ * with SAX.  A TypedRowCollector is given the fields of each DATA row
+ * through field() and endRow(), as SearchResultHandler does.  Content after
+ * the closing RETS tag is not read.
+ * <p>
+ * Instances are not thread safe; use one per response.
+ */
+@Slf4j
+public class CompactSearchScanner {
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] ASCII_PROBE = "<>&;=\"'/?! \t\r\nRETSDAC".getBytes(StandardCharsets.US_ASCII);
+
+    private final SearchResultCollector collector;
+    private final InvalidReplyCodeHandler invalidReplyCodeHandler;
+    private final CompactRowPolicy compactRowPolicy;
+    /**
+     * -- SETTER --
+     * verify that the root element is RETS with a ReplyCode of 0, see
+     * SearchResultHandler#setRootCheck(boolean)
+     */
+    @Setter
+    private boolean rootCheck;
+    /** true if the response was handed to SearchResultHandler */
+    @Getter
+    private boolean fallback;
+
+    private InputStream in;
+    private byte[] buf;
+    private int pos;
+    private int limit;
+    private int mark;
+    private boolean eof;
+    private Charset charset;
+    private boolean rootSeen;
+    private boolean rootClosed;
+    private int rootReplyCode;
+    private int delimiter = -1;
+    private String[] columns;
+    private int dataCount;
+    private String[] fields = new String[64];
+    private char[] chars = new char[256];
+    /** the content of the COLUMNS or DATA element last read */
+    private int entryOff;
+    private int entryLen;
+    private boolean entryPlain;
+    private final StringBuilder text = new StringBuilder(256);
+
+    public CompactSearchScanner(SearchResultCollector collector) {
+        this(collector, InvalidReplyCodeHandler.FAIL, CompactRowPolicy.DEFAULT);
+    }
+
+    public CompactSearchScanner(SearchResultCollector collector, InvalidReplyCodeHandler invalidReplyCodeHandler, CompactRowPolicy compactRowPolicy) {
+        this(collector, invalidReplyCodeHandler, compactRowPolicy, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize initial size of the read buffer; it grows to hold the
+     *                   longest DATA element
+     */
+    public CompactSearchScanner(SearchResultCollector collector, InvalidReplyCodeHandler invalidReplyCodeHandler, CompactRowPolicy compactRowPolicy, int bufferSize) {
+        if (collector == null)
+            throw new NullPointerException("SearchResultCollector must not be null");
+        if (invalidReplyCodeHandler == null)
+            throw new NullPointerException("InvalidReplyCodeHandler must not be null");
+        if (compactRowPolicy == null)
+            throw new NullPointerException("BadRowPolicy must not be null");
+        if (bufferSize < 16)
+            throw new IllegalArgumentException("[bufferSize=" + bufferSize + "] must be at least 16");
+        this.collector = collector;
+        this.invalidReplyCodeHandler = invalidReplyCodeHandler;
+        this.compactRowPolicy = compactRowPolicy;
+        this.buf = new byte[bufferSize];
+    }
+
+    /**
+     * Parse the response, which is closed afterwards.
+     *
+     * @param charset the charset of the response headers, used in preference
+     *                to the XML declaration; may be null
+     */
+    public void parse(InputStream in, String charset) throws RetsException {
+        this.in = in;
+        try {
+            try {
+                scan(charset);
+            } catch (Fallback e) {
+                log.debug("Handing search response to SearchResultHandler: {}", e.getMessage());
+                this.fallback = true;
+                resumeWithSax(charset);
+            }
+        } catch (IOException e) {
+            throw new RetsException(e);
+        } catch (RuntimeException e) {
+            throw new RetsException(e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                log.warn("Unable to close search response stream", e);
+            }
+        }
+        if (this.rootCheck && this.rootSeen && !ReplyCode.SUCCESS.equals(this.rootReplyCode))
+            throw new InvalidReplyCodeException(this.rootReplyCode);
+    }
+
+    private void scan(String headerCharset) throws Fallback, IOException, RetsException {
+        ensure(4);
+        if (this.limit - this.pos >= 3 && (this.buf[0] & 0xFF) == 0xEF && (this.buf[1] & 0xFF) == 0xBB && (this.buf[2] & 0xFF) == 0xBF) {
+            this.pos = 3;
+        } else if (this.limit - this.pos >= 2 && ((this.buf[0] & 0xFF) >= 0xFE || this.buf[0] == 0 || this.buf[1] == 0)) {
+            throw new Fallback("UTF-16 or UTF-32 document");
+        }
+        String declared = null;
+        skipWhitespace();
+        if (startsWith("<?xml")) {
+            this.pos += 5;
+            declared = readAttributes("?xml", "version", "encoding")[1];
+            if (!consume('?') || !consume('>'))
+                throw new Fallback("malformed XML declaration");
+        }
+        setCharset(headerCharset != null ? headerCharset : declared);
+
+        while (true) {
+            skipWhitespace();
+            if (!ensure(1))
+                throw new Fallback("end of document inside RETS");
+            if (this.buf[this.pos] != '<')
+                throw new Fallback("text outside of the known elements");
+            this.mark = this.pos;
+            this.pos++;
+            if (!ensure(1))
+                throw new Fallback("end of document inside a tag");
+            byte b = this.buf[this.pos];
+            if (b == '!' || b == '?')
+                throw new Fallback("comment, CDATA, DOCTYPE or processing instruction");
+            if (b == '/') {
+                this.pos++;
+                String name = readName();
+                skipWhitespace();
+                if (!consume('>'))
+                    throw new Fallback("malformed end tag " + name);
+                if (name.equals("RETS"))
+                    break;
+                if (!name.equals("RETS-STATUS") && !name.equals("COUNT") && !name.equals("DELIMITER") && !name.equals("MAXROWS"))
+                    throw new Fallback("unexpected end tag " + name);
+                continue;
+            }
+            startElement(readName());
+            if (this.rootClosed)
+                break;
+        }
+        this.collector.setComplete();
+    }
+
+    private void startElement(String name) throws Fallback, IOException, RetsException {
+        if (!this.rootSeen) {
+            if (!name.equals("RETS")) {
+                if (this.rootCheck)
+                    throw new RetsException("Malformed response [content-type=text/xml]. Root element is not 'RETS'.");
+                throw new Fallback("root element " + name);
+            }
+            String[] attributes = readAttributes("RETS", "ReplyCode", "ReplyText");
+            this.rootClosed = consume('/');
+            if (!consume('>'))
+                throw new Fallback("malformed RETS tag");
+            this.rootReplyCode = NumberUtils.toInt(attributes[0]);
+            checkReplyCode(name, attributes[0], attributes[1]);
+            this.rootSeen = true;
+            return;
+        }
+        switch (name) {
+            case "RETS-STATUS" -> {
+                String[] attributes = readAttributes(name, "ReplyCode", "ReplyText");
+                endStartTag(name);
+                checkReplyCode(name, attributes[0], attributes[1]);
+            }
+            case "COUNT" -> {
+                String records = readAttributes(name, "Records")[0];
+                endStartTag(name);
+                if (records == null)
+                    throw new RetsException("COUNT tag has no Records attribute");
+                this.collector.setCount(Integer.parseInt(records, 10));
+            }
+            case "DELIMITER" -> {
+                String value = readAttributes(name, "value")[0];
+                endStartTag(name);
+                if (value == null)
+                    throw new RetsException("Invalid Delimiter");
+                int delimiter = Integer.parseInt(value, 16);
+                if (delimiter >= 0x80 || delimiter == '<' || delimiter == '&' || delimiter == '\r')
+                    throw new Fallback("delimiter " + value);
+                this.delimiter = delimiter;
+            }
+            case "MAXROWS" -> {
+                readAttributes(name);
+                endStartTag(name);
+                this.collector.setMaxRows();
+            }
+            case "COLUMNS", "DATA" -> {
+                readAttributes(name);
+                if (!consume('>'))
+                    throw new Fallback("empty " + name + " element");
+                readEntry(name);
+                if (name.equals("COLUMNS")) {
+                    String[] contents = split(this.entryOff, this.entryLen, this.entryPlain);
+                    this.columns = contents;
+                    if (contents.length > this.fields.length)
+                        this.fields = new String[contents.length];
+                    this.collector.setColumns(contents);
+                } else if (!(this.collector instanceof TypedRowCollector typed && addTypedRow(typed))) {
+                    String[] contents = split(this.entryOff, this.entryLen, this.entryPlain);
+                    if (this.compactRowPolicy.apply(this.dataCount, this.columns, contents)) {
+                        this.dataCount++;
+                        this.collector.addRow(contents);
+                    }
+                }
+            }
+            default -> throw new Fallback("unknown tag " + name);
+        }
+    }
+
+    /**
+     * Finish a start tag of an element that has no content, accepting both
+     * the empty element form and a start tag followed by an end tag.
+     */
+    private void endStartTag(String name) throws Fallback, IOException {
+        if (consume('/')) {
+            if (!consume('>'))
+                throw new Fallback("malformed " + name + " tag");
+        } else if (!consume('>')) {
+            throw new Fallback("malformed " + name + " tag");
+        }
+    }
+
+    private void checkReplyCode(String name, String rawReplyCode, String replyText) throws RetsException {
+        log.debug("Rets ReplyCode = [{}]", rawReplyCode);
+        int replyCode;
+        try {
+            replyCode = Integer.parseInt(rawReplyCode);
+        } catch (NumberFormatException e) {
+            throw new RetsException("Invalid ReplyCode '" + rawReplyCode + "'");
+        }
+        if (replyCode <= 0 || ReplyCode.MAXIMUM_RECORDS_EXCEEDED.equals(replyCode) || ReplyCode.NO_RECORDS_FOUND.equals(replyCode))
+            return;
+        try {
+            if (name.equals("RETS"))
+                this.invalidReplyCodeHandler.invalidRetsReplyCode(replyCode);
+            else
+                this.invalidReplyCodeHandler.invalidRetsStatusReplyCode(replyCode);
+        } catch (InvalidReplyCodeException e) {
+            e.setRemoteMessage(replyText);
+            throw e;
+        }
+    }
+
+    /**
+     * Read the content of a COLUMNS or DATA element up to and including its
+     * end tag.  The content is left in the buffer at entryOff.
+     */
+    private void readEntry(String name) throws Fallback, IOException, RetsException {
+        int start = this.pos - this.mark;
+        boolean plain = true;
+        boolean carriageReturn = false;
+        while (true) {
+            if (this.pos == this.limit && !ensure(1))
+                throw new Fallback("end of document inside " + name);
+            byte b = this.buf[this.pos];
+            if (b == '<')
+                break;
+            if (b < 0 || b == '&')
+                plain = false;
+            else if (b == '\r')
+                carriageReturn = true;
+            this.pos++;
+        }
+        int end = this.pos - this.mark;
+        if (!ensure(name.length() + 3) || this.buf[this.pos + 1] != '/' || !regionMatches(this.pos + 2, name) || this.buf[this.pos + 2 + name.length()] != '>')
+            throw new Fallback("markup inside " + name);
+        this.pos += name.length() + 3;
+
+        if (this.delimiter < 0)
+            throw new RetsException("Invalid compact format - DELIMITER not specified");
+        int off = this.mark + start;
+        int len = end - start;
+        if (len == 0 || this.buf[off] != this.delimiter)
+            throw new RetsException("Invalid compact format");
+        this.entryOff = off;
+        this.entryLen = len;
+        this.entryPlain = plain && !carriageReturn;
+    }
+
+    /**
+     * Hand the DATA row just read to a TypedRowCollector field by field, like
+     * SearchResultHandler does.  A row whose field count does not match
+     * COLUMNS is discarded by the collector and goes through the row policy
+     * as Strings instead.
+     *
+     * @return true if the row was consumed
+     */
+    private boolean addTypedRow(TypedRowCollector typed) throws Fallback {
+        if (this.columns == null)
+            return false;
+        int max = this.columns.length;
+        int count = 0;
+        int end = this.entryOff + this.entryLen;
+        int start = this.entryOff + 1;
+        try {
+            for (int i = start; i < end; i++) {
+                if (this.buf[i] == this.delimiter) {
+                    if (count < max)
+                        field(typed, count, start, i - start);
+                    count++;
+                    start = i + 1;
+                }
+            }
+            if (start < end) {
+                if (count < max)
+                    field(typed, count, start, end - start);
+                count++;
+            }
+        } catch (Fallback e) {
+            // SAX reads the row again from the start
+            typed.discardRow();
+            throw e;
+        }
+        if (count != max) {
+            typed.discardRow();
+            return false;
+        }
+        this.dataCount++;
+        typed.endRow();
+        return true;
+    }
+
+    /**
+     * Pass one field to the sink as characters, widening plain ASCII bytes
+     * without making a String.
+     */
+    private void field(CompactRowTokenizer.FieldSink sink, int index, int off, int len) throws Fallback {
+        if (this.entryPlain) {
+            char[] chars = chars(len);
+            for (int i = 0; i < len; i++) {
+                chars[i] = (char) this.buf[off + i];
+            }
+            sink.field(index, chars, 0, len);
+        } else {
+            String value = decode(off, len, false);
+            char[] chars = chars(value.length());
+            value.getChars(0, value.length(), chars, 0);
+            sink.field(index, chars, 0, value.length());
+        }
+    }
+
+    private char[] chars(int len) {
+        if (len > this.chars.length)
+            this.chars = new char[Math.max(len, this.chars.length * 2)];
+        return this.chars;
+    }
+
+    /**
+     * Split like CompactRowTokenizer: the first byte is the delimiter and
+     * every field ends at the next one.
+     */
+    private String[] split(int off, int len, boolean plain) throws Fallback {
+        int count = 0;
+        int end = off + len;
+        int start = off + 1;
+        for (int i = start; i < end; i++) {
+            if (this.buf[i] == this.delimiter) {
+                count = add(count, i == start ? "" : decode(start, i - start, plain));
+                start = i + 1;
+            }
+        }
+        if (start < end) {
+            count = add(count, decode(start, end - start, plain));
+        }
+        return Arrays.copyOf(this.fields, count);
+    }
+
+    private int add(int count, String field) {
+        if (count == this.fields.length) {
+            this.fields = Arrays.copyOf(this.fields, count * 2);
+        }
+        this.fields[count] = field;
+        return count + 1;
+    }
+
+    private String decode(int off, int len, boolean plain) throws Fallback {
+        if (plain)
+            return new String(this.buf, off, len, StandardCharsets.ISO_8859_1);
+        String value = new String(this.buf, off, len, this.charset);
+        if (value.indexOf('\r') >= 0)
+            value = value.replace("\r\n", "\n").replace('\r', '\n');
+        return value.indexOf('&') >= 0 ? unescape(value) : value;
+    }
+
+    /**
+     * Replace the predefined entities and character references.
+     */
+    private String unescape(String value) throws Fallback {
+        StringBuilder out = this.text;
+        out.setLength(0);
+        int i = 0;
+        while (i < value.length()) {
+            char c = value.charAt(i);
+            if (c != '&') {
+                out.append(c);
+                i++;
+                continue;
+            }
+            int semicolon = value.indexOf(';', i);
+            if (semicolon < 0)
+                throw new Fallback("unterminated entity");
+            String entity = value.substring(i + 1, semicolon);
+            switch (entity) {
+                case "lt" -> out.append('<');
+                case "gt" -> out.append('>');
+                case "amp" -> out.append('&');
+                case "quot" -> out.append('"');
+                case "apos" -> out.append('\'');
+                default -> {
+                    if (!entity.startsWith("#"))
+                        throw new Fallback("entity &" + entity + ";");
+                    int codePoint;
+                    try {
+                        codePoint = entity.startsWith("#x") ? Integer.parseInt(entity.substring(2), 16) : Integer.parseInt(entity.substring(1), 10);
+                    } catch (NumberFormatException e) {
+                        throw new Fallback("character reference &" + entity + ";");
+                    }
+                    if (codePoint == this.delimiter || !Character.isValidCodePoint(codePoint))
+                        throw new Fallback("character reference &" + entity + ";");
+                    out.appendCodePoint(codePoint);
+                }
+            }
+            i = semicolon + 1;
+        }
+        return out.toString();
+    }
+
+    /**
+     * Read the attributes of a start tag up to, not including, its closing
+     * <code>&gt;</code>, <code>/&gt;</code> or <code>?&gt;</code>.
+     *
+     * @return the values of the named attributes, null where absent
+     */
+    private String[] readAttributes(String element, String... names) throws Fallback, IOException {
+        String[] values = new String[names.length];
+        while (true) {
+            skipWhitespace();
+            if (!ensure(1))
+                throw new Fallback("end of document inside " + element);
+            byte b = this.buf[this.pos];
+            if (b == '>' || b == '/' || b == '?')
+                return values;
+            String name = readName();
+            skipWhitespace();
+            if (!consume('='))
+                throw new Fallback("malformed attribute " + name + " of " + element);
+            skipWhitespace();
+            if (!ensure(1))
+                throw new Fallback("end of document inside " + element);
+            byte quote = this.buf[this.pos++];
+            if (quote != '"' && quote != '\'')
+                throw new Fallback("unquoted attribute " + name + " of " + element);
+            int start = this.pos - this.mark;
+            while (true) {
+                if (this.pos == this.limit && !ensure(1))
+                    throw new Fallback("end of document inside " + element);
+                byte c = this.buf[this.pos];
+                if (c == quote)
+                    break;
+                if (c == '<')
+                    throw new Fallback("'<' in attribute " + name + " of " + element);
+                this.pos++;
+            }
+            int off = this.mark + start;
+            String value = new String(this.buf, off, this.pos - off, this.charset == null ? StandardCharsets.UTF_8 : this.charset);
+            this.pos++;
+            if (value.indexOf('&') >= 0)
+                value = unescape(value);
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name))
+                    values[i] = value;
+            }
+        }
+    }
+
+    private String readName() throws Fallback, IOException {
+        int start = this.pos - this.mark;
+        while (true) {
+            if (this.pos == this.limit && !ensure(1))
+                throw new Fallback("end of document inside a tag");
+            byte b = this.buf[this.pos];
+            if (!(b >= 'A' && b <= 'Z' || b >= 'a' && b <= 'z' || b >= '0' && b <= '9' || b == '-' || b == '_'))
+                break;
+            this.pos++;
+        }
+        int off = this.mark + start;
+        if (this.pos == off)
+            throw new Fallback("missing name");
+        return new String(this.buf, off, this.pos - off, StandardCharsets.US_ASCII);
+    }
+
+    private void setCharset(String name) throws Fallback {
+        if (name == null) {
+            this.charset = StandardCharsets.UTF_8;
+            return;
+        }
+        try {
+            this.charset = Charset.forName(name.trim());
+        } catch (IllegalArgumentException e) {
+            throw new Fallback("unsupported charset " + name);
+        }
+        if (this.charset.equals(StandardCharsets.UTF_8))
+            return;
+        if (!this.charset.canEncode() || this.charset.newEncoder().maxBytesPerChar() != 1
+                || !Arrays.equals(ASCII_PROBE, new String(ASCII_PROBE, StandardCharsets.US_ASCII).getBytes(this.charset)))
+            throw new Fallback("charset " + name + " is not ASCII compatible");
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (true) {
+            if (this.pos == this.limit && !ensure(1))
+                return;
+            byte b = this.buf[this.pos];
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n')
+                return;
+            this.pos++;
+        }
+    }
+
+    private boolean consume(char c) throws IOException {
+        if (!ensure(1) || this.buf[this.pos] != c)
+            return false;
+        this.pos++;
+        return true;
+    }
+
+    private boolean startsWith(String s) throws IOException {
+        return ensure(s.length()) && regionMatches(this.pos, s);
+    }
+
+    private boolean regionMatches(int off, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (this.buf[off + i] != s.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Make at least n bytes available at pos.  Bytes from mark on are kept;
+     * before the root element nothing is discarded, so the whole document
+     * can still be handed to SAX.
+     *
+     * @return false if the document ends first
+     */
+    private boolean ensure(int n) throws IOException {
+        while (this.limit - this.pos < n) {
+            if (this.eof)
+                return false;
+            if (this.limit == this.buf.length) {
+                if (this.rootSeen && this.mark > 0) {
+                    System.arraycopy(this.buf, this.mark, this.buf, 0, this.limit - this.mark);
+                    this.pos -= this.mark;
+                    this.limit -= this.mark;
+                    this.mark = 0;
+                } else {
+                    this.buf = Arrays.copyOf(this.buf, this.buf.length * 2);
+                }
+            }
+            int read = this.in.read(this.buf, this.limit, this.buf.length - this.limit);
+            if (read < 0) {
+                this.eof = true;
+                return false;
+            }
+            this.limit += read;
+        }
+        return true;
+    }
+
+    /**
+     * Parse the rest of the response with SearchResultHandler, starting at
+     * the element being read.  Once the root element has been read, the
+     * handler is given a stand-in root with the DELIMITER and COLUMNS seen
+     * so far; the COLUMNS are not reported to the collector a second time.
+     */
+    private void resumeWithSax(String headerCharset) throws RetsException {
+        SearchResultCollector target = this.collector;
+        InputStream rest;
+        String charset;
+        if (!this.rootSeen) {
+            rest = new SequenceInputStream(new ByteArrayInputStream(this.buf, 0, this.limit), this.in);
+            charset = headerCharset;
+        } else {
+            StringBuilder header = new StringBuilder("<RETS ReplyCode=\"0\" ReplyText=\"\">");
+            if (this.delimiter >= 0)
+                header.append(String.format("<DELIMITER value=\"%02X\"/>", this.delimiter));
+            if (this.columns != null) {
+                char delimiter = (char) this.delimiter;
+                header.append("<COLUMNS>").append(delimiter);
+                for (String column : this.columns) {
+                    header.append(column.replace("&", "&amp;").replace("<", "&lt;")).append(delimiter);
+                }
+                header.append("</COLUMNS>");
+                target = this.collector instanceof TypedRowCollector typed ? new TypedResumeCollector(typed) : new ResumeCollector(this.collector);
+            }
+            byte[] bytes = header.toString().getBytes(this.charset);
+            rest = new SequenceInputStream(new SequenceInputStream(new ByteArrayInputStream(bytes), new ByteArrayInputStream(this.buf, this.mark, this.limit - this.mark)), this.in);
+            charset = this.charset.name();
+        }
+        SearchResultHandler handler = new SearchResultHandler(target, this.invalidReplyCodeHandler, this.compactRowPolicy);
+        handler.setRootCheck(this.rootCheck && !this.rootSeen);
+        handler.parse(rest, charset);
+    }
+
+    /**
+     * Drops the COLUMNS of the stand-in header, which the collector has
+     * already seen.
+     */
+    private static class ResumeCollector implements SearchResultCollector {
+        private final SearchResultCollector target;
+        private boolean columnsSeen;
+
+        ResumeCollector(SearchResultCollector target) {
+            this.target = target;
+        }
+
+        public void setCount(int count) {
+            this.target.setCount(count);
+        }
+
+        public void setColumns(String[] columns) {
+            if (this.columnsSeen)
+                this.target.setColumns(columns);
+            this.columnsSeen = true;
+        }
+
+        public boolean addRow(String[] row) {
+            return this.target.addRow(row);
+        }
+
+        public void setMaxRows() {
+            this.target.setMaxRows();
+        }
+
+        public void setComplete() {
+            this.target.setComplete();
+        }
+    }
+
+    /**
+     * ResumeCollector that keeps a TypedRowCollector visible to
+     * SearchResultHandler, so rows after the hand over still arrive field
+     * by field.
+     */
+    private static class TypedResumeCollector extends ResumeCollector implements TypedRowCollector {
+        private final TypedRowCollector target;
+
+        TypedResumeCollector(TypedRowCollector target) {
+            super(target);
+            this.target = target;
+        }
+
+        public void field(int index, char[] buf, int off, int len) {
+            this.target.field(index, buf, off, len);
+        }
+
+        public void endRow() {
+            this.target.endRow();
+        }
+
+        public void discardRow() {
+            this.target.discardRow();
+        }
+    }
+
+    /**
+     * The response has something the scanner does not handle.
+     */
+    private static class Fallback extends Exception {
+        Fallback(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package us.ampre.rets.client;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes a response body sent with a given Content-Encoding.
+ * <p>
+ * gzip and deflate are built in.  Other encodings such as zstd or br can be
+ * added with {@link CommonsHttpClient#registerContentDecoder(String, ContentDecoder)}
+ * using whichever library provides the decompressing stream, for example
+ * <code>(in, size) -&gt; new ZstdInputStream(in)</code>.
+ */
+@FunctionalInterface
+public interface ContentDecoder {
+	/**
+	 * @param in         the encoded body
+	 * @param bufferSize size of the decoder's input buffer
+	 * @return a stream of the decoded body; closing it must close <code>in</code>
+	 */
+	public InputStream decode(InputStream in, int bufferSize) throws IOException;
+
+	public static final ContentDecoder GZIP = GZIPInputStream::new;
+
+	/**
+	 * deflate as servers send it: zlib wrapped as RFC 9110 says, or raw
+	 * deflate as some servers do anyway.
+	 */
+	public static final ContentDecoder DEFLATE = (in, bufferSize) -> {
+		BufferedInputStream buffered = new BufferedInputStream(in, bufferSize);
+		buffered.mark(2);
+		int cmf = buffered.read();
+		int flg = buffered.read();
+		buffered.reset();
+		boolean zlib = cmf >= 0 && flg >= 0 && (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+		return new InflaterInputStream(buffered, new Inflater(!zlib), bufferSize) {
+			private boolean closed;
+
+			@Override
+			public void close() throws IOException {
+				if (this.closed)
+					return;
+				this.closed = true;
+				try {
+					super.close();
+				} finally {
+					this.inf.end();
+				}
+			}
+		};
+	};
+}
@@ -0,0 +1,226 @@
+package us.ampre.rets.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Response body decompression done by CommonsHttpClient instead of
+ * httpclient, as a stage of the stream the parsers read from.
+ * <p>
+ * The decoder reads the body as it arrives, through an input buffer of
+ * <code>bufferSize</code> bytes, so a streaming response is never held in
+ * memory compressed or decompressed.  Bytes are counted on both sides of the
+ * decoder for every response and in total, and reported to the
+ * {@link Listener} once the body has been read or closed.
+ */
+@Slf4j
+public class ContentDecoding {
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+     * Told about the bytes of each response.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * @param url             the request URL
+         * @param contentEncoding the Content-Encoding, null for none
+         * @param compressedBytes bytes received
+         * @param decodedBytes    bytes after decoding
+         */
+        void transferred(String url, String contentEncoding, long compressedBytes, long decodedBytes);
+    }
+
+    private final Map<String, ContentDecoder> decoders = new ConcurrentHashMap<>();
+    /**
+     * -- SETTER --
+     * Size of the decoder input buffer, DEFAULT_BUFFER_SIZE by default.
+     * Larger buffers mean fewer reads from the connection on large feeds.
+     */
+    @Getter
+    @Setter
+    private volatile int bufferSize = DEFAULT_BUFFER_SIZE;
+    @Getter
+    @Setter
+    private volatile Listener listener;
+    private final AtomicLong totalCompressed = new AtomicLong();
+    private final AtomicLong totalDecoded = new AtomicLong();
+    private volatile String acceptEncoding;
+
+    public ContentDecoding() {
+        this.decoders.put("gzip", ContentDecoder.GZIP);
+        this.decoders.put("x-gzip", ContentDecoder.GZIP);
+        this.decoders.put("deflate", ContentDecoder.DEFLATE);
+        this.acceptEncoding = CommonsHttpClient.DEFLATE_ENCODINGS;
+    }
+
+    /**
+     * Decode bodies sent with <code>encoding</code> and advertise it in
+     * Accept-Encoding, ahead of the encodings registered before it.
+     */
+    public synchronized void register(String encoding, ContentDecoder decoder) {
+        String name = encoding.trim().toLowerCase(Locale.ROOT);
+        this.decoders.put(name, decoder);
+        StringBuilder accept = new StringBuilder(name);
+        for (String existing : this.acceptEncoding.split(",")) {
+            if (!existing.equals(name))
+                accept.append(',').append(existing);
+        }
+        this.acceptEncoding = accept.toString();
+    }
+
+    /**
+     * @return the Accept-Encoding value listing every registered encoding
+     */
+    public String getAcceptEncoding() {
+        return this.acceptEncoding;
+    }
+
+    /**
+     * @return bytes received by all responses so far
+     */
+    public long getTotalCompressedBytes() {
+        return this.totalCompressed.get();
+    }
+
+    /**
+     * @return bytes of all responses so far after decoding
+     */
+    public long getTotalDecodedBytes() {
+        return this.totalDecoded.get();
+    }
+
+    /**
+     * Wrap a response body in the decoders named by its Content-Encoding.
+     *
+     * @throws IOException if an encoding has no decoder
+     */
+    public DecodedInputStream open(InputStream body, String contentEncoding, String url) throws IOException {
+        CountingInputStream received = new CountingInputStream(body);
+        InputStream decoded = received;
+        if (contentEncoding != null) {
+            // encodings are listed in the order they were applied
+            String[] encodings = contentEncoding.split(",");
+            for (int i = encodings.length - 1; i >= 0; i--) {
+                String encoding = encodings[i].trim().toLowerCase(Locale.ROOT);
+                if (encoding.isEmpty() || encoding.equals("identity"))
+                    continue;
+                ContentDecoder decoder = this.decoders.get(encoding);
+                if (decoder == null) {
+                    received.close();
+                    throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+                }
+                decoded = decoder.decode(decoded, this.bufferSize);
+            }
+        }
+        return new DecodedInputStream(decoded, received, contentEncoding, url);
+    }
+
+    static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                this.count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                this.count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            this.count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Decoded body with counts of the bytes read on both sides of the
+     * decoder.
+     */
+    public class DecodedInputStream extends CountingInputStream {
+        private final CountingInputStream received;
+        private final String contentEncoding;
+        private final String url;
+        private boolean reported;
+
+        DecodedInputStream(InputStream decoded, CountingInputStream received, String contentEncoding, String url) {
+            super(decoded);
+            this.received = received;
+            this.contentEncoding = contentEncoding;
+            this.url = url;
+        }
+
+        public long getCompressedBytes() {
+            return this.received.count;
+        }
+
+        public long getDecodedBytes() {
+            return super.count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0)
+                report();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n < 0)
+                report();
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                report();
+            }
+        }
+
+        private void report() {
+            if (this.reported)
+                return;
+            this.reported = true;
+            totalCompressed.addAndGet(getCompressedBytes());
+            totalDecoded.addAndGet(getDecodedBytes());
+            log.debug("{}: {} bytes received, {} decoded ({})", this.url, getCompressedBytes(), getDecodedBytes(), this.contentEncoding);
+            Listener current = ContentDecoding.this.listener;
+            if (current != null)
+                current.transferred(this.url, this.contentEncoding, getCompressedBytes(), getDecodedBytes());
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package us.ampre.rets.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * SearchResultCollector that writes rows to a CSV or TSV file as they are
+ * parsed, so an export needs no more memory than one row.
+ * <p>
+ * The first line holds the COLUMNS.  CSV fields are quoted when they contain
+ * the separator, a quote or a line break (RFC 4180); TSV fields have tabs,
+ * line breaks and backslashes escaped as <code>\t</code>, <code>\n</code>,
+ * <code>\r</code> and <code>\\</code>.  Output is UTF-8, encoded into a
+ * direct buffer and written to the channel when the buffer fills.
+ * <p>
+ * Loaders read every line after the header as data, so the totals are not
+ * written by default.  With setFooter(true) a last line
+ * <code>#COUNT=n,ROWS=n,MAXROWS=true|false</code> is added when the search
+ * completes; <code>COUNT=n,</code> is left out when the server sent no COUNT.
+ * The totals are also available from getCount(), getRowCount() and
+ * isMaxRows().
+ */
+public class DelimitedFileWriter implements SearchResultCollector, Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public enum Format {
+        CSV(',', "\r\n"), TSV('\t', "\n");
+
+        private final char separator;
+        private final String lineEnd;
+
+        Format(char separator, String lineEnd) {
+            this.separator = separator;
+            this.lineEnd = lineEnd;
+        }
+    }
+
+    private final WritableByteChannel channel;
+    private final Format format;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final StringBuilder line = new StringBuilder(1024);
+    /**
+     * -- SETTER --
+     * Whether to write the COUNT/MAXROWS footer line, false by default.
+     */
+    @Setter
+    private boolean footer;
+    private int columnCount;
+    /** the COUNT sent by the server, -1 if none was sent */
+    @Getter
+    private int count = -1;
+    @Getter
+    private boolean maxRows;
+    @Getter
+    private int rowCount;
+    @Getter
+    private boolean complete;
+
+    public DelimitedFileWriter(Path file, Format format) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), format);
+    }
+
+    /**
+     * @param channel written to and closed by this writer
+     */
+    public DelimitedFileWriter(WritableByteChannel channel, Format format) {
+        this.channel = channel;
+        this.format = format;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public void setColumns(String[] columns) {
+        this.columnCount = columns.length;
+        writeLine(columns);
+    }
+
+    public boolean addRow(String[] row) {
+        if (row.length > this.columnCount) {
+            throw new IllegalArgumentException(String.format("Invalid number of result columns: got %s, expected %s", row.length, this.columnCount));
+        }
+        writeLine(row);
+        this.rowCount++;
+        return true;
+    }
+
+    public void setMaxRows() {
+        this.maxRows = true;
+    }
+
+    public void setComplete() {
+        this.complete = true;
+        try {
+            if (this.footer) {
+                this.line.setLength(0);
+                this.line.append('#');
+                if (this.count >= 0)
+                    this.line.append("COUNT=").append(this.count).append(',');
+                this.line.append("ROWS=").append(this.rowCount)
+                        .append(",MAXROWS=").append(this.maxRows).append(this.format.lineEnd);
+                encode();
+            }
+            flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write what is buffered and close the channel.
+     */
+    public void close() throws IOException {
+        if (!this.channel.isOpen())
+            return;
+        try {
+            flush();
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    private void writeLine(String[] fields) {
+        this.line.setLength(0);
+        for (int i = 0; i < this.columnCount; i++) {
+            if (i > 0)
+                this.line.append(this.format.separator);
+            if (i < fields.length && fields[i] != null) {
+                if (this.format == Format.CSV)
+                    appendCsv(fields[i]);
+                else
+                    appendTsv(fields[i]);
+            }
+        }
+        this.line.append(this.format.lineEnd);
+        try {
+            encode();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void appendCsv(String field) {
+        boolean quote = false;
+        for (int i = 0; i < field.length() && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            this.line.append(field);
+            return;
+        }
+        this.line.append('"');
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '"')
+                this.line.append('"');
+            this.line.append(c);
+        }
+        this.line.append('"');
+    }
+
+    private void appendTsv(String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            switch (c) {
+                case '\t' -> this.line.append("\\t");
+                case '\n' -> this.line.append("\\n");
+                case '\r' -> this.line.append("\\r");
+                case '\\' -> this.line.append("\\\\");
+                default -> this.line.append(c);
+            }
+        }
+    }
+
+    private void encode() throws IOException {
+        CharBuffer chars = CharBuffer.wrap(this.line);
+        while (true) {
+            CoderResult result = this.encoder.encode(chars, this.bytes, true);
+            if (result.isUnderflow())
+                break;
+            flush();
+        }
+        this.encoder.reset();
+    }
+
+    private void flush() throws IOException {
+        this.bytes.flip();
+        while (this.bytes.hasRemaining()) {
+            this.channel.write(this.bytes);
+        }
+        this.bytes.clear();
+    }
+}
@@ -0,0 +1,104 @@
+package us.ampre.rets.client;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import lombok.Getter;
+
+/**
+ * Keeps each high-water mark in a properties file named after the resource
+ * and class in one directory.  A mark is written to a temporary file first
+ * and then renamed over the old one, so a crash leaves either the old or the
+ * new mark behind.
+ */
+public class FileHighWaterMarkStore implements HighWaterMarkStore {
+    private static final String TIMESTAMP = "timestamp";
+    private static final String KEY_PREFIX = "key.";
+
+    @Getter
+    private final Path directory;
+
+    public FileHighWaterMarkStore(Path directory) {
+        this.directory = directory;
+    }
+
+    public HighWaterMark load(String resource, String className) throws RetsException {
+        Path file = getFile(resource, className);
+        if (!Files.exists(file))
+            return null;
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            throw new RetsException("Failed to read " + file, e);
+        }
+        String timestamp = properties.getProperty(TIMESTAMP);
+        Map<String, LocalDateTime> boundary = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(KEY_PREFIX))
+                boundary.put(name.substring(KEY_PREFIX.length()), LocalDateTime.parse(properties.getProperty(name)));
+        }
+        return new HighWaterMark(timestamp == null ? null : LocalDateTime.parse(timestamp), boundary);
+    }
+
+    public void save(String resource, String className, HighWaterMark mark) throws RetsException {
+        Properties properties = new Properties();
+        if (mark.getTimestamp() != null)
+            properties.setProperty(TIMESTAMP, mark.getTimestamp().toString());
+        for (Map.Entry<String, LocalDateTime> entry : mark.getBoundary().entrySet()) {
+            properties.setProperty(KEY_PREFIX + entry.getKey(), entry.getValue().toString());
+        }
+        Path file = getFile(resource, className);
+        Path temp = null;
+        try {
+            Files.createDirectories(this.directory);
+            temp = Files.createTempFile(this.directory, file.getFileName().toString(), ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                properties.store(writer, resource + ":" + className);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+        } catch (IOException e) {
+            throw new RetsException("Failed to write " + file, e);
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    // the failure to write is what gets reported
+                }
+            }
+        }
+    }
+
+    public void remove(String resource, String className) throws RetsException {
+        Path file = getFile(resource, className);
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new RetsException("Failed to delete " + file, e);
+        }
+    }
+
+    private Path getFile(String resource, String className) {
+        return this.directory.resolve(sanitize(resource) + "." + sanitize(className) + ".properties");
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+}
@@ -0,0 +1,454 @@
+package us.ampre.rets.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Downloads the objects of many entities over one session.
+ * <p>
+ * The ids to fetch are packed into GetObject requests of at most
+ * <code>maxIdsPerRequest</code> ids and <code>maxEntitiesPerRequest</code>
+ * entities, consecutive entries of the same resource and type sharing a
+ * request, and the requests run on up to <code>concurrency</code> threads.
+ * When the server answers 20412 (too many outstanding queries) the number of
+ * requests in flight is halved and the request retried after an exponential
+ * backoff; every successful request lets one more run again, up to
+ * <code>concurrency</code>.  The session's own setMaxConcurrentRequests()
+ * limit applies as well.
+ * <p>
+ * Objects are handed to the Handler on the worker threads as each response
+ * is read, so the handler must be thread safe.  A request that fails, is
+ * still refused after <code>maxRetries</code> retries, or is interrupted, is
+ * reported to the handler for each of its entries that was not yet handed
+ * over in full; an entry whose objects were being read when the failure hit
+ * is reported even if some of them were handed over.  Anything thrown by the
+ * handler, from object() or failed(), stops the download.
+ * <p>
+ * harvestLocations() runs the same way with Location=1 and hands out only
+ * the URLs, read from the part headers.
+ * <p>
+ * Instances hold configuration only and may be reused.
+ */
+@Slf4j
+@Getter
+@Setter
+public class GetObjectBatchDownloader {
+    private final RetsSession session;
+    /** largest number of requests in flight */
+    private int concurrency = 4;
+    /** ids per request; "*" counts as one */
+    private int maxIdsPerRequest = 50;
+    /** entities per request */
+    private int maxEntitiesPerRequest = 10;
+    /** request Location=1 instead of the object data */
+    private boolean locationOnly;
+    /** retries of a request refused with 20412 before it is reported failed */
+    private int maxRetries = 8;
+    /** backoff before the first retry, doubled for each further retry */
+    private long initialBackoffMillis = 250;
+    private long maxBackoffMillis = 30_000;
+
+    public GetObjectBatchDownloader(RetsSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Ids of one entity to fetch.
+     */
+    @Getter
+    public static class Entry {
+        private final String resource;
+        private final String type;
+        private final String entity;
+        private final List<String> ids;
+
+        /**
+         * @param ids object ids, "*" for all objects of the entity
+         */
+        public Entry(String resource, String type, String entity, String... ids) {
+            this.resource = resource;
+            this.type = type;
+            this.entity = entity;
+            this.ids = List.of(ids.length == 0 ? new String[]{"*"} : ids);
+        }
+
+        @Override
+        public String toString() {
+            return this.resource + ":" + this.type + ":" + this.entity + ":" + String.join(":", this.ids);
+        }
+    }
+
+    public interface Handler {
+        /**
+         * Called for every object received.  The stream of the object is
+         * only valid until this method returns.
+         */
+        void object(SingleObjectResponse object) throws IOException;
+
+        /**
+         * Called for each entry of a request that failed.
+         */
+        default void failed(Entry entry, RetsException cause) {
+        }
+    }
+
+    public interface LocationHandler {
+        /**
+         * Called for every object URL received.
+         */
+        void location(ObjectLocation location);
+
+        /**
+         * Called for each entry of a request that failed.
+         */
+        default void failed(Entry entry, RetsException cause) {
+        }
+    }
+
+    /**
+     * Totals of one download.
+     */
+    public static class Summary {
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger failedRequests = new AtomicInteger();
+        private final AtomicInteger retries = new AtomicInteger();
+        private final AtomicLong objects = new AtomicLong();
+
+        /** requests sent, retries included */
+        public int getRequests() {
+            return this.requests.get();
+        }
+
+        public int getFailedRequests() {
+            return this.failedRequests.get();
+        }
+
+        public int getRetries() {
+            return this.retries.get();
+        }
+
+        /** objects or locations handed to the handler */
+        public long getObjects() {
+            return this.objects.get();
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + this.requests + ", failedRequests=" + this.failedRequests
+                    + ", retries=" + this.retries + ", objects=" + this.objects;
+        }
+    }
+
+    /**
+     * Fetch the objects of all entries and wait for the last request.
+     *
+     * @throws RetsException if the handler threw for an object, or the
+     *                       download was interrupted
+     */
+    public Summary download(Stream<Entry> entries, Handler handler) throws RetsException {
+        return run(entries, this.locationOnly, (response, summary, delivered) -> {
+            try (GetObjectIterator<SingleObjectResponse> objects = response.iterator()) {
+                while (objects.hasNext()) {
+                    SingleObjectResponse object = objects.next();
+                    delivered.object(object.getContentID());
+                    try {
+                        handler.object(object);
+                    } catch (Throwable e) {
+                        throw new HandlerFailure(e);
+                    }
+                    summary.objects.incrementAndGet();
+                }
+            }
+        }, handler::failed);
+    }
+
+    /**
+     * Request the URLs of the objects of all entries (Location=1) and wait
+     * for the last request.  Only the part headers of the responses are
+     * parsed.
+     *
+     * @throws RetsException if the handler threw for a location, or the
+     *                       harvest was interrupted
+     */
+    public Summary harvestLocations(Stream<Entry> entries, LocationHandler handler) throws RetsException {
+        return run(entries, true, (response, summary, delivered) -> response.readLocations(location -> {
+            delivered.object(location.getContentId());
+            try {
+                handler.location(location);
+            } catch (Throwable e) {
+                throw new HandlerFailure(e);
+            }
+            summary.objects.incrementAndGet();
+        }), handler::failed);
+    }
+
+    private Summary run(Stream<Entry> entries, boolean location, Reader reader, BiConsumer<Entry, RetsException> failed) throws RetsException {
+        if (this.concurrency < 1)
+            throw new IllegalArgumentException("[concurrency=" + this.concurrency + "] must be positive");
+        Batch batch = new Batch(this.concurrency, location, reader, failed);
+        ExecutorService pool = Executors.newFixedThreadPool(this.concurrency);
+        try {
+            List<Entry> entriesOfRequest = new ArrayList<>();
+            int ids = 0;
+            for (Iterator<Entry> it = entries.iterator(); it.hasNext() && batch.abort.get() == null; ) {
+                Entry entry = it.next();
+                boolean fits = entriesOfRequest.isEmpty()
+                        || (sameRequest(entriesOfRequest.get(0), entry)
+                        && entriesOfRequest.size() < this.maxEntitiesPerRequest
+                        && ids + entry.getIds().size() <= this.maxIdsPerRequest);
+                if (!fits) {
+                    submit(pool, batch, entriesOfRequest);
+                    entriesOfRequest = new ArrayList<>();
+                    ids = 0;
+                }
+                entriesOfRequest.add(entry);
+                ids += entry.getIds().size();
+            }
+            if (!entriesOfRequest.isEmpty() && batch.abort.get() == null)
+                submit(pool, batch, entriesOfRequest);
+            pool.shutdown();
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.debug("Waiting for GetObject batch: {}", batch.summary);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RetsException(e);
+        } finally {
+            pool.shutdownNow();
+        }
+        Throwable e = batch.abort.get();
+        if (e instanceof RetsException)
+            throw (RetsException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+        if (e != null)
+            throw new RetsException(e);
+        return batch.summary;
+    }
+
+    private static boolean sameRequest(Entry a, Entry b) {
+        return a.getResource().equals(b.getResource()) && a.getType().equals(b.getType());
+    }
+
+    private void submit(ExecutorService pool, Batch batch, List<Entry> entries) throws InterruptedException {
+        batch.queued.acquire();
+        pool.execute(() -> {
+            try {
+                if (batch.abort.get() == null)
+                    request(batch, entries);
+            } catch (Throwable e) {
+                batch.abort.compareAndSet(null, e);
+            } finally {
+                batch.queued.release();
+            }
+        });
+    }
+
+    private void request(Batch batch, List<Entry> entries) {
+        GetObjectRequest req = new GetObjectRequest(entries.get(0).getResource(), entries.get(0).getType());
+        req.setLocationOnly(batch.location);
+        for (Entry entry : entries) {
+            for (String id : entry.getIds()) {
+                req.addObject(entry.getEntity(), id);
+            }
+        }
+        Delivered delivered = new Delivered();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                batch.limit.acquire();
+                try {
+                    batch.summary.requests.incrementAndGet();
+                    batch.reader.read(this.session.getObject(req), batch.summary, delivered);
+                } finally {
+                    batch.limit.release();
+                }
+                batch.limit.increase();
+                return;
+            } catch (InvalidReplyCodeException e) {
+                if (ReplyCode.TOO_MANY_OUTSTANDING_QUERIES_GETOBJECT.equals(e.getReplyCodeValue()) && attempt < this.maxRetries) {
+                    batch.summary.retries.incrementAndGet();
+                    batch.limit.decrease();
+                    if (!backoff(attempt)) {
+                        fail(batch, delivered.remaining(entries), new RetsException("Interrupted while backing off", new InterruptedException()));
+                        return;
+                    }
+                    continue;
+                }
+                fail(batch, delivered.remaining(entries), e);
+                return;
+            } catch (HandlerFailure e) {
+                batch.abort.compareAndSet(null, e.getCause());
+                return;
+            } catch (RetsException e) {
+                fail(batch, delivered.remaining(entries), e);
+                return;
+            } catch (IOException | RuntimeException e) {
+                fail(batch, delivered.remaining(entries), new RetsException(e));
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(batch, delivered.remaining(entries), new RetsException("Interrupted while waiting for a request slot", e));
+                return;
+            }
+        }
+    }
+
+    private static void fail(Batch batch, List<Entry> entries, RetsException e) {
+        log.debug("GetObject failed for {}", entries, e);
+        batch.summary.failedRequests.incrementAndGet();
+        for (Entry entry : entries) {
+            try {
+                batch.failed.accept(entry, e);
+            } catch (Throwable t) {
+                batch.abort.compareAndSet(null, t);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sleep before retry <code>attempt + 1</code>, between half and all of
+     * the backoff so retries of parallel requests spread out.
+     *
+     * @return false if interrupted
+     */
+    private boolean backoff(int attempt) {
+        long ceiling = Math.min(this.maxBackoffMillis, this.initialBackoffMillis << Math.min(attempt, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Reads one response, throwing HandlerFailure for a handler exception.
+     */
+    private interface Reader {
+        void read(GetObjectResponse response, Summary summary, Delivered delivered) throws RetsException, IOException;
+    }
+
+    /**
+     * Entities of one request whose objects were all handed to the handler.
+     * Objects come back in the order they were requested, so an entity is
+     * complete once an object of another entity follows it.
+     */
+    private static final class Delivered {
+        private final Set<String> complete = new HashSet<>();
+        private String current;
+
+        void object(String contentId) {
+            if (!Objects.equals(contentId, this.current)) {
+                if (this.current != null)
+                    this.complete.add(this.current);
+                this.current = contentId;
+            }
+        }
+
+        List<Entry> remaining(List<Entry> entries) {
+            if (this.complete.isEmpty())
+                return entries;
+            List<Entry> remaining = new ArrayList<>();
+            for (Entry entry : entries) {
+                if (!this.complete.contains(entry.getEntity()))
+                    remaining.add(entry);
+            }
+            return remaining;
+        }
+    }
+
+    /**
+     * Carries a throwable of the handler, which ends the download, past the
+     * handling of request failures.
+     */
+    private static final class HandlerFailure extends RuntimeException {
+        HandlerFailure(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * State shared by the requests of one download.
+     */
+    private static final class Batch {
+        final Summary summary = new Summary();
+        final AtomicReference<Throwable> abort = new AtomicReference<>();
+        final AdaptiveLimit limit;
+        // bounds the requests packed ahead of the workers
+        final Semaphore queued;
+        final boolean location;
+        final Reader reader;
+        final BiConsumer<Entry, RetsException> failed;
+
+        Batch(int concurrency, boolean location, Reader reader, BiConsumer<Entry, RetsException> failed) {
+            this.limit = new AdaptiveLimit(concurrency);
+            this.queued = new Semaphore(concurrency * 2);
+            this.location = location;
+            this.reader = reader;
+            this.failed = failed;
+        }
+    }
+
+    /**
+     * Concurrency limit that is halved on overload and raised by one on
+     * success (additive increase, multiplicative decrease).
+     */
+    static final class AdaptiveLimit {
+        private final int max;
+        private int limit;
+        private int active;
+
+        AdaptiveLimit(int max) {
+            this.max = max;
+            this.limit = max;
+        }
+
+        synchronized void acquire() throws InterruptedException {
+            while (this.active >= this.limit) {
+                wait();
+            }
+            this.active++;
+        }
+
+        synchronized void release() {
+            this.active--;
+            notifyAll();
+        }
+
+        synchronized void decrease() {
+            this.limit = Math.max(1, this.limit / 2);
+        }
+
+        synchronized void increase() {
+            if (this.limit < this.max) {
+                this.limit++;
+                notifyAll();
+            }
+        }
+
+        synchronized int current() {
+            return this.limit;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package us.ampre.rets.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Writes the objects of a GetObject response to files in a directory.
+ * <p>
+ * Each object is written to a temporary file in the target directory, which
+ * is then renamed over the final name, so a reader never sees a partial
+ * file.  Parts of a multipart response are written to the file channel
+ * straight from the buffer the boundary is scanned in; a single object is
+ * moved with <code>FileChannel.transferFrom</code>.  Neither keeps more than
+ * that buffer in memory, but the response itself is only streamed when the
+ * http client is in streaming mode.
+ * <p>
+ * Servers report a missing or failed object as a part of its own, flagged
+ * with <code>RETS-Error: 1</code> or sent as <code>text/plain</code> or
+ * <code>text/xml</code> (e.g. "Object 111285:* not found").  Such parts are
+ * never written; their text is handed to the error handler instead.
+ */
+@Slf4j
+public class GetObjectFileWriter {
+    private static final int MAX_ERROR_LENGTH = 4096;
+
+    private static final Map<String, String> EXTENSIONS = Map.of(
+            "image/jpeg", ".jpg",
+            "image/png", ".png",
+            "image/gif", ".gif",
+            "image/webp", ".webp",
+            "image/tiff", ".tif",
+            "application/pdf", ".pdf",
+            "video/mp4", ".mp4");
+
+    @Getter
+    private final Path directory;
+    /**
+     * -- SETTER --
+     * File name for an object, by default <code>defaultName(object)</code>.
+     */
+    @Setter
+    private Function<SingleObjectResponse, String> naming = GetObjectFileWriter::defaultName;
+    /**
+     * -- SETTER --
+     * Receives each error part with its text, by default logged as a
+     * warning.
+     */
+    @Setter
+    private BiConsumer<SingleObjectResponse, String> errorHandler = (object, error) ->
+            log.warn("GetObject error for [{}:{}]: {}", object.getContentID(), object.getObjectID(), error);
+
+    public GetObjectFileWriter(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Write every object of the response and close it.  Location only parts
+     * carry no data and are skipped, error parts go to the error handler.
+     * Objects whose names collide within the response get a
+     * <code>_2</code>, <code>_3</code>... suffix instead of overwriting
+     * each other.
+     *
+     * @return the files written, in response order
+     */
+    public List<Path> write(GetObjectResponse response) throws RetsException {
+        List<Path> files = new ArrayList<>();
+        Set<Path> taken = new HashSet<>();
+        try (GetObjectIterator<SingleObjectResponse> objects = response.iterator()) {
+            while (objects.hasNext()) {
+                SingleObjectResponse object = objects.next();
+                if (object.getLocation() != null)
+                    continue;
+                if (isError(object)) {
+                    this.errorHandler.accept(object, readError(object));
+                    continue;
+                }
+                files.add(write(object, unique(target(object), taken)));
+            }
+        } catch (IOException e) {
+            throw new RetsException(e);
+        }
+        return files;
+    }
+
+    /**
+     * Write the data of one object, replacing a file of the same name.  The
+     * caller is expected to have checked isError(object).
+     *
+     * @return the file written
+     * @throws IOException if the name is outside of the directory
+     */
+    public Path write(SingleObjectResponse object) throws IOException {
+        return write(object, target(object));
+    }
+
+    /**
+     * @return true for parts that carry a server error instead of object
+     * data
+     */
+    public static boolean isError(SingleObjectResponse object) {
+        if (object.isRetsError())
+            return true;
+        String type = object.getType();
+        if (type == null)
+            return false;
+        type = type.trim().toLowerCase();
+        return type.startsWith("text/plain") || type.startsWith("text/xml");
+    }
+
+    private static String readError(SingleObjectResponse object) throws IOException {
+        InputStream in = object.getInputStream();
+        return in == null ? "" : new String(in.readNBytes(MAX_ERROR_LENGTH), StandardCharsets.UTF_8).trim();
+    }
+
+    private Path target(SingleObjectResponse object) throws IOException {
+        String name = this.naming.apply(object);
+        Path directory = this.directory.toAbsolutePath().normalize();
+        Path target = this.directory.resolve(name).normalize();
+        Path absolute = target.toAbsolutePath();
+        if (!absolute.startsWith(directory) || absolute.equals(directory))
+            throw new IOException("[name=" + name + "] is not a file in " + this.directory);
+        return target;
+    }
+
+    private static Path unique(Path target, Set<Path> taken) {
+        if (taken.add(target))
+            return target;
+        String name = target.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String stem = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        Path candidate;
+        int n = 2;
+        do {
+            candidate = target.resolveSibling(stem + "_" + n++ + extension);
+        } while (!taken.add(candidate));
+        return candidate;
+    }
+
+    private Path write(SingleObjectResponse object, Path target) throws IOException {
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), ".", ".part");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                InputStream in = object.getInputStream();
+                if (in instanceof SinglePartInputStream part) {
+                    part.transferTo(channel);
+                } else {
+                    channel.transferFrom(Channels.newChannel(in), 0, Long.MAX_VALUE);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return target;
+    }
+
+    /**
+     * <code>ContentID-ObjectID</code> plus an extension for common content
+     * types, with characters unsafe in file names replaced by '_'.
+     */
+    public static String defaultName(SingleObjectResponse object) {
+        String contentId = object.getContentID() != null ? object.getContentID() : "object";
+        String objectId = object.getObjectID() != null ? object.getObjectID() : "0";
+        String type = object.getType();
+        String extension = "";
+        if (type != null) {
+            int parameters = type.indexOf(';');
+            extension = EXTENSIONS.getOrDefault((parameters < 0 ? type : type.substring(0, parameters)).trim().toLowerCase(), "");
+        }
+        return (contentId + "-" + objectId).replaceAll("[^A-Za-z0-9._-]", "_") + extension;
+    }
+}
@@ -2,8 +2,11 @@ package us.ampre.rets.client;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.function.Consumer;
 
 import lombok.Getter;
 import org.apache.commons.lang3.math.NumberUtils;
@@ -68,7 +71,7 @@ public class GetObjectResponse {
         boolean multiPartXml = this.isMultipart && isXml;
 
         if (multiPartXml || nonMultiPartXmlWithoutContentId) {
-            try {
+            try (in) {
                 this.emptyResponse = true;
                 SAXBuilder builder = new SAXBuilder();
                 Document mDocument = builder.build(in);
@@ -153,6 +156,39 @@ public class GetObjectResponse {
         return new NonMultipartGetObjectResponseIterator(this.headers, this.inputStream);
     }
 
+    /**
+     * Hand the URL of every object of a Location=1 response to
+     * <code>sink</code> and close the response.  Only the part headers are
+     * parsed; bodies are skipped.
+     */
+    public void readLocations(Consumer<ObjectLocation> sink) throws RetsException {
+        if (this.emptyResponse)
+            return;
+        try {
+            if (!this.isMultipart) {
+                try (InputStream in = this.inputStream) {
+                    sink.accept(new ObjectLocation(this.headers.get(SingleObjectResponse.CONTENT_ID), this.headers.get(SingleObjectResponse.OBJECT_ID),
+                            this.headers.get(SingleObjectResponse.LOCATION), this.headers.get(SingleObjectResponse.CONTENT_DESCRIPTION)));
+                }
+                return;
+            }
+            String boundary = getBoundary();
+            if (boundary == null) {
+                this.inputStream.close();
+                return;
+            }
+            GetObjectResponseIterator.readLocations(this, boundary, DEFAULT_BUFFER_SIZE, sink);
+        } catch (IOException e) {
+            throw new RetsException(e);
+        }
+    }
+
+    public List<ObjectLocation> getLocations() throws RetsException {
+        List<ObjectLocation> locations = new ArrayList<>();
+        readLocations(locations::add);
+        return locations;
+    }
+
 }
 
 /**
@@ -1,13 +1,10 @@
 package us.ampre.rets.client;
 
-import org.apache.commons.lang3.StringUtils;
-
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.PushbackInputStream;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+import us.ampre.rets.common.util.CaseInsensitiveTreeMap;
 
 
 public class GetObjectResponseIterator<T extends SingleObjectResponse> implements GetObjectIterator<T> {
@@ -16,9 +13,12 @@ public class GetObjectResponseIterator<T extends SingleObjectResponse> implement
     public static final String EOL = CR + "" + LF;
     public static final String BS = "--";
 
-    private final PushbackInputStream multipartStream;
-    private final String boundary;
+    private final MultipartInputStream multipartStream;
+    private final String delimiter;
+    private final String closeDelimiter;
     private Boolean hasNext;
+    /** body of the part handed out last, drained before looking for the next */
+    private SinglePartInputStream current;
 
     public static <T extends SingleObjectResponse> GetObjectIterator<T> createIterator(final GetObjectResponse response, int streamBufferSize) throws Exception {
         String boundary = response.getBoundary();
@@ -46,13 +46,30 @@ public class GetObjectResponseIterator<T extends SingleObjectResponse> implement
     }
 
     private GetObjectResponseIterator(GetObjectResponse response, String boundary, int streamBufferSize) {
-        this.boundary = boundary;
-
-        BufferedInputStream input = new BufferedInputStream(response.getInputStream(), streamBufferSize);
-        this.multipartStream = new PushbackInputStream(input, BS.length() + this.boundary.length() + EOL.length());
+        this.delimiter = BS + boundary;
+        this.closeDelimiter = this.delimiter + BS;
+        this.multipartStream = new MultipartInputStream(response.getInputStream(), streamBufferSize);
     }
 
 
+    /**
+     * Read the Location and ids of every part from the part headers, without
+     * creating a SingleObjectResponse or body stream per part, and close the
+     * response.  One header map is reused for all parts.
+     */
+    static void readLocations(GetObjectResponse response, String boundary, int streamBufferSize, Consumer<ObjectLocation> sink) throws IOException {
+        try (GetObjectResponseIterator<?> parts = new GetObjectResponseIterator<>(response, boundary, streamBufferSize)) {
+            CaseInsensitiveTreeMap<String, String> headers = new CaseInsensitiveTreeMap<>();
+            while (parts.getHaveNext()) {
+                headers.clear();
+                parts.multipartStream.readHeaders(headers);
+                parts.current = new SinglePartInputStream(parts.multipartStream, parts.delimiter);
+                sink.accept(new ObjectLocation(headers.get(SingleObjectResponse.CONTENT_ID), headers.get(SingleObjectResponse.OBJECT_ID),
+                        headers.get(SingleObjectResponse.LOCATION), headers.get(SingleObjectResponse.CONTENT_DESCRIPTION)));
+            }
+        }
+    }
+
     public boolean hasNext() {
         if (this.hasNext != null)
             return this.hasNext;
@@ -89,53 +106,26 @@ public class GetObjectResponseIterator<T extends SingleObjectResponse> implement
     }
 
     private boolean getHaveNext() throws IOException {
+        if (this.current != null) {
+            // skip what is left of the body a buffer at a time, not line by line
+            this.current.skip(Long.MAX_VALUE);
+            this.current = null;
+        }
         String line;
-        while ((line = this.readLine()) != null) {
-            if (line.equals(BS + this.boundary))
+        while ((line = this.multipartStream.readLine()) != null) {
+            if (line.equals(this.delimiter))
                 return true;
-            if (line.equals(BS + this.boundary + BS))
+            if (line.equals(this.closeDelimiter))
                 return false;
         }
         return false;
     }
 
     private T getNext() throws Exception {
-        Map<String, String> headers = new HashMap<>();
-        String header;
-        while (StringUtils.isNotEmpty(header = this.readLine())) {
-            int nvSeperatorIndex = header.indexOf(':');
-            if (nvSeperatorIndex == -1) {
-                headers.put(header, "");
-            } else {
-                String name = header.substring(0, nvSeperatorIndex);
-                String value = header.substring(nvSeperatorIndex + 1).trim();
-                headers.put(name, value);
-            }
-        }
-        return (T) new SingleObjectResponse(headers, new SinglePartInputStream(this.multipartStream, BS + this.boundary));
-    }
-
-    // TODO find existing library to do this
-    private String readLine() throws IOException {
-        boolean eolReached = false;
-        StringBuilder line = new StringBuilder();
-        int currentChar = -1;
-        while (!eolReached && (currentChar = this.multipartStream.read()) != -1) {
-            eolReached = (currentChar == CR || currentChar == LF);
-            if (!eolReached)
-                line.append((char) currentChar);
-        }
-
-        if (currentChar == -1 && line.length() == 0)
-            return null;
-
-        if (currentChar == CR) {
-            int nextChar = this.multipartStream.read();
-            if (nextChar != LF)
-                this.multipartStream.unread(new byte[]{(byte) nextChar});
-        }
-
-        return line.toString();
+        CaseInsensitiveTreeMap<String, String> headers = new CaseInsensitiveTreeMap<>();
+        this.multipartStream.readHeaders(headers);
+        this.current = new SinglePartInputStream(this.multipartStream, this.delimiter);
+        return (T) new SingleObjectResponse(headers, this.current);
     }
 
 }
\ No newline at end of file
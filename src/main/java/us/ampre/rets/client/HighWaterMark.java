@@ -0,0 +1,41 @@
+package us.ampre.rets.client;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * How far an IncrementalSync of one resource and class has got: the newest
+ * modification timestamp seen, and the keys of the records modified within
+ * the overlap window before it together with their timestamps, so those
+ * records are not passed on again when the window is searched once more.
+ */
+@Getter
+public class HighWaterMark {
+    /** newest modification timestamp seen, null before the first sync */
+    private final LocalDateTime timestamp;
+    /** key field value to modification timestamp of the records near the mark */
+    private final Map<String, LocalDateTime> boundary;
+
+    public HighWaterMark(LocalDateTime timestamp, Map<String, LocalDateTime> boundary) {
+        this.timestamp = timestamp;
+        this.boundary = Collections.unmodifiableMap(new HashMap<>(boundary));
+    }
+
+    /**
+     * @return true if the record was passed on in an earlier cycle and has not
+     * been modified since
+     */
+    public boolean isSeen(String key, LocalDateTime modified) {
+        LocalDateTime seen = this.boundary.get(key);
+        return seen != null && !modified.isAfter(seen);
+    }
+
+    @Override
+    public String toString() {
+        return this.timestamp + " (" + this.boundary.size() + " boundary keys)";
+    }
+}
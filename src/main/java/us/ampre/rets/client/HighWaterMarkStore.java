@@ -0,0 +1,25 @@
+package us.ampre.rets.client;
+
+/**
+ * Durable storage for the high-water marks of IncrementalSync, one per
+ * resource and class.  Implementations must allow different resources and
+ * classes to be loaded and saved from several threads at once.
+ */
+public interface HighWaterMarkStore {
+
+	/**
+	 * @return the saved mark, or null if the class was never synced
+	 */
+	public HighWaterMark load(String resource, String className) throws RetsException;
+
+	/**
+	 * Replace the saved mark.  The previous mark must stay intact if saving
+	 * fails part way.
+	 */
+	public void save(String resource, String className, HighWaterMark mark) throws RetsException;
+
+	/**
+	 * Forget the mark so the next sync starts from the beginning.
+	 */
+	public void remove(String resource, String className) throws RetsException;
+}
@@ -0,0 +1,37 @@
+package us.ampre.rets.client;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.hc.client5.http.ConnectionKeepAliveStrategy;
+
+/**
+ * Connection pool and timeout settings for CommonsHttpClient.
+ * <p>
+ * All durations are in milliseconds.  The defaults allow a handful of
+ * parallel searches and GetObjects against a single RETS server to share
+ * warm connections; raise <code>maxPerRoute</code> only as far as the server
+ * allows concurrent requests per session.  Once async transactions are
+ * used, the limits are split between the blocking and the async pool.
+ */
+@Getter
+@Setter
+public class HttpClientPoolConfig {
+    public static final int DEFAULT_TIMEOUT = 300000;
+
+    /** connections kept open across all hosts */
+    private int maxTotal = 20;
+    /** connections kept open to a single RETS server */
+    private int maxPerRoute = 10;
+    private int connectTimeout = DEFAULT_TIMEOUT;
+    private int responseTimeout = DEFAULT_TIMEOUT;
+    /** how long to wait for a free pooled connection */
+    private int connectionRequestTimeout = DEFAULT_TIMEOUT;
+    /** keep-alive used when the server does not send a Keep-Alive header */
+    private int keepAlive = 60000;
+    /** overrides the header based keep-alive strategy when set */
+    private ConnectionKeepAliveStrategy keepAliveStrategy;
+    /** close connections idle for longer than this, 0 disables eviction */
+    private int idleEviction = 30000;
+    /** re-check a pooled connection before reuse once idle this long */
+    private int validateAfterInactivity = 2000;
+}
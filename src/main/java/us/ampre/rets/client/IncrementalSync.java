@@ -0,0 +1,333 @@
+package us.ampre.rets.client;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import us.ampre.rets.common.metadata.Metadata;
+import us.ampre.rets.common.metadata.types.MClass;
+import us.ampre.rets.common.metadata.types.MTable;
+
+/**
+ * Fetches only the records of a resource and class that changed since the
+ * last run, using the class's modification timestamp field as a high-water
+ * mark.
+ * <p>
+ * Every cycle ANDs the query of the request with
+ * <code>(timestampField=mark+)</code>, where the mark is the newest
+ * timestamp seen in the previous cycle minus an overlap window.  The window
+ * catches records the server committed late or stamped with a clock that is
+ * behind; records inside it that were already passed on with the same
+ * timestamp are recognised by their key field and dropped, so the collector
+ * sees each change once.  The new mark is saved to the store only after the
+ * collector has received every row.
+ * <p>
+ * The timestamp and key fields are taken from the metadata (the table
+ * flagged ModTimeStamp and the resource's KeyField) unless they are set with
+ * setFields.  Large cycles are paged through PaginatedSearch.  Different
+ * classes may be synced from several threads at once; one class must not.
+ */
+@Slf4j
+public class IncrementalSync {
+    private static final LocalDateTime EPOCH = LocalDateTime.of(1970, 1, 1, 0, 0);
+    /** ISO local date-time with an optional Z or offset, with or without a colon */
+    private static final DateTimeFormatter DATE_TIME = new DateTimeFormatterBuilder()
+            .append(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+            .optionalStart().appendOffset("+HH:MM", "Z").optionalEnd()
+            .optionalStart().appendOffset("+HHMM", "Z").optionalEnd()
+            .toFormatter();
+
+    private final RetsSession session;
+    @Getter
+    private final HighWaterMarkStore store;
+    /** how far before the mark each cycle searches again */
+    @Getter
+    @Setter
+    private Duration overlap = Duration.ofMinutes(5);
+    /** where the first cycle of a class starts, null for everything */
+    @Getter
+    @Setter
+    private LocalDateTime initialMark;
+    /** rows per page, see PaginatedSearch */
+    @Getter
+    @Setter
+    private int pageSize;
+    /** used to look up fields, fetched from the session when first needed if null */
+    @Getter
+    @Setter
+    private Metadata metadata;
+
+    private final Map<String, String[]> fields = new ConcurrentHashMap<>();
+
+    public IncrementalSync(RetsSession session, HighWaterMarkStore store) {
+        this.session = session;
+        this.store = store;
+    }
+
+    /**
+     * Use these fields for a class instead of looking them up in the metadata.
+     */
+    public void setFields(String resource, String className, String timestampField, String keyField) {
+        this.fields.put(resource + ":" + className, new String[]{timestampField, keyField});
+    }
+
+    /**
+     * @return the system name of the table flagged as modification timestamp,
+     * or null if the class has none
+     */
+    public static String getTimestampField(Metadata metadata, String resource, String className) {
+        MClass mClass = metadata.getMClass(resource, className);
+        if (mClass == null)
+            return null;
+        for (MTable table : mClass.getMTables()) {
+            if (table.getModTimestamp())
+                return table.getSystemName();
+        }
+        return null;
+    }
+
+    /**
+     * @return the mark the next cycle of the class starts from, or null
+     */
+    public HighWaterMark getMark(String resource, String className) throws RetsException {
+        return this.store.load(resource, className);
+    }
+
+    /**
+     * Forget the mark of a class so the next cycle fetches everything again.
+     */
+    public void reset(String resource, String className) throws RetsException {
+        this.store.remove(resource, className);
+    }
+
+    /**
+     * Run one cycle for the resource and class of the request.
+     *
+     * @param req       the search request, which is not modified; its Select
+     *                  is extended with the timestamp and key fields if needed
+     * @param collector receives the changed rows
+     * @return the number of rows passed to the collector
+     * @throws RetsException if the search fails or the fields are unknown;
+     *                       the mark is left as it was
+     */
+    public int sync(SearchRequest req, SearchResultCollector collector) throws RetsException {
+        String resource = req.getType();
+        String className = req.getClassName();
+        String[] fields = resolveFields(resource, className);
+        String timestampField = fields[0];
+        String keyField = fields[1];
+
+        HighWaterMark mark = this.store.load(resource, className);
+        if (mark == null)
+            mark = new HighWaterMark(this.initialMark, Map.of());
+        LocalDateTime from = mark.getTimestamp() == null ? null : mark.getTimestamp().minus(this.overlap);
+
+        SearchRequest cycleReq = new SearchRequest(req);
+        String query = req.getQuery();
+        if (from != null || query == null || query.isEmpty()) {
+            String range = "(" + timestampField + "=" + PartitionedSearch.TIMESTAMP.format(from == null ? EPOCH : from) + "+)";
+            cycleReq.setQuery(query == null || query.isEmpty() ? range : "(" + query + ")," + range);
+        }
+        String select = req.getSelect();
+        String[] selected = RetsTransport.selectColumns(select);
+        if (selected != null) {
+            for (String field : fields) {
+                if (!containsIgnoreCase(selected, field))
+                    select = select + "," + field;
+            }
+            cycleReq.setSelect(select);
+        }
+        log.debug("Syncing {}:{} from {}", resource, className, mark);
+
+        SyncCollector sync = new SyncCollector(collector, timestampField, keyField, mark, this.overlap);
+        PaginatedSearch search = new PaginatedSearch(this.session);
+        search.setPageSize(this.pageSize);
+        try {
+            search.search(cycleReq, sync);
+        } catch (InvalidReplyCodeException e) {
+            if (!ReplyCode.NO_RECORDS_FOUND.equals(e.getReplyCodeValue()))
+                throw e;
+        }
+        if (sync.columns != null && (sync.timestampIndex < 0 || sync.keyIndex < 0))
+            throw new RetsException("Search result of " + resource + ":" + className + " has no " + (sync.timestampIndex < 0 ? timestampField : keyField) + " column");
+
+        if (sync.unparsed > 0)
+            log.warn("{} rows of {}:{} have no valid {} and were passed on without moving the mark", sync.unparsed, resource, className, timestampField);
+        HighWaterMark next = sync.nextMark();
+        this.store.save(resource, className, next);
+        log.debug("Synced {}:{}, {} rows passed on, {} already seen, mark {}", resource, className, sync.passed, sync.skipped, next);
+        collector.setComplete();
+        return sync.passed;
+    }
+
+    private String[] resolveFields(String resource, String className) throws RetsException {
+        String[] fields = this.fields.get(resource + ":" + className);
+        if (fields != null)
+            return fields;
+        Metadata metadata = this.metadata;
+        if (metadata == null) {
+            metadata = this.session.getMetadata();
+            this.metadata = metadata;
+        }
+        String timestampField = getTimestampField(metadata, resource, className);
+        if (timestampField == null)
+            throw new RetsException("No modification timestamp field in the metadata of " + resource + ":" + className);
+        String keyField = PartitionedSearch.getKeyField(metadata, resource);
+        if (keyField == null || keyField.isEmpty())
+            throw new RetsException("No key field in the metadata of " + resource);
+        fields = new String[]{timestampField, keyField};
+        this.fields.put(resource + ":" + className, fields);
+        return fields;
+    }
+
+    private static boolean containsIgnoreCase(String[] names, String name) {
+        for (String candidate : names) {
+            if (candidate.equalsIgnoreCase(name))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Parse a RETS DateTime, with or without fraction of a second, 'T'
+     * separator or time zone designator.  A timestamp with an offset is
+     * converted to UTC.
+     *
+     * @return the timestamp, or null if the value is not one
+     */
+    static LocalDateTime parseTimestamp(String value) {
+        if (value == null)
+            return null;
+        String text = value.trim();
+        if (text.length() > 10 && text.charAt(10) == ' ')
+            text = text.substring(0, 10) + 'T' + text.substring(11);
+        try {
+            TemporalAccessor parsed = DATE_TIME.parseBest(text, OffsetDateTime::from, LocalDateTime::from);
+            if (parsed instanceof OffsetDateTime offset)
+                return offset.withOffsetSameInstant(ZoneOffset.UTC).toLocalDateTime();
+            return (LocalDateTime) parsed;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Drops the rows seen in the previous cycle and tracks the newest
+     * timestamp and the keys near it.  Keys older than the overlap window
+     * below the newest timestamp are pruned as the cycle runs, so memory
+     * follows the size of the window rather than of the cycle.
+     */
+    private static class SyncCollector implements SearchResultCollector {
+        private static final int MIN_PRUNE_SIZE = 1024;
+
+        private final SearchResultCollector target;
+        private final String timestampField;
+        private final String keyField;
+        private final HighWaterMark mark;
+        private final Duration overlap;
+        private final Map<String, LocalDateTime> seen = new HashMap<>();
+        private int pruneAt = MIN_PRUNE_SIZE;
+        private LocalDateTime newest;
+        String[] columns;
+        int timestampIndex = -1;
+        int keyIndex = -1;
+        int passed;
+        int skipped;
+        int unparsed;
+
+        SyncCollector(SearchResultCollector target, String timestampField, String keyField, HighWaterMark mark, Duration overlap) {
+            this.target = target;
+            this.timestampField = timestampField;
+            this.keyField = keyField;
+            this.mark = mark;
+            this.overlap = overlap;
+            this.newest = mark.getTimestamp();
+        }
+
+        public void setCount(int count) {
+            this.target.setCount(count);
+        }
+
+        public void setColumns(String[] columns) {
+            this.columns = columns;
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equalsIgnoreCase(this.timestampField))
+                    this.timestampIndex = i;
+                else if (columns[i].equalsIgnoreCase(this.keyField))
+                    this.keyIndex = i;
+            }
+            if (this.timestampIndex >= 0 && this.keyIndex >= 0)
+                this.target.setColumns(columns);
+        }
+
+        public boolean addRow(String[] row) {
+            if (this.timestampIndex < 0 || this.keyIndex < 0)
+                return false;
+            String key = row[this.keyIndex];
+            LocalDateTime modified = parseTimestamp(row[this.timestampIndex]);
+            if (modified == null) {
+                this.unparsed++;
+            } else {
+                if (this.mark.isSeen(key, modified)) {
+                    this.skipped++;
+                    return true;
+                }
+                if (this.newest == null || modified.isAfter(this.newest))
+                    this.newest = modified;
+                if (!modified.isBefore(this.newest.minus(this.overlap))) {
+                    this.seen.merge(key, modified, (a, b) -> a.isAfter(b) ? a : b);
+                    if (this.seen.size() >= this.pruneAt)
+                        prune();
+                }
+            }
+            this.passed++;
+            return this.target.addRow(row);
+        }
+
+        public void setMaxRows() {
+            this.target.setMaxRows();
+        }
+
+        public void setComplete() {
+            // reported once the mark is saved
+        }
+
+        /**
+         * Drops the keys that fell out of the window; the next prune waits
+         * until the map has doubled, which keeps the cost per row constant.
+         */
+        private void prune() {
+            LocalDateTime cutoff = this.newest.minus(this.overlap);
+            this.seen.values().removeIf(modified -> modified.isBefore(cutoff));
+            this.pruneAt = Math.max(MIN_PRUNE_SIZE, this.seen.size() * 2);
+        }
+
+        HighWaterMark nextMark() {
+            if (this.newest == null)
+                return this.mark;
+            LocalDateTime cutoff = this.newest.minus(this.overlap);
+            Map<String, LocalDateTime> boundary = new HashMap<>();
+            addBoundary(boundary, this.mark.getBoundary(), cutoff);
+            addBoundary(boundary, this.seen, cutoff);
+            return new HighWaterMark(this.newest, boundary);
+        }
+
+        private static void addBoundary(Map<String, LocalDateTime> boundary, Map<String, LocalDateTime> keys, LocalDateTime cutoff) {
+            for (Map.Entry<String, LocalDateTime> entry : keys.entrySet()) {
+                if (!entry.getValue().isBefore(cutoff))
+                    boundary.merge(entry.getKey(), entry.getValue(), (a, b) -> a.isAfter(b) ? a : b);
+            }
+        }
+    }
+}
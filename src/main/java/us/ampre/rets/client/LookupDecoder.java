@@ -0,0 +1,212 @@
+package us.ampre.rets.client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import lombok.Getter;
+import us.ampre.rets.common.metadata.Metadata;
+import us.ampre.rets.common.metadata.types.MClass;
+import us.ampre.rets.common.metadata.types.MLookup;
+import us.ampre.rets.common.metadata.types.MLookupType;
+import us.ampre.rets.common.metadata.types.MTable;
+
+/**
+ * Decodes lookup codes of COMPACT search results on the client, giving the
+ * output of COMPACT-DECODED without the server expanding every value.
+ * <p>
+ * Each lookup is read from the metadata the first time it is needed and kept
+ * in a table keyed by the code packed into a long, so a code is found without
+ * making a String of it.  One decoder can be shared by any number of searches
+ * and threads.
+ * <pre>
+ * LookupDecoder decoder = new LookupDecoder(session.getMetadata());
+ * session.search(req, decoder.decoding("Property", "RES", result));
+ * </pre>
+ *
+ * @see LookupDecodingCollector
+ */
+public class LookupDecoder {
+    private final Metadata metadata;
+    private final ConcurrentMap<String, Table> tables = new ConcurrentHashMap<>();
+    /**
+     * true to decode to the ShortValue of a lookup instead of the LongValue
+     */
+    @Getter
+    private final boolean shortValues;
+
+    public LookupDecoder(Metadata metadata) {
+        this(metadata, false);
+    }
+
+    /**
+     * @param shortValues true to decode to ShortValue instead of LongValue
+     */
+    public LookupDecoder(Metadata metadata, boolean shortValues) {
+        if (metadata == null)
+            throw new IllegalArgumentException("metadata must not be null");
+        this.metadata = metadata;
+        this.shortValues = shortValues;
+    }
+
+    /**
+     * Wrap a collector so that lookup fields of the class reach it decoded.
+     */
+    public LookupDecodingCollector decoding(String resource, String className, SearchResultCollector target) {
+        MClass mClass = this.metadata.getMClass(resource, className);
+        if (mClass == null)
+            throw new IllegalArgumentException("Unknown class " + resource + ":" + className);
+        return new LookupDecodingCollector(this, resource, mClass, target);
+    }
+
+    /**
+     * Decode one value of a field, which may be a LookupMulti list.
+     *
+     * @return the decoded value, or <code>value</code> if the field is not a
+     * lookup or the code is unknown
+     */
+    public String decode(String resource, MTable field, String value) {
+        Table table = getTable(resource, field);
+        if (table == null || value == null)
+            return value;
+        char[] chars = value.toCharArray();
+        return table.decode(chars, 0, chars.length, isMulti(field));
+    }
+
+    /**
+     * @return the table of the field's lookup, or null if the field is not a
+     * single or multiple choice lookup
+     */
+    Table getTable(String resource, MTable field) {
+        String interpretation = field.getInterpretation();
+        if (!"Lookup".equals(interpretation) && !"LookupMulti".equals(interpretation))
+            return null;
+        String lookupName = field.getLookupName();
+        if (lookupName == null)
+            return null;
+        return this.tables.computeIfAbsent(resource + ":" + lookupName, key -> {
+            MLookup lookup = this.metadata.getLookup(resource, lookupName);
+            return lookup == null ? null : new Table(lookup, this.shortValues);
+        });
+    }
+
+    static boolean isMulti(MTable field) {
+        return "LookupMulti".equals(field.getInterpretation());
+    }
+
+    /**
+     * Code to value table of one lookup.  Codes of up to eight ASCII
+     * characters are packed into a long and found by open addressing; longer
+     * codes fall back to a HashMap.
+     */
+    static final class Table {
+        private static final int MAX_PACKED = 8;
+
+        private final long[] keys;
+        private final String[] values;
+        private final int mask;
+        private final Map<String, String> other = new HashMap<>();
+
+        Table(MLookup lookup, boolean shortValues) {
+            MLookupType[] types = lookup.getMLookupTypes();
+            int size = Integer.highestOneBit(Math.max(types.length, 1) * 2 - 1) << 1;
+            this.keys = new long[size];
+            this.values = new String[size];
+            this.mask = size - 1;
+            for (MLookupType type : types) {
+                String code = type.getValue();
+                if (code == null || code.isEmpty())
+                    continue;
+                String value = shortValues ? type.getShortValue() : type.getLongValue();
+                if (value == null)
+                    value = code;
+                char[] chars = code.toCharArray();
+                long key = pack(chars, 0, chars.length);
+                if (key == 0) {
+                    this.other.put(code, value);
+                    continue;
+                }
+                int slot = slot(key);
+                while (this.keys[slot] != 0 && this.keys[slot] != key)
+                    slot = (slot + 1) & this.mask;
+                this.keys[slot] = key;
+                this.values[slot] = value;
+            }
+        }
+
+        /**
+         * @return the value of the code, or null if it is unknown
+         */
+        String find(char[] buf, int off, int len) {
+            long key = pack(buf, off, len);
+            if (key == 0)
+                return this.other.isEmpty() ? null : this.other.get(new String(buf, off, len));
+            for (int slot = slot(key); this.keys[slot] != 0; slot = (slot + 1) & this.mask) {
+                if (this.keys[slot] == key)
+                    return this.values[slot];
+            }
+            return null;
+        }
+
+        /**
+         * Decode a single code, or a comma separated list of codes if
+         * <code>multi</code>.  Unknown codes are kept as they are.
+         */
+        String decode(char[] buf, int off, int len, boolean multi) {
+            if (!multi) {
+                String value = find(buf, off, len);
+                return value != null ? value : new String(buf, off, len);
+            }
+            StringBuilder decoded = null;
+            int end = off + len;
+            int start = off;
+            for (int i = off; i <= end; i++) {
+                if (i < end && buf[i] != ',')
+                    continue;
+                int s = start;
+                int e = i;
+                while (s < e && buf[s] == ' ')
+                    s++;
+                while (e > s && buf[e - 1] == ' ')
+                    e--;
+                String value = find(buf, s, e - s);
+                if (decoded == null) {
+                    if (i == end)
+                        return value != null ? value : new String(buf, off, len);
+                    decoded = new StringBuilder(len * 4);
+                } else {
+                    decoded.append(',');
+                }
+                if (value != null)
+                    decoded.append(value);
+                else
+                    decoded.append(buf, s, e - s);
+                start = i + 1;
+            }
+            return decoded.toString();
+        }
+
+        private int slot(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & this.mask;
+        }
+
+        /**
+         * @return the code packed one byte per character, or 0 if it is
+         * empty, longer than eight characters or not plain ASCII
+         */
+        private static long pack(char[] buf, int off, int len) {
+            if (len == 0 || len > MAX_PACKED)
+                return 0;
+            long key = 0;
+            for (int i = off; i < off + len; i++) {
+                char c = buf[i];
+                if (c == 0 || c >= 0x80)
+                    return 0;
+                key = (key << 8) | c;
+            }
+            return key;
+        }
+    }
+}
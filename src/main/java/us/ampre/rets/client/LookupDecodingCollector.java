@@ -0,0 +1,85 @@
+package us.ampre.rets.client;
+
+import us.ampre.rets.common.metadata.types.MClass;
+import us.ampre.rets.common.metadata.types.MTable;
+
+/**
+ * Collector that decodes the Lookup and LookupMulti fields of each row before
+ * passing it on.
+ * <p>
+ * With SearchResultHandler the codes are decoded from the tokenizer's buffer,
+ * so a single choice lookup cell costs a table probe and no String.  Fields
+ * that are not lookups, and codes the lookup does not know, are passed on as
+ * sent.  Instances are not thread safe; use one per search.
+ *
+ * @see LookupDecoder#decoding(String, String, SearchResultCollector)
+ */
+public class LookupDecodingCollector implements TypedRowCollector {
+    private final LookupDecoder decoder;
+    private final String resource;
+    private final MClass mClass;
+    private final SearchResultCollector target;
+    private LookupDecoder.Table[] tables;
+    private boolean[] multi;
+    private String[] row;
+
+    LookupDecodingCollector(LookupDecoder decoder, String resource, MClass mClass, SearchResultCollector target) {
+        this.decoder = decoder;
+        this.resource = resource;
+        this.mClass = mClass;
+        this.target = target;
+    }
+
+    public void setCount(int count) {
+        this.target.setCount(count);
+    }
+
+    public void setColumns(String[] columns) {
+        this.tables = new LookupDecoder.Table[columns.length];
+        this.multi = new boolean[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            MTable field = this.mClass.getMTable(columns[i]);
+            if (field != null) {
+                this.tables[i] = this.decoder.getTable(this.resource, field);
+                this.multi[i] = LookupDecoder.isMulti(field);
+            }
+        }
+        this.target.setColumns(columns);
+    }
+
+    public void field(int index, char[] buf, int off, int len) {
+        if (this.row == null)
+            this.row = new String[this.tables.length];
+        LookupDecoder.Table table = this.tables[index];
+        this.row[index] = table == null || len == 0 ? new String(buf, off, len) : table.decode(buf, off, len, this.multi[index]);
+    }
+
+    public void endRow() {
+        String[] decoded = this.row;
+        this.row = null;
+        this.target.addRow(decoded);
+    }
+
+    public void discardRow() {
+        this.row = null;
+    }
+
+    public boolean addRow(String[] row) {
+        for (int i = 0; i < row.length && i < this.tables.length; i++) {
+            LookupDecoder.Table table = this.tables[i];
+            if (table != null && row[i] != null && !row[i].isEmpty()) {
+                char[] chars = row[i].toCharArray();
+                row[i] = table.decode(chars, 0, chars.length, this.multi[i]);
+            }
+        }
+        return this.target.addRow(row);
+    }
+
+    public void setMaxRows() {
+        this.target.setMaxRows();
+    }
+
+    public void setComplete() {
+        this.target.setComplete();
+    }
+}
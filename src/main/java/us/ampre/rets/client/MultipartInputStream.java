@@ -0,0 +1,222 @@
+package us.ampre.rets.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Buffered stream over a multipart GetObject body.  The iterator reads the
+ * boundary and header lines through it; the SinglePartInputStream of each
+ * part works directly on the buffer, scanning it for the next boundary and
+ * copying out whole blocks.
+ * <p>
+ * Lines are found by scanning the buffer for CR or LF and decoded as
+ * ISO-8859-1 in one step; only a line that straddles a refill is copied
+ * aside first.
+ */
+class MultipartInputStream extends InputStream {
+    /** header names decoded to these shared strings rather than new ones */
+    private static final String[] HEADER_NAMES = {
+            SingleObjectResponse.CONTENT_TYPE, SingleObjectResponse.CONTENT_ID, SingleObjectResponse.OBJECT_ID,
+            SingleObjectResponse.LOCATION, SingleObjectResponse.CONTENT_DESCRIPTION, "Content-Length",
+            "Preferred", "MIME-Version", "RETS-Error"};
+
+    private final InputStream in;
+    byte[] buf;
+    int pos;
+    int limit;
+    private boolean eof;
+    /** holds a line that straddles a refill */
+    private byte[] spill = new byte[256];
+    /** the last line found by nextLine(), in buf or spill */
+    private byte[] line;
+    private int lineStart;
+    private int lineEnd;
+
+    MultipartInputStream(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buf = new byte[Math.max(bufferSize, 256)];
+    }
+
+    /**
+     * Read until at least <code>min</code> bytes are buffered or the end of
+     * the stream is reached.
+     *
+     * @return number of buffered bytes, starting at <code>pos</code>
+     */
+    int fill(int min) throws IOException {
+        int available = this.limit - this.pos;
+        if (available >= min || this.eof)
+            return available;
+        System.arraycopy(this.buf, this.pos, this.buf, 0, available);
+        this.pos = 0;
+        this.limit = available;
+        if (this.buf.length < min)
+            this.buf = Arrays.copyOf(this.buf, min);
+        while (this.limit < min) {
+            int read = this.in.read(this.buf, this.limit, this.buf.length - this.limit);
+            if (read < 0) {
+                this.eof = true;
+                break;
+            }
+            this.limit += read;
+        }
+        return this.limit - this.pos;
+    }
+
+    boolean isEof() {
+        return this.eof;
+    }
+
+    /**
+     * @return the next byte without consuming it, or -1 at the end of the stream
+     */
+    int peek() throws IOException {
+        if (fill(1) == 0)
+            return -1;
+        return this.buf[this.pos] & 0xFF;
+    }
+
+    /**
+     * Read a line ending in CRLF, LF or CR.
+     *
+     * @return the line without its end, or null at the end of the stream
+     */
+    String readLine() throws IOException {
+        if (!nextLine())
+            return null;
+        return new String(this.line, this.lineStart, this.lineEnd - this.lineStart, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Read header lines up to an empty line or the end of the stream into
+     * <code>headers</code>.  Values are trimmed; a line without a colon is
+     * put as a name with an empty value.
+     */
+    void readHeaders(Map<String, String> headers) throws IOException {
+        while (nextLine() && this.lineEnd > this.lineStart) {
+            int colon = this.lineStart;
+            while (colon < this.lineEnd && this.line[colon] != ':') {
+                colon++;
+            }
+            if (colon == this.lineEnd) {
+                headers.put(headerName(this.lineStart, this.lineEnd), "");
+                continue;
+            }
+            int start = colon + 1;
+            int end = this.lineEnd;
+            while (start < end && (this.line[start] & 0xFF) <= ' ') {
+                start++;
+            }
+            while (end > start && (this.line[end - 1] & 0xFF) <= ' ') {
+                end--;
+            }
+            headers.put(headerName(this.lineStart, colon), new String(this.line, start, end - start, StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    private String headerName(int start, int end) {
+        int length = end - start;
+        for (String name : HEADER_NAMES) {
+            if (name.length() == length && equalsIgnoreCase(name, start))
+                return name;
+        }
+        return new String(this.line, start, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private boolean equalsIgnoreCase(String name, int start) {
+        for (int i = 0; i < name.length(); i++) {
+            int c = this.line[start + i] & 0xFF;
+            char n = name.charAt(i);
+            if (c != n && Character.toLowerCase(c) != Character.toLowerCase(n))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Find the next line and point <code>line</code>, <code>lineStart</code>
+     * and <code>lineEnd</code> at it, consuming the line end.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean nextLine() throws IOException {
+        int spilled = 0;
+        while (fill(1) > 0) {
+            int end = this.pos;
+            while (end < this.limit && this.buf[end] != '\r' && this.buf[end] != '\n') {
+                end++;
+            }
+            if (end == this.limit) {
+                spilled = spill(spilled, this.pos, end);
+                this.pos = end;
+                continue;
+            }
+            boolean cr = this.buf[end] == '\r';
+            // looking past a CR at the end of the buffer refills it, so the
+            // line must not be left there
+            if (spilled > 0 || (cr && end + 1 == this.limit)) {
+                spilled = spill(spilled, this.pos, end);
+                setLine(this.spill, 0, spilled);
+            } else {
+                setLine(this.buf, this.pos, end);
+            }
+            this.pos = end + 1;
+            if (cr && peek() == '\n')
+                this.pos++;
+            return true;
+        }
+        if (spilled == 0)
+            return false;
+        setLine(this.spill, 0, spilled);
+        return true;
+    }
+
+    private int spill(int spilled, int from, int to) {
+        int length = to - from;
+        if (spilled + length > this.spill.length)
+            this.spill = Arrays.copyOf(this.spill, Math.max(spilled + length, this.spill.length * 2));
+        System.arraycopy(this.buf, from, this.spill, spilled, length);
+        return spilled + length;
+    }
+
+    private void setLine(byte[] bytes, int start, int end) {
+        this.line = bytes;
+        this.lineStart = start;
+        this.lineEnd = end;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (fill(1) == 0)
+            return -1;
+        return this.buf[this.pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0)
+            return 0;
+        int available = fill(1);
+        if (available == 0)
+            return -1;
+        int n = Math.min(len, available);
+        System.arraycopy(this.buf, this.pos, b, off, n);
+        this.pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return this.limit - this.pos + this.in.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+}
@@ -0,0 +1,27 @@
+package us.ampre.rets.client;
+
+import lombok.Getter;
+
+/**
+ * URL of an object, as returned by a GetObject request with Location=1.
+ */
+@Getter
+public class ObjectLocation {
+    private final String contentId;
+    private final String objectId;
+    /** null if the server sent no Location for the object */
+    private final String location;
+    private final String description;
+
+    public ObjectLocation(String contentId, String objectId, String location, String description) {
+        this.contentId = contentId;
+        this.objectId = objectId;
+        this.location = location;
+        this.description = description;
+    }
+
+    @Override
+    public String toString() {
+        return this.contentId + ":" + this.objectId + " " + this.location;
+    }
+}
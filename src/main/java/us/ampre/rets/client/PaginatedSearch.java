@@ -0,0 +1,197 @@
+package us.ampre.rets.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Pages through a search that is larger than the server's record cap.
+ * <p>
+ * The request is issued repeatedly with an advancing Offset for as long as
+ * the server answers with MAXROWS (or a full page when a page size is set),
+ * and all pages are streamed into a single SearchResultCollector.  The
+ * collector sees the columns and count of the first page once, every row in
+ * order, and a single setComplete() at the end.
+ * <p>
+ * With prefetch enabled the next page is requested while the current one is
+ * being parsed, as soon as its Offset is known: from the start when a page
+ * size is set, otherwise once the first page has revealed the server's cap.
+ * A prefetched page is an async search of the session: it waits for a slot
+ * of the session's request limit like any other search, is parsed and
+ * checked the same way, and is held in memory until its turn.  The cost is
+ * one wasted request after the last page, which is aborted if it is still
+ * running.
+ * <p>
+ * Instances hold configuration only and may be reused.
+ */
+@Getter
+@Setter
+public class PaginatedSearch {
+    private final RetsSession session;
+    /** rows per page sent as Limit, 0 to use the request's Limit or the server cap */
+    private int pageSize;
+    /** request page N+1 while page N is parsed */
+    private boolean prefetch;
+    /** stop after this many pages and report MAXROWS to the collector */
+    private int maxPages = Integer.MAX_VALUE;
+
+    public PaginatedSearch(RetsSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Run the search, starting at the request's Offset (or 1), until the
+     * server has no more rows.
+     *
+     * @param req       the search request, which is not modified
+     * @param collector receives the rows of all pages
+     * @return the number of pages fetched
+     * @throws RetsException if a page fails; a NO_RECORDS_FOUND reply ends
+     *                       the search unless it is the first page
+     */
+    public int search(SearchRequest req, SearchResultCollector collector) throws RetsException {
+        int pageSize = this.pageSize > 0 ? this.pageSize : req.getLimit();
+        int expectedRows = pageSize;
+        int offset = Math.max(req.getOffset(), 1);
+        PageCollector page = new PageCollector(collector);
+        CompletableFuture<Void> next = null;
+        SearchResultImpl nextRows = null;
+        int nextOffset = -1;
+        int pages = 0;
+        try {
+            while (true) {
+                CompletableFuture<Void> current = null;
+                SearchResultImpl currentRows = null;
+                if (next != null) {
+                    if (nextOffset == offset) {
+                        current = next;
+                        currentRows = nextRows;
+                    } else {
+                        next.cancel(false);
+                    }
+                    next = null;
+                }
+                if (this.prefetch && expectedRows > 0 && pages + 1 < this.maxPages) {
+                    nextOffset = offset + expectedRows;
+                    nextRows = new SearchResultImpl();
+                    next = this.session.searchAsync(pageRequest(req, nextOffset, pageSize), nextRows);
+                }
+
+                page.startPage();
+                try {
+                    if (current != null) {
+                        await(current);
+                        page.replay(currentRows);
+                    } else {
+                        this.session.search(pageRequest(req, offset, pageSize), page);
+                    }
+                } catch (InvalidReplyCodeException e) {
+                    if (pages == 0 || !ReplyCode.NO_RECORDS_FOUND.equals(e.getReplyCodeValue()))
+                        throw e;
+                    break;
+                }
+                pages++;
+
+                boolean more = page.rows > 0 && (page.maxRows || (pageSize > 0 && page.rows >= pageSize));
+                if (!more)
+                    break;
+                if (pages >= this.maxPages) {
+                    collector.setMaxRows();
+                    break;
+                }
+                if (pageSize == 0)
+                    expectedRows = page.rows;
+                offset += page.rows;
+            }
+        } finally {
+            if (next != null)
+                next.cancel(false);
+        }
+        collector.setComplete();
+        return pages;
+    }
+
+    private static SearchRequest pageRequest(SearchRequest req, int offset, int pageSize) {
+        SearchRequest page = new SearchRequest(req);
+        page.setOffset(offset);
+        if (pageSize > 0)
+            page.setLimit(pageSize);
+        return page;
+    }
+
+    private static void await(CompletableFuture<Void> future) throws RetsException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RetsException)
+                throw (RetsException) e.getCause();
+            throw new RetsException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RetsException(e);
+        }
+    }
+
+    /**
+     * Forwards the rows of each page and keeps the per page MAXROWS and
+     * row count to itself.
+     */
+    private static class PageCollector implements SearchResultCollector {
+        private final SearchResultCollector target;
+        private boolean countSeen;
+        private boolean columnsSeen;
+        int rows;
+        boolean maxRows;
+
+        PageCollector(SearchResultCollector target) {
+            this.target = target;
+        }
+
+        void startPage() {
+            this.rows = 0;
+            this.maxRows = false;
+        }
+
+        /**
+         * Pass on a page that was collected ahead of its turn.
+         */
+        void replay(SearchResultImpl page) {
+            if (page.getColumns() != null)
+                setColumns(page.getColumns());
+            for (String[] row : page.getRows()) {
+                addRow(row);
+            }
+            if (page.isMaxRows())
+                setMaxRows();
+        }
+
+        public void setCount(int count) {
+            if (!this.countSeen) {
+                this.countSeen = true;
+                this.target.setCount(count);
+            }
+        }
+
+        public void setColumns(String[] columns) {
+            if (!this.columnsSeen) {
+                this.columnsSeen = true;
+                this.target.setColumns(columns);
+            }
+        }
+
+        public boolean addRow(String[] row) {
+            this.rows++;
+            return this.target.addRow(row);
+        }
+
+        public void setMaxRows() {
+            this.maxRows = true;
+        }
+
+        public void setComplete() {
+            // reported once all pages are done
+        }
+    }
+}
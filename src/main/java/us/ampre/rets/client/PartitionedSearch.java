@@ -0,0 +1,379 @@
+package us.ampre.rets.client;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongFunction;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import us.ampre.rets.common.metadata.Metadata;
+import us.ampre.rets.common.metadata.types.MResource;
+
+/**
+ * Runs one search as several concurrent searches over disjoint ranges of a
+ * numeric or timestamp field, for replicating a whole class faster than a
+ * single search or offset paging allows.
+ * <p>
+ * The query of the request is ANDed with <code>(field=low-high)</code> for
+ * each range.  A range whose search ends in MAXROWS is split in two and
+ * searched again, so the result is complete as long as no single key value
+ * holds more rows than the server cap.
+ * <p>
+ * Range searches ask for the COUNT and their bodies are parsed as they are
+ * read, never captured.  Once the server cap is known, set with
+ * setMaxRows(int) or learned from the first range that reaches MAXROWS, a
+ * range whose COUNT fits is passed to the collector row by row as it is
+ * parsed, and one whose COUNT exceeds it is split as soon as the COUNT has
+ * been read.  With a streaming RetsHttpClient the rest of that response is
+ * not read, its connection is shut down instead; a buffering client has
+ * received the whole body by then.  A range that ends in MAXROWS with all
+ * the rows of its COUNT is complete.  Only ranges of servers that send no
+ * COUNT, and ranges searched before the cap is known, are buffered until
+ * their search finishes.  The collector is
+ * called from the search threads, one call at a time; row order across
+ * ranges is not defined.  The collector sees the columns once and no count.
+ * <p>
+ * The session must be logged in and is shared by all range searches; see
+ * RetsSession for its concurrency limit.  Instances hold configuration only.
+ */
+@Slf4j
+public class PartitionedSearch {
+    static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS");
+
+    private final RetsSession session;
+    /** how many range searches run at the same time */
+    @Getter
+    @Setter
+    private int parallelism = 4;
+    /** how many ranges the key space is split into up front, 0 for parallelism */
+    @Getter
+    @Setter
+    private int partitions;
+    /**
+     * runs the range searches, null for a pool of <code>parallelism</code>
+     * daemon threads that lives as long as one search() call
+     */
+    @Getter
+    @Setter
+    private Executor executor;
+    /** rows the server returns per search at most, 0 to learn it from MAXROWS */
+    @Getter
+    @Setter
+    private int maxRows;
+
+    @Getter
+    private String field;
+    private long low;
+    private long high;
+    private LongFunction<String> format;
+
+    public PartitionedSearch(RetsSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Partition on a numeric field, e.g. the resource's key field.
+     *
+     * @param low  smallest value searched for, inclusive
+     * @param high largest value searched for, inclusive
+     */
+    public void setNumericRange(String field, long low, long high) {
+        if (low > high)
+            throw new IllegalArgumentException("[low=" + low + "] must not be greater than [high=" + high + "]");
+        this.field = field;
+        this.low = low;
+        this.high = high;
+        this.format = Long::toString;
+    }
+
+    /**
+     * Partition on a DMQL DateTime field such as ModificationTimestamp.
+     * Ranges are cut at millisecond precision.
+     *
+     * @param from first timestamp searched for, inclusive
+     * @param to   end of the search, exclusive
+     */
+    public void setTimestampRange(String field, LocalDateTime from, LocalDateTime to) {
+        long low = from.toInstant(ZoneOffset.UTC).toEpochMilli();
+        long high = to.toInstant(ZoneOffset.UTC).toEpochMilli() - 1;
+        if (low > high)
+            throw new IllegalArgumentException("[from=" + from + "] must be before [to=" + to + "]");
+        this.field = field;
+        this.low = low;
+        this.high = high;
+        this.format = millis -> TIMESTAMP.format(LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000), (int) Math.floorMod(millis, 1000) * 1_000_000, ZoneOffset.UTC));
+    }
+
+    /**
+     * @return the key field of a resource, the usual field to partition on
+     */
+    public static String getKeyField(Metadata metadata, String resource) {
+        MResource mResource = metadata.getResource(resource);
+        return mResource == null ? null : mResource.getKeyField();
+    }
+
+    /**
+     * Search every range and pass the rows to the collector.
+     *
+     * @param req       the search request, which is not modified
+     * @param collector receives the rows of all ranges
+     * @return the number of range searches made, including re-splits
+     * @throws RetsException if any range search fails; running searches are
+     *                       cancelled
+     */
+    public int search(SearchRequest req, SearchResultCollector collector) throws RetsException {
+        if (this.field == null)
+            throw new IllegalStateException("No range set, call setNumericRange or setTimestampRange first");
+        if (this.parallelism < 1)
+            throw new IllegalArgumentException("[parallelism=" + this.parallelism + "] must be greater than zero");
+
+        Deque<long[]> pending = new ArrayDeque<>(split(this.low, this.high, this.partitions > 0 ? this.partitions : this.parallelism));
+        ExecutorService pool = this.executor == null ? newPool(this.parallelism) : null;
+        CompletionService<Range> completion = new ExecutorCompletionService<>(pool != null ? pool : this.executor);
+        List<Future<Range>> running = new ArrayList<>();
+        Merge merge = new Merge(collector, this.maxRows);
+        int searches = 0;
+        try {
+            while (!pending.isEmpty() || !running.isEmpty()) {
+                while (running.size() < this.parallelism && !pending.isEmpty()) {
+                    long[] bounds = pending.poll();
+                    running.add(completion.submit(() -> searchRange(req, bounds[0], bounds[1], merge)));
+                    searches++;
+                }
+                Future<Range> done = completion.take();
+                running.remove(done);
+                Range range = await(done);
+
+                boolean truncated = range.isTruncated();
+                if ((range.tooLarge || truncated && !range.streamed) && range.low < range.high) {
+                    log.debug("{}={}-{} reached MAXROWS, splitting", this.field, this.format.apply(range.low), this.format.apply(range.high));
+                    for (long[] half : split(range.low, range.high, 2)) {
+                        pending.addFirst(half);
+                    }
+                    continue;
+                }
+                if (truncated) {
+                    log.warn("{}={}-{} holds more rows than the server returns, result is truncated", this.field, this.format.apply(range.low), this.format.apply(range.high));
+                    merge.truncated = true;
+                }
+                if (range.rows != null)
+                    merge.add(range.rows);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RetsException(e);
+        } finally {
+            if (!running.isEmpty())
+                merge.close();
+            for (Future<Range> future : running) {
+                future.cancel(true);
+            }
+            if (pool != null)
+                pool.shutdownNow();
+        }
+        if (merge.truncated)
+            collector.setMaxRows();
+        collector.setComplete();
+        return searches;
+    }
+
+    private Range searchRange(SearchRequest req, long low, long high, Merge merge) throws RetsException {
+        SearchRequest rangeReq = new SearchRequest(req);
+        rangeReq.setQuery("(" + req.getQuery() + "),(" + this.field + "=" + this.format.apply(low) + "-" + this.format.apply(high) + ")");
+        rangeReq.setCountFirst();
+        Range range = new Range(low, high, merge);
+        try {
+            // the parser checks the RETS root and ReplyCode, and a range found
+            // too large stops it without the rest of the body being read
+            this.session.getTransport().search(rangeReq, range, false);
+        } catch (InvalidReplyCodeException e) {
+            if (!ReplyCode.NO_RECORDS_FOUND.equals(e.getReplyCodeValue()))
+                throw e;
+        } catch (RetsException e) {
+            if (!range.tooLarge)
+                throw e;
+        }
+        if (range.maxRows && range.rows != null)
+            merge.learnMaxRows(range.rows.getRowCount());
+        return range;
+    }
+
+    private static ExecutorService newPool(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "rets-partition-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Cut [low, high] into at most <code>parts</code> disjoint ranges of
+     * about equal width.
+     */
+    static List<long[]> split(long low, long high, int parts) {
+        List<long[]> ranges = new ArrayList<>(parts);
+        double width = ((double) high - (double) low + 1) / parts;
+        long start = low;
+        for (int i = 1; i <= parts && start <= high; i++) {
+            long end = i == parts ? high : Math.min(high, low + (long) Math.ceil(width * i) - 1);
+            if (end < start)
+                continue;
+            ranges.add(new long[]{start, end});
+            start = end + 1;
+        }
+        return ranges;
+    }
+
+    private static Range await(Future<Range> future) throws RetsException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RetsException)
+                throw (RetsException) e.getCause();
+            throw new RetsException(e.getCause());
+        }
+    }
+
+    /**
+     * Hands rows to the caller's collector one call at a time and keeps the
+     * server cap once known.
+     */
+    private static class Merge {
+        final SearchResultCollector target;
+        volatile int maxRows;
+        boolean columnsSet;
+        boolean truncated;
+        boolean closed;
+
+        Merge(SearchResultCollector target, int maxRows) {
+            this.target = target;
+            this.maxRows = maxRows;
+        }
+
+        synchronized void learnMaxRows(int rows) {
+            if (this.maxRows <= 0 && rows > 0)
+                this.maxRows = rows;
+        }
+
+        /**
+         * Ignore ranges still streaming after search() gave up.
+         */
+        synchronized void close() {
+            this.closed = true;
+        }
+
+        synchronized void setColumns(String[] columns) {
+            if (!this.columnsSet && !this.closed) {
+                this.target.setColumns(columns);
+                this.columnsSet = true;
+            }
+        }
+
+        synchronized void addRow(String[] row) {
+            if (!this.closed)
+                this.target.addRow(row);
+        }
+
+        synchronized void add(SearchResultImpl rows) {
+            if (rows.getColumns() == null)
+                return;
+            setColumns(rows.getColumns());
+            for (String[] row : rows.getRows()) {
+                this.target.addRow(row);
+            }
+        }
+    }
+
+    /**
+     * Thrown from setCount to stop reading a range that is known to exceed
+     * the server cap.
+     */
+    private static class RangeTooLarge extends RuntimeException {
+        RangeTooLarge() {
+            super("range exceeds MAXROWS", null, false, false);
+        }
+    }
+
+    /**
+     * Collects one range: streams it to the merge when its COUNT fits the
+     * server cap, buffers it otherwise.
+     */
+    private static class Range implements SearchResultCollector {
+        final long low;
+        final long high;
+        final Merge merge;
+        SearchResultImpl rows = new SearchResultImpl();
+        boolean streamed;
+        boolean tooLarge;
+        boolean maxRows;
+        /** COUNT sent by the server, -1 if none */
+        int count = -1;
+        int received;
+
+        Range(long low, long high, Merge merge) {
+            this.low = low;
+            this.high = high;
+            this.merge = merge;
+        }
+
+        /**
+         * @return true if the server stopped at MAXROWS before sending every
+         * row of the range, as far as its COUNT tells
+         */
+        boolean isTruncated() {
+            return this.maxRows && (this.count < 0 || this.received < this.count);
+        }
+
+        public void setCount(int count) {
+            this.count = count;
+            int cap = this.merge.maxRows;
+            if (cap <= 0)
+                return;
+            if (count > cap && this.low < this.high) {
+                this.tooLarge = true;
+                throw new RangeTooLarge();
+            }
+            this.streamed = true;
+            this.rows = null;
+        }
+
+        public void setColumns(String[] columns) {
+            if (this.streamed)
+                this.merge.setColumns(columns);
+            else
+                this.rows.setColumns(columns);
+        }
+
+        public boolean addRow(String[] row) {
+            this.received++;
+            if (this.streamed)
+                this.merge.addRow(row);
+            else
+                this.rows.addRow(row);
+            return true;
+        }
+
+        public void setMaxRows() {
+            this.maxRows = true;
+        }
+
+        public void setComplete() {
+            // the range is merged by search()
+        }
+    }
+}
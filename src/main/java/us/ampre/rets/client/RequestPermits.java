@@ -0,0 +1,65 @@
+package us.ampre.rets.client;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Fair counting semaphore that can be waited on by blocking and by async
+ * transactions alike.  Async waiters get a future that completes once they
+ * hold a permit, so no thread is parked while they wait.
+ */
+final class RequestPermits {
+    private final ArrayDeque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private int available;
+
+    RequestPermits(int permits) {
+        this.available = permits;
+    }
+
+    /**
+     * @return a future completed once a permit is held; cancelling it before
+     * then gives up the place in the queue
+     */
+    CompletableFuture<Void> acquireAsync() {
+        synchronized (this) {
+            if (this.available > 0 && this.waiters.isEmpty()) {
+                this.available--;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            this.waiters.add(waiter);
+            return waiter;
+        }
+    }
+
+    void acquire() throws InterruptedException {
+        CompletableFuture<Void> permit = acquireAsync();
+        try {
+            permit.get();
+        } catch (InterruptedException e) {
+            // granted while being interrupted, hand it on
+            if (!permit.cancel(false))
+                release();
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void release() {
+        while (true) {
+            CompletableFuture<Void> waiter;
+            synchronized (this) {
+                waiter = this.waiters.poll();
+                if (waiter == null) {
+                    this.available++;
+                    return;
+                }
+            }
+            // complete outside the lock; a cancelled waiter passes the permit on
+            if (waiter.complete(null))
+                return;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package us.ampre.rets.client;
 
+import lombok.extern.slf4j.Slf4j;
 import org.apache.hc.client5.http.classic.methods.HttpGet;
 import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
@@ -9,7 +10,10 @@ import org.apache.hc.client5.http.impl.classic.HttpClients;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
+@Slf4j
 public abstract class RetsHttpClient implements AutoCloseable {
 
     public static final String SESSION_ID_COOKIE = "RETS-Session-ID";
@@ -41,6 +45,34 @@ public abstract class RetsHttpClient implements AutoCloseable {
         }
     }
 
+    /**
+     * Send a request without blocking the caller.  On failure the cause
+     * reported by the future is a RetsException.  This default runs the
+     * blocking doRequest() on the given executor; implementations backed by
+     * a non-blocking client should override it.  Cancelling the future
+     * before the request has started skips it, and a response that arrives
+     * after the future was cancelled is closed.
+     *
+     * @param executor runs the blocking request
+     */
+    public CompletableFuture<RetsHttpResponseImpl> doRequestAsync(String httpMethod, RetsHttpRequest request, Executor executor) {
+        CompletableFuture<RetsHttpResponseImpl> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            if (future.isDone())
+                return;
+            try {
+                RetsHttpResponseImpl response = doRequest(httpMethod, request);
+                if (!future.complete(response))
+                    response.close();
+            } catch (RetsException | RuntimeException e) {
+                future.completeExceptionally(e);
+            } catch (IOException e) {
+                log.warn("Unable to close the response of a cancelled request", e);
+            }
+        });
+        return future;
+    }
+
     private HttpUriRequestBase createHttpRequest(String httpMethod, RetsHttpRequest request) {
         return new HttpGet(request.getUrl());
     }
@@ -21,6 +21,16 @@ public abstract class RetsHttpRequest implements Serializable {
         this.mQueryParameters = new TreeMap<>();
     }
 
+    /**
+     * Copy the url, headers and query parameters of another request.
+     */
+    protected RetsHttpRequest(RetsHttpRequest other) {
+        this();
+        this.mHeaders.putAll(other.mHeaders);
+        this.mQueryParameters.putAll(other.mQueryParameters);
+        this.mUrl = other.mUrl;
+    }
+
     public abstract void setUrl(CapabilityUrls urls);
 
     public void setUrl(String url) {
@@ -58,6 +68,10 @@ public abstract class RetsHttpRequest implements Serializable {
         }
     }
 
+    protected String getQueryParameter(String name) {
+        return this.mQueryParameters.get(name);
+    }
+
     @Override
     public String toString() {
         ToStringBuilder builder = new ToStringBuilder(this);
@@ -2,9 +2,14 @@ package us.ampre.rets.client;
 
 import lombok.Getter;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.core5.concurrent.Cancellable;
 import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpResponse;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
@@ -17,41 +22,148 @@ import us.ampre.rets.common.util.CaseInsensitiveTreeMap;
 
 public class RetsHttpResponseImpl implements RetsHttpResponse, AutoCloseable {
     private final CloseableHttpResponse response;
+    private final int responseCode;
     @Getter
     private Map<String, String> headers = new HashMap<>();
     @Getter
     private final Map<String, String> cookies = new HashMap<>();
     private final byte[] raw;
+    /**
+     * -- GETTER --
+     * true when the body is read directly from the live connection
+     * instead of being buffered in memory
+     */
+    @Getter
+    private final boolean streaming;
+    private InputStream stream;
+    /** cancels the exchange of a streaming response, null if unknown */
+    private Cancellable exchange;
+    private final ContentDecoding decoding;
+    private final String url;
+    private ContentDecoding.DecodedInputStream decoded;
+    private long compressedBytes = -1;
+    private long decodedBytes = -1;
 
     public RetsHttpResponseImpl(CloseableHttpResponse response, Map<String, String> cookies) throws IOException {
+        this(response, cookies, false);
+    }
+
+    public RetsHttpResponseImpl(CloseableHttpResponse response, Map<String, String> cookies, boolean streaming) throws IOException {
+        this(response, cookies, streaming, null, null);
+    }
+
+    /**
+     * @param streaming when true the entity is not buffered; getInputStream()
+     *                  reads from the open connection and closing that stream
+     *                  releases the connection.  The caller owns the response
+     *                  and must close either the stream or this object.
+     * @param decoding  decodes the body according to its Content-Encoding,
+     *                  or null if httpclient already did
+     * @param url       the request URL, reported with the byte counts
+     */
+    public RetsHttpResponseImpl(CloseableHttpResponse response, Map<String, String> cookies, boolean streaming, ContentDecoding decoding, String url) throws IOException {
         this.response = response;
-        this.raw = readResponseBody(response);
-        populateHeaders();
-        populateCookies(cookies);
+        this.responseCode = response.getCode();
+        this.streaming = streaming;
+        this.decoding = decoding;
+        this.url = url;
+        this.raw = streaming ? null : readResponseBody(response);
+        populateHeaders(response);
+        populateCookies(response, cookies);
     }
 
     public RetsHttpResponseImpl(CloseableHttpResponse response) throws IOException {
         this.response = response;
+        this.responseCode = response.getCode();
+        this.streaming = false;
+        this.decoding = null;
+        this.url = null;
         this.raw = readResponseBody(response);
-        populateHeaders();
-        populateCookies();
+        populateHeaders(response);
+        populateCookies(response);
+    }
+
+    /**
+     * Wraps a response of the async client, whose body is already buffered.
+     */
+    public RetsHttpResponseImpl(SimpleHttpResponse response, Map<String, String> cookies) {
+        this.response = null;
+        this.responseCode = response.getCode();
+        this.streaming = false;
+        this.decoding = null;
+        this.url = null;
+        byte[] body = response.getBodyBytes();
+        this.raw = body != null ? body : new byte[0];
+        populateHeaders(response);
+        populateCookies(response, cookies);
+    }
+
+    /**
+     * Wraps a response of the async client, decoding its buffered body.
+     */
+    public RetsHttpResponseImpl(SimpleHttpResponse response, Map<String, String> cookies, ContentDecoding decoding, String url) throws IOException {
+        this.response = null;
+        this.responseCode = response.getCode();
+        this.streaming = false;
+        this.decoding = decoding;
+        this.url = url;
+        byte[] body = response.getBodyBytes();
+        Header encoding = response.getFirstHeader(CommonsHttpClient.CONTENT_ENCODING);
+        this.raw = decode(new ByteArrayInputStream(body != null ? body : new byte[0]), encoding == null ? null : encoding.getValue());
+        populateHeaders(response);
+        populateCookies(response, cookies);
     }
 
     private byte[] readResponseBody(CloseableHttpResponse response) throws IOException {
-        if (response.getEntity() != null) {
-            return EntityUtils.toByteArray(response.getEntity());
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return new byte[0];
         }
-        return new byte[0];
+        if (this.decoding == null) {
+            return EntityUtils.toByteArray(entity);
+        }
+        return decode(entity.getContent(), entity.getContentEncoding());
+    }
+
+    private byte[] decode(InputStream body, String contentEncoding) throws IOException {
+        try (ContentDecoding.DecodedInputStream in = this.decoding.open(body, contentEncoding, this.url)) {
+            byte[] bytes = in.readAllBytes();
+            this.compressedBytes = in.getCompressedBytes();
+            this.decodedBytes = in.getDecodedBytes();
+            return bytes;
+        }
+    }
+
+    /**
+     * @return bytes of the body as received so far, or -1 if httpclient
+     * decoded the body
+     */
+    public long getCompressedBytes() {
+        return this.decoded != null ? this.decoded.getCompressedBytes() : this.compressedBytes;
+    }
+
+    /**
+     * @return bytes of the body after decoding so far, or -1 if httpclient
+     * decoded the body
+     */
+    public long getDecodedBytes() {
+        return this.decoded != null ? this.decoded.getDecodedBytes() : this.decodedBytes;
     }
 
-    private void populateHeaders() {
+    private void populateHeaders(HttpResponse response) {
         this.headers = new CaseInsensitiveTreeMap<>();
-        for (Header header : this.response.getHeaders()) {
+        for (Header header : response.getHeaders()) {
             this.headers.put(header.getName(), header.getValue());
         }
+        // the body handed out is decoded, so the encoding and length sent no longer describe it
+        if (this.decoding != null) {
+            String encoding = this.headers.remove(CommonsHttpClient.CONTENT_ENCODING);
+            if (StringUtils.isNotBlank(encoding) && !encoding.trim().equalsIgnoreCase("identity"))
+                this.headers.remove(CommonsHttpClient.CONTENT_LENGTH);
+        }
     }
 
-    private void populateCookies() {
+    private void populateCookies(HttpResponse response) {
         // For new cookies from Set-Cookie headers
         for (Header cookieHeader : response.getHeaders("Set-Cookie")) {
             String[] cookieParts = cookieHeader.getValue().split(";");
@@ -64,7 +176,7 @@ public class RetsHttpResponseImpl implements RetsHttpResponse, AutoCloseable {
         }
     }
 
-    private void populateCookies(Map<String, String> cookies) {
+    private void populateCookies(HttpResponse response, Map<String, String> cookies) {
         this.cookies.putAll(cookies);
         for (Header cookieHeader : response.getHeaders("Set-Cookie")) {
             String[] cookieParts = cookieHeader.getValue().split(";");
@@ -79,7 +191,7 @@ public class RetsHttpResponseImpl implements RetsHttpResponse, AutoCloseable {
 
     @Override
     public int getResponseCode() {
-        return response.getCode();
+        return this.responseCode;
     }
 
     public String getHeader(String header) {
@@ -107,12 +219,85 @@ public class RetsHttpResponseImpl implements RetsHttpResponse, AutoCloseable {
     }
 
     @Override
-    public InputStream getInputStream() {
-        return new ByteArrayInputStream(raw);
+    public InputStream getInputStream() throws RetsException {
+        if (!this.streaming) {
+            return new ByteArrayInputStream(raw);
+        }
+        if (this.stream == null) {
+            try {
+                HttpEntity entity = response.getEntity();
+                InputStream content = entity != null ? entity.getContent() : null;
+                if (content == null) {
+                    content = new ByteArrayInputStream(new byte[0]);
+                }
+                if (this.decoding != null) {
+                    this.decoded = this.decoding.open(content, entity != null ? entity.getContentEncoding() : null, this.url);
+                    content = this.decoded;
+                }
+                this.stream = new ResponseInputStream(content);
+            } catch (IOException e) {
+                throw new RetsException(e);
+            }
+        }
+        return this.stream;
+    }
+
+    /**
+     * @param exchange cancels the exchange of this response, see abort()
+     */
+    void setExchange(Cancellable exchange) {
+        this.exchange = exchange;
+    }
+
+    /**
+     * Give up a response whose body is no longer wanted.  The connection of
+     * a streaming response is shut down instead of being drained and handed
+     * back to the pool; other responses are simply closed.
+     */
+    public void abort() {
+        if (this.streaming && this.exchange != null)
+            this.exchange.cancel();
+        try {
+            close();
+        } catch (IOException ignored) {
+            // the connection is discarded either way
+        }
     }
 
     @Override
     public void close() throws IOException {
-        response.close();
+        try {
+            if (this.stream != null) {
+                this.stream.close();
+            }
+        } finally {
+            if (this.response != null) {
+                this.response.close();
+            }
+        }
+    }
+
+    /**
+     * Entity stream of a streaming response.  Closing the entity stream first
+     * lets httpclient consume the remainder and hand the connection back to
+     * the pool; the response is closed afterwards in case it was not reusable.
+     */
+    private class ResponseInputStream extends FilterInputStream {
+        private boolean closed;
+
+        ResponseInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closed) return;
+            this.closed = true;
+            try {
+                super.close();
+            } finally {
+                response.close();
+            }
+        }
     }
 }
\ No newline at end of file
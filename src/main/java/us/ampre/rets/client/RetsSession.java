@@ -2,7 +2,12 @@ package us.ampre.rets.client;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
@@ -18,6 +23,15 @@ import us.ampre.rets.common.metadata.MetadataException;
 
 /**
  * RetsSession is the core class of the rets client package.
+ * <p>
+ * After login() a session may be shared by several threads, so one login
+ * can run searches, GetObjects and metadata requests in parallel instead of
+ * logging in once per thread (which many servers refuse with reply code
+ * 20022).  getXmlResponse() reports the most recent captured search of any
+ * thread.
+ * Servers also limit outstanding queries per session (20210, 20412); use
+ * setMaxConcurrentRequests(int) to stay below that limit.  login(), logout()
+ * and the setters are not meant to race with running transactions.
  */
 @Slf4j
 public class RetsSession {
@@ -26,7 +40,7 @@ public class RetsSession {
 
     private static final Log LOG = LogFactory.getLog(RetsSession.class);
 
-    private CapabilityUrls capabilityUrls;
+    private volatile CapabilityUrls capabilityUrls;
     private final RetsHttpClient httpClient;
     private final RetsTransport transport;
     /**
@@ -34,7 +48,7 @@ public class RetsSession {
      * Get the current RETS Session ID
      */
     @Getter
-    private String sessionId;
+    private volatile String sessionId;
 
     private String userAgent = "crt-rets-client/" + RETS_CLIENT_VERSION;
 
@@ -42,6 +56,10 @@ public class RetsSession {
         return httpClient;
     }
 
+    RetsTransport getTransport() {
+        return this.transport;
+    }
+
     /**
      * Creates a new <code>RetsSession</code> instance.
      * You must call login(user, pass) before attempting any other
@@ -161,6 +179,62 @@ public class RetsSession {
         return this.transport.isStrict();
     }
 
+    /**
+     * Controls whether search(req, collector) keeps a copy of the raw XML
+     * for getXmlResponse().  Disabling it lets the response body stream
+     * straight into the SearchResultHandler, which then performs the RETS
+     * root and ReplyCode check itself.  Defaults to true.
+     *
+     * @param captureSearchResponse false to parse search bodies without
+     *                              buffering them
+     */
+    public void setCaptureSearchResponse(boolean captureSearchResponse) {
+        this.transport.setCaptureResponse(captureSearchResponse);
+    }
+
+    public boolean isCaptureSearchResponse() {
+        return this.transport.isCaptureResponse();
+    }
+
+    /**
+     * Parse COMPACT search responses with the byte level CompactSearchScanner
+     * rather than a SAX parser.  Responses with markup the scanner does not
+     * handle fall back to SAX.  Defaults to false.
+     *
+     * @param compactScanner true to use the scanner
+     */
+    public void setCompactScanner(boolean compactScanner) {
+        this.transport.setCompactScanner(compactScanner);
+    }
+
+    public boolean isCompactScanner() {
+        return this.transport.isCompactScanner();
+    }
+
+    /**
+     * Limit how many transactions run at once on this session; threads over
+     * the limit wait for a free slot.
+     *
+     * @param maxConcurrentRequests the limit, 0 for no limit (the default)
+     * @see RetsTransport#setMaxConcurrentRequests(int)
+     */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.transport.setMaxConcurrentRequests(maxConcurrentRequests);
+    }
+
+    public int getMaxConcurrentRequests() {
+        return this.transport.getMaxConcurrentRequests();
+    }
+
+    /**
+     * Executor on which the async transactions parse their responses.
+     * Defaults to a small pool owned by the transport, shut down by
+     * logout(); null restores the default.
+     */
+    public void setAsyncExecutor(Executor executor) {
+        this.transport.setAsyncExecutor(executor);
+    }
+
     /**
      * Sets the default User-Agent value for RetsSessions created without
      * a specified User-Agent value.
@@ -217,6 +291,15 @@ public class RetsSession {
         return this.transport.getMetadata(req);
     }
 
+    /**
+     * Non-blocking getMetadata(req).
+     *
+     * @return a future for the response, failing with a RetsException
+     */
+    public CompletableFuture<GetMetadataResponse> getMetadataAsync(GetMetadataRequest req) {
+        return this.transport.getMetadataAsync(req);
+    }
+
     /**
      * Fetches the action (MOTD) from the server.
      *
@@ -252,6 +335,15 @@ public class RetsSession {
         return this.transport.getObject(req);
     }
 
+    /**
+     * Non-blocking getObject(req).  The object data is buffered in memory.
+     *
+     * @return a future for the response, failing with a RetsException
+     */
+    public CompletableFuture<GetObjectResponse> getObjectAsync(GetObjectRequest req) {
+        return this.transport.getObjectAsync(req);
+    }
+
     /**
      * @return response
      * @throws RetsException if an error occurs
@@ -262,6 +354,18 @@ public class RetsSession {
         return getObject(req);
     }
 
+    /**
+     * GetObject with each object written to a file in <code>directory</code>,
+     * named by Content-ID and Object-ID.  Enable streaming on the http client
+     * to keep the response out of memory.
+     *
+     * @return the files written
+     * @see GetObjectFileWriter
+     */
+    public List<Path> getObject(GetObjectRequest req, Path directory) throws RetsException {
+        return new GetObjectFileWriter(directory).write(getObject(req));
+    }
+
     /**
      * Log into the RETS server (see RETS 1.5, section 4).  No other
      * transactions will work until you have logged in.
@@ -290,7 +394,7 @@ public class RetsSession {
      * @throws RetsException if authentication was denied
      */
 
-    public LoginResponse login(String userName, String password, String brokerCode, String brokerBranch) throws RetsException {
+    public synchronized LoginResponse login(String userName, String password, String brokerCode, String brokerBranch) throws RetsException {
         this.httpClient.setUserCredentials(userName, password);
 
         LoginRequest request = new LoginRequest();
@@ -311,7 +415,7 @@ public class RetsSession {
      * @return a LogoutResponse
      * @throws RetsException if the logout transaction failed
      */
-    public LogoutResponse logout() throws RetsException {
+    public synchronized LogoutResponse logout() throws RetsException {
         try {
             return this.transport.logout();
         } finally {
@@ -319,8 +423,15 @@ public class RetsSession {
         }
     }
 
-    @Getter
-    private String xmlResponse = null;
+    /**
+     * Only the most recent body is kept, so with concurrent searches it may
+     * belong to another thread.
+     *
+     * @return the raw body of the most recent captured search, or null
+     */
+    public String getXmlResponse() {
+        return this.transport.getXmlResponse();
+    }
 
     /**
      * Will perform a search as requested and return a filled
@@ -337,6 +448,30 @@ public class RetsSession {
         return res;
     }
 
+    /**
+     * Will perform a search as requested and return a filled
+     * SearchResult that keeps at most <code>memoryRows</code> rows in
+     * memory and the rest in a temporary file.  The result must be closed
+     * to delete the file.  The body is parsed as it is read and never
+     * captured, so getXmlResponse() is not updated.
+     *
+     * @param req        Contains parameters on which to search.
+     * @param memoryRows number of rows kept in memory
+     * @return a completed SearchResult
+     * @throws RetsException if an error occurs
+     */
+    public SpillingSearchResult search(SearchRequest req, int memoryRows) throws RetsException {
+        SpillingSearchResult res = new SpillingSearchResult(memoryRows);
+        try {
+            // the parser verifies the RETS root and ReplyCode itself
+            this.transport.search(req, res, false);
+        } catch (RetsException | RuntimeException e) {
+            res.close();
+            throw e;
+        }
+        return res;
+    }
+
     /**
      * Execute a RETS Search.  The collector object will be filled
      * when this method is returned.  See RETS 1.52d, Section 5.
@@ -348,8 +483,26 @@ public class RetsSession {
      * @throws RetsException if an error occurs
      */
     public void search(SearchRequest req, SearchResultCollector collector) throws RetsException {
-        this.transport.search(req, collector);
-        xmlResponse = this.transport.getXmlResponse();
+        checkXmlResponse(this.transport.search(req, collector));
+    }
+
+    /**
+     * Execute a STANDARD-XML search, passing each record to the collector
+     * as soon as it is parsed.  The Format of the request is set to
+     * STANDARD-XML unless it already asks for a STANDARD-XML DTD version.
+     *
+     * @param req       Contains parameters on which to search.
+     * @param collector receives one flattened record at a time
+     * @throws RetsException if an error occurs
+     * @see StandardXmlRowCollector
+     */
+    public void search(SearchRequest req, StandardXmlRecordCollector collector) throws RetsException {
+        if (!req.isStandardXmlFormat())
+            req.setFormatStandardXml();
+        checkXmlResponse(this.transport.search(req, collector));
+    }
+
+    private void checkXmlResponse(String xmlResponse) throws RetsException {
         if (xmlResponse != null && xmlResponse.isEmpty() == false) {
             try {
                 SAXBuilder builder = new SAXBuilder();
@@ -369,6 +522,48 @@ public class RetsSession {
         }
     }
 
+    /**
+     * Non-blocking search(req).  No thread waits for the server; the body is
+     * parsed once it has arrived and checked like a blocking search.
+     *
+     * @return a future for the filled SearchResult, failing with a
+     * RetsException
+     */
+    public CompletableFuture<SearchResult> searchAsync(SearchRequest req) {
+        SearchResultImpl res = new SearchResultImpl();
+        CompletableFuture<Void> search = searchAsync(req, res);
+        return cancels(search.thenApply(v -> res), search);
+    }
+
+    /**
+     * Non-blocking search(req, collector).  Cancelling the future aborts the
+     * request.
+     *
+     * @return a future completed once the collector has been filled
+     */
+    public CompletableFuture<Void> searchAsync(SearchRequest req, SearchResultCollector collector) {
+        CompletableFuture<String> search = this.transport.searchAsync(req, collector);
+        return cancels(search.thenAccept(xmlResponse -> {
+            try {
+                checkXmlResponse(xmlResponse);
+            } catch (RetsException e) {
+                throw new CompletionException(e);
+            }
+        }), search);
+    }
+
+    /**
+     * @return <code>future</code>, which cancels <code>source</code> when
+     * it is cancelled
+     */
+    private static <T> CompletableFuture<T> cancels(CompletableFuture<T> future, CompletableFuture<?> source) {
+        future.whenComplete((result, e) -> {
+            if (future.isCancelled())
+                source.cancel(false);
+        });
+        return future;
+    }
+
     /**
      * Search and process the Search using a given SearchResultProcessor.
      *
@@ -376,9 +571,7 @@ public class RetsSession {
      * @param processor the result object that will process the data
      */
     public SearchResultSet search(SearchRequest req, SearchResultProcessor processor) throws RetsException {
-        SearchResultSet srs = this.transport.search(req, processor);
-        xmlResponse = transport.getXmlResponse();
-        return srs;
+        return this.transport.search(req, processor);
     }
 
     /**
@@ -422,4 +615,14 @@ public class RetsSession {
         req.setLocationOnly(true);
         return this.getObject(req);
     }
+
+    /**
+     * The URLs of the requested objects, read from the part headers of a
+     * Location=1 response.
+     *
+     * @see GetObjectBatchDownloader#harvestLocations
+     */
+    public List<ObjectLocation> getObjectLocations(GetObjectRequest req) throws RetsException {
+        return getObjectUrl(req).getLocations();
+    }
 }
@@ -3,10 +3,22 @@ package us.ampre.rets.client;
 
 import java.io.ByteArrayInputStream;
 import java.io.FileWriter;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import lombok.Getter;
 import lombok.Setter;
@@ -26,6 +38,14 @@ import org.apache.commons.logging.LogFactory;
  * Implements the basic transport mechanism.  This class deals with the
  * very basic parts of sending the request, returning a response object,
  * and version negotiation.
+ * <p>
+ * Once logged in, a transport may be used by several threads at once:
+ * configuration is published through volatile fields, search(req, collector)
+ * returns the raw body it captured to its own caller, and the number of
+ * requests in flight, blocking and async alike, can be capped with
+ * setMaxConcurrentRequests(int).
+ * Login and logout must not overlap with other transactions.  A request
+ * object must not be shared between concurrent calls.
  */
 @Slf4j
 public class RetsTransport {
@@ -37,7 +57,7 @@ public class RetsTransport {
      * replace the capabilities url list with a new one
      */
     @Setter
-    private CapabilityUrls capabilities;
+    private volatile CapabilityUrls capabilities;
     /**
      * -- SETTER --
      * switch to a specific HttpMethodName, POST/GET, where the
@@ -45,14 +65,39 @@ public class RetsTransport {
      * will be used.
      */
     @Setter
-    private String method = "GET";
-    private RetsVersion version;
+    private volatile String method = "GET";
+    private volatile RetsVersion version;
     @Setter
     @Getter
-    private boolean strict;
-    private NetworkEventMonitor monitor;
+    private volatile boolean strict;
+    /**
+     * -- SETTER --
+     * when false, search bodies are parsed as they are read and not
+     * returned by search(); the RETS root and ReplyCode are then verified by
+     * the SearchResultHandler instead.
+     */
+    @Setter
+    @Getter
+    private volatile boolean captureResponse = true;
+    /**
+     * -- SETTER --
+     * parse COMPACT search bodies with the CompactSearchScanner instead of
+     * SAX; responses it does not understand are still handed to SAX
+     */
+    @Setter
+    @Getter
+    private volatile boolean compactScanner;
+    private volatile NetworkEventMonitor monitor;
+    private volatile RequestPermits requestPermits;
+    @Getter
+    private volatile int maxConcurrentRequests;
+    private volatile String xmlResponse;
+    private volatile Executor asyncExecutor;
+    /** the default async executor, created on first use and shut down by logout() */
+    private ExecutorService ownExecutor;
 
     private static final Log LOG = LogFactory.getLog(RetsTransport.class);
+    static final int DEFAULT_ASYNC_THREADS = 4;
 
     private static final Map<Object, Object> MONITOR_MSGS = new HashMap<>() {{
         put(ChangePasswordRequest.class, "Transmitting change password request");
@@ -111,6 +156,86 @@ public class RetsTransport {
         return this.version;
     }
 
+    /**
+     * Cap the number of transactions this transport runs at the same time;
+     * callers over the limit wait for a slot, in the order they asked for
+     * one.  Async transactions take their slot from the same limit without
+     * holding a thread while they wait.  A search with a collector and the
+     * metadata transactions hold their slot until the body is parsed, a
+     * GetObject read from a streaming response holds it until the response
+     * stream is closed, other transactions release it once the response is
+     * returned.  Keep the limit at or below the server's outstanding query
+     * limit and the http client's connections per route.
+     *
+     * @param maxConcurrentRequests the limit, 0 for no limit
+     */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        if (maxConcurrentRequests < 0)
+            throw new IllegalArgumentException("[maxConcurrentRequests=" + maxConcurrentRequests + "] must not be negative");
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.requestPermits = maxConcurrentRequests > 0 ? new RequestPermits(maxConcurrentRequests) : null;
+    }
+
+    /**
+     * Executor that parses the responses of the async transactions.  It also
+     * runs the blocking requests of http clients that have no non-blocking
+     * doRequestAsync.  By default the transport uses its own pool of
+     * DEFAULT_ASYNC_THREADS daemon threads, which logout() shuts down; an
+     * executor set here is not shut down by the transport.
+     *
+     * @param asyncExecutor the executor, or null for the default
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    private Executor asyncExecutor() {
+        Executor executor = this.asyncExecutor;
+        if (executor != null)
+            return executor;
+        synchronized (this) {
+            if (this.ownExecutor == null) {
+                AtomicInteger count = new AtomicInteger();
+                this.ownExecutor = Executors.newFixedThreadPool(DEFAULT_ASYNC_THREADS, r -> {
+                    Thread thread = new Thread(r, "rets-async-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            return this.ownExecutor;
+        }
+    }
+
+    private synchronized void shutdownOwnExecutor() {
+        if (this.ownExecutor != null) {
+            // let parses already queued finish, a later transaction starts a new pool
+            this.ownExecutor.shutdown();
+            this.ownExecutor = null;
+        }
+    }
+
+    /**
+     * @return the permit taken, to be handed back to release(), or null when
+     * requests are not limited
+     */
+    private RequestPermits acquire() throws RetsException {
+        RequestPermits permits = this.requestPermits;
+        if (permits == null)
+            return null;
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RetsException("Interrupted while waiting for a free request slot", e);
+        }
+        return permits;
+    }
+
+    private static void release(RequestPermits permits) {
+        if (permits != null)
+            permits.release();
+    }
+
     public void setMonitor(NetworkEventMonitor monitor) {
         if (monitor == null) {
             monitor = new NullNetworkEventMonitor();
@@ -135,6 +260,15 @@ public class RetsTransport {
      * Available as an integration last resort
      */
     public RetsHttpResponse doRequest(RetsHttpRequest req) throws RetsException {
+        RequestPermits permit = acquire();
+        try {
+            return execute(req);
+        } finally {
+            release(permit);
+        }
+    }
+
+    private RetsHttpResponse execute(RetsHttpRequest req) throws RetsException {
         Object monitorobj;
         String msg = getMonitorMessage(req);
         monitorobj = this.monitor.eventStart(msg);
@@ -151,6 +285,70 @@ public class RetsTransport {
         return httpResponse;
     }
 
+    /**
+     * Non-blocking doRequest().  The request waits for a slot of
+     * setMaxConcurrentRequests(int) without holding a thread, and gives it
+     * back once the response has arrived.  Cancelling the future gives up
+     * the slot or aborts the request, whichever it is waiting for.
+     */
+    public CompletableFuture<RetsHttpResponse> doRequestAsync(RetsHttpRequest req) {
+        return withPermitAsync(owner -> send(req, owner));
+    }
+
+    /**
+     * @param owner the future handed to the caller; cancelling it cancels
+     *              the request
+     */
+    private CompletableFuture<RetsHttpResponse> send(RetsHttpRequest req, CompletableFuture<?> owner) {
+        Object monitorobj = this.monitor.eventStart(getMonitorMessage(req));
+        try {
+            req.setVersion(this.version);
+            req.setUrl(this.capabilities);
+
+            CompletableFuture<RetsHttpResponseImpl> exchange = this.client.doRequestAsync(this.method, req, asyncExecutor());
+            owner.whenComplete((result, e) -> {
+                if (owner.isCancelled())
+                    exchange.cancel(false);
+            });
+            return exchange
+                    .whenComplete((response, e) -> this.monitor.eventFinish(monitorobj))
+                    .thenApply(RetsHttpResponse.class::cast);
+        } catch (RuntimeException e) {
+            this.monitor.eventFinish(monitorobj);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Run an async transaction once a request slot is free and give the slot
+     * back when the future it returns completes.  The transaction is given
+     * the future returned here, so it can react to it being cancelled; a
+     * result that arrives after that is closed if it can be.
+     */
+    private <T> CompletableFuture<T> withPermitAsync(Function<CompletableFuture<T>, CompletableFuture<T>> transaction) {
+        RequestPermits permits = this.requestPermits;
+        CompletableFuture<Void> permit = permits == null ? CompletableFuture.completedFuture(null) : permits.acquireAsync();
+        CompletableFuture<T> owner = new CompletableFuture<>();
+        owner.whenComplete((result, e) -> {
+            if (owner.isCancelled())
+                permit.cancel(false);
+        });
+        permit.thenCompose(held -> transaction.apply(owner)).whenComplete((result, e) -> {
+            if (permits != null && !permit.isCompletedExceptionally())
+                permits.release();
+            if (e != null) {
+                owner.completeExceptionally(e);
+            } else if (!owner.complete(result) && result instanceof AutoCloseable closeable) {
+                try {
+                    closeable.close();
+                } catch (Exception closeFailure) {
+                    log.warn("Unable to close the response of a cancelled request", closeFailure);
+                }
+            }
+        });
+        return owner;
+    }
+
     private String getMonitorMessage(RetsHttpRequest req) {
         String msg = (String) MONITOR_MSGS.get(req.getClass());
         if (msg == null) {
@@ -187,7 +385,11 @@ public class RetsTransport {
         String sessionId = retsHttpResponse.getCookie(RETS_SESSION_ID_HEADER);
         response.setSessionId(sessionId);
         response.setStrict(this.strict);
-        response.parse(retsHttpResponse.getInputStream(), this.version);
+        try (InputStream in = retsHttpResponse.getInputStream()) {
+            response.parse(in, this.version);
+        } catch (IOException e) {
+            throw new RetsException(e);
+        }
         return response;
     }
 
@@ -201,6 +403,7 @@ public class RetsTransport {
      * @throws RetsException if there is a network or remote server error
      */
     public LogoutResponse logout() throws RetsException {
+        shutdownOwnExecutor();
         if (this.capabilities.getLogoutUrl() == null) {
             return null;
         }
@@ -208,8 +411,10 @@ public class RetsTransport {
         RetsHttpResponse httpResponse = doRequest(req);
         LogoutResponse response = new LogoutResponse();
         response.setStrict(this.strict);
-        try {
-            response.parse(httpResponse.getInputStream(), this.version);
+        try (InputStream in = httpResponse.getInputStream()) {
+            response.parse(in, this.version);
+        } catch (IOException e) {
+            throw new RetsException(e);
         } catch (RetsException e) {
             if (e.getMessage().contains("Invalid number of children")) {// most RETS servers have issues logging out for some reason.
                 LOG.warn("unusual response for logout request, but log out successful.");
@@ -227,23 +432,209 @@ public class RetsTransport {
      *
      * @param req       the search request
      * @param collector the result object that will store the data
+     * @return the raw body of the response, or null if it was not captured
      */
-    public void search(SearchRequest req, SearchResultCollector collector) throws RetsException {
-        RetsHttpResponse httpResponse = doRequest(req);
-        if (httpResponse == null || httpResponse.getResponseCode() != 200)
-            throw new RetsException(String.format("RETS search failed: %s", httpResponse != null ? httpResponse.getResponseCode() : "null"));
-        InputStream is = saveToString(httpResponse.getInputStream());
-        SearchResultHandler handler = new SearchResultHandler(collector);
-        handler.parse(is, httpResponse.getCharset());
+    public String search(SearchRequest req, SearchResultCollector collector) throws RetsException {
+        return search(req, collector, this.captureResponse);
     }
 
-    @Getter
-    private String xmlResponse = null;
+    /**
+     * search(req, collector) with an explicit choice of capturing the body,
+     * for callers that must not hold the whole body in memory whatever
+     * setCaptureResponse(boolean) says.
+     *
+     * @return the raw body of the response, or null if capture is false
+     */
+    String search(SearchRequest req, SearchResultCollector collector, boolean capture) throws RetsException {
+        RequestPermits permit = acquire();
+        try {
+            RetsHttpResponse httpResponse = execute(req);
+            if (httpResponse == null || httpResponse.getResponseCode() != 200)
+                throw new RetsException(String.format("RETS search failed: %s", httpResponse != null ? httpResponse.getResponseCode() : "null"));
+            return parseSearch(req, httpResponse, collector, capture);
+        } finally {
+            release(permit);
+        }
+    }
+
+    /**
+     * Perform a non-streaming STANDARD-XML search and pass the records to the
+     * given collector as they are parsed.  The Format of the request is
+     * expected to be STANDARD-XML.
+     *
+     * @param req       the search request
+     * @param collector receives one flattened record at a time
+     * @return the raw body of the response, or null if it was not captured
+     */
+    public String search(SearchRequest req, StandardXmlRecordCollector collector) throws RetsException {
+        RequestPermits permit = acquire();
+        try {
+            RetsHttpResponse httpResponse = execute(req);
+            if (httpResponse == null || httpResponse.getResponseCode() != 200)
+                throw new RetsException(String.format("RETS search failed: %s", httpResponse != null ? httpResponse.getResponseCode() : "null"));
+            return parseStandardXml(httpResponse, collector, this.captureResponse);
+        } finally {
+            release(permit);
+        }
+    }
+
+    /**
+     * Parse a search body with the parser for the Format of the request;
+     * STANDARD-XML records are turned into rows of the Select columns, or of
+     * the fields of the first record.
+     *
+     * When the body is not captured and parsing stops early, because the
+     * collector threw or the body is malformed, a streaming response is
+     * aborted rather than read to its end.
+     *
+     * @return the captured body, or null when capture is false
+     */
+    String parseSearch(SearchRequest req, RetsHttpResponse httpResponse, SearchResultCollector collector, boolean capture) throws RetsException {
+        if (req.isStandardXmlFormat()) {
+            String[] columns = selectColumns(req.getSelect());
+            return parseStandardXml(httpResponse, new StandardXmlRowCollector(collector, columns), capture);
+        }
+        String charset = httpResponse.getCharset();
+        try (InputStream in = httpResponse.getInputStream()) {
+            byte[] bytes = capture ? in.readAllBytes() : null;
+            String body = capture ? capture(bytes, charset) : null;
+            if (this.compactScanner) {
+                CompactSearchScanner scanner = new CompactSearchScanner(collector);
+                scanner.setRootCheck(!capture);
+                if (capture) {
+                    scanner.parse(new ByteArrayInputStream(bytes), charset);
+                } else {
+                    try {
+                        scanner.parse(new CloseDeferredInputStream(in), charset);
+                    } catch (RetsException | RuntimeException e) {
+                        abortUnread(httpResponse, e);
+                        throw e;
+                    }
+                }
+                return body;
+            }
+            SearchResultHandler handler = new SearchResultHandler(collector);
+            if (capture) {
+                handler.parse(new ByteArrayInputStream(bytes), charset);
+            } else {
+                handler.setRootCheck(true);
+                try {
+                    handler.parse(new CloseDeferredInputStream(in), charset);
+                } catch (RetsException | RuntimeException e) {
+                    abortUnread(httpResponse, e);
+                    throw e;
+                }
+            }
+            return body;
+        } catch (IOException e) {
+            throw new RetsException(e);
+        }
+    }
+
+    /**
+     * @return the trimmed, non-empty names of a Select, or null if there are
+     * none
+     */
+    static String[] selectColumns(String select) {
+        if (select == null)
+            return null;
+        List<String> columns = new ArrayList<>();
+        for (String name : select.split(",")) {
+            name = name.trim();
+            if (!name.isEmpty())
+                columns.add(name);
+        }
+        return columns.isEmpty() ? null : columns.toArray(new String[0]);
+    }
+
+    private String parseStandardXml(RetsHttpResponse httpResponse, StandardXmlRecordCollector collector, boolean capture) throws RetsException {
+        String charset = httpResponse.getCharset();
+        try (InputStream in = httpResponse.getInputStream()) {
+            StandardXmlSearchHandler handler = new StandardXmlSearchHandler(collector);
+            if (capture) {
+                byte[] bytes = in.readAllBytes();
+                String body = capture(bytes, charset);
+                handler.parse(new ByteArrayInputStream(bytes), charset);
+                return body;
+            }
+            handler.setRootCheck(true);
+            try {
+                handler.parse(new CloseDeferredInputStream(in), charset);
+            } catch (RetsException | RuntimeException e) {
+                abortUnread(httpResponse, e);
+                throw e;
+            }
+            return null;
+        } catch (IOException e) {
+            throw new RetsException(e);
+        }
+    }
+
+    /**
+     * Keeps the parsers from closing, and so draining, a streaming response
+     * themselves; it is closed or aborted once parsing is over.
+     */
+    private static final class CloseDeferredInputStream extends FilterInputStream {
+        CloseDeferredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+            // closed by the caller
+        }
+    }
+
+    /**
+     * Shut down the connection of a streaming response whose parsing failed
+     * part way, instead of letting close() read the rest of the body.  An
+     * invalid ReplyCode is only known at the end of the body, so that
+     * response is left to be closed normally and its connection reused.
+     */
+    private static void abortUnread(RetsHttpResponse httpResponse, Exception failure) {
+        if (!(failure instanceof InvalidReplyCodeException) && httpResponse instanceof RetsHttpResponseImpl impl && impl.isStreaming())
+            impl.abort();
+    }
+
+    /**
+     * Non-blocking search(req, collector).  The body is parsed on the async
+     * executor once it has arrived, the same way search(req, collector)
+     * parses it.  Cancelling the future aborts the request.
+     *
+     * @return a future for the raw body of the response, null if it was not
+     * captured, completed once the collector has been filled
+     */
+    public CompletableFuture<String> searchAsync(SearchRequest req, SearchResultCollector collector) {
+        return withPermitAsync(owner -> send(req, owner).thenApplyAsync(httpResponse -> {
+            try {
+                if (httpResponse.getResponseCode() != 200)
+                    throw new RetsException(String.format("RETS search failed: %s", httpResponse.getResponseCode()));
+                return parseSearch(req, httpResponse, collector, this.captureResponse);
+            } catch (RetsException e) {
+                throw new CompletionException(e);
+            }
+        }, asyncExecutor()));
+    }
+
+    /**
+     * Only one body is kept per transport, so with concurrent searches this
+     * may belong to another thread; use the value returned by search()
+     * instead.
+     *
+     * @return the raw body of the most recent captured search, or null
+     */
+    public String getXmlResponse() {
+        return this.xmlResponse;
+    }
 
     protected InputStream saveToString(InputStream inputStream) {
+        return saveToString(inputStream, null);
+    }
+
+    protected InputStream saveToString(InputStream inputStream, String charset) {
         try {
             byte[] bytes = inputStream.readAllBytes();
-            xmlResponse = new String(bytes);
+            capture(bytes, charset);
             return new ByteArrayInputStream(bytes);
         } catch (IOException io) {
             log.warn("Unable to read input stream.", io);
@@ -251,6 +642,21 @@ public class RetsTransport {
         }
     }
 
+    private String capture(byte[] bytes, String charset) {
+        String body = new String(bytes, toCharset(charset));
+        this.xmlResponse = body;
+        return body;
+    }
+
+    private static Charset toCharset(String charset) {
+        try {
+            if (charset != null) return Charset.forName(charset.trim());
+        } catch (IllegalArgumentException e) {
+            log.warn("Unsupported charset [{}], decoding response as UTF-8", charset);
+        }
+        return StandardCharsets.UTF_8;
+    }
+
     /**
      * Override processing of the search completely by providing a
      * SearchResultProcessor to process the results of the Search.
@@ -275,8 +681,69 @@ public class RetsTransport {
             throw new RetsException("Server does not support GetObject transaction.");
         }
         req.setUrl(this.capabilities);
-        RetsHttpResponse httpResponse = this.client.doRequest(this.method, req);
-        return new GetObjectResponse(httpResponse.getHeaders(), httpResponse.getInputStream());
+        RequestPermits permit = acquire();
+        InputStream in = null;
+        try {
+            RetsHttpResponse httpResponse = this.client.doRequest(this.method, req);
+            in = httpResponse.getInputStream();
+            if (permit != null && httpResponse instanceof RetsHttpResponseImpl && ((RetsHttpResponseImpl) httpResponse).isStreaming()) {
+                // the body is still on the wire, keep the slot until it is closed
+                in = new PermitInputStream(in, permit);
+                permit = null;
+            }
+            return new GetObjectResponse(httpResponse.getHeaders(), in);
+        } catch (RetsException | RuntimeException e) {
+            if (in instanceof PermitInputStream) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    // the permit is released regardless
+                }
+            }
+            throw e;
+        } finally {
+            release(permit);
+        }
+    }
+
+    /**
+     * Non-blocking getObject().  The response body is buffered in memory and
+     * the response is built on the async executor.
+     */
+    public CompletableFuture<GetObjectResponse> getObjectAsync(GetObjectRequest req) {
+        if (this.capabilities.getGetObjectUrl() == null) {
+            return CompletableFuture.failedFuture(new RetsException("Server does not support GetObject transaction."));
+        }
+        return withPermitAsync(owner -> send(req, owner).thenApplyAsync(httpResponse -> {
+            try {
+                return new GetObjectResponse(httpResponse.getHeaders(), httpResponse.getInputStream());
+            } catch (RetsException e) {
+                throw new CompletionException(e);
+            }
+        }, asyncExecutor()));
+    }
+
+    /**
+     * Response stream that hands its request slot back once closed.
+     */
+    private static final class PermitInputStream extends FilterInputStream {
+        private RequestPermits permit;
+
+        PermitInputStream(InputStream in, RequestPermits permit) {
+            super(in);
+            this.permit = permit;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                RequestPermits permit = this.permit;
+                this.permit = null;
+                release(permit);
+            }
+        }
     }
 
     public Metadata getMetadata(String location) throws RetsException {
@@ -286,13 +753,17 @@ public class RetsTransport {
         if (compact) {
             req.setCompactFormat();
         }
+        RequestPermits permit = acquire();
         try {
-            RetsHttpResponse httpResponse = doRequest(req);
+            RetsHttpResponse httpResponse = execute(req);
             Object monitorobj;
             monitorobj = this.monitor.eventStart("Parsing metadata");
             try {
                 SAXBuilder xmlBuilder = new SAXBuilder();
-                Document xmlDocument = xmlBuilder.build(httpResponse.getInputStream());
+                Document xmlDocument;
+                try (InputStream in = httpResponse.getInputStream()) {
+                    xmlDocument = xmlBuilder.build(in);
+                }
                 if (location.equals("null") == false) {
                     XMLOutputter outputter = new XMLOutputter();
                     FileWriter writer = new FileWriter(location);
@@ -314,29 +785,62 @@ public class RetsTransport {
             }
         } catch (Exception e) {
             throw new RetsException(e);
+        } finally {
+            release(permit);
         }
     }
 
     public GetMetadataResponse getMetadata(GetMetadataRequest req) throws RetsException {
         log.debug("Querying for metadata.");
-        RetsHttpResponse httpResponse = doRequest(req);
-        Object monitorobj;
-        monitorobj = this.monitor.eventStart("Parsing metadata");
+        RequestPermits permit = acquire();
         try {
+            RetsHttpResponse httpResponse = execute(req);
+            Object monitorobj;
+            monitorobj = this.monitor.eventStart("Parsing metadata");
             try {
-                return new GetMetadataResponse(httpResponse.getInputStream(), req.isCompactFormat(), this.strict);
-            } catch (InvalidReplyCodeException e) {
-                e.setRequestInfo(req.toString());
-                throw e;
+                try (InputStream in = httpResponse.getInputStream()) {
+                    return new GetMetadataResponse(in, req.isCompactFormat(), this.strict);
+                } catch (InvalidReplyCodeException e) {
+                    e.setRequestInfo(req.toString());
+                    throw e;
+                } catch (IOException e) {
+                    throw new RetsException(e);
+                }
+            } finally {
+                this.monitor.eventFinish(monitorobj);
             }
         } finally {
-            this.monitor.eventFinish(monitorobj);
+            release(permit);
         }
     }
 
+    /**
+     * Non-blocking getMetadata(req); the response is parsed on the async
+     * executor.
+     */
+    public CompletableFuture<GetMetadataResponse> getMetadataAsync(GetMetadataRequest req) {
+        log.debug("Querying for metadata.");
+        return withPermitAsync(owner -> send(req, owner).thenApplyAsync(httpResponse -> {
+            try (InputStream in = httpResponse.getInputStream()) {
+                return new GetMetadataResponse(in, req.isCompactFormat(), this.strict);
+            } catch (InvalidReplyCodeException e) {
+                e.setRequestInfo(req.toString());
+                throw new CompletionException(e);
+            } catch (RetsException e) {
+                throw new CompletionException(e);
+            } catch (IOException e) {
+                throw new CompletionException(new RetsException(e));
+            }
+        }, asyncExecutor()));
+    }
+
     public boolean changePassword(ChangePasswordRequest req) throws RetsException {
         RetsHttpResponse httpResponse = doRequest(req);
-        ChangePasswordResponse response = new ChangePasswordResponse(httpResponse.getInputStream());
+        try (InputStream in = httpResponse.getInputStream()) {
+            ChangePasswordResponse response = new ChangePasswordResponse(in);
+        } catch (IOException e) {
+            throw new RetsException(e);
+        }
         // response will throw an exception if there is an error code
         return true;
     }
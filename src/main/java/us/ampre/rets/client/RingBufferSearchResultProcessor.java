@@ -0,0 +1,139 @@
+package us.ampre.rets.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.LogFactory;
+import org.xml.sax.InputSource;
+
+/**
+ * SearchResultProcessor that parses on an Executor and hands rows to the
+ * consumer through a lock-free SpscRingBuffer.
+ * <p>
+ * Unlike StreamingSearchResultProcessor no platform thread is started per
+ * search.  By default parsing runs on a virtual thread per search when the
+ * JVM supports them (Java 21+), otherwise on a shared pool of daemon threads.
+ * Any Executor may be supplied instead.
+ *
+ * @see RingBufferSearchResultSet#nextBatch(int)
+ */
+public class RingBufferSearchResultProcessor implements SearchResultProcessor {
+    private static Executor defaultExecutor;
+
+    private final int mBufferSize;
+    private final int mTimeout;
+    private final Executor mExecutor;
+    private InvalidReplyCodeHandler mInvalidReplyCodeHandler;
+    private CompactRowPolicy mCompactRowPolicy;
+
+    /**
+     * Construct a RingBufferSearchResultProcessor using the default executor
+     * that waits indefinitely for the buffer to be read from.
+     *
+     * @param bufferSize How many rows to buffer
+     */
+    public RingBufferSearchResultProcessor(int bufferSize) {
+        this(bufferSize, 0, null);
+    }
+
+    /**
+     * Construct a RingBufferSearchResultProcessor.
+     *
+     * @param bufferSize How many rows to buffer
+     * @param timeout    How long to wait, in milliseconds, for the buffer
+     *                   to be read from when full. 0 indicates an indefinite
+     *                   wait.
+     * @param executor   runs the parser, one task per search.  null selects
+     *                   the default executor.
+     */
+    public RingBufferSearchResultProcessor(int bufferSize, int timeout, Executor executor) {
+        this.mBufferSize = bufferSize;
+        this.mTimeout = timeout;
+        this.mExecutor = executor != null ? executor : getDefaultExecutor();
+    }
+
+    /**
+     * how to deal with badly delimited data
+     */
+    public void setCompactRowPolicy(CompactRowPolicy badRowPolicy) {
+        this.mCompactRowPolicy = badRowPolicy;
+    }
+
+    private CompactRowPolicy getCompactRowPolicy() {
+        return Objects.requireNonNullElse(this.mCompactRowPolicy, CompactRowPolicy.DEFAULT);
+    }
+
+    public void setInvalidRelyCodeHandler(InvalidReplyCodeHandler invalidReplyCodeHandler) {
+        this.mInvalidReplyCodeHandler = invalidReplyCodeHandler;
+    }
+
+    private InvalidReplyCodeHandler getInvalidRelyCodeHandler() {
+        return Objects.requireNonNullElse(this.mInvalidReplyCodeHandler, InvalidReplyCodeHandler.FAIL);
+    }
+
+    public RingBufferSearchResultSet parse(InputStream reader) {
+        return parse(new InputSource(reader));
+    }
+
+    public RingBufferSearchResultSet parse(Reader reader) {
+        return parse(new InputSource(reader));
+    }
+
+    public RingBufferSearchResultSet parse(InputSource source) {
+        RingBufferSearchResultSet result = new RingBufferSearchResultSet(this.mBufferSize, this.mTimeout);
+        InvalidReplyCodeHandler invalidReplyCodeHandler = this.getInvalidRelyCodeHandler();
+        CompactRowPolicy compactRowPolicy = this.getCompactRowPolicy();
+        this.mExecutor.execute(() -> {
+            SearchResultHandler handler = new SearchResultHandler(result, invalidReplyCodeHandler, compactRowPolicy);
+            try {
+                handler.parse(source);
+            } catch (RetsException e) {
+                result.setException(e);
+            } catch (Exception e) {
+                // socket timeouts, etc. while obtaining xml bytes from InputSource ...
+                result.setException(new RetsException("Low level exception while attempting to parse input from source.", e));
+            } finally {
+                close(source);
+            }
+        });
+        return result;
+    }
+
+    private static void close(InputSource source) {
+        try {
+            if (source.getByteStream() != null)
+                source.getByteStream().close();
+            if (source.getCharacterStream() != null)
+                source.getCharacterStream().close();
+        } catch (IOException e) {
+            LogFactory.getLog(RingBufferSearchResultProcessor.class).warn("Unable to close search response stream", e);
+        }
+    }
+
+    /**
+     * A virtual thread per task executor where available, otherwise a cached
+     * pool of daemon threads.
+     */
+    static synchronized Executor getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                defaultExecutor = (Executor) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                AtomicInteger threads = new AtomicInteger();
+                defaultExecutor = Executors.newCachedThreadPool(r -> {
+                    Thread thread = new Thread(r, "rets-search-parser-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+        return defaultExecutor;
+    }
+}
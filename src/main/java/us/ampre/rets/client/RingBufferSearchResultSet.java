@@ -0,0 +1,156 @@
+package us.ampre.rets.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Streaming SearchResultSet filled by a single parser task through a
+ * SpscRingBuffer.
+ * <p>
+ * Behaves like the result of StreamingSearchResultProcessor, but producer and
+ * consumer never share a monitor, and rows can be taken in batches with
+ * {@link #nextBatch(int)}.  Only one thread may consume the result set.
+ *
+ * @see RingBufferSearchResultProcessor
+ */
+public class RingBufferSearchResultSet implements SearchResultSet, SearchResultCollector {
+    private final SpscRingBuffer<String[]> buffer;
+    private final int timeout;
+
+    private volatile boolean headerReady;
+    private volatile boolean maxRows;
+    private volatile String[] columns;
+    private volatile int count;
+    private volatile RetsException exception;
+
+    RingBufferSearchResultSet(int bufferSize, int timeout) {
+        if (bufferSize < 1)
+            throw new IllegalArgumentException("[bufferSize=" + bufferSize + "] must be greater than zero");
+        if (timeout < 0)
+            throw new IllegalArgumentException("[timeout=" + timeout + "] must be greater than or equal to zero");
+
+        this.buffer = new SpscRingBuffer<>(bufferSize);
+        this.timeout = timeout;
+        this.count = -1;
+    }
+
+    // ------------ Producer Methods
+
+    public boolean addRow(String[] row) {
+        if (row.length > this.columns.length) {
+            throw new IllegalArgumentException(String.format("Invalid number of result columns: got %s, expected %s", row.length, this.columns.length));
+        }
+        if (row.length < this.columns.length) {
+            LogFactory.getLog(RingBufferSearchResultSet.class).warn(String.format("Row %s: Invalid number of result columns:  got %s, expected %s", this.count, row.length, this.columns.length));
+        }
+
+        if (this.buffer.isClosed()) {
+            if (this.exception == null)
+                setException(new RetsException("Attempting to add rows to buffer when in complete state"));
+            throw new RuntimeException(this.exception);
+        }
+
+        if (!this.buffer.offer(row, this.timeout)) {
+            setException(new RetsException("Timeout writing to streaming result set buffer, timeout length = " + this.timeout));
+            throw new RuntimeException(this.exception);
+        }
+        return true;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+        this.buffer.signalConsumer();
+    }
+
+    public void setColumns(String[] columns) {
+        this.columns = columns;
+        this.headerReady = true;
+        this.buffer.signalConsumer();
+    }
+
+    public void setMaxRows() {
+        this.maxRows = true;
+        this.buffer.close();
+    }
+
+    public void setComplete() {
+        this.buffer.close();
+    }
+
+    void setException(RetsException e) {
+        if (this.exception == null)
+            this.exception = e;
+        this.buffer.close();
+    }
+
+    // ----------- Consumer Methods
+
+    public boolean hasNext() throws RetsException {
+        checkException();
+        this.buffer.await(() -> !this.buffer.isEmpty() || this.buffer.isClosed());
+        checkException();
+        return !this.buffer.isEmpty();
+    }
+
+    public String[] next() throws RetsException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return this.buffer.poll();
+    }
+
+    /**
+     * Wait for at least one row and take every buffered row, up to
+     * <code>max</code>, in a single hand-off.
+     *
+     * @param max the largest number of rows to return
+     * @return the rows, empty once the result set is exhausted
+     */
+    public List<String[]> nextBatch(int max) throws RetsException {
+        if (max < 1)
+            throw new IllegalArgumentException("[max=" + max + "] must be greater than zero");
+        if (!hasNext())
+            return Collections.emptyList();
+        List<String[]> rows = new ArrayList<>(max);
+        this.buffer.drainTo(rows, max);
+        return rows;
+    }
+
+    public int getCount() throws RetsException {
+        awaitHeader();
+        return this.count;
+    }
+
+    public String[] getColumns() throws RetsException {
+        awaitHeader();
+        return this.columns;
+    }
+
+    public boolean isMaxRows() throws RetsException {
+        checkException();
+
+        if (!isComplete())
+            throw new IllegalStateException("Cannot call isMaxRows until isComplete == true");
+
+        return this.maxRows;
+    }
+
+    public boolean isComplete() throws RetsException {
+        checkException();
+        return this.buffer.isClosed();
+    }
+
+    private void awaitHeader() throws RetsException {
+        checkException();
+        this.buffer.await(() -> this.headerReady || this.buffer.isClosed());
+        checkException();
+    }
+
+    private void checkException() throws RetsException {
+        if (this.exception != null)
+            throw this.exception;
+    }
+}
@@ -1,5 +1,7 @@
 package us.ampre.rets.client;
 
+import org.apache.commons.lang3.math.NumberUtils;
+
 /**
  * 
  * The search request sent from search() in RetsSession
@@ -39,6 +41,15 @@ public class SearchRequest extends RetsHttpRequest {
 		setQueryParameter(KEY_FORMAT, FORMAT_COMPACT);
 		setQueryParameter(KEY_DMQLVERSION, RETS_DMQL2);
 	}
+
+	/**
+	 * Copy another search request, e.g. to issue it again with a different
+	 * Offset.
+	 */
+	public SearchRequest(SearchRequest other) {
+		super(other);
+		this.type = other.type;
+	}
 	
 
 	@Override
@@ -50,6 +61,18 @@ public class SearchRequest extends RetsHttpRequest {
 		return this.type;
 	}
 
+	public String getClassName() {
+		return getQueryParameter(KEY_CLASS);
+	}
+
+	public String getQuery() {
+		return getQueryParameter(KEY_QUERY);
+	}
+
+	public void setQuery(String query) {
+		setQueryParameter(KEY_QUERY, query);
+	}
+
 	public void setCountNone() {
 		setQueryParameter(KEY_COUNT, null);
 	}
@@ -78,6 +101,18 @@ public class SearchRequest extends RetsHttpRequest {
 		setQueryParameter(KEY_FORMAT, FORMAT_STANDARD_XML + ":" + dtdVersion);
 	}
 
+	public String getFormat() {
+		return getQueryParameter(KEY_FORMAT);
+	}
+
+	/**
+	 * @return true if the Format is STANDARD-XML, with or without a DTD version
+	 */
+	public boolean isStandardXmlFormat() {
+		String format = getFormat();
+		return format != null && format.startsWith(FORMAT_STANDARD_XML);
+	}
+
 	public void setLimit(int count) {
 		setQueryParameter(KEY_LIMIT, Integer.toString(count));
 	}
@@ -90,6 +125,10 @@ public class SearchRequest extends RetsHttpRequest {
 		setQueryParameter(KEY_SELECT, sel);
 	}
 
+	public String getSelect() {
+		return getQueryParameter(KEY_SELECT);
+	}
+
 	public void setRestrictedIndicator(String rest) {
 		setQueryParameter(KEY_RESTRICTEDINDICATOR, rest);
 	}
@@ -110,6 +149,20 @@ public class SearchRequest extends RetsHttpRequest {
 		setQueryParameter(KEY_OFFSET, null);
 	}
 
+	/**
+	 * @return the Offset parameter, or 0 if it is not set
+	 */
+	public int getOffset() {
+		return NumberUtils.toInt(getQueryParameter(KEY_OFFSET));
+	}
+
+	/**
+	 * @return the Limit parameter, or 0 if it is not set or NONE
+	 */
+	public int getLimit() {
+		return NumberUtils.toInt(getQueryParameter(KEY_LIMIT));
+	}
+
 	/** TODO should the search automatically handle this???  shouldn't this be setable by vendor is that predicatable? */
 	@Override
 	public void setVersion(RetsVersion ver) {
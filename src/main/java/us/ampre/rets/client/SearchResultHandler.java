@@ -1,15 +1,13 @@
 package us.ampre.rets.client;
 
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.xml.sax.*;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.StringTokenizer;
 
 /**
  * Handles XML parsing from response setting the proper fields using a SearchResultCollector
@@ -20,12 +18,16 @@ public class SearchResultHandler implements ContentHandler, ErrorHandler {
 
     private int dataCount;
     private final SearchResultCollector collector;
-    private StringBuffer currentEntry;
-    private String delimiter;
+    private final StringBuilder currentEntry;
+    private boolean inEntry;
+    private CompactRowTokenizer tokenizer;
     private Locator locator;
     private String[] columns;
     private final InvalidReplyCodeHandler invalidReplyCodeHandler;
     private final CompactRowPolicy compactRowPolicy;
+    private boolean rootCheck;
+    private boolean rootSeen;
+    private int rootReplyCode;
 
     public SearchResultHandler(SearchResultCollector r) {
         this(r, InvalidReplyCodeHandler.FAIL, CompactRowPolicy.DEFAULT);
@@ -43,15 +45,35 @@ public class SearchResultHandler implements ContentHandler, ErrorHandler {
             throw new NullPointerException("BadRowPolicy must not be null");
 
         this.collector = r;
+        this.currentEntry = new StringBuilder(1024);
         this.dataCount = 0;
         this.invalidReplyCodeHandler = invalidReplyCodeHandler;
     }
 
+    /**
+     * Verify the document the way RetsSession does with a captured response:
+     * the root element must be RETS and its ReplyCode must be 0.  The reply
+     * code is checked once the document has been fully delivered to the
+     * collector, so callers that do not keep the raw XML still get the error.
+     */
+    public void setRootCheck(boolean rootCheck) {
+        this.rootCheck = rootCheck;
+    }
+
     public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
         String name = localName;
         if (localName.isEmpty()) {
             name = qName;
         }
+        if (!this.rootSeen) {
+            this.rootSeen = true;
+            if (this.rootCheck) {
+                if (!name.equals("RETS")) {
+                    throw new SAXException(new RetsException("Malformed response [content-type=text/xml]. Root element is not 'RETS'."));
+                }
+                this.rootReplyCode = NumberUtils.toInt(atts.getValue("ReplyCode"));
+            }
+        }
         switch (name) {
             case "RETS", "RETS-STATUS" -> {
                 String rawReplyCode = atts.getValue("ReplyCode");
@@ -103,11 +125,12 @@ public class SearchResultHandler implements ContentHandler, ErrorHandler {
                     }
                 }
                 int i = Integer.parseInt(s, 16);
-                this.delimiter = "" + (char) i;
+                this.tokenizer = new CompactRowTokenizer((char) i, this.columns == null ? 64 : this.columns.length);
                 return;
             }
             case "COLUMNS", "DATA" -> {
-                this.currentEntry = new StringBuffer();
+                this.currentEntry.setLength(0);
+                this.inEntry = true;
                 return;
             }
             case "MAXROWS" -> {
@@ -121,7 +144,7 @@ public class SearchResultHandler implements ContentHandler, ErrorHandler {
     }
 
     public void characters(char[] ch, int start, int length) {
-        if (this.currentEntry != null) {
+        if (this.inEntry) {
             this.currentEntry.append(ch, start, length);
         }
     }
@@ -134,31 +157,41 @@ public class SearchResultHandler implements ContentHandler, ErrorHandler {
     /**
      * do NOT use string.split() unless your prepared to deal with loss due to token boundary conditions
      */
-    private String[] split(String input) throws SAXParseException {
-        if (this.delimiter == null) {
+    private String[] split(StringBuilder input) throws SAXParseException {
+        if (this.tokenizer == null) {
             throw new SAXParseException("Invalid compact format - DELIMITER not specified", this.locator);
         }
-        if (!input.startsWith(this.delimiter)) {
+        if (!this.tokenizer.accepts(input)) {
             throw new SAXParseException("Invalid compact format", this.locator);
         }
-        StringTokenizer tkn = new StringTokenizer(input, this.delimiter, true);
-        List<String> list = new LinkedList<>();
-        tkn.nextToken(); // junk the first element
-        String last = null;
-        while (tkn.hasMoreTokens()) {
-            String next = tkn.nextToken();
-            if (next.equals(this.delimiter)) {
-                if (last == null) {
-                    list.add("");
-                } else {
-                    last = null;
-                }
-            } else {
-                list.add(next);
-                last = next;
-            }
+        return this.tokenizer.split(input);
+    }
+
+    /**
+     * Hand a well formed row to a TypedRowCollector field by field in a
+     * single pass.  Rows whose field count turns out not to match COLUMNS are
+     * discarded by the collector and go through the row policy as Strings
+     * instead.
+     *
+     * @return true if the row was consumed
+     */
+    private boolean addTypedRow(TypedRowCollector typed) throws SAXParseException {
+        if (this.tokenizer == null) {
+            throw new SAXParseException("Invalid compact format - DELIMITER not specified", this.locator);
+        }
+        if (!this.tokenizer.accepts(this.currentEntry)) {
+            throw new SAXParseException("Invalid compact format", this.locator);
         }
-        return list.toArray(new String[0]);
+        if (this.columns == null) {
+            return false;
+        }
+        if (this.tokenizer.split(this.currentEntry, typed, this.columns.length) != this.columns.length) {
+            typed.discardRow();
+            return false;
+        }
+        this.dataCount++;
+        typed.endRow();
+        return true;
     }
 
     public void endElement(String uri, String localName, String qName) throws SAXParseException {
@@ -167,17 +200,22 @@ public class SearchResultHandler implements ContentHandler, ErrorHandler {
             name = qName;
         }
         if (name.equals("COLUMNS") || name.equals("DATA")) {
-            String[] contents = split(this.currentEntry.toString());
+            if (name.equals("DATA") && this.collector instanceof TypedRowCollector typed && addTypedRow(typed)) {
+                this.inEntry = false;
+                return;
+            }
+            String[] contents = split(this.currentEntry);
             if (name.equals("COLUMNS")) {
                 this.collector.setColumns(contents);
                 this.columns = contents;
+                this.tokenizer.setColumnCount(contents.length);
             } else {
                 if (this.compactRowPolicy.apply(this.dataCount, this.columns, contents)) {
                     this.dataCount++;
                     this.collector.addRow(contents);
                 }
             }
-            this.currentEntry = null;
+            this.inEntry = false;
         }
     }
 
@@ -185,9 +223,12 @@ public class SearchResultHandler implements ContentHandler, ErrorHandler {
         log.trace("Start document");
     }
 
-    public void endDocument() {
+    public void endDocument() throws SAXException {
         log.trace("Document ended");
         this.collector.setComplete();
+        if (this.rootCheck && !ReplyCode.SUCCESS.equals(this.rootReplyCode)) {
+            throw new SAXException(new InvalidReplyCodeException(this.rootReplyCode));
+        }
     }
 
     @Override
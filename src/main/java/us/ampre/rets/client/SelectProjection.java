@@ -0,0 +1,240 @@
+package us.ampre.rets.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import us.ampre.rets.common.metadata.Metadata;
+import us.ampre.rets.common.metadata.types.MClass;
+import us.ampre.rets.common.metadata.types.MTable;
+
+/**
+ * Builds the Select list of a search from the metadata of the class, so only
+ * fields that exist are asked for and each is asked for once.
+ * <p>
+ * Fields may be given by SystemName or StandardName, in any case; they are
+ * written to the request in the naming the request uses.  Fields the class
+ * does not have are dropped and can be listed with {@link #getDropped()}.
+ * <p>
+ * {@link #project(SearchResultCollector)} wraps a collector so it receives
+ * the columns in the order they were added, whatever order the server
+ * returns them in.  The position of each column is worked out once from the
+ * COLUMNS line; rows are then rearranged through an index array.
+ * <pre>
+ * SelectProjection select = new SelectProjection(metadata, "Property", "RES", false)
+ *         .add("ListPrice", "ListingKey", "listprice");
+ * select.apply(req);
+ * session.search(req, select.project(result));
+ * </pre>
+ */
+@Slf4j
+public class SelectProjection {
+    private final MClass mClass;
+    /**
+     * true if the fields are written by StandardName
+     */
+    @Getter
+    private final boolean standardNames;
+    private final Map<String, MTable> byName = new HashMap<>();
+    private final Set<String> fields = new LinkedHashSet<>();
+    private final List<String> dropped = new ArrayList<>();
+
+    public SelectProjection(Metadata metadata, String resource, String className, boolean standardNames) {
+        this(metadata.getMClass(resource, className), standardNames);
+    }
+
+    /**
+     * @param standardNames true if the request uses StandardNames
+     */
+    public SelectProjection(MClass mClass, boolean standardNames) {
+        if (mClass == null)
+            throw new IllegalArgumentException("mClass must not be null");
+        this.mClass = mClass;
+        this.standardNames = standardNames;
+        for (MTable table : mClass.getMTables()) {
+            if (table.getStandardName() != null)
+                this.byName.putIfAbsent(table.getStandardName().toLowerCase(Locale.ROOT), table);
+        }
+        // system names win over standard names that happen to match them
+        for (MTable table : mClass.getMTables()) {
+            if (table.getSystemName() != null)
+                this.byName.put(table.getSystemName().toLowerCase(Locale.ROOT), table);
+        }
+    }
+
+    /**
+     * Add fields, either as names or as comma separated lists.
+     *
+     * @return this projection
+     */
+    public SelectProjection add(String... names) {
+        for (String list : names) {
+            if (list == null)
+                continue;
+            for (String name : list.split(",")) {
+                name = name.trim();
+                if (!name.isEmpty())
+                    addField(name);
+            }
+        }
+        return this;
+    }
+
+    private void addField(String name) {
+        MTable table = this.mClass.getMTable(name);
+        if (table == null)
+            table = this.byName.get(name.toLowerCase(Locale.ROOT));
+        String field = table == null ? null : this.standardNames ? table.getStandardName() : table.getSystemName();
+        if (field == null || field.isEmpty()) {
+            log.warn("Dropping {} from Select, {} has no such field", name, this.mClass.getClassName());
+            this.dropped.add(name);
+            return;
+        }
+        this.fields.add(field);
+    }
+
+    /**
+     * @return the fields in the order they were added, as written to the
+     * request
+     */
+    public String[] getFields() {
+        return this.fields.toArray(new String[0]);
+    }
+
+    /**
+     * @return the names that were dropped because the class has no such field
+     */
+    public List<String> getDropped() {
+        return Collections.unmodifiableList(this.dropped);
+    }
+
+    /**
+     * @return the Select parameter value, or null if no field is selected
+     */
+    public String toSelect() {
+        return this.fields.isEmpty() ? null : String.join(",", this.fields);
+    }
+
+    /**
+     * Set the Select and the naming of the request.
+     */
+    public void apply(SearchRequest req) {
+        if (this.fields.isEmpty())
+            throw new IllegalStateException("No valid fields to select from " + this.mClass.getClassName());
+        req.setSelect(toSelect());
+        if (this.standardNames)
+            req.setStandardNames();
+        else
+            req.setSystemNames();
+    }
+
+    /**
+     * Work out where each selected field is in a COLUMNS line.
+     *
+     * @return for each field, its position in <code>columns</code> or -1 if
+     * the server did not return it
+     */
+    public int[] getIndex(String[] columns) {
+        return index(getFields(), columns);
+    }
+
+    private static int[] index(String[] selected, String[] columns) {
+        Map<String, Integer> positions = new HashMap<>();
+        Map<String, Integer> lowerCase = new HashMap<>();
+        for (int i = 0; i < columns.length; i++) {
+            positions.putIfAbsent(columns[i], i);
+            lowerCase.putIfAbsent(columns[i].toLowerCase(Locale.ROOT), i);
+        }
+        int[] index = new int[selected.length];
+        for (int i = 0; i < selected.length; i++) {
+            Integer position = positions.get(selected[i]);
+            if (position == null)
+                position = lowerCase.get(selected[i].toLowerCase(Locale.ROOT));
+            index[i] = position == null ? -1 : position;
+        }
+        return index;
+    }
+
+    /**
+     * Wrap a collector so it receives exactly the selected fields, in the
+     * order they were added.  Fields the server did not return are null;
+     * columns that were not selected are skipped.
+     */
+    public TypedRowCollector project(SearchResultCollector target) {
+        return new ProjectingCollector(getFields(), target);
+    }
+
+    private final class ProjectingCollector implements TypedRowCollector {
+        private final String[] selected;
+        private final SearchResultCollector target;
+        /** position in the projected row of each response column, or -1 */
+        private int[] targetPosition;
+        private String[] row;
+
+        ProjectingCollector(String[] selected, SearchResultCollector target) {
+            this.selected = selected;
+            this.target = target;
+        }
+
+        public void setCount(int count) {
+            this.target.setCount(count);
+        }
+
+        public void setColumns(String[] columns) {
+            int[] index = index(this.selected, columns);
+            this.targetPosition = new int[columns.length];
+            Arrays.fill(this.targetPosition, -1);
+            for (int i = 0; i < index.length; i++) {
+                if (index[i] >= 0)
+                    this.targetPosition[index[i]] = i;
+                else
+                    log.warn("Selected field {} is missing from the response", this.selected[i]);
+            }
+            this.target.setColumns(this.selected.clone());
+        }
+
+        public void field(int index, char[] buf, int off, int len) {
+            if (this.row == null)
+                this.row = new String[this.selected.length];
+            int position = this.targetPosition[index];
+            if (position >= 0)
+                this.row[position] = new String(buf, off, len);
+        }
+
+        public void endRow() {
+            String[] projected = this.row == null ? new String[this.selected.length] : this.row;
+            this.row = null;
+            this.target.addRow(projected);
+        }
+
+        public void discardRow() {
+            this.row = null;
+        }
+
+        public boolean addRow(String[] row) {
+            String[] projected = new String[this.selected.length];
+            for (int i = 0; i < row.length && i < this.targetPosition.length; i++) {
+                int position = this.targetPosition[i];
+                if (position >= 0)
+                    projected[position] = row[i];
+            }
+            return this.target.addRow(projected);
+        }
+
+        public void setMaxRows() {
+            this.target.setMaxRows();
+        }
+
+        public void setComplete() {
+            this.target.setComplete();
+        }
+    }
+}
@@ -18,6 +18,7 @@ public class SingleObjectResponse {
 	public static final String CONTENT_DESCRIPTION = "Content-Description";
 	public static final String OBJECT_ID = "Object-ID";
 	public static final String CONTENT_ID = "Content-ID";
+	public static final String RETS_ERROR = "RETS-Error";
 
 	private Map headers;
 	private InputStream inputStream;
@@ -27,6 +28,14 @@ public class SingleObjectResponse {
 		this.inputStream = in;
 	}
 
+	/**
+	 * Uses <code>headers</code> as they are instead of copying them.
+	 */
+	SingleObjectResponse(CaseInsensitiveTreeMap<String, String> headers, InputStream in) {
+		this.headers = headers;
+		this.inputStream = in;
+	}
+
 	public String getType() {
 		return (String) this.headers.get(CONTENT_TYPE);
 	}
@@ -47,6 +56,16 @@ public class SingleObjectResponse {
 		return (String) this.headers.get(LOCATION);
 	}
 
+	/**
+	 * @return true when the server flagged this object as an error with
+	 * <code>RETS-Error: 1</code>; the body then holds the error instead of
+	 * object data
+	 */
+	public boolean isRetsError() {
+		String error = (String) this.headers.get(RETS_ERROR);
+		return error != null && error.trim().equals("1");
+	}
+
 	public InputStream getInputStream() {
 		return this.inputStream;
 	}
@@ -1,64 +1,167 @@
 package us.ampre.rets.client;
 
-import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.PushbackInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
 
-class SinglePartInputStream extends FilterInputStream {
+/**
+ * Body of one part of a multipart response.  The stream ends at the line
+ * break before the next boundary, leaving the boundary line for the
+ * iterator.
+ * <p>
+ * The shared buffer is searched for <code>LF + boundary</code> a block at a
+ * time with Boyer-Moore-Horspool; bytes before a match, or before the tail
+ * of the buffer that could still start one, are handed out in bulk.
+ */
+class SinglePartInputStream extends InputStream {
 	private static final int EOS = -1;
-	
-	private final String boundary;
+
+	private final MultipartInputStream input;
+	private final byte[] delimiter;
+	private final int[] shift = new int[256];
+	/** bytes at the buffer position known to belong to this part */
+	private int remaining;
+	/** whether the delimiter follows the <code>remaining</code> bytes */
+	private boolean delimiterNext;
 	private boolean eos;
 
-	
-	SinglePartInputStream(PushbackInputStream partInput, String boundary) {
-		super(partInput);
-		this.boundary = boundary;
+	SinglePartInputStream(MultipartInputStream input, String boundary) {
+		this.input = input;
+		this.delimiter = ("\n" + boundary).getBytes(StandardCharsets.US_ASCII);
+		int last = this.delimiter.length - 1;
+		Arrays.fill(this.shift, this.delimiter.length);
+		for (int i = 0; i < last; i++) {
+			this.shift[this.delimiter[i] & 0xFF] = last - i;
+		}
 	}
-	
+
 	@Override
 	public int read() throws IOException {
-		int read = this.getPushBackStream().read();
-		// was this the start of a boundary?
-		if( read != '\r' && read != '\n' ) return read;
-		this.getPushBackStream().unread(read);
-		byte[] peek = new byte[ "\r\n".length() + this.boundary.length()];
-		// if so, check and see if the rest of the boundary is next
-		int peekRead = this.getPushBackStream().read(peek);
-		this.getPushBackStream().unread(peek, 0, peekRead);
-		if( new String(peek).contains(this.boundary) ) return EOS;
-		// if not, just a coincidence, just return the byte
-		return this.getPushBackStream().read();
+		if (!ensure())
+			return EOS;
+		this.remaining--;
+		return this.input.buf[this.input.pos++] & 0xFF;
 	}
-	
+
 	@Override
 	public int read(byte[] b, int off, int len) throws IOException {
-		if(this.eos) return EOS;
-		
-		int read = off;
-		for( ; read < off + len; read++) {
-			int nextByte = this.read();
-			if(nextByte == EOS) {
-				this.eos = true;
-				break;
+		Objects.checkFromIndexSize(off, len, b.length);
+		if (len == 0)
+			return 0;
+		if (!ensure())
+			return EOS;
+		int n = Math.min(len, this.remaining);
+		System.arraycopy(this.input.buf, this.input.pos, b, off, n);
+		this.input.pos += n;
+		this.remaining -= n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n && ensure()) {
+			int step = (int) Math.min(n - skipped, this.remaining);
+			this.input.pos += step;
+			this.remaining -= step;
+			skipped += step;
+		}
+		return skipped;
+	}
+
+	@Override
+	public long transferTo(OutputStream out) throws IOException {
+		long transferred = 0;
+		while (ensure()) {
+			out.write(this.input.buf, this.input.pos, this.remaining);
+			this.input.pos += this.remaining;
+			transferred += this.remaining;
+			this.remaining = 0;
+		}
+		return transferred;
+	}
+
+	/**
+	 * Write the rest of the part to a channel straight from the shared
+	 * buffer.
+	 */
+	long transferTo(WritableByteChannel channel) throws IOException {
+		long transferred = 0;
+		while (ensure()) {
+			ByteBuffer block = ByteBuffer.wrap(this.input.buf, this.input.pos, this.remaining);
+			while (block.hasRemaining()) {
+				channel.write(block);
 			}
-			
-			b[read] = (byte) nextByte;
+			this.input.pos += this.remaining;
+			transferred += this.remaining;
+			this.remaining = 0;
 		}
-		return ( read - off );
+		return transferred;
 	}
-	
+
 	@Override
-	public int read(byte[] b) throws IOException {
-		return this.read(b, 0, b.length);
+	public int available() {
+		return this.eos ? 0 : this.remaining;
 	}
-	
+
 	@Override
 	public void close() {
 		// noop - part of a larger stream
 	}
-	
-	private PushbackInputStream getPushBackStream() {
-        return (PushbackInputStream) this.in;
-    }
-}
\ No newline at end of file
+
+	/**
+	 * @return false once the part is exhausted
+	 */
+	private boolean ensure() throws IOException {
+		if (this.remaining == 0 && !this.eos) {
+			if (!this.delimiterNext)
+				scan();
+			this.eos = this.remaining == 0;
+		}
+		return !this.eos;
+	}
+
+	/**
+	 * Work out how many buffered bytes can be handed out.  The buffer holds
+	 * at least one byte more than the delimiter unless the stream ended, so
+	 * a CR before it is seen with the match.
+	 */
+	private void scan() throws IOException {
+		int available = this.input.fill(this.delimiter.length + 1);
+		byte[] buf = this.input.buf;
+		int start = this.input.pos;
+		int end = start + available;
+		int match = indexOf(buf, start, end);
+		if (match >= 0) {
+			this.remaining = (match > start && buf[match - 1] == '\r' ? match - 1 : match) - start;
+			this.delimiterNext = true;
+		} else if (this.input.isEof()) {
+			this.remaining = available;
+		} else {
+			// the last delimiter.length - 1 bytes may start a delimiter, keep
+			// them and a CR in front of them for the next scan
+			int safe = end - this.delimiter.length + 1;
+			if (buf[safe - 1] == '\r')
+				safe--;
+			this.remaining = safe - start;
+		}
+	}
+
+	private int indexOf(byte[] buf, int start, int end) {
+		int last = this.delimiter.length - 1;
+		for (int i = start; i <= end - this.delimiter.length; i += this.shift[buf[i + last] & 0xFF]) {
+			int j = last;
+			while (j >= 0 && buf[i + j] == this.delimiter[j]) {
+				j--;
+			}
+			if (j < 0)
+				return i;
+		}
+		return -1;
+	}
+}
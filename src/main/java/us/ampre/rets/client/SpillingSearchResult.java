@@ -0,0 +1,333 @@
+package us.ampre.rets.client;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * SearchResult that keeps the first rows in memory and writes the rest to a
+ * temporary file, so a search of any size can be collected without running
+ * out of heap.
+ * <p>
+ * Spilled rows are stored as a varint field count followed by each field as a
+ * varint length (0 for null, otherwise length + 1) and its UTF-8 bytes.  The
+ * start of every row is kept, and rows are read with positional reads of the
+ * file into a buffer of <code>READ_BUFFER_SIZE</code> bytes, so
+ * {@link #getRow(int)} is a direct read and iterating needs one read per
+ * buffer.  Rows can be read while the search is still running; the write
+ * buffer is only flushed when a row still in it is read.
+ * <p>
+ * The temporary file is closed and deleted by {@link #close()}, which must be
+ * called once the result is no longer needed.  Instances are not thread safe.
+ */
+@Slf4j
+public class SpillingSearchResult implements SearchResult, SearchResultCollector, Closeable {
+    public static final int DEFAULT_MEMORY_ROWS = 10_000;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final int memoryRows;
+    private final Path directory;
+    private final List<String[]> rows;
+    private String[] columnNames;
+    @Setter
+    private int count;
+    @Getter
+    @Setter
+    private boolean maxRows;
+    @Getter
+    @Setter
+    private boolean complete;
+
+    private Path file;
+    private OutputStream out;
+    private long written;
+    private long[] offsets = new long[1024];
+    private int spilled;
+    /** number of spilled bytes that are in the file rather than in out */
+    private long flushed;
+    private FileChannel channel;
+    /** bytes of the file starting at windowStart */
+    private ByteBuffer window = ByteBuffer.allocate(READ_BUFFER_SIZE).limit(0);
+    private long windowStart;
+    private byte[] scratch = new byte[256];
+    private boolean closed;
+
+    public SpillingSearchResult() {
+        this(DEFAULT_MEMORY_ROWS);
+    }
+
+    /**
+     * @param memoryRows number of rows kept in memory before spilling
+     */
+    public SpillingSearchResult(int memoryRows) {
+        this(memoryRows, null);
+    }
+
+    /**
+     * @param memoryRows number of rows kept in memory before spilling
+     * @param directory  where to create the temporary file, null for the
+     *                   default temporary directory
+     */
+    public SpillingSearchResult(int memoryRows, Path directory) {
+        if (memoryRows < 0)
+            throw new IllegalArgumentException("[memoryRows=" + memoryRows + "] must not be negative");
+        this.memoryRows = memoryRows;
+        this.directory = directory;
+        this.rows = new ArrayList<>(Math.min(memoryRows, 1024));
+    }
+
+    public void setColumns(String[] columns) {
+        this.columnNames = columns;
+    }
+
+    public boolean addRow(String[] row) {
+        if (row.length > this.columnNames.length) {
+            throw new IllegalArgumentException(String.format("Invalid number of result columns: got %s, expected %s", row.length, this.columnNames.length));
+        }
+        if (row.length < this.columnNames.length) {
+            log.warn("Row {}: Invalid number of result columns:  got {}, expected {}", getRowCount(), row.length, this.columnNames.length);
+        }
+        if (this.closed)
+            throw new IllegalStateException("Result is closed");
+        if (this.rows.size() < this.memoryRows) {
+            return this.rows.add(row);
+        }
+        try {
+            spill(row);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to spill search result to " + this.file, e);
+        }
+        return true;
+    }
+
+    public void setMaxRows() {
+        setMaxRows(true);
+    }
+
+    public void setComplete() {
+        setComplete(true);
+        if (this.out != null) {
+            try {
+                this.out.flush();
+                this.flushed = this.written;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to spill search result to " + this.file, e);
+            }
+        }
+    }
+
+    public String[] getColumns() {
+        return this.columnNames;
+    }
+
+    public int getCount() {
+        if (this.count > 0) {
+            return this.count;
+        }
+        return getRowCount();
+    }
+
+    public int getRowCount() {
+        return this.rows.size() + this.spilled;
+    }
+
+    /**
+     * @return number of rows that were written to disk
+     */
+    public int getSpilledRowCount() {
+        return this.spilled;
+    }
+
+    /**
+     * @return the temporary file, or null if nothing was spilled
+     */
+    public Path getFile() {
+        return this.file;
+    }
+
+    public String[] getRow(int idx) {
+        if (idx < 0 || idx >= getRowCount()) {
+            throw new NoSuchElementException();
+        }
+        if (idx < this.rows.size()) {
+            return this.rows.get(idx);
+        }
+        if (this.closed)
+            throw new IllegalStateException("Result is closed");
+        try {
+            return read(idx - this.rows.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read spilled search result from " + this.file, e);
+        }
+    }
+
+    public Iterator<String[]> iterator() {
+        return new Iterator<>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return this.next < getRowCount();
+            }
+
+            public String[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return getRow(this.next++);
+            }
+        };
+    }
+
+    /**
+     * Delete the temporary file.  Rows kept in memory stay readable.
+     */
+    public void close() {
+        if (this.closed)
+            return;
+        this.closed = true;
+        if (this.file == null)
+            return;
+        try {
+            this.out.close();
+        } catch (IOException e) {
+            log.warn("Unable to close {}", this.file, e);
+        }
+        if (this.channel != null) {
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                log.warn("Unable to close {}", this.file, e);
+            }
+        }
+        try {
+            Files.deleteIfExists(this.file);
+        } catch (IOException e) {
+            log.warn("Unable to delete {}", this.file, e);
+        }
+    }
+
+    private void spill(String[] row) throws IOException {
+        if (this.out == null) {
+            this.file = this.directory == null ? Files.createTempFile("rets-search", ".rows") : Files.createTempFile(this.directory, "rets-search", ".rows");
+            this.out = new BufferedOutputStream(Files.newOutputStream(this.file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), WRITE_BUFFER_SIZE);
+            log.debug("Spilling search result rows after {} to {}", this.memoryRows, this.file);
+        }
+        long start = this.written;
+        int size = varintSize(row.length);
+        byte[][] fields = new byte[row.length][];
+        for (int i = 0; i < row.length; i++) {
+            if (row[i] == null) {
+                size += 1;
+            } else {
+                fields[i] = row[i].getBytes(StandardCharsets.UTF_8);
+                size += varintSize(fields[i].length + 1) + fields[i].length;
+            }
+        }
+        writeVarint(row.length);
+        for (byte[] field : fields) {
+            if (field == null) {
+                writeVarint(0);
+            } else {
+                writeVarint(field.length + 1);
+                this.out.write(field);
+            }
+        }
+        this.written += size;
+        if (this.spilled == this.offsets.length)
+            this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+        this.offsets[this.spilled++] = start;
+    }
+
+    private void writeVarint(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            this.out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        this.out.write(value);
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    private String[] read(int spilledIdx) throws IOException {
+        long start = this.offsets[spilledIdx];
+        long end = spilledIdx + 1 < this.spilled ? this.offsets[spilledIdx + 1] : this.written;
+        if (start < this.windowStart || end > this.windowStart + this.window.limit())
+            fill(start, (int) (end - start));
+        ByteBuffer buffer = this.window;
+        int[] position = {(int) (start - this.windowStart)};
+        String[] row = new String[readVarint(buffer, position)];
+        for (int i = 0; i < row.length; i++) {
+            int length = readVarint(buffer, position) - 1;
+            if (length < 0)
+                continue;
+            if (length > this.scratch.length)
+                this.scratch = new byte[Math.max(length, this.scratch.length * 2)];
+            buffer.get(position[0], this.scratch, 0, length);
+            row[i] = new String(this.scratch, 0, length, StandardCharsets.UTF_8);
+            position[0] += length;
+        }
+        return row;
+    }
+
+    private static int readVarint(ByteBuffer buffer, int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get(position[0]++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * Read the file from <code>start</code> into the window, at least
+     * <code>length</code> bytes and as many more as fit and have been
+     * flushed.
+     */
+    private void fill(long start, int length) throws IOException {
+        if (start + length > this.flushed) {
+            this.out.flush();
+            this.flushed = this.written;
+        }
+        if (this.channel == null)
+            this.channel = FileChannel.open(this.file, StandardOpenOption.READ);
+        if (length > this.window.capacity())
+            this.window = ByteBuffer.allocate(Math.max(length, this.window.capacity() * 2));
+        this.window.clear();
+        this.window.limit((int) Math.min(this.window.capacity(), this.flushed - start));
+        while (this.window.hasRemaining()) {
+            if (this.channel.read(this.window, start + this.window.position()) < 0)
+                throw new EOFException("Spilled rows end before " + (start + this.window.limit()));
+        }
+        this.window.flip();
+        this.windowStart = start;
+    }
+}
@@ -0,0 +1,170 @@
+package us.ampre.rets.client;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Bounded single producer / single consumer ring buffer.
+ * <p>
+ * No locks are taken: the producer owns <code>tail</code>, the consumer owns
+ * <code>head</code>.  A side that has to wait parks itself and publishes its
+ * thread; the other side only unparks it when it is actually parked.  The
+ * producer is additionally only woken once the consumer has drained half of
+ * the buffer, so a full buffer does not cost a wake-up per row.
+ *
+ * @param <T> element type
+ */
+final class SpscRingBuffer<T> {
+    private final Object[] ring;
+    private final int mask;
+    private final int capacity;
+    private final int wakeProducerAt;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private volatile Thread waitingProducer;
+    private volatile Thread waitingConsumer;
+    private volatile boolean closed;
+
+    /**
+     * @param capacity the number of elements to hold, rounded up to a power
+     *                 of two
+     */
+    SpscRingBuffer(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("[capacity=" + capacity + "] must be greater than zero");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        this.ring = new Object[size];
+        this.mask = size - 1;
+        this.capacity = capacity;
+        this.wakeProducerAt = Math.max(capacity / 2, 1);
+    }
+
+    // ------------ Producer Methods
+
+    /**
+     * Append an element, parking while the buffer is full.
+     *
+     * @param timeoutMillis how long to wait for space, 0 waits indefinitely
+     * @return false if the wait timed out
+     */
+    boolean offer(T element, long timeoutMillis) {
+        long t = this.tail.get();
+        long deadline = timeoutMillis > 0 ? System.nanoTime() + timeoutMillis * 1_000_000L : 0;
+        while (t - this.head.get() >= this.capacity) {
+            this.waitingProducer = Thread.currentThread();
+            if (t - this.head.get() >= this.capacity) {
+                if (deadline == 0) {
+                    LockSupport.park(this);
+                } else {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        this.waitingProducer = null;
+                        return false;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                }
+            }
+            this.waitingProducer = null;
+            checkInterrupt();
+        }
+        this.ring[(int) t & this.mask] = element;
+        this.tail.set(t + 1);
+        signalConsumer();
+        return true;
+    }
+
+    /**
+     * No more elements will be offered.
+     */
+    void close() {
+        this.closed = true;
+        signalConsumer();
+    }
+
+    /**
+     * Wake the consumer if it is parked, e.g. after some other state it is
+     * waiting on has changed.
+     */
+    void signalConsumer() {
+        Thread consumer = this.waitingConsumer;
+        if (consumer != null)
+            LockSupport.unpark(consumer);
+    }
+
+    // ----------- Consumer Methods
+
+    boolean isClosed() {
+        return this.closed;
+    }
+
+    boolean isEmpty() {
+        return this.head.get() == this.tail.get();
+    }
+
+    /**
+     * @return the next element, or null if the buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long h = this.head.get();
+        if (h == this.tail.get())
+            return null;
+        int idx = (int) h & this.mask;
+        T element = (T) this.ring[idx];
+        this.ring[idx] = null;
+        this.head.set(h + 1);
+        signalProducer(h + 1);
+        return element;
+    }
+
+    /**
+     * Move up to <code>max</code> available elements into <code>into</code>
+     * without waiting.
+     *
+     * @return the number of elements moved
+     */
+    @SuppressWarnings("unchecked")
+    int drainTo(List<? super T> into, int max) {
+        long h = this.head.get();
+        long available = Math.min(this.tail.get() - h, max);
+        for (long i = 0; i < available; i++) {
+            int idx = (int) (h + i) & this.mask;
+            into.add((T) this.ring[idx]);
+            this.ring[idx] = null;
+        }
+        if (available > 0) {
+            this.head.set(h + available);
+            signalProducer(h + available);
+        }
+        return (int) available;
+    }
+
+    /**
+     * Park the consumer until <code>condition</code> holds.  The condition
+     * must only change through the producer, which calls signalConsumer().
+     */
+    void await(BooleanSupplier condition) {
+        while (!condition.getAsBoolean()) {
+            this.waitingConsumer = Thread.currentThread();
+            if (!condition.getAsBoolean())
+                LockSupport.park(this);
+            this.waitingConsumer = null;
+            checkInterrupt();
+        }
+    }
+
+    private void signalProducer(long h) {
+        Thread producer = this.waitingProducer;
+        if (producer != null && this.tail.get() - h <= this.wakeProducerAt)
+            LockSupport.unpark(producer);
+    }
+
+    private static void checkInterrupt() {
+        if (Thread.currentThread().isInterrupted())
+            throw new RuntimeException(new InterruptedException());
+    }
+}
@@ -0,0 +1,24 @@
+package us.ampre.rets.client;
+
+import java.util.Map;
+
+/**
+ * Receives the records of a STANDARD-XML search one at a time (used by
+ * StandardXmlSearchHandler).
+ */
+public interface StandardXmlRecordCollector {
+
+	public void setCount(int count);
+
+	/**
+	 * @param record the leaf values of one record keyed by their element path
+	 *               below the record element, e.g. <code>Listing.ListPrice</code>;
+	 *               the map is reused for the next record
+	 * @return false to stop parsing
+	 */
+	public boolean addRecord(Map<String, String> record);
+
+	public void setMaxRows();
+
+	public void setComplete();
+}
@@ -0,0 +1,82 @@
+package us.ampre.rets.client;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Turns STANDARD-XML records into rows for a SearchResultCollector, so a
+ * STANDARD-XML search can fill a SearchResultImpl or any other collector
+ * written for COMPACT.
+ * <p>
+ * The columns are either given up front, in which case a column matches a
+ * record field with the same path or the same last path element, or taken
+ * from the fields of the first record.  Fields that match no column are
+ * dropped and missing fields are empty.
+ */
+@Slf4j
+public class StandardXmlRowCollector implements StandardXmlRecordCollector {
+    private final SearchResultCollector target;
+    private String[] columns;
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    public StandardXmlRowCollector(SearchResultCollector target) {
+        this(target, null);
+    }
+
+    /**
+     * @param columns the columns of the rows, null to use the fields of the
+     *                first record
+     */
+    public StandardXmlRowCollector(SearchResultCollector target, String[] columns) {
+        this.target = target;
+        this.columns = columns;
+        if (columns != null)
+            target.setColumns(columns);
+    }
+
+    public void setCount(int count) {
+        this.target.setCount(count);
+    }
+
+    public boolean addRecord(Map<String, String> record) {
+        if (this.columns == null) {
+            this.columns = record.keySet().toArray(new String[0]);
+            this.target.setColumns(this.columns);
+        }
+        String[] row = new String[this.columns.length];
+        for (Map.Entry<String, String> field : record.entrySet()) {
+            int index = this.indexes.computeIfAbsent(field.getKey(), this::indexOf);
+            if (index >= 0)
+                row[index] = field.getValue();
+        }
+        for (int i = 0; i < row.length; i++) {
+            if (row[i] == null)
+                row[i] = "";
+        }
+        return this.target.addRow(row);
+    }
+
+    private int indexOf(String field) {
+        String name = field.substring(field.lastIndexOf('.') + 1);
+        int match = -1;
+        for (int i = 0; i < this.columns.length; i++) {
+            if (this.columns[i].equals(field))
+                return i;
+            if (match < 0 && this.columns[i].equals(name))
+                match = i;
+        }
+        if (match < 0)
+            log.debug("Dropping field {}, it is not a column", field);
+        return match;
+    }
+
+    public void setMaxRows() {
+        this.target.setMaxRows();
+    }
+
+    public void setComplete() {
+        this.target.setComplete();
+    }
+}
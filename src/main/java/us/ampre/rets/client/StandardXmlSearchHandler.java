@@ -0,0 +1,209 @@
+package us.ampre.rets.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.math.NumberUtils;
+
+/**
+ * Streams a STANDARD-XML search response into a StandardXmlRecordCollector
+ * with a StAX pull parser, one record at a time.
+ * <p>
+ * The records are the elements <code>recordLevel</code> levels below the
+ * <code>REData</code> element, e.g. <code>REData/REProperties/ResidentialProperty</code>.
+ * Each record is flattened to a map from the dotted element path of every
+ * leaf below the record element to its text; a leaf that occurs more than
+ * once has its values joined with commas.  Only the current record is held
+ * in memory, so any number of records can be parsed.  COUNT, MAXROWS and the
+ * RETS and RETS-STATUS reply codes are handled as in SearchResultHandler.
+ */
+@Slf4j
+public class StandardXmlSearchHandler {
+    /** configured without DTD and external entity support, shared by the StAX parsers */
+    static final XMLInputFactory FACTORY = createFactory();
+
+    private final StandardXmlRecordCollector collector;
+    private final InvalidReplyCodeHandler invalidReplyCodeHandler;
+    /** name of the element holding the record containers */
+    @Getter
+    @Setter
+    private String dataElement = "REData";
+    /** how many levels below the data element the record elements are */
+    @Getter
+    @Setter
+    private int recordLevel = 2;
+    /**
+     * -- SETTER --
+     * verify that the root element is RETS with a ReplyCode of 0, see
+     * SearchResultHandler#setRootCheck(boolean)
+     */
+    @Setter
+    private boolean rootCheck;
+
+    private final Map<String, String> record = new LinkedHashMap<>();
+    private final StringBuilder path = new StringBuilder(64);
+    private final StringBuilder text = new StringBuilder(256);
+    private int[] pathLengths = new int[8];
+
+    public StandardXmlSearchHandler(StandardXmlRecordCollector collector) {
+        this(collector, InvalidReplyCodeHandler.FAIL);
+    }
+
+    public StandardXmlSearchHandler(StandardXmlRecordCollector collector, InvalidReplyCodeHandler invalidReplyCodeHandler) {
+        if (collector == null)
+            throw new NullPointerException("StandardXmlRecordCollector must not be null");
+        if (invalidReplyCodeHandler == null)
+            throw new NullPointerException("InvalidReplyCodeHandler must not be null");
+        this.collector = collector;
+        this.invalidReplyCodeHandler = invalidReplyCodeHandler;
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        return factory;
+    }
+
+    /**
+     * Parse the stream, which is closed afterwards.
+     *
+     * @param charset the charset of the response headers, used unless the
+     *                document declares its own; may be null
+     */
+    public void parse(InputStream in, String charset) throws RetsException {
+        XMLStreamReader reader = null;
+        try {
+            reader = charset == null ? FACTORY.createXMLStreamReader(in) : FACTORY.createXMLStreamReader(in, charset.trim());
+            parse(reader);
+        } catch (XMLStreamException e) {
+            throw new RetsException(e);
+        } finally {
+            try {
+                if (reader != null)
+                    reader.close();
+                in.close();
+            } catch (XMLStreamException | IOException e) {
+                log.debug("Failed to close search response", e);
+            }
+        }
+    }
+
+    /**
+     * Parse the remaining document of a reader positioned before the root
+     * element.
+     */
+    public void parse(XMLStreamReader reader) throws XMLStreamException, RetsException {
+        int depth = 0;
+        int dataDepth = -1;
+        int recordDepth = -1;
+        boolean leaf = false;
+        boolean rootSeen = false;
+        int rootReplyCode = 0;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                String name = reader.getLocalName();
+                if (recordDepth > 0) {
+                    int level = depth - recordDepth - 1;
+                    if (level == this.pathLengths.length)
+                        this.pathLengths = Arrays.copyOf(this.pathLengths, level * 2);
+                    this.pathLengths[level] = this.path.length();
+                    if (level > 0)
+                        this.path.append('.');
+                    this.path.append(name);
+                    this.text.setLength(0);
+                    leaf = true;
+                } else if (dataDepth > 0) {
+                    if (depth == dataDepth + this.recordLevel) {
+                        recordDepth = depth;
+                        this.record.clear();
+                        this.path.setLength(0);
+                    }
+                } else if (!rootSeen) {
+                    rootSeen = true;
+                    if (this.rootCheck) {
+                        if (!name.equals("RETS"))
+                            throw new RetsException("Malformed response [content-type=text/xml]. Root element is not 'RETS'.");
+                        rootReplyCode = NumberUtils.toInt(reader.getAttributeValue(null, "ReplyCode"));
+                    }
+                    checkReplyCode(reader, name);
+                } else if (name.equals(this.dataElement)) {
+                    dataDepth = depth;
+                } else {
+                    switch (name) {
+                        case "RETS-STATUS" -> checkReplyCode(reader, name);
+                        case "COUNT" -> {
+                            String records = reader.getAttributeValue(null, "Records");
+                            if (records == null)
+                                throw new RetsException("COUNT tag has no Records attribute");
+                            this.collector.setCount(Integer.parseInt(records, 10));
+                        }
+                        case "MAXROWS" -> this.collector.setMaxRows();
+                        default -> log.warn("Unknown tag: {}", name);
+                    }
+                }
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+                if (leaf)
+                    this.text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (recordDepth > 0 && depth > recordDepth) {
+                    if (leaf) {
+                        this.record.merge(this.path.toString(), this.text.toString(), (a, b) -> a + "," + b);
+                        leaf = false;
+                    }
+                    this.path.setLength(this.pathLengths[depth - recordDepth - 1]);
+                } else if (depth == recordDepth) {
+                    recordDepth = -1;
+                    if (!this.collector.addRecord(this.record)) {
+                        log.debug("Collector stopped the search");
+                        break;
+                    }
+                } else if (depth == dataDepth) {
+                    dataDepth = -1;
+                }
+                depth--;
+            }
+        }
+        this.collector.setComplete();
+        if (this.rootCheck && !ReplyCode.SUCCESS.equals(rootReplyCode))
+            throw new InvalidReplyCodeException(rootReplyCode);
+    }
+
+    private void checkReplyCode(XMLStreamReader reader, String name) throws RetsException {
+        if (!name.equals("RETS") && !name.equals("RETS-STATUS"))
+            return;
+        String rawReplyCode = reader.getAttributeValue(null, "ReplyCode");
+        log.debug("Rets ReplyCode = [{}]", rawReplyCode);
+        int replyCode;
+        try {
+            replyCode = Integer.parseInt(rawReplyCode);
+        } catch (NumberFormatException e) {
+            throw new RetsException("Invalid ReplyCode '" + rawReplyCode + "'");
+        }
+        if (replyCode <= 0 || ReplyCode.MAXIMUM_RECORDS_EXCEEDED.equals(replyCode) || ReplyCode.NO_RECORDS_FOUND.equals(replyCode))
+            return;
+        try {
+            if (name.equals("RETS"))
+                this.invalidReplyCodeHandler.invalidRetsReplyCode(replyCode);
+            else
+                this.invalidReplyCodeHandler.invalidRetsStatusReplyCode(replyCode);
+        } catch (InvalidReplyCodeException e) {
+            e.setRemoteMessage(reader.getAttributeValue(null, "ReplyText"));
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package us.ampre.rets.client;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Objects;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * SearchResultProcessor that parses COMPACT results with a StAX pull parser
+ * on the consumer's thread.
+ * <p>
+ * No parser thread and no row buffer are involved: each call to
+ * SearchResultSet.hasNext() reads the response just far enough to produce
+ * the next DATA row.  The response is closed once it has been read to the
+ * end, or by StaxSearchResultSet.close() when the consumer stops early.
+ *
+ * @see StaxSearchResultSet
+ */
+public class StaxSearchResultProcessor implements SearchResultProcessor {
+    private InvalidReplyCodeHandler mInvalidReplyCodeHandler;
+    private CompactRowPolicy mCompactRowPolicy;
+
+    /**
+     * how to deal with badly delimited data
+     */
+    public void setCompactRowPolicy(CompactRowPolicy badRowPolicy) {
+        this.mCompactRowPolicy = badRowPolicy;
+    }
+
+    private CompactRowPolicy getCompactRowPolicy() {
+        return Objects.requireNonNullElse(this.mCompactRowPolicy, CompactRowPolicy.DEFAULT);
+    }
+
+    public void setInvalidRelyCodeHandler(InvalidReplyCodeHandler invalidReplyCodeHandler) {
+        this.mInvalidReplyCodeHandler = invalidReplyCodeHandler;
+    }
+
+    private InvalidReplyCodeHandler getInvalidRelyCodeHandler() {
+        return Objects.requireNonNullElse(this.mInvalidReplyCodeHandler, InvalidReplyCodeHandler.FAIL);
+    }
+
+    public StaxSearchResultSet parse(InputStream in) throws RetsException {
+        return parse(in, null);
+    }
+
+    /**
+     * @param charset the charset of the response headers, used unless the
+     *                document declares its own; may be null
+     */
+    public StaxSearchResultSet parse(InputStream in, String charset) throws RetsException {
+        try {
+            return new StaxSearchResultSet(charset == null ? StandardXmlSearchHandler.FACTORY.createXMLStreamReader(in) : StandardXmlSearchHandler.FACTORY.createXMLStreamReader(in, charset.trim()),
+                    in, this.getInvalidRelyCodeHandler(), this.getCompactRowPolicy());
+        } catch (XMLStreamException e) {
+            throw new RetsException(e);
+        }
+    }
+
+    public StaxSearchResultSet parse(Reader in) throws RetsException {
+        try {
+            return new StaxSearchResultSet(StandardXmlSearchHandler.FACTORY.createXMLStreamReader(in), in, this.getInvalidRelyCodeHandler(), this.getCompactRowPolicy());
+        } catch (XMLStreamException e) {
+            throw new RetsException(e);
+        }
+    }
+}
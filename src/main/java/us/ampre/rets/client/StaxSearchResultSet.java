@@ -0,0 +1,224 @@
+package us.ampre.rets.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * SearchResultSet that pulls a COMPACT response through an XMLStreamReader
+ * as the consumer asks for rows.
+ * <p>
+ * getCount() and getColumns() read up to the COLUMNS element, hasNext()
+ * reads up to the end of the next DATA element, and isMaxRows() is known
+ * once hasNext() has returned false.  Errors in the response, including an
+ * invalid ReplyCode, are thrown from whichever call reaches them and again
+ * from every later call.  Only one thread may use the result set.
+ *
+ * @see StaxSearchResultProcessor
+ */
+@Slf4j
+public class StaxSearchResultSet implements SearchResultSet, Closeable {
+    private final XMLStreamReader reader;
+    private final Closeable source;
+    private final InvalidReplyCodeHandler invalidReplyCodeHandler;
+    private final CompactRowPolicy compactRowPolicy;
+    private final StringBuilder entry = new StringBuilder(1024);
+
+    private CompactRowTokenizer tokenizer;
+    private boolean inEntry;
+    private int dataCount;
+    private String[] columns;
+    private int count = -1;
+    private boolean maxRows;
+    private boolean complete;
+    private String[] nextRow;
+    private RetsException exception;
+
+    StaxSearchResultSet(XMLStreamReader reader, Closeable source, InvalidReplyCodeHandler invalidReplyCodeHandler, CompactRowPolicy compactRowPolicy) {
+        this.reader = reader;
+        this.source = source;
+        this.invalidReplyCodeHandler = invalidReplyCodeHandler;
+        this.compactRowPolicy = compactRowPolicy;
+    }
+
+    public boolean hasNext() throws RetsException {
+        checkException();
+        while (this.nextRow == null && !this.complete) {
+            step();
+        }
+        return this.nextRow != null;
+    }
+
+    public String[] next() throws RetsException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        String[] row = this.nextRow;
+        this.nextRow = null;
+        return row;
+    }
+
+    public int getCount() throws RetsException {
+        readHeader();
+        return this.count;
+    }
+
+    public String[] getColumns() throws RetsException {
+        readHeader();
+        return this.columns;
+    }
+
+    public boolean isMaxRows() throws RetsException {
+        checkException();
+        if (!this.complete)
+            throw new IllegalStateException("Cannot call isMaxRows until isComplete == true");
+        return this.maxRows;
+    }
+
+    public boolean isComplete() throws RetsException {
+        checkException();
+        return this.complete;
+    }
+
+    /**
+     * Stop reading and release the response.  Safe to call more than once.
+     */
+    public void close() {
+        if (this.complete)
+            return;
+        this.complete = true;
+        this.nextRow = null;
+        release();
+    }
+
+    private void readHeader() throws RetsException {
+        checkException();
+        while (this.columns == null && this.nextRow == null && !this.complete) {
+            step();
+        }
+    }
+
+    private void checkException() throws RetsException {
+        if (this.exception != null)
+            throw this.exception;
+    }
+
+    /**
+     * Handle one parser event.
+     */
+    private void step() throws RetsException {
+        try {
+            int event = this.reader.next();
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT -> startElement(this.reader.getLocalName());
+                case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE -> {
+                    if (this.inEntry)
+                        this.entry.append(this.reader.getTextCharacters(), this.reader.getTextStart(), this.reader.getTextLength());
+                }
+                case XMLStreamConstants.END_ELEMENT -> endElement(this.reader.getLocalName());
+                case XMLStreamConstants.END_DOCUMENT -> {
+                    log.trace("Document ended");
+                    this.complete = true;
+                    release();
+                }
+                default -> {
+                    // comments, processing instructions and the prolog carry no data
+                }
+            }
+        } catch (RetsException e) {
+            fail(e);
+        } catch (XMLStreamException | RuntimeException e) {
+            // socket timeouts, etc. while obtaining xml bytes from the response ...
+            fail(new RetsException("Low level exception while attempting to parse input from source.", e));
+        }
+    }
+
+    private void fail(RetsException e) throws RetsException {
+        this.exception = e;
+        this.complete = true;
+        this.nextRow = null;
+        release();
+        throw e;
+    }
+
+    private void startElement(String name) throws RetsException {
+        switch (name) {
+            case "RETS", "RETS-STATUS" -> {
+                String rawReplyCode = this.reader.getAttributeValue(null, "ReplyCode");
+                log.debug("Rets ReplyCode = [{}]", rawReplyCode);
+                int replyCode;
+                try {
+                    replyCode = Integer.parseInt(rawReplyCode);
+                } catch (NumberFormatException e) {
+                    throw new RetsException("Invalid ReplyCode '" + rawReplyCode + "'");
+                }
+                if (replyCode <= 0 || ReplyCode.MAXIMUM_RECORDS_EXCEEDED.equals(replyCode) || ReplyCode.NO_RECORDS_FOUND.equals(replyCode))
+                    return;
+                try {
+                    if (name.equals("RETS"))
+                        this.invalidReplyCodeHandler.invalidRetsReplyCode(replyCode);
+                    else
+                        this.invalidReplyCodeHandler.invalidRetsStatusReplyCode(replyCode);
+                } catch (InvalidReplyCodeException e) {
+                    e.setRemoteMessage(this.reader.getAttributeValue(null, "ReplyText"));
+                    throw e;
+                }
+            }
+            case "COUNT" -> {
+                String records = this.reader.getAttributeValue(null, "Records");
+                if (records == null)
+                    throw new RetsException("COUNT tag has no Records attribute");
+                this.count = Integer.parseInt(records, 10);
+            }
+            case "DELIMITER" -> {
+                String value = this.reader.getAttributeValue(null, "value");
+                if (value == null)
+                    throw new RetsException("Invalid Delimiter");
+                this.tokenizer = new CompactRowTokenizer((char) Integer.parseInt(value, 16), this.columns == null ? 64 : this.columns.length);
+            }
+            case "COLUMNS", "DATA" -> {
+                this.entry.setLength(0);
+                this.inEntry = true;
+            }
+            case "MAXROWS" -> this.maxRows = true;
+            default -> log.warn("Unknown tag: {}", name);
+        }
+    }
+
+    private void endElement(String name) throws RetsException {
+        if (!name.equals("COLUMNS") && !name.equals("DATA"))
+            return;
+        this.inEntry = false;
+        if (this.tokenizer == null)
+            throw new RetsException("Invalid compact format - DELIMITER not specified");
+        if (!this.tokenizer.accepts(this.entry))
+            throw new RetsException("Invalid compact format");
+        String[] contents = this.tokenizer.split(this.entry);
+        if (name.equals("COLUMNS")) {
+            this.columns = contents;
+            this.tokenizer.setColumnCount(contents.length);
+        } else if (this.compactRowPolicy.apply(this.dataCount, this.columns, contents)) {
+            this.dataCount++;
+            this.nextRow = contents;
+        }
+    }
+
+    private void release() {
+        try {
+            this.reader.close();
+        } catch (XMLStreamException e) {
+            log.warn("Unable to close search response reader", e);
+        } finally {
+            try {
+                this.source.close();
+            } catch (IOException e) {
+                log.warn("Unable to close search response stream", e);
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package us.ampre.rets.client;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.util.LinkedList;
@@ -109,6 +110,20 @@ class StreamingThread extends Thread {
         } catch (Exception e) {
             // socket timeouts, etc. while obtaining xml bytes from InputSource ...
             this.mResult.setException(new RetsException("Low level exception while attempting to parse input from source.", e));
+        } finally {
+            // releases the connection when the response is streamed
+            close();
+        }
+    }
+
+    private void close() {
+        try {
+            if (this.mSource.getByteStream() != null)
+                this.mSource.getByteStream().close();
+            if (this.mSource.getCharacterStream() != null)
+                this.mSource.getCharacterStream().close();
+        } catch (IOException e) {
+            LogFactory.getLog(StreamingThread.class).warn("Unable to close search response stream", e);
         }
     }
 
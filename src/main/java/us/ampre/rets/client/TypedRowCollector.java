@@ -0,0 +1,26 @@
+package us.ampre.rets.client;
+
+/**
+ * SearchResultCollector that can take the fields of a DATA row straight from
+ * the tokenizer's buffer.
+ * <p>
+ * SearchResultHandler and CompactSearchScanner pass every field of a well
+ * formed row to {@link #field(int, char[], int, int)} followed by
+ * {@link #endRow()}; the CompactRowPolicy is not consulted for such rows.  A row with more or fewer
+ * fields than COLUMNS is only found out once its fields have been passed; it
+ * is then dropped with {@link #discardRow()} and arrives again through
+ * {@link #addRow(String[])}, as do rows from parsers that only deal in
+ * Strings.
+ */
+public interface TypedRowCollector extends SearchResultCollector, CompactRowTokenizer.FieldSink {
+	/**
+	 * The fields of the current row have all been passed to field().
+	 */
+	public void endRow();
+
+	/**
+	 * Forget the fields passed to field() since the last row; the row will be
+	 * handed to addRow() instead.
+	 */
+	public void discardRow();
+}
@@ -0,0 +1,741 @@
+package us.ampre.rets.client;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.commons.logging.LogFactory;
+import us.ampre.rets.common.metadata.Metadata;
+import us.ampre.rets.common.metadata.types.MClass;
+import us.ampre.rets.common.metadata.types.MTable;
+
+/**
+ * SearchResult that decodes each column to the type given by the
+ * <code>DataType</code> of its METADATA-TABLE entry and keeps it in a
+ * primitive array instead of a String per cell.
+ * <p>
+ * Integer types are kept as longs, Decimal as an unscaled long and a scale
+ * (or a BigDecimal if it does not fit), Boolean as bits, and Date, DateTime
+ * and Time as epoch milliseconds (milliseconds of the day for Time).
+ * Character columns, lookup columns and columns without metadata are kept as
+ * Strings.  With SearchResultHandler the cells of well formed rows are
+ * decoded from the tokenizer's buffer, so no String is made for them at all.
+ * <p>
+ * Empty cells of typed columns are null.  A cell that does not decode, for
+ * example <code>N/A</code> in an Int column, is kept as it was sent: the typed
+ * getters throw for it and {@link #getString(int, int)} returns it.
+ * {@link #getRow(int)} renders decoded cells in a canonical form, which may
+ * differ from the text the server sent (leading zeros, 'T' separator).
+ */
+public class TypedSearchResult implements SearchResult, TypedRowCollector {
+    private static final int INITIAL_CAPACITY = 256;
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long MAX_EXACT_DOUBLE = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    /**
+     * How the cells of a column are stored.
+     */
+    public enum FieldType {
+        BOOLEAN, LONG, DECIMAL, DATE, DATETIME, TIME, STRING;
+
+        /**
+         * @return the storage for a field, STRING if the field is null, a
+         * lookup or has no known DataType
+         */
+        public static FieldType of(MTable field) {
+            if (field == null || field.getDataType() == null)
+                return STRING;
+            String interpretation = field.getInterpretation();
+            if (interpretation != null && interpretation.startsWith("Lookup"))
+                return STRING;
+            return switch (field.getDataType()) {
+                case "Boolean" -> BOOLEAN;
+                case "Tiny", "Small", "Int", "Long" -> LONG;
+                case "Decimal" -> DECIMAL;
+                case "Date" -> DATE;
+                case "DateTime" -> DATETIME;
+                case "Time" -> TIME;
+                default -> STRING;
+            };
+        }
+    }
+
+    private final MClass mClass;
+    /**
+     * -- SETTER --
+     * Zone of DateTime values sent without an offset, UTC by default.  Must be
+     * set before the search runs.
+     */
+    @Getter
+    @Setter
+    private ZoneId zone = ZoneOffset.UTC;
+    private String[] columnNames;
+    private Map<String, Integer> columnMap;
+    private Column[] store;
+    private char[] scratch = new char[64];
+    private int rowCount;
+    private int capacity = INITIAL_CAPACITY;
+    @Setter
+    private int count;
+    @Getter
+    @Setter
+    private boolean maxRows;
+    @Getter
+    @Setter
+    private boolean complete;
+
+    /**
+     * @param mClass the class being searched; its tables give the column types
+     */
+    public TypedSearchResult(MClass mClass) {
+        if (mClass == null)
+            throw new IllegalArgumentException("mClass must not be null");
+        this.mClass = mClass;
+    }
+
+    public TypedSearchResult(Metadata metadata, String resource, String className) {
+        this(metadata.getMClass(resource, className));
+    }
+
+    public void setColumns(String[] columns) {
+        this.columnNames = columns;
+        this.columnMap = new HashMap<>();
+        this.store = new Column[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            this.columnMap.put(columns[i], i);
+            MTable field = this.mClass.getMTable(columns[i]);
+            this.store[i] = new Column(FieldType.of(field), field == null ? 0 : field.getPrecision(), this.capacity);
+        }
+    }
+
+    public void field(int index, char[] buf, int off, int len) {
+        if (index == 0)
+            ensureCapacity();
+        Column column = this.store[index];
+        if (column.type == FieldType.STRING)
+            column.strings[this.rowCount] = new String(buf, off, len);
+        else
+            decode(column, this.rowCount, buf, off, len);
+    }
+
+    public void endRow() {
+        this.rowCount++;
+    }
+
+    public void discardRow() {
+        if (this.store == null || this.rowCount >= this.capacity)
+            return;
+        for (Column column : this.store) {
+            column.clear(this.rowCount);
+        }
+    }
+
+    public boolean addRow(String[] row) {
+        if (row.length > this.columnNames.length) {
+            throw new IllegalArgumentException(String.format("Invalid number of result columns: got %s, expected %s", row.length, this.columnNames.length));
+        }
+        if (row.length < this.columnNames.length) {
+            LogFactory.getLog(SearchResultCollector.class).warn(String.format("Row %s: Invalid number of result columns:  got %s, expected %s", this.rowCount, row.length, this.columnNames.length));
+        }
+        ensureCapacity();
+        for (int i = 0; i < this.store.length; i++) {
+            Column column = this.store[i];
+            String value = i < row.length ? row[i] : null;
+            if (column.type == FieldType.STRING) {
+                column.strings[this.rowCount] = value;
+            } else if (value == null) {
+                column.nulls.set(this.rowCount);
+            } else {
+                int len = value.length();
+                if (len > this.scratch.length)
+                    this.scratch = new char[Math.max(len, this.scratch.length * 2)];
+                value.getChars(0, len, this.scratch, 0);
+                decode(column, this.rowCount, this.scratch, 0, len);
+            }
+        }
+        this.rowCount++;
+        return true;
+    }
+
+    public void setMaxRows() {
+        setMaxRows(true);
+    }
+
+    public void setComplete() {
+        setComplete(true);
+    }
+
+    public String[] getColumns() {
+        return this.columnNames;
+    }
+
+    /**
+     * @return the position of the column, or -1 if it was not returned
+     */
+    public int getColumnIndex(String column) {
+        Integer idx = this.columnMap == null ? null : this.columnMap.get(column);
+        return idx == null ? -1 : idx;
+    }
+
+    public FieldType getFieldType(int column) {
+        return this.store[column].type;
+    }
+
+    public int getCount() {
+        if (this.count > 0) {
+            return this.count;
+        }
+        return this.rowCount;
+    }
+
+    public int getRowCount() {
+        return this.rowCount;
+    }
+
+    /**
+     * @return true if the cell is empty or missing
+     */
+    public boolean isNull(int row, int column) {
+        Column c = cell(row, column);
+        if (c.type == FieldType.STRING)
+            return c.strings[row] == null || c.strings[row].isEmpty();
+        return c.nulls.get(row);
+    }
+
+    /**
+     * @return true if the cell of a typed column could not be decoded
+     */
+    public boolean isInvalid(int row, int column) {
+        Column c = cell(row, column);
+        return c.invalid != null && c.invalid.containsKey(row);
+    }
+
+    /**
+     * Value of a LONG column.
+     */
+    public long getLong(int row, int column) {
+        return this.typed(row, column, FieldType.LONG).longs[row];
+    }
+
+    /**
+     * Value of a DECIMAL or LONG column.
+     */
+    public double getDouble(int row, int column) {
+        Column c = cell(row, column);
+        if (c.type == FieldType.LONG)
+            return this.typed(row, column, FieldType.LONG).longs[row];
+        c = this.typed(row, column, FieldType.DECIMAL);
+        if (c.decimals == null || !c.decimals.containsKey(row)) {
+            long unscaled = c.longs[row];
+            int scale = c.scales[row];
+            // exact when both operands are exact doubles, otherwise let BigDecimal round
+            if (unscaled > -MAX_EXACT_DOUBLE && unscaled < MAX_EXACT_DOUBLE && scale < POWERS_OF_TEN.length)
+                return unscaled / POWERS_OF_TEN[scale];
+        }
+        return c.decimal(row).doubleValue();
+    }
+
+    /**
+     * Value of a DECIMAL column, scaled to the Precision of the field if it
+     * has one.
+     */
+    public BigDecimal getDecimal(int row, int column) {
+        Column c = this.typed(row, column, FieldType.DECIMAL);
+        BigDecimal value = c.decimal(row);
+        return c.precision > 0 ? value.setScale(c.precision, RoundingMode.HALF_UP) : value;
+    }
+
+    /**
+     * Value of a DATE, DATETIME or TIME column: milliseconds since the epoch,
+     * or since midnight for TIME.
+     */
+    public long getEpochMillis(int row, int column) {
+        Column c = cell(row, column);
+        if (c.type != FieldType.DATE && c.type != FieldType.TIME)
+            c = this.typed(row, column, FieldType.DATETIME);
+        else
+            c = this.typed(row, column, c.type);
+        return c.longs[row];
+    }
+
+    /**
+     * Value of a BOOLEAN column.
+     */
+    public boolean getBoolean(int row, int column) {
+        return this.typed(row, column, FieldType.BOOLEAN).bits.get(row);
+    }
+
+    /**
+     * @return the cell as text: the String of a STRING column, the text that
+     * was sent for a cell that did not decode, otherwise the decoded value
+     * in canonical form; null for an empty typed cell
+     */
+    public String getString(int row, int column) {
+        Column c = cell(row, column);
+        if (c.type == FieldType.STRING)
+            return c.strings[row];
+        if (c.nulls.get(row))
+            return null;
+        if (c.invalid != null && c.invalid.containsKey(row))
+            return c.invalid.get(row);
+        return switch (c.type) {
+            case BOOLEAN -> c.bits.get(row) ? "1" : "0";
+            case LONG -> Long.toString(c.longs[row]);
+            case DECIMAL -> c.precision > 0
+                    ? c.decimal(row).setScale(c.precision, RoundingMode.HALF_UP).toPlainString()
+                    : c.decimal(row).stripTrailingZeros().toPlainString();
+            case DATE -> LocalDate.ofEpochDay(Math.floorDiv(c.longs[row], MILLIS_PER_DAY)).toString();
+            case DATETIME -> formatDateTime(c.longs[row]);
+            case TIME -> LocalTime.ofNanoOfDay(c.longs[row] * 1_000_000L).toString();
+            default -> throw new IllegalStateException();
+        };
+    }
+
+    /**
+     * @return a view of one row with typed getters
+     */
+    public Row row(int row) {
+        if (row >= this.rowCount) {
+            throw new NoSuchElementException();
+        }
+        return new Row(row);
+    }
+
+    public String[] getRow(int idx) {
+        if (idx >= this.rowCount) {
+            throw new NoSuchElementException();
+        }
+        String[] row = new String[this.store.length];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = getString(idx, i);
+        }
+        return row;
+    }
+
+    public Iterator<String[]> iterator() {
+        return new Iterator<>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return this.next < TypedSearchResult.this.rowCount;
+            }
+
+            public String[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return getRow(this.next++);
+            }
+        };
+    }
+
+    /**
+     * One row of the result.  Only valid as long as the result is.
+     */
+    public final class Row {
+        private final int row;
+
+        private Row(int row) {
+            this.row = row;
+        }
+
+        public boolean isNull(int column) {
+            return TypedSearchResult.this.isNull(this.row, column);
+        }
+
+        public long getLong(int column) {
+            return TypedSearchResult.this.getLong(this.row, column);
+        }
+
+        public double getDouble(int column) {
+            return TypedSearchResult.this.getDouble(this.row, column);
+        }
+
+        public BigDecimal getDecimal(int column) {
+            return TypedSearchResult.this.getDecimal(this.row, column);
+        }
+
+        public long getEpochMillis(int column) {
+            return TypedSearchResult.this.getEpochMillis(this.row, column);
+        }
+
+        public boolean getBoolean(int column) {
+            return TypedSearchResult.this.getBoolean(this.row, column);
+        }
+
+        public String getString(int column) {
+            return TypedSearchResult.this.getString(this.row, column);
+        }
+    }
+
+    private void ensureCapacity() {
+        if (this.rowCount < this.capacity)
+            return;
+        this.capacity = this.capacity + (this.capacity >> 1);
+        for (Column column : this.store) {
+            column.grow(this.capacity);
+        }
+    }
+
+    private Column cell(int row, int column) {
+        if (row >= this.rowCount) {
+            throw new NoSuchElementException();
+        }
+        return this.store[column];
+    }
+
+    private Column typed(int row, int column, FieldType type) {
+        Column c = cell(row, column);
+        if (c.type != type)
+            throw new IllegalStateException("Column " + this.columnNames[column] + " is " + c.type + ", not " + type);
+        if (c.nulls.get(row))
+            throw new IllegalStateException("Row " + row + " column " + this.columnNames[column] + " is empty");
+        if (c.invalid != null && c.invalid.containsKey(row))
+            throw new IllegalStateException("Row " + row + " column " + this.columnNames[column] + " is not a " + type + ": " + c.invalid.get(row));
+        return c;
+    }
+
+    private String formatDateTime(long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), this.zone);
+        String text = DATE_TIME.format(time);
+        int fraction = (int) Math.floorMod(millis, MILLIS_PER_SECOND);
+        return fraction == 0 ? text : text + "." + String.format("%03d", fraction);
+    }
+
+    private void decode(Column column, int row, char[] buf, int off, int len) {
+        if (len == 0) {
+            column.nulls.set(row);
+            return;
+        }
+        boolean ok = switch (column.type) {
+            case LONG -> decodeLong(column, row, buf, off, len);
+            case DECIMAL -> decodeDecimal(column, row, buf, off, len);
+            case BOOLEAN -> decodeBoolean(column, row, buf, off, len);
+            case DATE -> decodeDate(column, row, buf, off, len);
+            case DATETIME -> decodeDateTime(column, row, buf, off, len);
+            case TIME -> decodeTime(column, row, buf, off, len);
+            default -> false;
+        };
+        if (!ok)
+            column.invalid(row, new String(buf, off, len));
+    }
+
+    private static boolean decodeLong(Column column, int row, char[] buf, int off, int len) {
+        int end = off + len;
+        boolean negative = buf[off] == '-';
+        int i = negative || buf[off] == '+' ? off + 1 : off;
+        if (i == end)
+            return false;
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9)
+                return false;
+            // accumulate negatively so Long.MIN_VALUE fits
+            if (value < (Long.MIN_VALUE + digit) / 10)
+                return false;
+            value = value * 10 - digit;
+        }
+        if (!negative) {
+            if (value == Long.MIN_VALUE)
+                return false;
+            value = -value;
+        }
+        column.longs[row] = value;
+        return true;
+    }
+
+    private static boolean decodeDecimal(Column column, int row, char[] buf, int off, int len) {
+        int end = off + len;
+        boolean negative = buf[off] == '-';
+        int i = negative || buf[off] == '+' ? off + 1 : off;
+        long unscaled = 0;
+        int total = 0;
+        int scale = -1;
+        for (; i < end; i++) {
+            char c = buf[i];
+            if (c == '.' && scale < 0) {
+                scale = 0;
+                continue;
+            }
+            int digit = c - '0';
+            // accumulate negatively so Long.MIN_VALUE fits
+            if (digit < 0 || digit > 9 || unscaled < (Long.MIN_VALUE + digit) / 10)
+                return decodeDecimalSlow(column, row, buf, off, len);
+            unscaled = unscaled * 10 - digit;
+            total++;
+            if (scale >= 0)
+                scale++;
+        }
+        if (total == 0 || scale > Byte.MAX_VALUE || (!negative && unscaled == Long.MIN_VALUE))
+            return decodeDecimalSlow(column, row, buf, off, len);
+        column.longs[row] = negative ? unscaled : -unscaled;
+        column.scales[row] = (byte) Math.max(scale, 0);
+        return true;
+    }
+
+    /**
+     * Exponents and values with more than 18 digits keep their BigDecimal.
+     */
+    private static boolean decodeDecimalSlow(Column column, int row, char[] buf, int off, int len) {
+        try {
+            BigDecimal value = new BigDecimal(buf, off, len);
+            if (column.decimals == null)
+                column.decimals = new HashMap<>();
+            column.decimals.put(row, value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean decodeBoolean(Column column, int row, char[] buf, int off, int len) {
+        char c = Character.toUpperCase(buf[off]);
+        boolean value;
+        if (len == 1 && (c == '1' || c == 'Y' || c == 'T'))
+            value = true;
+        else if (len == 1 && (c == '0' || c == 'N' || c == 'F'))
+            value = false;
+        else if (matches("true", buf, off, len) || matches("yes", buf, off, len))
+            value = true;
+        else if (matches("false", buf, off, len) || matches("no", buf, off, len))
+            value = false;
+        else
+            return false;
+        column.bits.set(row, value);
+        return true;
+    }
+
+    private static boolean matches(String word, char[] buf, int off, int len) {
+        if (len != word.length())
+            return false;
+        for (int i = 0; i < len; i++) {
+            if (Character.toLowerCase(buf[off + i]) != word.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * yyyy-MM-dd
+     */
+    private static boolean decodeDate(Column column, int row, char[] buf, int off, int len) {
+        if (len != 10 || buf[off + 4] != '-' || buf[off + 7] != '-')
+            return false;
+        long day = epochDay(buf, off);
+        if (day == Long.MIN_VALUE)
+            return false;
+        column.longs[row] = day * MILLIS_PER_DAY;
+        return true;
+    }
+
+    /**
+     * yyyy-MM-dd[T| ]HH:mm[:ss[.fff]][Z|+hh:mm|+hhmm]
+     */
+    private boolean decodeDateTime(Column column, int row, char[] buf, int off, int len) {
+        if (len < 16 || buf[off + 4] != '-' || buf[off + 7] != '-' || (buf[off + 10] != 'T' && buf[off + 10] != ' '))
+            return false;
+        long day = epochDay(buf, off);
+        int end = off + len;
+        int i = off + 11;
+        int zoneStart = i;
+        while (zoneStart < end && buf[zoneStart] != 'Z' && buf[zoneStart] != '+' && buf[zoneStart] != '-')
+            zoneStart++;
+        long millisOfDay = millisOfDay(buf, i, zoneStart - i);
+        if (day == Long.MIN_VALUE || millisOfDay < 0)
+            return false;
+        long millis = day * MILLIS_PER_DAY + millisOfDay;
+        if (zoneStart < end) {
+            int offsetSeconds = offsetSeconds(buf, zoneStart, end - zoneStart);
+            if (offsetSeconds == Integer.MIN_VALUE)
+                return false;
+            millis -= offsetSeconds * MILLIS_PER_SECOND;
+        } else if (this.zone instanceof ZoneOffset offset) {
+            millis -= offset.getTotalSeconds() * MILLIS_PER_SECOND;
+        } else {
+            LocalDateTime local = LocalDateTime.of(LocalDate.ofEpochDay(day), LocalTime.ofNanoOfDay(millisOfDay * 1_000_000L));
+            millis = local.atZone(this.zone).toInstant().toEpochMilli();
+        }
+        column.longs[row] = millis;
+        return true;
+    }
+
+    /**
+     * HH:mm[:ss[.fff]]
+     */
+    private static boolean decodeTime(Column column, int row, char[] buf, int off, int len) {
+        long millis = millisOfDay(buf, off, len);
+        if (millis < 0)
+            return false;
+        column.longs[row] = millis;
+        return true;
+    }
+
+    /**
+     * @return the epoch day of the yyyy-MM-dd at <code>off</code>, or
+     * Long.MIN_VALUE if it is not a date
+     */
+    private static long epochDay(char[] buf, int off) {
+        int year = digits(buf, off, 4);
+        int month = digits(buf, off + 5, 2);
+        int day = digits(buf, off + 8, 2);
+        if (year < 0 || month < 0 || day < 0)
+            return Long.MIN_VALUE;
+        try {
+            return LocalDate.of(year, month, day).toEpochDay();
+        } catch (DateTimeException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * @return milliseconds of the HH:mm[:ss[.fff]] time, or -1 if it is not one
+     */
+    private static long millisOfDay(char[] buf, int off, int len) {
+        if (len < 5 || buf[off + 2] != ':')
+            return -1;
+        int hour = digits(buf, off, 2);
+        int minute = digits(buf, off + 3, 2);
+        int second = 0;
+        int millis = 0;
+        if (len > 5) {
+            if (len < 8 || buf[off + 5] != ':')
+                return -1;
+            second = digits(buf, off + 6, 2);
+            if (len > 8) {
+                if (buf[off + 8] != '.' || len == 9)
+                    return -1;
+                // keep milliseconds, ignore finer digits
+                int fraction = digits(buf, off + 9, Math.min(len - 9, 3));
+                if (fraction < 0 || (len > 12 && digits(buf, off + 12, len - 12) < 0))
+                    return -1;
+                for (int i = Math.min(len - 9, 3); i < 3; i++)
+                    fraction *= 10;
+                millis = fraction;
+            }
+        }
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59)
+            return -1;
+        return ((hour * 60L + minute) * 60L + second) * MILLIS_PER_SECOND + millis;
+    }
+
+    /**
+     * @return seconds of a Z, +hh:mm or +hhmm offset, or Integer.MIN_VALUE
+     */
+    private static int offsetSeconds(char[] buf, int off, int len) {
+        if (len == 1 && buf[off] == 'Z')
+            return 0;
+        int hours;
+        int minutes;
+        if (len == 6 && buf[off + 3] == ':') {
+            hours = digits(buf, off + 1, 2);
+            minutes = digits(buf, off + 4, 2);
+        } else if (len == 5) {
+            hours = digits(buf, off + 1, 2);
+            minutes = digits(buf, off + 3, 2);
+        } else {
+            return Integer.MIN_VALUE;
+        }
+        if (hours < 0 || hours > 18 || minutes < 0 || minutes > 59)
+            return Integer.MIN_VALUE;
+        int seconds = (hours * 60 + minutes) * 60;
+        return buf[off] == '-' ? -seconds : seconds;
+    }
+
+    /**
+     * @return the value of <code>len</code> decimal digits, or -1
+     */
+    private static int digits(char[] buf, int off, int len) {
+        int value = 0;
+        for (int i = off; i < off + len; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9)
+                return -1;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Storage for one column.  Only the array for its type is allocated.
+     */
+    private static final class Column {
+        private final FieldType type;
+        private final int precision;
+        private final BitSet nulls = new BitSet();
+        private long[] longs;
+        private byte[] scales;
+        private BitSet bits;
+        private String[] strings;
+        private Map<Integer, BigDecimal> decimals;
+        private Map<Integer, String> invalid;
+
+        Column(FieldType type, int precision, int capacity) {
+            this.type = type;
+            this.precision = precision;
+            switch (type) {
+                case LONG, DATE, DATETIME, TIME -> this.longs = new long[capacity];
+                case DECIMAL -> {
+                    this.longs = new long[capacity];
+                    this.scales = new byte[capacity];
+                }
+                case BOOLEAN -> this.bits = new BitSet();
+                default -> this.strings = new String[capacity];
+            }
+        }
+
+        void grow(int capacity) {
+            if (this.longs != null)
+                this.longs = Arrays.copyOf(this.longs, capacity);
+            if (this.scales != null)
+                this.scales = Arrays.copyOf(this.scales, capacity);
+            if (this.strings != null)
+                this.strings = Arrays.copyOf(this.strings, capacity);
+        }
+
+        BigDecimal decimal(int row) {
+            BigDecimal wide = this.decimals == null ? null : this.decimals.get(row);
+            return wide != null ? wide : BigDecimal.valueOf(this.longs[row], this.scales[row]);
+        }
+
+        /**
+         * Forget whatever a discarded row left in the cell.
+         */
+        void clear(int row) {
+            this.nulls.clear(row);
+            if (this.bits != null)
+                this.bits.clear(row);
+            if (this.strings != null)
+                this.strings[row] = null;
+            if (this.decimals != null)
+                this.decimals.remove(row);
+            if (this.invalid != null)
+                this.invalid.remove(row);
+        }
+
+        void invalid(int row, String value) {
+            if (this.invalid == null)
+                this.invalid = new HashMap<>();
+            this.invalid.put(row, value);
+        }
+    }
+}
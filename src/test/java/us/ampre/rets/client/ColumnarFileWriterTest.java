@@ -0,0 +1,133 @@
+package us.ampre.rets.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ColumnarFileWriterTest extends RetsTestCase {
+	/**
+	 * Minimal reader of the format documented on ColumnarFileWriter.
+	 */
+	private static class Reader {
+		private final ByteBuffer in;
+		String[] columns;
+		List<String[]> rows = new ArrayList<>();
+		List<Byte> encodings = new ArrayList<>();
+		long rowCount;
+		long count;
+		boolean maxRows;
+
+		Reader(byte[] file) {
+			this.in = ByteBuffer.wrap(file);
+			assertEquals("magic", new String(ColumnarFileWriter.MAGIC, StandardCharsets.US_ASCII), new String(file, 0, 8, StandardCharsets.US_ASCII));
+			assertEquals("trailing magic", new String(ColumnarFileWriter.MAGIC, StandardCharsets.US_ASCII), new String(file, file.length - 8, 8, StandardCharsets.US_ASCII));
+			long footerOffset = this.in.getLong(file.length - 16);
+			this.in.position(8);
+			this.columns = new String[(int) varint()];
+			for (int i = 0; i < this.columns.length; i++) {
+				this.columns[i] = string();
+			}
+			while (this.in.position() < footerOffset) {
+				assertEquals('G', this.in.get());
+				int groupRows = (int) varint();
+				String[][] group = new String[groupRows][this.columns.length];
+				for (int c = 0; c < this.columns.length; c++) {
+					int end = this.in.getInt() + this.in.position();
+					byte encoding = this.in.get();
+					this.encodings.add(encoding);
+					if (encoding == ColumnarFileWriter.PLAIN) {
+						for (int r = 0; r < groupRows; r++)
+							group[r][c] = string();
+					} else {
+						String[] dictionary = new String[(int) varint()];
+						for (int d = 0; d < dictionary.length; d++)
+							dictionary[d] = string();
+						for (int r = 0; r < groupRows; r++) {
+							int code = (int) varint();
+							group[r][c] = code == 0 ? null : dictionary[code - 1];
+						}
+					}
+					assertEquals("chunk length", end, this.in.position());
+				}
+				this.rows.addAll(Arrays.asList(group));
+			}
+			assertEquals('F', this.in.get());
+			this.rowCount = varint();
+			this.count = varint() - 1;
+			this.maxRows = this.in.get() == 1;
+		}
+
+		private long varint() {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = this.in.get();
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			return value;
+		}
+
+		private String string() {
+			int length = (int) varint() - 1;
+			if (length < 0)
+				return null;
+			byte[] bytes = new byte[length];
+			this.in.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+
+	private static Reader write(int rowGroupSize, int rows) throws IOException {
+		Path file = Files.createTempFile("rets-export", ".col");
+		try {
+			try (ColumnarFileWriter writer = new ColumnarFileWriter(FileChannel.open(file, StandardOpenOption.WRITE), rowGroupSize)) {
+				writer.setCount(rows * 2);
+				writer.setColumns(new String[]{"Id", "Status", "Remarks"});
+				for (int i = 0; i < rows; i++) {
+					writer.addRow(i % 7 == 0 ? new String[]{Integer.toString(i), "A"} : new String[]{Integer.toString(i), i % 2 == 0 ? "A" : "S", "r\u00e9mark " + i});
+				}
+				writer.setMaxRows();
+				writer.setComplete();
+				assertEquals(rows, writer.getRowCount());
+			}
+			return new Reader(Files.readAllBytes(file));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	public void testRoundTrip() throws IOException {
+		Reader reader = write(100, 1050);
+		assertEquals("columns", new String[]{"Id", "Status", "Remarks"}, reader.columns);
+		assertEquals(1050, reader.rowCount);
+		assertEquals(2100, reader.count);
+		assertTrue(reader.maxRows);
+		assertEquals(1050, reader.rows.size());
+		for (int i = 0; i < 1050; i++) {
+			String[] row = reader.rows.get(i);
+			assertEquals(Integer.toString(i), row[0]);
+			assertEquals(i % 7 == 0 || i % 2 == 0 ? "A" : "S", row[1]);
+			assertEquals(i % 7 == 0 ? null : "r\u00e9mark " + i, row[2]);
+		}
+		// Id and Remarks are unique, Status has two values
+		assertEquals(Byte.valueOf(ColumnarFileWriter.PLAIN), reader.encodings.get(0));
+		assertEquals(Byte.valueOf(ColumnarFileWriter.DICTIONARY), reader.encodings.get(1));
+		assertEquals(Byte.valueOf(ColumnarFileWriter.PLAIN), reader.encodings.get(2));
+	}
+
+	public void testEmpty() throws IOException {
+		Reader reader = write(10, 0);
+		assertEquals(0, reader.rows.size());
+		assertEquals(0, reader.rowCount);
+		assertEquals(3, reader.columns.length);
+	}
+}
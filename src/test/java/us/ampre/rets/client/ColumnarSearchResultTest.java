@@ -0,0 +1,73 @@
+package us.ampre.rets.client;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class ColumnarSearchResultTest extends RetsTestCase {
+	public void testSearchResult() {
+		String[] cols = { "Column1", "Column2" };
+		String[] row1 = { "Data1x1", "Data1x2" };
+		String[] row2 = { "Data2x1", "Data2x2" };
+		ColumnarSearchResult result = new ColumnarSearchResult();
+		result.setCount(5);
+		result.setColumns(cols);
+		result.addRow(row1);
+		result.addRow(row2);
+		result.setMaxRows();
+		result.setComplete();
+		assertEquals("setCount wrong", 5, result.getCount());
+		assertEquals("row count wrong", 2, result.getRowCount());
+		assertTrue("isComplete not set", result.isComplete());
+		assertTrue("isMaxrows not set", result.isMaxRows());
+		assertEquals("columns mangled", cols, result.getColumns());
+		assertEquals("row 1 mangled", row1, result.getRow(0));
+		assertEquals("row 2 mangled", row2, result.getRow(1));
+		assertEquals("cell mangled", "Data2x2", result.getValue(1, 1));
+		assertEquals("cell by name mangled", "Data1x2", result.getValue(0, "Column2"));
+		try {
+			result.getRow(2);
+			fail("getting invalid row 2 should have thrown " + "NoSuchElementException");
+		} catch (NoSuchElementException e) {
+			// "success"
+		}
+	}
+
+	public void testDictionaryEncoding() {
+		ColumnarSearchResult result = new ColumnarSearchResult();
+		result.setColumns(new String[] { "Status", "ListingKey" });
+		for (int i = 0; i < 5000; i++) {
+			result.addRow(new String[] { i % 3 == 0 ? "A" : "S", Integer.toString(i) });
+		}
+		assertTrue("low cardinality column not encoded", result.isDictionaryEncoded(0));
+		assertEquals("wrong distinct count", 2, result.getDistinctValueCount(0));
+		assertFalse("unique column still encoded", result.isDictionaryEncoded(1));
+		assertEquals("wrong status", "A", result.getValue(3000, 0));
+		assertEquals("wrong key after conversion", "10", result.getValue(10, 1));
+		assertEquals("wrong key", "4999", result.getValue(4999, 1));
+		assertSame("values not interned", result.getValue(0, 0), result.getValue(3, 0));
+	}
+
+	public void testDictionaryLimit() {
+		ColumnarSearchResult result = new ColumnarSearchResult(2);
+		result.setColumns(new String[] { "col1" });
+		result.addRow(new String[] { "a" });
+		result.addRow(new String[] { "b" });
+		assertTrue(result.isDictionaryEncoded(0));
+		result.addRow(new String[] { "c" });
+		assertFalse(result.isDictionaryEncoded(0));
+		assertEquals("row mangled", new String[] { "a" }, result.getRow(0));
+		assertEquals("row mangled", new String[] { "c" }, result.getRow(2));
+	}
+
+	public void testShortRow() {
+		ColumnarSearchResult result = new ColumnarSearchResult();
+		result.setColumns(new String[] { "col1", "col2" });
+		result.addRow(new String[] { "row1" });
+		assertEquals("row1", result.getValue(0, 0));
+		assertNull(result.getValue(0, 1));
+		Iterator<String[]> iterator = result.iterator();
+		assertTrue(iterator.hasNext());
+		assertEquals("wrong row width", 2, iterator.next().length);
+		assertFalse(iterator.hasNext());
+	}
+}
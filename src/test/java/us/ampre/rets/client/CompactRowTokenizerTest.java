@@ -0,0 +1,67 @@
+package us.ampre.rets.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CompactRowTokenizerTest extends RetsTestCase {
+	private String[] split(String input) {
+		return new CompactRowTokenizer('\t', 2).split(new StringBuilder(input));
+	}
+
+	public void testFields() {
+		assertEquals("fields wrong", new String[] { "A", "B", "C" }, split("\tA\tB\tC\t"));
+	}
+
+	public void testEmptyFields() {
+		assertEquals("empty middle field lost", new String[] { "A", "", "B" }, split("\tA\t\tB\t"));
+		assertEquals("empty trailing field lost", new String[] { "A", "" }, split("\tA\t\t"));
+		assertEquals("single empty field lost", new String[] { "" }, split("\t\t"));
+		assertEquals("delimiter only", new String[0], split("\t"));
+	}
+
+	public void testUnterminatedField() {
+		assertEquals("unterminated field lost", new String[] { "A", "B" }, split("\tA\tB"));
+	}
+
+	public void testBufferGrowth() {
+		CompactRowTokenizer tokenizer = new CompactRowTokenizer(',', 1);
+		StringBuilder line = new StringBuilder(",");
+		for (int i = 0; i < 500; i++) {
+			line.append(i).append(',');
+		}
+		String[] fields = tokenizer.split(line);
+		assertEquals("wrong field count", 500, fields.length);
+		assertEquals("wrong last field", "499", fields[499]);
+		assertEquals("buffer not reset", new String[] { "x" }, tokenizer.split(new StringBuilder(",x,")));
+	}
+
+	public void testAccepts() {
+		CompactRowTokenizer tokenizer = new CompactRowTokenizer('\t');
+		assertTrue(tokenizer.accepts("\tA\t"));
+		assertFalse(tokenizer.accepts("A\t"));
+		assertFalse(tokenizer.accepts(""));
+	}
+
+	public void testFieldSink() {
+		CompactRowTokenizer tokenizer = new CompactRowTokenizer('\t');
+		for (String line : new String[] { "\tA\t\tB\t", "\tA\tB", "\t\t", "\t" }) {
+			List<String> fields = new ArrayList<>();
+			StringBuilder input = new StringBuilder(line);
+			int count = tokenizer.split(input, (index, buf, off, len) -> {
+				assertEquals("fields out of order", fields.size(), index);
+				fields.add(new String(buf, off, len));
+			});
+			assertEquals("wrong count", split(line).length, count);
+			assertEquals("count() disagrees", count, tokenizer.count(input));
+			assertEquals("fields differ", split(line), fields.toArray(new String[0]));
+		}
+	}
+
+	public void testFieldSinkLimit() {
+		CompactRowTokenizer tokenizer = new CompactRowTokenizer('\t');
+		List<String> fields = new ArrayList<>();
+		int count = tokenizer.split(new StringBuilder("\tA\tB\tC\tD"), (index, buf, off, len) -> fields.add(new String(buf, off, len)), 2);
+		assertEquals("extra fields not counted", 4, count);
+		assertEquals("fields past the limit passed on", new String[] { "A", "B" }, fields.toArray(new String[0]));
+	}
+}
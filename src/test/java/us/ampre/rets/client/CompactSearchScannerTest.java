@@ -0,0 +1,141 @@
+package us.ampre.rets.client;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+public class CompactSearchScannerTest extends RetsTestCase {
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n<RETS ReplyCode=\"0\" ReplyText=\"Success &amp; more\">\r\n"
+		+ "<COUNT Records=\"3\"/>\r\n<DELIMITER value=\"09\"/>\r\n<COLUMNS>\tId\tRemarks\t</COLUMNS>\r\n";
+
+	private static SearchResultImpl scan(byte[] input, String charset, int bufferSize, boolean expectFallback) throws RetsException {
+		SearchResultImpl result = new SearchResultImpl();
+		CompactSearchScanner scanner = new CompactSearchScanner(result, InvalidReplyCodeHandler.FAIL, CompactRowPolicy.DEFAULT, bufferSize);
+		scanner.parse(new ByteArrayInputStream(input), charset);
+		assertEquals("fallback", expectFallback, scanner.isFallback());
+		return result;
+	}
+
+	/**
+	 * Scan with a small and a large buffer and check that the collector sees
+	 * what SearchResultHandler gives it.
+	 */
+	private SearchResultImpl assertSameAsSax(String input, Charset charset, boolean expectFallback) throws RetsException {
+		byte[] bytes = input.getBytes(charset);
+		SearchResultImpl expected = new SearchResultImpl();
+		new SearchResultHandler(expected).parse(new ByteArrayInputStream(bytes), charset.name());
+		SearchResultImpl result = null;
+		for (int bufferSize : new int[]{16, 4096}) {
+			result = scan(bytes, charset.name(), bufferSize, expectFallback);
+			assertEquals("count", expected.getCount(), result.getCount());
+			if (expected.getColumns() == null)
+				assertNull("columns", result.getColumns());
+			else
+				assertEquals("columns", expected.getColumns(), result.getColumns());
+			assertEquals("rows", expected.getRowCount(), result.getRowCount());
+			for (int i = 0; i < expected.getRowCount(); i++) {
+				assertEquals("row " + i, expected.getRow(i), result.getRow(i));
+			}
+			assertEquals("max rows", expected.isMaxRows(), result.isMaxRows());
+			assertTrue("search not complete", result.isComplete());
+		}
+		return result;
+	}
+
+	public void testHandlerCases() throws RetsException {
+		assertSameAsSax(SearchResultHandlerTest.GOOD_SMALL_TEST, StandardCharsets.UTF_8, false);
+		assertSameAsSax(SearchResultHandlerTest.ALL_TAGS_TEST, StandardCharsets.UTF_8, false);
+		assertSameAsSax(SearchResultHandlerTest.MAXROWS_REPLYCODE, StandardCharsets.UTF_8, false);
+		assertSameAsSax(SearchResultHandlerTest.EMPTY_REPLYCODE, StandardCharsets.UTF_8, false);
+		assertSameAsSax(SearchResultHandlerTest.EMPTY_REPLYCODE_WITH_COLUMNS_TAG, StandardCharsets.UTF_8, false);
+		assertSameAsSax("<RETS ReplyCode=\"20201\" ReplyText=\"No Records Found\"/>", StandardCharsets.UTF_8, false);
+	}
+
+	public void testEscapes() throws RetsException {
+		SearchResultImpl result = assertSameAsSax(HEADER
+			+ "<DATA>\t1\tA &amp; B &lt;3 &#65;&#x42; caf\u00e9\t</DATA>\r\n"
+			+ "<DATA>\t2\tline\r\nbreak\t</DATA>\r\n"
+			+ "<DATA>\t3\t\t</DATA>\r\n</RETS>\r\n", StandardCharsets.UTF_8, false);
+		assertEquals("row 0", new String[]{"1", "A & B <3 AB caf\u00e9"}, result.getRow(0));
+		assertEquals("row 1", new String[]{"2", "line\nbreak"}, result.getRow(1));
+		assertEquals("row 2", new String[]{"3", ""}, result.getRow(2));
+	}
+
+	public void testSingleByteCharset() throws RetsException {
+		Charset latin1 = StandardCharsets.ISO_8859_1;
+		SearchResultImpl result = assertSameAsSax(HEADER.replace("UTF-8", "ISO-8859-1")
+			+ "<DATA>\t1\tna\u00efve\t</DATA>\r\n</RETS>\r\n", latin1, false);
+		assertEquals("row 0", new String[]{"1", "na\u00efve"}, result.getRow(0));
+	}
+
+	public void testFallback() throws RetsException {
+		String rows = "<DATA>\t1\tfirst\t</DATA>\r\n";
+		// markup the scanner does not handle, at several points of the response
+		assertSameAsSax(HEADER.replace("?>", "?>\r\n<!-- generated -->") + rows + "</RETS>\r\n", StandardCharsets.UTF_8, true);
+		assertSameAsSax(HEADER + rows + "<!-- page 2 -->\r\n<DATA>\t2\tsecond\t</DATA>\r\n</RETS>\r\n", StandardCharsets.UTF_8, true);
+		assertSameAsSax(HEADER + rows + "<DATA>\t2\t<![CDATA[a < b]]>\t</DATA>\r\n<DATA>\t3\tthird\t</DATA>\r\n</RETS>\r\n", StandardCharsets.UTF_8, true);
+		assertSameAsSax(HEADER + rows + "<DATA>\t2&#9;x\t</DATA>\r\n<MAXROWS/>\r\n</RETS>\r\n", StandardCharsets.UTF_8, true);
+		assertSameAsSax(HEADER + rows + "<EXTRA/>\r\n</RETS>\r\n", StandardCharsets.UTF_8, true);
+		assertSameAsSax(HEADER.replace("UTF-8", "UTF-16") + rows + "</RETS>\r\n", StandardCharsets.UTF_16, true);
+	}
+
+	public void testInvalidReplyCode() {
+		try {
+			scan(SearchResultHandlerTest.LATE_ERROR_TEST.getBytes(StandardCharsets.UTF_8), null, 4096, false);
+			fail("Expected an InvalidReplyCodeException");
+		} catch (InvalidReplyCodeException e) {
+			assertEquals(SearchResultHandlerTest.LATE_ERROR_CODE, e.getReplyCodeValue());
+		} catch (RetsException e) {
+			fail(e.getMessage());
+		}
+
+		TestInvalidReplyCodeHandler handler = new TestInvalidReplyCodeHandler();
+		SearchResultImpl result = new SearchResultImpl();
+		try {
+			new CompactSearchScanner(result, handler, CompactRowPolicy.DEFAULT).parse(new ByteArrayInputStream(SearchResultHandlerTest.LATE_ERROR_TEST.getBytes(StandardCharsets.UTF_8)), null);
+		} catch (RetsException e) {
+			fail(e.getMessage());
+		}
+		assertEquals(SearchResultHandlerTest.LATE_ERROR_CODE, handler.getReplyCode());
+		assertEquals(2, result.getRowCount());
+	}
+
+	public void testRootCheck() throws RetsException {
+		SearchResultImpl result = new SearchResultImpl();
+		CompactSearchScanner scanner = new CompactSearchScanner(result);
+		scanner.setRootCheck(true);
+		try {
+			scanner.parse(new ByteArrayInputStream(SearchResultHandlerTest.EMPTY_REPLYCODE.getBytes(StandardCharsets.UTF_8)), null);
+			fail("Expected an InvalidReplyCodeException");
+		} catch (InvalidReplyCodeException e) {
+			assertEquals(ReplyCode.NO_RECORDS_FOUND.getValue(), e.getReplyCodeValue());
+		}
+		assertTrue("search not complete", result.isComplete());
+
+		scanner = new CompactSearchScanner(new SearchResultImpl());
+		scanner.setRootCheck(true);
+		try {
+			scanner.parse(new ByteArrayInputStream("<HTML><BODY>Service Unavailable</BODY></HTML>".getBytes(StandardCharsets.UTF_8)), null);
+			fail("Expected a RetsException");
+		} catch (InvalidReplyCodeException e) {
+			fail("Expected a malformed response, not a reply code");
+		} catch (RetsException e) {
+			// "success"
+		}
+	}
+
+	public void testBadRows() {
+		try {
+			scan((HEADER + "<DATA>1\t2\t</DATA>\r\n</RETS>").getBytes(StandardCharsets.UTF_8), null, 4096, false);
+			fail("Expected a RetsException");
+		} catch (RetsException e) {
+			assertEquals("Invalid compact format", e.getMessage());
+		}
+		try {
+			scan((HEADER + "<DATA>\t1\t2\t3\t</DATA>\r\n</RETS>").getBytes(StandardCharsets.UTF_8), null, 4096, false);
+			fail("Expected a RetsException");
+		} catch (RetsException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package us.ampre.rets.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+
+public class ContentDecodingTest extends RetsTestCase {
+	private static final byte[] BODY = "<RETS ReplyCode=\"0\" ReplyText=\"Success\"/>\r\n".repeat(200).getBytes(StandardCharsets.UTF_8);
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (OutputStream gzip = new GZIPOutputStream(out)) {
+			gzip.write(data);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] deflate(byte[] data, boolean raw) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (OutputStream deflate = new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, raw))) {
+			deflate.write(data);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] read(ContentDecoding decoding, byte[] body, String encoding) throws IOException {
+		try (InputStream in = decoding.open(new ByteArrayInputStream(body), encoding, "http://localhost/search")) {
+			return in.readAllBytes();
+		}
+	}
+
+	public void testEncodings() throws IOException {
+		ContentDecoding decoding = new ContentDecoding();
+		decoding.setBufferSize(512);
+		assertTrue(Arrays.equals(BODY, read(decoding, gzip(BODY), "gzip")));
+		assertTrue(Arrays.equals(BODY, read(decoding, gzip(BODY), "X-GZIP")));
+		assertTrue(Arrays.equals(BODY, read(decoding, deflate(BODY, false), "deflate")));
+		assertTrue(Arrays.equals(BODY, read(decoding, deflate(BODY, true), "deflate")));
+		assertTrue(Arrays.equals(BODY, read(decoding, gzip(deflate(BODY, false)), "deflate, gzip")));
+		assertTrue(Arrays.equals(BODY, read(decoding, BODY, null)));
+		assertTrue(Arrays.equals(BODY, read(decoding, BODY, "identity")));
+		try {
+			read(decoding, BODY, "zstd");
+			fail("Expected an IOException");
+		} catch (IOException e) {
+			assertEquals("Unsupported Content-Encoding: zstd", e.getMessage());
+		}
+	}
+
+	public void testCounters() throws IOException {
+		ContentDecoding decoding = new ContentDecoding();
+		List<long[]> reports = new ArrayList<>();
+		decoding.setListener((url, encoding, compressed, decoded) -> {
+			assertEquals("http://localhost/search", url);
+			assertEquals("gzip", encoding);
+			reports.add(new long[]{compressed, decoded});
+		});
+		byte[] compressed = gzip(BODY);
+		ContentDecoding.DecodedInputStream in = decoding.open(new ByteArrayInputStream(compressed), "gzip", "http://localhost/search");
+		in.readAllBytes();
+		assertEquals(compressed.length, in.getCompressedBytes());
+		assertEquals(BODY.length, in.getDecodedBytes());
+		in.close();
+		assertEquals("reported more than once", 1, reports.size());
+		assertEquals(compressed.length, reports.get(0)[0]);
+		assertEquals(BODY.length, reports.get(0)[1]);
+		assertEquals(compressed.length, decoding.getTotalCompressedBytes());
+		assertEquals(BODY.length, decoding.getTotalDecodedBytes());
+	}
+
+	public void testRegister() throws IOException {
+		ContentDecoding decoding = new ContentDecoding();
+		assertEquals(CommonsHttpClient.DEFLATE_ENCODINGS, decoding.getAcceptEncoding());
+		// stands in for a zstd library
+		decoding.register("zstd", ContentDecoder.GZIP);
+		decoding.register("br", ContentDecoder.DEFLATE);
+		assertEquals("br,zstd,gzip,deflate", decoding.getAcceptEncoding());
+		assertTrue(Arrays.equals(BODY, read(decoding, gzip(BODY), "zstd")));
+	}
+
+	private static CloseableHttpResponse response(byte[] body, String encoding) {
+		BasicClassicHttpResponse response = new BasicClassicHttpResponse(200);
+		response.setEntity(new ByteArrayEntity(body, ContentType.TEXT_XML) {
+			@Override
+			public String getContentEncoding() {
+				return encoding;
+			}
+		});
+		response.addHeader(CommonsHttpClient.CONTENT_LENGTH, body.length);
+		if (encoding != null)
+			response.addHeader(CommonsHttpClient.CONTENT_ENCODING, encoding);
+		return CloseableHttpResponse.adapt(response);
+	}
+
+	public void testResponse() throws Exception {
+		byte[] compressed = gzip(BODY);
+		ContentDecoding decoding = new ContentDecoding();
+		decoding.setBufferSize(1024);
+
+		RetsHttpResponseImpl buffered = new RetsHttpResponseImpl(response(compressed, "gzip"), Map.of(), false, decoding, "http://localhost/search");
+		assertTrue(Arrays.equals(BODY, buffered.getInputStream().readAllBytes()));
+		assertEquals(compressed.length, buffered.getCompressedBytes());
+		assertEquals(BODY.length, buffered.getDecodedBytes());
+		assertNull("Content-Encoding of a decoded body", buffered.getHeader(CommonsHttpClient.CONTENT_ENCODING));
+		assertNull("Content-Length of a decoded body", buffered.getHeader(CommonsHttpClient.CONTENT_LENGTH));
+
+		try (RetsHttpResponseImpl streamed = new RetsHttpResponseImpl(response(compressed, "gzip"), Map.of(), true, decoding, "http://localhost/search")) {
+			assertTrue(Arrays.equals(BODY, streamed.getInputStream().readAllBytes()));
+			assertEquals(compressed.length, streamed.getCompressedBytes());
+			assertEquals(BODY.length, streamed.getDecodedBytes());
+			assertNull(streamed.getHeader(CommonsHttpClient.CONTENT_ENCODING));
+			assertNull(streamed.getHeader(CommonsHttpClient.CONTENT_LENGTH));
+		}
+		assertEquals(2L * compressed.length, decoding.getTotalCompressedBytes());
+
+		RetsHttpResponseImpl undecoded = new RetsHttpResponseImpl(response(BODY, null), Map.of(), false, null, null);
+		assertTrue(Arrays.equals(BODY, undecoded.getInputStream().readAllBytes()));
+		assertEquals(-1, undecoded.getCompressedBytes());
+		assertEquals(Integer.toString(BODY.length), undecoded.getHeader(CommonsHttpClient.CONTENT_LENGTH));
+	}
+}
@@ -0,0 +1,87 @@
+package us.ampre.rets.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class DelimitedFileWriterTest extends RetsTestCase {
+	private static final String SEARCH = "<RETS ReplyCode=\"0\" ReplyText=\"Success\">\r\n<COUNT Records=\"10\"/>\r\n<DELIMITER value=\"09\"/>\r\n"
+		+ "<COLUMNS>\tId\tRemarks\t</COLUMNS>\r\n"
+		+ "<DATA>\t1\tplain\t</DATA>\r\n"
+		+ "<DATA>\t2\tsay \"hi\", caf\u00e9\t</DATA>\r\n"
+		+ "<DATA>\t3\tback\\slash\r\nnext line\t</DATA>\r\n"
+		+ "<DATA>\t4\t</DATA>\r\n"
+		+ "<MAXROWS/>\r\n</RETS>\r\n";
+
+	private static String export(DelimitedFileWriter.Format format, boolean footer) throws IOException, RetsException {
+		Path file = Files.createTempFile("rets-export", ".txt");
+		try {
+			try (DelimitedFileWriter writer = new DelimitedFileWriter(file, format)) {
+				writer.setFooter(footer);
+				new SearchResultHandler(writer).parse(new ByteArrayInputStream(SEARCH.getBytes(StandardCharsets.UTF_8)), "UTF-8");
+				assertTrue(writer.isComplete());
+				assertEquals(4, writer.getRowCount());
+				assertEquals(10, writer.getCount());
+				assertTrue(writer.isMaxRows());
+			}
+			return Files.readString(file, StandardCharsets.UTF_8);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	public void testCsv() throws IOException, RetsException {
+		assertEquals("Id,Remarks\r\n"
+			+ "1,plain\r\n"
+			+ "2,\"say \"\"hi\"\", caf\u00e9\"\r\n"
+			+ "3,\"back\\slash\nnext line\"\r\n"
+			+ "4,\r\n"
+			+ "#COUNT=10,ROWS=4,MAXROWS=true\r\n", export(DelimitedFileWriter.Format.CSV, true));
+	}
+
+	public void testTsv() throws IOException, RetsException {
+		assertEquals("Id\tRemarks\n"
+			+ "1\tplain\n"
+			+ "2\tsay \"hi\", caf\u00e9\n"
+			+ "3\tback\\\\slash\\nnext line\n"
+			+ "4\t\n", export(DelimitedFileWriter.Format.TSV, false));
+	}
+
+	public void testLargeExport() throws IOException {
+		Path file = Files.createTempFile("rets-export", ".csv");
+		try {
+			try (DelimitedFileWriter writer = new DelimitedFileWriter(file, DelimitedFileWriter.Format.CSV)) {
+				writer.setFooter(true);
+				writer.setColumns(new String[]{"Id", "Filler"});
+				for (int i = 0; i < 5000; i++) {
+					writer.addRow(new String[]{Integer.toString(i), "x".repeat(100)});
+				}
+				writer.setComplete();
+			}
+			List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+			assertEquals(5002, lines.size());
+			assertEquals("4999," + "x".repeat(100), lines.get(5000));
+			assertEquals("no COUNT was sent", "#ROWS=5000,MAXROWS=false", lines.get(5001));
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	public void testNoFooterByDefault() throws IOException {
+		Path file = Files.createTempFile("rets-export", ".csv");
+		try {
+			try (DelimitedFileWriter writer = new DelimitedFileWriter(file, DelimitedFileWriter.Format.CSV)) {
+				writer.setCount(1);
+				writer.setColumns(new String[]{"Id"});
+				writer.addRow(new String[]{"1"});
+				writer.setComplete();
+			}
+			assertEquals("Id\r\n1\r\n", Files.readString(file, StandardCharsets.UTF_8));
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package us.ampre.rets.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.InputStreamEntity;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+
+public class GetObjectBatchDownloaderTest extends RetsTestCase {
+	/**
+	 * Returns one part per requested id and refuses requests with 20412 while
+	 * more than <code>capacity</code> are in flight, or for the first
+	 * <code>refusals</code> requests.
+	 */
+	static class ObjectHttpClient extends StubHttpClient {
+		final int capacity;
+		final AtomicInteger refusals;
+		final List<String> ids = Collections.synchronizedList(new ArrayList<>());
+
+		ObjectHttpClient(int capacity, int refusals) {
+			this.capacity = capacity;
+			this.refusals = new AtomicInteger(refusals);
+			setDelayMillis(5);
+		}
+
+		@Override
+		protected void respond(RetsHttpRequest request, BasicClassicHttpResponse response) {
+			String body;
+			if (this.inFlight.get() > this.capacity || this.refusals.getAndDecrement() > 0) {
+				response.setHeader("Content-Type", "text/xml");
+				body = "<RETS ReplyCode=\"20412\" ReplyText=\"Too Many Outstanding Queries\"/>\r\n";
+			} else {
+				String id = ((GetObjectRequest) request).getQueryParameter(GetObjectRequest.KEY_ID);
+				this.ids.add(id);
+				response.setHeader("Content-Type", "multipart/parallel; boundary=\"B\"");
+				StringBuilder parts = new StringBuilder();
+				for (String entity : id.split(",")) {
+					String[] fields = entity.split(":");
+					for (int i = 1; i < fields.length; i++) {
+						parts.append("--B\r\nContent-Type: image/jpeg\r\nContent-ID: ").append(fields[0])
+								.append("\r\nObject-ID: ").append(fields[i]).append("\r\n");
+						if ("1".equals(((GetObjectRequest) request).getQueryParameter(GetObjectRequest.KEY_LOCATION)))
+							parts.append("Location: http://example.com/").append(fields[0]).append('/').append(fields[i]).append(".jpg\r\n\r\n");
+						else
+							parts.append("\r\n").append(fields[0]).append('/').append(fields[i]).append("\r\n");
+					}
+				}
+				body = parts.append("--B--\r\n").toString();
+			}
+			response.setEntity(new StringEntity(body, StandardCharsets.UTF_8));
+		}
+	}
+
+	private static GetObjectBatchDownloader downloader(ObjectHttpClient client) {
+		RetsSession session = new RetsSession("http://localhost/login", client);
+		CapabilityUrls urls = new CapabilityUrls();
+		urls.setGetObjectUrl("http://localhost/getobject");
+		session.getTransport().setCapabilities(urls);
+		GetObjectBatchDownloader downloader = new GetObjectBatchDownloader(session);
+		downloader.setInitialBackoffMillis(2);
+		downloader.setMaxBackoffMillis(10);
+		return downloader;
+	}
+
+	private static String read(SingleObjectResponse object) throws IOException {
+		return new String(object.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+	}
+
+	public void testPacksAndBacksOff() throws RetsException {
+		ObjectHttpClient client = new ObjectHttpClient(2, 0);
+		GetObjectBatchDownloader downloader = downloader(client);
+		downloader.setConcurrency(6);
+		downloader.setMaxIdsPerRequest(7);
+		downloader.setMaxEntitiesPerRequest(3);
+		Set<String> received = ConcurrentHashMap.newKeySet();
+		GetObjectBatchDownloader.Summary summary = downloader.download(
+				IntStream.range(0, 60).mapToObj(i -> new GetObjectBatchDownloader.Entry("Property", "Photo", "L" + i, "1", "2")),
+				object -> {
+					assertEquals(object.getContentID() + "/" + object.getObjectID(), read(object));
+					assertTrue("duplicate " + object.getContentID(), received.add(object.getContentID() + "/" + object.getObjectID()));
+				});
+		assertEquals(120, received.size());
+		assertEquals(120, summary.getObjects());
+		assertEquals(0, summary.getFailedRequests());
+		// 3 entities of 2 ids per request
+		assertEquals(20, client.ids.size());
+		for (String id : client.ids) {
+			assertEquals(id, 3, id.split(",").length);
+		}
+		assertEquals(summary.getRequests(), 20 + summary.getRetries());
+	}
+
+	public void testGivesUp() throws RetsException {
+		ObjectHttpClient client = new ObjectHttpClient(Integer.MAX_VALUE, 100);
+		GetObjectBatchDownloader downloader = downloader(client);
+		downloader.setConcurrency(1);
+		downloader.setMaxRetries(2);
+		List<String> failed = new ArrayList<>();
+		GetObjectBatchDownloader.Summary summary = downloader.download(
+				List.of(new GetObjectBatchDownloader.Entry("Property", "Photo", "L1"),
+						new GetObjectBatchDownloader.Entry("Media", "Photo", "M1", "3")).stream(),
+				new GetObjectBatchDownloader.Handler() {
+					public void object(SingleObjectResponse object) {
+						fail("no objects expected");
+					}
+
+					@Override
+					public void failed(GetObjectBatchDownloader.Entry entry, RetsException cause) {
+						assertEquals(20412, ((InvalidReplyCodeException) cause).getReplyCodeValue());
+						failed.add(entry.toString());
+					}
+				});
+		assertEquals(List.of("Property:Photo:L1:*", "Media:Photo:M1:3"), failed);
+		assertEquals(2, summary.getFailedRequests());
+		assertEquals(6, summary.getRequests());
+		assertEquals(4, summary.getRetries());
+	}
+
+	public void testHandlerFailureStops() {
+		ObjectHttpClient client = new ObjectHttpClient(Integer.MAX_VALUE, 0);
+		GetObjectBatchDownloader downloader = downloader(client);
+		try {
+			downloader.download(IntStream.range(0, 10).mapToObj(i -> new GetObjectBatchDownloader.Entry("Property", "Photo", "L" + i, "1")),
+					object -> {
+						throw new IOException("disk full");
+					});
+			fail("Expected a RetsException");
+		} catch (RetsException e) {
+			assertEquals("disk full", e.getCause().getMessage());
+		}
+	}
+
+	public void testHarvestLocations() throws RetsException {
+		ObjectHttpClient client = new ObjectHttpClient(Integer.MAX_VALUE, 1);
+		GetObjectBatchDownloader downloader = downloader(client);
+		downloader.setMaxEntitiesPerRequest(4);
+		List<String> locations = Collections.synchronizedList(new ArrayList<>());
+		GetObjectBatchDownloader.Summary summary = downloader.harvestLocations(
+				IntStream.range(0, 10).mapToObj(i -> new GetObjectBatchDownloader.Entry("Property", "Photo", "L" + i, "1", "2", "3")),
+				location -> locations.add(location.getContentId() + "/" + location.getObjectId() + " " + location.getLocation()));
+		assertEquals(30, summary.getObjects());
+		assertEquals(3, client.ids.size());
+		assertEquals(1, summary.getRetries());
+		assertTrue(locations.contains("L7/2 http://example.com/L7/2.jpg"));
+		assertEquals(30, locations.size());
+	}
+
+	private static GetObjectBatchDownloader downloader(RetsHttpClient client) {
+		RetsSession session = new RetsSession("http://localhost/login", client);
+		CapabilityUrls urls = new CapabilityUrls();
+		urls.setGetObjectUrl("http://localhost/getobject");
+		session.getTransport().setCapabilities(urls);
+		return new GetObjectBatchDownloader(session);
+	}
+
+	public void testFailureReportsUndeliveredEntries() throws RetsException {
+		RetsHttpClient client = new StubHttpClient() {
+			@Override
+			protected void respond(RetsHttpRequest request, BasicClassicHttpResponse response) {
+				byte[] head = ("--B\r\nContent-Type: image/jpeg\r\nContent-ID: L0\r\nObject-ID: 1\r\n\r\nL0/1"
+						+ "\r\n--B\r\nContent-Type: image/jpeg\r\nContent-ID: L1\r\nObject-ID: 1\r\n\r\nL1").getBytes(StandardCharsets.US_ASCII);
+				InputStream reset = new InputStream() {
+					@Override
+					public int read() throws IOException {
+						throw new IOException("connection reset");
+					}
+				};
+				response.setHeader("Content-Type", "multipart/parallel; boundary=\"B\"");
+				response.setEntity(new InputStreamEntity(new SequenceInputStream(new ByteArrayInputStream(head), reset), ContentType.APPLICATION_OCTET_STREAM));
+			}
+		}.setStreaming(true);
+		List<String> objects = Collections.synchronizedList(new ArrayList<>());
+		List<String> failed = Collections.synchronizedList(new ArrayList<>());
+		GetObjectBatchDownloader.Summary summary = downloader(client).download(
+				IntStream.range(0, 3).mapToObj(i -> new GetObjectBatchDownloader.Entry("Property", "Photo", "L" + i, "1")),
+				new GetObjectBatchDownloader.Handler() {
+					public void object(SingleObjectResponse object) {
+						objects.add(object.getContentID());
+					}
+
+					@Override
+					public void failed(GetObjectBatchDownloader.Entry entry, RetsException cause) {
+						failed.add(entry.getEntity());
+					}
+				});
+		assertEquals(List.of("L0", "L1"), objects);
+		assertEquals("L1 was cut off, L2 never arrived", List.of("L1", "L2"), failed);
+		assertEquals(1, summary.getFailedRequests());
+	}
+
+	static class HandlerError extends Error {
+		HandlerError(String message) {
+			super(message);
+		}
+	}
+
+	public void testHandlerErrorStops() throws RetsException {
+		GetObjectBatchDownloader downloader = downloader(new ObjectHttpClient(Integer.MAX_VALUE, 0));
+		try {
+			downloader.download(IntStream.range(0, 10).mapToObj(i -> new GetObjectBatchDownloader.Entry("Property", "Photo", "L" + i, "1")),
+					object -> {
+						throw new HandlerError("out of memory");
+					});
+			fail("Expected the handler's error");
+		} catch (HandlerError e) {
+			assertEquals("out of memory", e.getMessage());
+		}
+	}
+
+	public void testFailedHandlerThrowStops() {
+		GetObjectBatchDownloader downloader = downloader(new ObjectHttpClient(Integer.MAX_VALUE, 100));
+		downloader.setMaxRetries(0);
+		try {
+			downloader.download(IntStream.range(0, 10).mapToObj(i -> new GetObjectBatchDownloader.Entry("Property", "Photo", "L" + i, "1")),
+					new GetObjectBatchDownloader.Handler() {
+						public void object(SingleObjectResponse object) {
+						}
+
+						@Override
+						public void failed(GetObjectBatchDownloader.Entry entry, RetsException cause) {
+							throw new IllegalStateException("cannot record " + entry.getEntity());
+						}
+					});
+			fail("Expected a RetsException");
+		} catch (RetsException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	public void testAdaptiveLimit() throws InterruptedException {
+		GetObjectBatchDownloader.AdaptiveLimit limit = new GetObjectBatchDownloader.AdaptiveLimit(8);
+		limit.decrease();
+		limit.decrease();
+		assertEquals(2, limit.current());
+		limit.acquire();
+		limit.acquire();
+		limit.release();
+		limit.increase();
+		assertEquals(3, limit.current());
+		for (int i = 0; i < 10; i++) {
+			limit.increase();
+		}
+		assertEquals(8, limit.current());
+	}
+}
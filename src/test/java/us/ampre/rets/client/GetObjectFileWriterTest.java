@@ -0,0 +1,132 @@
+package us.ampre.rets.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+public class GetObjectFileWriterTest extends RetsTestCase {
+	private Path directory;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		this.directory = Files.createTempDirectory("getobject");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		try (Stream<Path> files = Files.list(this.directory)) {
+			for (Path file : files.toList()) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(this.directory);
+		super.tearDown();
+	}
+
+	private static String read(Path file) throws Exception {
+		return new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1);
+	}
+
+	public void testMultipart() throws Exception {
+		String body = "--X\r\nContent-Type: image/jpeg\r\nContent-ID: E1\r\nObject-ID: 1\r\n\r\nfirst\r\nphoto"
+				+ "\r\n--X\r\nContent-Type: image/png; q=1\r\nContent-ID: E1\r\nObject-ID: 2\r\n\r\n\u00ffsecond"
+				+ "\r\n--X\r\nContent-ID: E1\r\nObject-ID: 3\r\nLocation: http://example.com/3.jpg\r\n\r\n"
+				+ "\r\n--X\r\nContent-Type: image/jpeg\r\nContent-ID: a/../b\r\nObject-ID: 4\r\n\r\nthird"
+				+ "\r\n--X--\r\n";
+		Map<String, String> headers = new HashMap<>();
+		headers.put("Content-Type", "multipart/parallel; boundary=\"X\"");
+		Files.writeString(this.directory.resolve("E1-1.jpg"), "stale");
+		GetObjectResponse response = new GetObjectResponse(headers, new ByteArrayInputStream(body.getBytes(StandardCharsets.ISO_8859_1)));
+
+		List<Path> files = new GetObjectFileWriter(this.directory).write(response);
+		assertEquals(3, files.size());
+		assertEquals(this.directory.resolve("E1-1.jpg"), files.get(0));
+		assertEquals(this.directory.resolve("E1-2.png"), files.get(1));
+		assertEquals(this.directory.resolve("a_.._b-4.jpg"), files.get(2));
+		assertEquals("first\r\nphoto", read(files.get(0)));
+		assertEquals("\u00ffsecond", read(files.get(1)));
+		assertEquals("third", read(files.get(2)));
+		try (Stream<Path> list = Files.list(this.directory)) {
+			assertEquals("temp files left behind", 3, list.count());
+		}
+	}
+
+	public void testSingleObject() throws Exception {
+		Map<String, String> headers = new HashMap<>();
+		headers.put("Content-Type", "image/gif");
+		headers.put("Content-ID", "E2");
+		headers.put("Object-ID", "7");
+		GetObjectResponse response = new GetObjectResponse(headers, new ByteArrayInputStream("GIF89a".getBytes(StandardCharsets.US_ASCII)));
+
+		GetObjectFileWriter writer = new GetObjectFileWriter(this.directory);
+		writer.setNaming(object -> object.getObjectID() + ".bin");
+		List<Path> files = writer.write(response);
+		assertEquals(1, files.size());
+		assertEquals(this.directory.resolve("7.bin"), files.get(0));
+		assertEquals("GIF89a", read(files.get(0)));
+	}
+
+	public void testErrorParts() throws Exception {
+		String body = "--X\r\nContent-Type: text/plain\r\nContent-ID: 111285\r\nObject-ID: 1\r\n\r\nObject 111285:* not found\r\n"
+				+ "\r\n--X\r\nContent-Type: image/jpeg\r\nContent-ID: 100084\r\nObject-ID: 1\r\n\r\nphoto"
+				+ "\r\n--X\r\nContent-Type: text/xml\r\nContent-ID: 13710\r\nObject-ID: 2\r\nRETS-Error: 1\r\n\r\n"
+				+ "<RETS ReplyCode=\"20403\" ReplyText=\"No Object Found\"/>"
+				+ "\r\n--X--\r\n";
+		Map<String, String> headers = new HashMap<>();
+		headers.put("Content-Type", "multipart/parallel; boundary=\"X\"");
+		GetObjectResponse response = new GetObjectResponse(headers, new ByteArrayInputStream(body.getBytes(StandardCharsets.ISO_8859_1)));
+
+		List<String> errors = new ArrayList<>();
+		GetObjectFileWriter writer = new GetObjectFileWriter(this.directory);
+		writer.setErrorHandler((object, error) -> errors.add(object.getContentID() + ":" + error));
+		List<Path> files = writer.write(response);
+		assertEquals(1, files.size());
+		assertEquals(this.directory.resolve("100084-1.jpg"), files.get(0));
+		assertEquals("photo", read(files.get(0)));
+		assertEquals(List.of("111285:Object 111285:* not found", "13710:<RETS ReplyCode=\"20403\" ReplyText=\"No Object Found\"/>"), errors);
+	}
+
+	public void testNameCollision() throws Exception {
+		String body = "--X\r\nContent-Type: image/jpeg\r\nContent-ID: a/b\r\nObject-ID: 1\r\n\r\nfirst"
+				+ "\r\n--X\r\nContent-Type: image/jpeg\r\nContent-ID: a_b\r\nObject-ID: 1\r\n\r\nsecond"
+				+ "\r\n--X\r\nContent-Type: image/jpeg\r\nContent-ID: a_b\r\nObject-ID: 1\r\n\r\nthird"
+				+ "\r\n--X--\r\n";
+		Map<String, String> headers = new HashMap<>();
+		headers.put("Content-Type", "multipart/parallel; boundary=\"X\"");
+		GetObjectResponse response = new GetObjectResponse(headers, new ByteArrayInputStream(body.getBytes(StandardCharsets.ISO_8859_1)));
+
+		List<Path> files = new GetObjectFileWriter(this.directory).write(response);
+		assertEquals(List.of(this.directory.resolve("a_b-1.jpg"), this.directory.resolve("a_b-1_2.jpg"), this.directory.resolve("a_b-1_3.jpg")), files);
+		assertEquals("first", read(files.get(0)));
+		assertEquals("second", read(files.get(1)));
+		assertEquals("third", read(files.get(2)));
+	}
+
+	public void testNameOutsideDirectory() throws Exception {
+		Map<String, String> headers = new HashMap<>();
+		headers.put("Content-Type", "image/gif");
+		headers.put("Content-ID", "E2");
+		headers.put("Object-ID", "7");
+		GetObjectFileWriter writer = new GetObjectFileWriter(this.directory);
+		for (String name : new String[]{"../escape.gif", "/tmp/escape.gif", "."}) {
+			writer.setNaming(object -> name);
+			try {
+				writer.write(new SingleObjectResponse(headers, new ByteArrayInputStream(new byte[1])));
+				fail("wrote " + name);
+			} catch (IOException expected) {
+			}
+		}
+		assertFalse(Files.exists(this.directory.resolveSibling("escape.gif")));
+		try (Stream<Path> list = Files.list(this.directory)) {
+			assertEquals(0, list.count());
+		}
+	}
+}
@@ -5,6 +5,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import junit.framework.TestCase;
@@ -65,6 +66,25 @@ public class GetObjectResponseIteratorTest extends TestCase {
 		assertFalse(getObjectIterator.hasNext());
 	}
 
+	public void testPartlyReadAndUnreadParts() throws Exception {
+		String large = "x".repeat(100_000) + "\r\n" + "y".repeat(100_000);
+		String body = "--" + BOUNDARY + "\r\nContent-ID: 1\r\nObject-ID: 1\r\n\r\n" + large + "\r\n--" + BOUNDARY
+				+ "\r\nContent-ID: 1\r\nObject-ID: 2\r\n\r\n" + large + "\r\n--" + BOUNDARY
+				+ "\r\nContent-ID: 1\r\nObject-ID: 3\r\n\r\n" + BINARY_BLOB_4 + "\r\n--" + BOUNDARY + "--\r\n";
+		Map headers = new HashMap();
+		headers.put("Content-Type", "multipart/parallel; boundary=\"" + BOUNDARY + "\"");
+		GetObjectIterator<SingleObjectResponse> parts = new GetObjectResponse(headers, new ByteArrayInputStream(body.getBytes())).iterator();
+
+		SingleObjectResponse first = parts.next();
+		assertEquals("1", first.getObjectID());
+		assertEquals('x', first.getInputStream().read());
+		assertEquals("2", parts.next().getObjectID());
+		SingleObjectResponse third = parts.next();
+		assertEquals("3", third.getObjectID());
+		assertEquals(BINARY_BLOB_4, new String(readOut(third.getInputStream(), 1024)));
+		assertFalse(parts.hasNext());
+	}
+
 	public void testIterationNonMultipart() throws Exception {
 		GetObjectIterator<SingleObjectResponse> getObjectIterator = null;
 
@@ -188,4 +208,32 @@ public class GetObjectResponseIteratorTest extends TestCase {
 		return baos.toByteArray();
 	}
 
-}
\ No newline at end of file
+
+	public void testLocations() throws Exception {
+		String body = "--" + BOUNDARY + "\r\nContent-ID: 1\r\nObject-ID: 1\r\nLOCATION:  http://example.com/1.jpg \r\n"
+				+ "content-description: Front\r\n\r\n\r\n--" + BOUNDARY + "\r\nContent-ID: 1\r\nObject-ID: 2\r\n"
+				+ "Content-Type: text/xml\r\nLocationX: no\r\n\r\n<RETS ReplyCode=\"20403\" ReplyText=\"No Object Found\"/>\r\n--"
+				+ BOUNDARY + "\r\nContent-ID: 1\r\nObject-ID: 3\r\nLocation: http://example.com/3.jpg\r\n\r\n\r\n--" + BOUNDARY + "--\r\n";
+		Map headers = new HashMap();
+		headers.put("Content-Type", "multipart/parallel; boundary=\"" + BOUNDARY + "\"");
+		List<ObjectLocation> locations = new GetObjectResponse(headers, new ByteArrayInputStream(body.getBytes())).getLocations();
+		assertEquals(3, locations.size());
+		assertEquals("1", locations.get(0).getContentId());
+		assertEquals("1", locations.get(0).getObjectId());
+		assertEquals("http://example.com/1.jpg", locations.get(0).getLocation());
+		assertEquals("Front", locations.get(0).getDescription());
+		assertEquals("2", locations.get(1).getObjectId());
+		assertNull(locations.get(1).getLocation());
+		assertEquals("http://example.com/3.jpg", locations.get(2).getLocation());
+		assertNull(locations.get(2).getDescription());
+
+		headers = new HashMap();
+		headers.put("Content-Type", "image/jpeg");
+		headers.put("Content-ID", "9");
+		headers.put("Object-ID", "1");
+		headers.put("Location", "http://example.com/9.jpg");
+		locations = new GetObjectResponse(headers, new ByteArrayInputStream(new byte[0])).getLocations();
+		assertEquals(1, locations.size());
+		assertEquals("http://example.com/9.jpg", locations.get(0).getLocation());
+	}
+}
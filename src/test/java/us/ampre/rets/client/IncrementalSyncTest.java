@@ -0,0 +1,169 @@
+package us.ampre.rets.client;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import us.ampre.rets.common.metadata.Metadata;
+import us.ampre.rets.common.metadata.MetadataType;
+import us.ampre.rets.common.metadata.types.MClass;
+import us.ampre.rets.common.metadata.types.MResource;
+import us.ampre.rets.common.metadata.types.MSystem;
+import us.ampre.rets.common.metadata.types.MTable;
+
+public class IncrementalSyncTest extends RetsTestCase {
+	private static final Pattern SINCE = Pattern.compile("\\(Modified=([^+]+)\\+\\)$");
+
+	/**
+	 * Serves the records in rows (key to timestamp) that match the trailing
+	 * (Modified=since+) of the query.
+	 */
+	static class ChangesHttpClient extends StubHttpClient {
+		final Map<String, String> rows = new LinkedHashMap<>();
+		final List<String> queries = new ArrayList<>();
+		final List<String> selects = new ArrayList<>();
+
+		@Override
+		protected String body(RetsHttpRequest request) {
+			String query = ((SearchRequest) request).getQuery();
+			this.queries.add(query);
+			this.selects.add(((SearchRequest) request).getSelect());
+			Matcher m = SINCE.matcher(query);
+			LocalDateTime since = m.find() ? LocalDateTime.parse(m.group(1)) : LocalDateTime.MIN;
+			StringBuilder body = new StringBuilder("<RETS ReplyCode=\"0\" ReplyText=\"Success\">\r\n");
+			body.append("<DELIMITER value=\"09\"/>\r\n<COLUMNS>\tId\tModified\t</COLUMNS>\r\n");
+			for (Map.Entry<String, String> row : this.rows.entrySet()) {
+				if (!IncrementalSync.parseTimestamp(row.getValue()).isBefore(since))
+					body.append("<DATA>\t").append(row.getKey()).append('\t').append(row.getValue()).append("\t</DATA>\r\n");
+			}
+			body.append("</RETS>\r\n");
+			return body.toString();
+		}
+	}
+
+	private static List<String> keys(SearchResultImpl result) {
+		List<String> keys = new ArrayList<>();
+		for (String[] row : result.getRows()) {
+			keys.add(row[0]);
+		}
+		return keys;
+	}
+
+	private IncrementalSync sync(ChangesHttpClient client, Path directory) throws RetsException {
+		IncrementalSync sync = new IncrementalSync(new RetsSession("http://localhost/login", client), new FileHighWaterMarkStore(directory));
+		sync.setFields("Property", "RES", "Modified", "Id");
+		sync.setOverlap(Duration.ofMinutes(10));
+		return sync;
+	}
+
+	public void testOnlyChangedRows() throws Exception {
+		Path directory = Files.createTempDirectory("hwm");
+		ChangesHttpClient client = new ChangesHttpClient();
+		client.rows.put("1", "2024-03-01T10:00:00");
+		client.rows.put("2", "2024-03-01T11:55:00.250");
+		client.rows.put("3", "2024-03-01T12:00:00Z");
+		IncrementalSync sync = sync(client, directory);
+		SearchRequest req = new SearchRequest("Property", "RES", "(Status=A)");
+
+		SearchResultImpl first = new SearchResultImpl();
+		assertEquals(3, sync.sync(req, first));
+		assertEquals(List.of("1", "2", "3"), keys(first));
+		assertTrue(first.isComplete());
+		assertEquals("(Status=A)", client.queries.get(0));
+		HighWaterMark mark = sync.getMark("Property", "RES");
+		assertEquals(LocalDateTime.of(2024, 3, 1, 12, 0), mark.getTimestamp());
+		assertEquals(Map.of("2", LocalDateTime.of(2024, 3, 1, 11, 55, 0, 250_000_000), "3", LocalDateTime.of(2024, 3, 1, 12, 0)), mark.getBoundary());
+
+		// the overlap window is searched again but nothing is passed on
+		SearchResultImpl unchanged = new SearchResultImpl();
+		assertEquals(0, sync.sync(req, unchanged));
+		assertEquals("((Status=A)),(Modified=2024-03-01T11:50:00.000+)", client.queries.get(1));
+
+		// a state written by another instance is picked up
+		client.rows.put("2", "2024-03-01T12:05:00");
+		client.rows.put("4", "2024-03-01T11:58:00");
+		SearchResultImpl changed = new SearchResultImpl();
+		assertEquals(2, sync(client, directory).sync(req, changed));
+		assertEquals(List.of("2", "4"), keys(changed));
+		mark = sync.getMark("Property", "RES");
+		assertEquals(LocalDateTime.of(2024, 3, 1, 12, 5), mark.getTimestamp());
+		assertEquals(3, mark.getBoundary().size());
+
+		sync.reset("Property", "RES");
+		assertNull(sync.getMark("Property", "RES"));
+	}
+
+	public void testSelectAndInitialMark() throws Exception {
+		ChangesHttpClient client = new ChangesHttpClient();
+		client.rows.put("1", "2024-03-01T10:00:00");
+		IncrementalSync sync = sync(client, Files.createTempDirectory("hwm"));
+		sync.setInitialMark(LocalDateTime.of(2024, 1, 1, 0, 10));
+		SearchRequest req = new SearchRequest("Property", "RES", "");
+		req.setSelect("ListPrice,Id");
+
+		SearchResultImpl result = new SearchResultImpl();
+		assertEquals(1, sync.sync(req, result));
+		assertEquals("(Modified=2024-01-01T00:00:00.000+)", client.queries.get(0));
+		assertEquals("", req.getQuery());
+		assertEquals("ListPrice,Id", req.getSelect());
+		assertEquals("ListPrice,Id,Modified", client.selects.get(0));
+
+		// names already selected are recognised whatever their case and spacing
+		req.setSelect("ListPrice, id ,MODIFIED");
+		sync.sync(req, new SearchResultImpl());
+		assertEquals("ListPrice, id ,MODIFIED", client.selects.get(1));
+	}
+
+	public void testMissingColumn() throws Exception {
+		ChangesHttpClient client = new ChangesHttpClient();
+		IncrementalSync sync = sync(client, Files.createTempDirectory("hwm"));
+		sync.setFields("Property", "RES", "LastChange", "Id");
+		try {
+			sync.sync(new SearchRequest("Property", "RES", "(Status=A)"), new SearchResultImpl());
+			fail("expected RetsException");
+		} catch (RetsException e) {
+			assertTrue(e.getMessage().contains("LastChange"));
+		}
+		assertNull(sync.getMark("Property", "RES"));
+	}
+
+	public void testFieldsFromMetadata() {
+		MTable id = new MTable();
+		id.setAttribute(MTable.SYSTEMNAME, "Id");
+		MTable modified = new MTable();
+		modified.setAttribute(MTable.SYSTEMNAME, "Modified");
+		modified.setAttribute(MTable.MODTIMESTAMP, "1");
+		MClass mClass = new MClass();
+		mClass.setAttribute(MClass.CLASSNAME, "RES");
+		mClass.addChild(MetadataType.TABLE, id);
+		mClass.addChild(MetadataType.TABLE, modified);
+		MResource resource = new MResource();
+		resource.setAttribute(MResource.RESOURCEID, "Property");
+		resource.setAttribute(MResource.KEYFIELD, "Id");
+		resource.addChild(MetadataType.CLASS, mClass);
+		MSystem system = new MSystem();
+		system.addChild(MetadataType.RESOURCE, resource);
+		Metadata metadata = new Metadata(system);
+
+		assertEquals("Modified", IncrementalSync.getTimestampField(metadata, "Property", "RES"));
+		assertNull(IncrementalSync.getTimestampField(metadata, "Property", "COM"));
+		assertEquals("Id", PartitionedSearch.getKeyField(metadata, "Property"));
+	}
+
+	public void testParseTimestamp() {
+		assertEquals(LocalDateTime.of(2024, 3, 1, 10, 0), IncrementalSync.parseTimestamp("2024-03-01 10:00:00"));
+		assertEquals(LocalDateTime.of(2024, 3, 1, 10, 0, 0, 5_000_000), IncrementalSync.parseTimestamp("2024-03-01T10:00:00.005Z"));
+		assertEquals(LocalDateTime.of(2024, 3, 1, 15, 0), IncrementalSync.parseTimestamp("2024-03-01T10:00:00-05:00"));
+		assertEquals(LocalDateTime.of(2024, 3, 1, 10, 0), IncrementalSync.parseTimestamp("2024-03-01 10:00:00+0000"));
+		assertEquals(LocalDateTime.of(2024, 2, 29, 23, 30, 0, 250_000_000), IncrementalSync.parseTimestamp("2024-03-01T01:00:00.25+01:30"));
+		assertNull(IncrementalSync.parseTimestamp("yesterday"));
+		assertNull(IncrementalSync.parseTimestamp(null));
+	}
+}
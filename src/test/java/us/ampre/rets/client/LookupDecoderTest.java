@@ -0,0 +1,128 @@
+package us.ampre.rets.client;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import us.ampre.rets.common.metadata.Metadata;
+import us.ampre.rets.common.metadata.MetadataType;
+import us.ampre.rets.common.metadata.types.MClass;
+import us.ampre.rets.common.metadata.types.MLookup;
+import us.ampre.rets.common.metadata.types.MLookupType;
+import us.ampre.rets.common.metadata.types.MResource;
+import us.ampre.rets.common.metadata.types.MSystem;
+import us.ampre.rets.common.metadata.types.MTable;
+
+public class LookupDecoderTest extends RetsTestCase {
+	private static final String SEARCH = "<RETS ReplyCode=\"0\" ReplyText=\"Success\">\r\n<DELIMITER value=\"09\"/>\r\n"
+		+ "<COLUMNS>\tId\tStatus\tFeatures\tRemarks\t</COLUMNS>\r\n"
+		+ "<DATA>\t1\tA\tPOOL,GAR\tA\t</DATA>\r\n"
+		+ "<DATA>\t2\tS\tGAR, WATERFRONT_VIEW ,XX\t\t</DATA>\r\n"
+		+ "<DATA>\t3\tQ\t\tx\t</DATA>\r\n"
+		+ "</RETS>\r\n";
+
+	private static MTable table(String name, String interpretation, String lookupName) {
+		MTable table = new MTable();
+		table.setAttribute(MTable.SYSTEMNAME, name);
+		table.setAttribute(MTable.DATATYPE, "Character");
+		if (interpretation != null) {
+			table.setAttribute(MTable.INTERPRETATION, interpretation);
+			table.setAttribute(MTable.LOOKUPNAME, lookupName);
+		}
+		return table;
+	}
+
+	private static MLookup lookup(String name, String... codes) {
+		MLookup lookup = new MLookup();
+		lookup.setAttribute(MLookup.LOOKUPNAME, name);
+		for (int i = 0; i < codes.length; i += 2) {
+			MLookupType type = new MLookupType();
+			type.setAttribute(MLookupType.VALUE, codes[i]);
+			type.setAttribute(MLookupType.LONGVALUE, codes[i + 1]);
+			type.setAttribute(MLookupType.SHORTVALUE, codes[i].toLowerCase());
+			lookup.addChild(MetadataType.LOOKUP_TYPE, type);
+		}
+		return lookup;
+	}
+
+	private static Metadata metadata() {
+		MClass mClass = new MClass();
+		mClass.setAttribute(MClass.CLASSNAME, "RES");
+		mClass.addChild(MetadataType.TABLE, table("Id", null, null));
+		mClass.addChild(MetadataType.TABLE, table("Status", "Lookup", "STATUS"));
+		mClass.addChild(MetadataType.TABLE, table("Features", "LookupMulti", "FEATURES"));
+		mClass.addChild(MetadataType.TABLE, table("Remarks", null, null));
+		MResource resource = new MResource();
+		resource.setAttribute(MResource.RESOURCEID, "Property");
+		resource.addChild(MetadataType.CLASS, mClass);
+		resource.addChild(MetadataType.LOOKUP, lookup("STATUS", "A", "Active", "S", "Sold"));
+		resource.addChild(MetadataType.LOOKUP, lookup("FEATURES", "POOL", "Pool", "GAR", "Garage", "WATERFRONT_VIEW", "Waterfront View"));
+		MSystem system = new MSystem();
+		system.addChild(MetadataType.RESOURCE, resource);
+		return new Metadata(system);
+	}
+
+	private static SearchResultImpl search(LookupDecoder decoder) throws RetsException {
+		SearchResultImpl result = new SearchResultImpl();
+		new SearchResultHandler(decoder.decoding("Property", "RES", result)).parse(new ByteArrayInputStream(SEARCH.getBytes(StandardCharsets.UTF_8)), "UTF-8");
+		return result;
+	}
+
+	public void testDecodesWhileParsing() throws RetsException {
+		SearchResultImpl result = search(new LookupDecoder(metadata()));
+		assertEquals("columns", new String[]{"Id", "Status", "Features", "Remarks"}, result.getColumns());
+		assertEquals(3, result.getRowCount());
+		assertEquals("row 0", new String[]{"1", "Active", "Pool,Garage", "A"}, result.getRow(0));
+		assertEquals("row 1", new String[]{"2", "Sold", "Garage,Waterfront View,XX", ""}, result.getRow(1));
+		assertEquals("row 2", new String[]{"3", "Q", "", "x"}, result.getRow(2));
+		assertTrue("search not complete", result.isComplete());
+	}
+
+	public void testShortValues() throws RetsException {
+		SearchResultImpl result = search(new LookupDecoder(metadata(), true));
+		assertEquals("row 0", new String[]{"1", "a", "pool,gar", "A"}, result.getRow(0));
+	}
+
+	public void testStringRows() {
+		Metadata metadata = metadata();
+		LookupDecoder decoder = new LookupDecoder(metadata);
+		SearchResultImpl result = new SearchResultImpl();
+		LookupDecodingCollector collector = decoder.decoding("Property", "RES", result);
+		collector.setColumns(new String[]{"Status", "Features"});
+		collector.addRow(new String[]{"S", "WATERFRONT_VIEW"});
+		collector.addRow(new String[]{"A"});
+		assertEquals("row 0", new String[]{"Sold", "Waterfront View"}, result.getRow(0));
+		assertEquals("row 1", new String[]{"Active"}, result.getRow(1));
+
+		MTable status = metadata.getTable("Property", "RES", "Status");
+		assertEquals("Active", decoder.decode("Property", status, "A"));
+		assertEquals("Z", decoder.decode("Property", status, "Z"));
+		assertEquals("7", decoder.decode("Property", metadata.getTable("Property", "RES", "Id"), "7"));
+	}
+
+	public void testUnknownClass() {
+		try {
+			new LookupDecoder(metadata()).decoding("Property", "NOPE", new SearchResultImpl());
+			fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// success
+		}
+	}
+
+	public void testLargeLookup() {
+		MLookup lookup = new MLookup();
+		lookup.setAttribute(MLookup.LOOKUPNAME, "CITY");
+		for (int i = 0; i < 5000; i++) {
+			MLookupType type = new MLookupType();
+			type.setAttribute(MLookupType.VALUE, "C" + i);
+			type.setAttribute(MLookupType.LONGVALUE, "City " + i);
+			lookup.addChild(MetadataType.LOOKUP_TYPE, type);
+		}
+		LookupDecoder.Table table = new LookupDecoder.Table(lookup, false);
+		for (int i = 0; i < 5000; i++) {
+			char[] code = ("C" + i).toCharArray();
+			assertEquals("City " + i, table.decode(code, 0, code.length, false));
+		}
+		char[] unknown = "C5000".toCharArray();
+		assertNull(table.find(unknown, 0, unknown.length));
+	}
+}
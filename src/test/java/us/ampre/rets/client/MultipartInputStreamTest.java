@@ -0,0 +1,53 @@
+package us.ampre.rets.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import us.ampre.rets.common.util.CaseInsensitiveTreeMap;
+
+public class MultipartInputStreamTest extends RetsTestCase {
+	private static MultipartInputStream stream(String data, int chunk, int bufferSize) {
+		InputStream in = new ByteArrayInputStream(data.getBytes(StandardCharsets.ISO_8859_1)) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, chunk));
+			}
+		};
+		return new MultipartInputStream(in, bufferSize);
+	}
+
+	public void testReadLine() throws IOException {
+		String longLine = "x".repeat(1000);
+		for (int chunk : new int[]{1, 2, 5, 4096}) {
+			MultipartInputStream in = stream("one\r\ntwo\nthree\rfour\r\n\r\n" + longLine + "\r\ncaf\u00e9\r", chunk, 16);
+			assertEquals("one", in.readLine());
+			assertEquals("two", in.readLine());
+			assertEquals("three", in.readLine());
+			assertEquals("four", in.readLine());
+			assertEquals("", in.readLine());
+			assertEquals(longLine, in.readLine());
+			assertEquals("caf\u00e9", in.readLine());
+			assertNull(in.readLine());
+		}
+		MultipartInputStream in = stream("no end", 3, 16);
+		assertEquals("no end", in.readLine());
+		assertNull(in.readLine());
+	}
+
+	public void testReadHeaders() throws IOException {
+		for (int chunk : new int[]{1, 3, 4096}) {
+			MultipartInputStream in = stream("content-id:  12 \r\nObject-ID:1\r\nX-Custom: a:b\r\nBare\r\n\r\nbody", chunk, 16);
+			CaseInsensitiveTreeMap<String, String> headers = new CaseInsensitiveTreeMap<>();
+			in.readHeaders(headers);
+			assertEquals(4, headers.size());
+			assertEquals("12", headers.get("Content-ID"));
+			assertEquals("1", headers.get("object-id"));
+			assertEquals("a:b", headers.get("X-Custom"));
+			assertEquals("", headers.get("Bare"));
+			assertTrue("known name not shared", headers.ceilingKey("content-id") == SingleObjectResponse.CONTENT_ID);
+			assertEquals('b', in.read());
+		}
+	}
+}
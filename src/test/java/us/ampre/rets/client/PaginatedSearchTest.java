@@ -0,0 +1,120 @@
+package us.ampre.rets.client;
+
+import org.apache.commons.lang3.math.NumberUtils;
+
+public class PaginatedSearchTest extends RetsTestCase {
+	/**
+	 * Serves rows 1..total, at most cap rows per response, honouring Offset
+	 * and Limit like a RETS server.
+	 */
+	static class PagingHttpClient extends StubHttpClient {
+		final int total;
+		final int cap;
+
+		PagingHttpClient(int total, int cap) {
+			this.total = total;
+			this.cap = cap;
+			setDelayMillis(2);
+		}
+
+		@Override
+		protected String body(RetsHttpRequest request) {
+			SearchRequest search = (SearchRequest) request;
+			int offset = Math.max(search.getOffset(), 1);
+			int limit = search.getLimit() > 0 ? Math.min(search.getLimit(), this.cap) : this.cap;
+			int end = Math.min(offset - 1 + limit, this.total);
+			StringBuilder body = new StringBuilder();
+			if (offset > this.total) {
+				body.append("<RETS ReplyCode=\"20201\" ReplyText=\"No Records Found\"/>\r\n");
+			} else {
+				body.append("<RETS ReplyCode=\"0\" ReplyText=\"Success\">\r\n");
+				body.append("<DELIMITER value=\"09\"/>\r\n<COLUMNS>\tId\t</COLUMNS>\r\n");
+				for (int i = offset; i <= end; i++) {
+					body.append("<DATA>\t").append(i).append("\t</DATA>\r\n");
+				}
+				if (end < this.total && end - offset + 1 == this.cap) {
+					body.append("<MAXROWS/>\r\n");
+				}
+				body.append("</RETS>\r\n");
+			}
+			return body.toString();
+		}
+	}
+
+	private void assertRows(SearchResultImpl result, int first, int last) {
+		assertTrue("not complete", result.isComplete());
+		assertEquals("row count", last - first + 1, result.getRowCount());
+		for (int i = 0; i < result.getRowCount(); i++) {
+			assertEquals("row " + i, first + i, NumberUtils.toInt(result.getRow(i)[0]));
+		}
+	}
+
+	private static SearchRequest request() {
+		return new SearchRequest("Property", "RES", "(ListPrice=0+)");
+	}
+
+	public void testServerCap() throws RetsException {
+		PagingHttpClient client = new PagingHttpClient(25, 10);
+		PaginatedSearch search = new PaginatedSearch(new RetsSession("http://localhost/login", client));
+		SearchResultImpl result = new SearchResultImpl();
+		assertEquals("pages", 3, search.search(request(), result));
+		assertRows(result, 1, 25);
+		assertFalse("max rows", result.isMaxRows());
+	}
+
+	public void testPageSizeAndOffset() throws RetsException {
+		PagingHttpClient client = new PagingHttpClient(25, 10);
+		PaginatedSearch search = new PaginatedSearch(new RetsSession("http://localhost/login", client));
+		search.setPageSize(7);
+		SearchRequest req = request();
+		req.setOffset(5);
+		SearchResultImpl result = new SearchResultImpl();
+		// 5-11, 12-18, 19-25, then an empty page
+		assertEquals("pages", 3, search.search(req, result));
+		assertRows(result, 5, 25);
+		assertEquals("request modified", 5, req.getOffset());
+	}
+
+	public void testPrefetch() throws RetsException {
+		PagingHttpClient client = new PagingHttpClient(95, 10);
+		PaginatedSearch search = new PaginatedSearch(new RetsSession("http://localhost/login", client));
+		search.setPrefetch(true);
+		SearchResultImpl result = new SearchResultImpl();
+		assertEquals("pages", 10, search.search(request(), result));
+		assertRows(result, 1, 95);
+		assertTrue("requests " + client.requests, client.requests.get() <= 11);
+	}
+
+	public void testPrefetchKeepsSessionLimit() throws RetsException {
+		PagingHttpClient client = new PagingHttpClient(95, 10);
+		RetsSession session = new RetsSession("http://localhost/login", client);
+		session.setMaxConcurrentRequests(1);
+		PaginatedSearch search = new PaginatedSearch(session);
+		search.setPrefetch(true);
+		SearchResultImpl result = new SearchResultImpl();
+		assertEquals("pages", 10, search.search(request(), result));
+		assertRows(result, 1, 95);
+		assertEquals("requests in flight", 1, client.maxInFlight.get());
+	}
+
+	public void testMaxPages() throws RetsException {
+		PagingHttpClient client = new PagingHttpClient(95, 10);
+		PaginatedSearch search = new PaginatedSearch(new RetsSession("http://localhost/login", client));
+		search.setPrefetch(true);
+		search.setMaxPages(2);
+		SearchResultImpl result = new SearchResultImpl();
+		assertEquals("pages", 2, search.search(request(), result));
+		assertRows(result, 1, 20);
+		assertTrue("max rows", result.isMaxRows());
+	}
+
+	public void testNoRecords() {
+		PaginatedSearch search = new PaginatedSearch(new RetsSession("http://localhost/login", new PagingHttpClient(0, 10)));
+		try {
+			search.search(request(), new SearchResultImpl());
+			fail("no records on the first page should fail like search()");
+		} catch (RetsException e) {
+			assertTrue(e instanceof InvalidReplyCodeException);
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package us.ampre.rets.client;
+
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class PartitionedSearchTest extends RetsTestCase {
+	private static final Pattern RANGE = Pattern.compile("\\(Id=(\\d+)-(\\d+)\\)$");
+
+	/**
+	 * Serves one row per key in keys, at most cap rows per response,
+	 * filtered by the trailing (Id=low-high) of the query.  With sendCount
+	 * the COUNT of the range precedes the rows when it is asked for.  With
+	 * maxRowsAtCap MAXROWS follows every response of cap rows, even when no
+	 * row was left out.
+	 */
+	static class RangeHttpClient extends StubHttpClient {
+		final long[] keys;
+		final int cap;
+		final Queue<String> queries = new ConcurrentLinkedQueue<>();
+		boolean sendCount;
+		boolean maxRowsAtCap;
+
+		RangeHttpClient(long[] keys, int cap) {
+			this.keys = keys;
+			this.cap = cap;
+		}
+
+		@Override
+		protected String body(RetsHttpRequest request) {
+			String query = ((SearchRequest) request).getQuery();
+			this.queries.add(query);
+			StringBuilder body = new StringBuilder("<RETS ReplyCode=\"0\" ReplyText=\"Success\">\r\n");
+			body.append("<DELIMITER value=\"09\"/>\r\n<COLUMNS>\tId\t</COLUMNS>\r\n");
+			Matcher m = RANGE.matcher(query);
+			if (m.find()) {
+				long low = Long.parseLong(m.group(1));
+				long high = Long.parseLong(m.group(2));
+				if (this.sendCount && "1".equals(request.getQueryParameter(SearchRequest.KEY_COUNT))) {
+					long count = 0;
+					for (long key : this.keys) {
+						if (key >= low && key <= high)
+							count++;
+					}
+					body.append("<COUNT Records=\"").append(count).append("\"/>\r\n");
+				}
+				int rows = 0;
+				boolean more = false;
+				for (long key : this.keys) {
+					if (key < low || key > high)
+						continue;
+					if (rows == this.cap) {
+						more = true;
+						break;
+					}
+					body.append("<DATA>\t").append(key).append("\t</DATA>\r\n");
+					rows++;
+				}
+				if (more || this.maxRowsAtCap && rows == this.cap)
+					body.append("<MAXROWS/>\r\n");
+			}
+			body.append("</RETS>\r\n");
+			return body.toString();
+		}
+	}
+
+	private static SearchRequest request() {
+		return new SearchRequest("Property", "RES", "(Status=A)");
+	}
+
+	public void testResplit() throws RetsException {
+		long[] keys = new long[1000];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = i + 1;
+		}
+		RangeHttpClient client = new RangeHttpClient(keys, 100);
+		PartitionedSearch search = new PartitionedSearch(new RetsSession("http://localhost/login", client));
+		search.setNumericRange("Id", 1, 1000);
+		SearchResultImpl result = new SearchResultImpl();
+		int searches = search.search(request(), result);
+
+		assertTrue("not complete", result.isComplete());
+		assertFalse("max rows", result.isMaxRows());
+		assertEquals(1000, result.getRowCount());
+		Set<String> seen = new HashSet<>();
+		for (String[] row : result.getRows()) {
+			assertTrue("duplicate " + row[0], seen.add(row[0]));
+		}
+		assertEquals(client.queries.size(), searches);
+		assertTrue("ranges were not re-split", searches > 4);
+		assertTrue(client.queries.peek(), client.queries.peek().startsWith("((Status=A)),(Id="));
+	}
+
+	public void testStreamedRanges() throws RetsException {
+		long[] keys = new long[1000];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = i + 1;
+		}
+		RangeHttpClient client = new RangeHttpClient(keys, 100);
+		client.sendCount = true;
+		PartitionedSearch search = new PartitionedSearch(new RetsSession("http://localhost/login", client));
+		search.setNumericRange("Id", 1, 1000);
+		search.setMaxRows(100);
+		SearchResultImpl result = new SearchResultImpl();
+		search.search(request(), result);
+
+		assertTrue("not complete", result.isComplete());
+		assertFalse("max rows", result.isMaxRows());
+		assertEquals(1000, result.getRowCount());
+		Set<String> seen = new HashSet<>();
+		for (String[] row : result.getRows()) {
+			assertTrue("duplicate " + row[0], seen.add(row[0]));
+		}
+	}
+
+	public void testCountEqualToCap() throws RetsException {
+		long[] keys = new long[100];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = i + 1;
+		}
+		RangeHttpClient client = new RangeHttpClient(keys, 100);
+		client.sendCount = true;
+		client.maxRowsAtCap = true;
+		PartitionedSearch search = new PartitionedSearch(new RetsSession("http://localhost/login", client));
+		search.setNumericRange("Id", 1, 100);
+		search.setPartitions(1);
+		search.setMaxRows(100);
+		SearchResultImpl result = new SearchResultImpl();
+		assertEquals("searches", 1, search.search(request(), result));
+
+		assertFalse("max rows", result.isMaxRows());
+		assertEquals(100, result.getRowCount());
+	}
+
+	public void testLearnedMaxRows() throws RetsException {
+		long[] keys = new long[1000];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = i + 1;
+		}
+		RangeHttpClient client = new RangeHttpClient(keys, 100);
+		client.sendCount = true;
+		PartitionedSearch search = new PartitionedSearch(new RetsSession("http://localhost/login", client));
+		search.setNumericRange("Id", 1, 1000);
+		search.setParallelism(1);
+		SearchResultImpl result = new SearchResultImpl();
+		search.search(request(), result);
+
+		assertFalse("max rows", result.isMaxRows());
+		assertEquals(1000, result.getRowCount());
+		assertEquals(1000, new HashSet<>(result.getRows().stream().map(row -> row[0]).toList()).size());
+	}
+
+	public void testTruncatedKey() throws RetsException {
+		long[] keys = new long[150];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = 5;
+		}
+		RangeHttpClient client = new RangeHttpClient(keys, 100);
+		PartitionedSearch search = new PartitionedSearch(new RetsSession("http://localhost/login", client));
+		search.setNumericRange("Id", 1, 10);
+		search.setParallelism(2);
+		SearchResultImpl result = new SearchResultImpl();
+		search.search(request(), result);
+
+		assertEquals(100, result.getRowCount());
+		assertTrue("max rows", result.isMaxRows());
+	}
+
+	public void testTimestampRange() throws RetsException {
+		RangeHttpClient client = new RangeHttpClient(new long[0], 100);
+		PartitionedSearch search = new PartitionedSearch(new RetsSession("http://localhost/login", client));
+		search.setTimestampRange("ModificationTimestamp", LocalDateTime.of(2024, 1, 1, 0, 0), LocalDateTime.of(2024, 1, 3, 0, 0));
+		search.setParallelism(2);
+		search.search(request(), new SearchResultImpl());
+
+		Set<String> queries = new HashSet<>(client.queries);
+		assertTrue(queries.toString(), queries.contains("((Status=A)),(ModificationTimestamp=2024-01-01T00:00:00.000-2024-01-01T23:59:59.999)"));
+		assertTrue(queries.toString(), queries.contains("((Status=A)),(ModificationTimestamp=2024-01-02T00:00:00.000-2024-01-02T23:59:59.999)"));
+	}
+
+	public void testSplit() {
+		List<long[]> ranges = PartitionedSearch.split(1, 10, 3);
+		assertEquals(3, ranges.size());
+		assertEquals(1, ranges.get(0)[0]);
+		assertEquals(10, ranges.get(2)[1]);
+		for (int i = 1; i < ranges.size(); i++) {
+			assertEquals("ranges not adjacent", ranges.get(i - 1)[1] + 1, ranges.get(i)[0]);
+		}
+		assertEquals("more parts than values", 2, PartitionedSearch.split(7, 8, 4).size());
+	}
+}
@@ -0,0 +1,133 @@
+package us.ampre.rets.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+public class RetsTransportTest extends RetsTestCase {
+	private static final String TAG_HEADER = "X-Test-Tag";
+
+	/**
+	 * Answers every request with a one row COMPACT body echoing the tag
+	 * header, or with a non RETS body if there is none.
+	 */
+	static StubHttpClient echoClient() {
+		return new StubHttpClient(request -> {
+			String tag = request.getHeaders().get(TAG_HEADER);
+			return tag == null ? "<HTML/>" : "<RETS ReplyCode=\"0\" ReplyText=\"Success\">\r\n" +
+					"<DELIMITER value=\"09\"/>\r\n<COLUMNS>\tTag\t</COLUMNS>\r\n" +
+					"<DATA>\t" + tag + "\t</DATA>\r\n</RETS>\r\n";
+		}).setDelayMillis(5);
+	}
+
+	public void testConcurrentSearches() throws Exception {
+		StubHttpClient client = echoClient();
+		CapabilityUrls urls = new CapabilityUrls();
+		urls.setSearchUrl("http://localhost/search");
+		RetsTransport transport = new RetsTransport(client, urls);
+		transport.setMaxConcurrentRequests(2);
+
+		Map<String, String> failures = new ConcurrentHashMap<>();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < 10; i++) {
+					String tag = Thread.currentThread().getName() + "-" + i;
+					SearchRequest req = new SearchRequest("Property", "RES", "(ListPrice=0+)");
+					req.setHeader(TAG_HEADER, tag);
+					SearchResultImpl result = new SearchResultImpl();
+					String response;
+					try {
+						response = transport.search(req, result);
+					} catch (RetsException e) {
+						failures.put(tag, e.toString());
+						return;
+					}
+					if (!tag.equals(result.getRow(0)[0]))
+						failures.put(tag, "got row " + result.getRow(0)[0]);
+					else if (!response.contains(tag))
+						failures.put(tag, "got response " + response);
+				}
+			}, "searcher" + t);
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertTrue(failures.toString(), failures.isEmpty());
+		assertTrue("limit exceeded: " + client.maxInFlight, client.maxInFlight.get() <= 2);
+	}
+
+	public void testSearchAsync() throws Exception {
+		CapabilityUrls urls = new CapabilityUrls();
+		urls.setSearchUrl("http://localhost/search");
+		RetsTransport transport = new RetsTransport(echoClient(), urls);
+
+		List<CompletableFuture<?>> futures = new ArrayList<>();
+		List<SearchResultImpl> results = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			SearchRequest req = new SearchRequest("Property", "RES", "(ListPrice=0+)");
+			req.setHeader(TAG_HEADER, "async-" + i);
+			SearchResultImpl result = new SearchResultImpl();
+			results.add(result);
+			futures.add(transport.searchAsync(req, result));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+		for (int i = 0; i < results.size(); i++) {
+			assertTrue("not complete", results.get(i).isComplete());
+			assertEquals("async-" + i, results.get(i).getRow(0)[0]);
+		}
+
+		transport.setCaptureResponse(false);
+		try {
+			transport.searchAsync(new SearchRequest("Property", "RES", "(ListPrice=0+)"), new SearchResultImpl()).get();
+			fail("non RETS body accepted");
+		} catch (ExecutionException e) {
+			assertTrue("wrong cause " + e.getCause(), e.getCause() instanceof RetsException);
+		}
+	}
+
+	public void testAsyncSharesLimit() throws Exception {
+		StubHttpClient client = echoClient();
+		CapabilityUrls urls = new CapabilityUrls();
+		urls.setSearchUrl("http://localhost/search");
+		RetsTransport transport = new RetsTransport(client, urls);
+		transport.setMaxConcurrentRequests(2);
+
+		List<CompletableFuture<?>> futures = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			SearchRequest req = new SearchRequest("Property", "RES", "(ListPrice=0+)");
+			req.setHeader(TAG_HEADER, "async-" + i);
+			futures.add(transport.searchAsync(req, new SearchResultImpl()));
+			req = new SearchRequest("Property", "RES", "(ListPrice=0+)");
+			req.setHeader(TAG_HEADER, "sync-" + i);
+			transport.search(req, new SearchResultImpl());
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+		assertTrue("limit exceeded: " + client.maxInFlight, client.maxInFlight.get() <= 2);
+		transport.logout();
+	}
+
+	public void testNegativeLimit() {
+		RetsTransport transport = new RetsTransport(echoClient(), new CapabilityUrls());
+		try {
+			transport.setMaxConcurrentRequests(-1);
+			fail("negative limit accepted");
+		} catch (IllegalArgumentException e) {
+			// success
+		}
+	}
+
+	public void testSelectColumns() {
+		assertEquals("trimmed", new String[]{"ListingKey", "ListPrice"}, RetsTransport.selectColumns("ListingKey, ListPrice"));
+		assertEquals("empty names dropped", new String[]{"ListingKey"}, RetsTransport.selectColumns(" ListingKey ,, "));
+		assertNull(RetsTransport.selectColumns(""));
+		assertNull(RetsTransport.selectColumns(" , "));
+		assertNull(RetsTransport.selectColumns(null));
+	}
+}
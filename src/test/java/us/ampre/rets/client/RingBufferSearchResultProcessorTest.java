@@ -0,0 +1,63 @@
+package us.ampre.rets.client;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the StreamingSearchResultProcessor tests against the ring buffer
+ * implementation.
+ */
+public class RingBufferSearchResultProcessorTest extends StreamingSearchResultProcessorTest {
+	@Override
+	protected SearchResultProcessor createProcessor(InvalidReplyCodeHandler invalidReplyCodeHandler) {
+		RingBufferSearchResultProcessor processor = new RingBufferSearchResultProcessor(1);
+		if (invalidReplyCodeHandler != null)
+			processor.setInvalidRelyCodeHandler(invalidReplyCodeHandler);
+		return processor;
+	}
+
+	public void testRingBufferTimeout() throws Exception {
+		int timeout = 100;
+		RingBufferSearchResultProcessor processor = new RingBufferSearchResultProcessor(1, timeout, null);
+		SearchResultSet result = processor.parse(new StringReader(SearchResultHandlerTest.ALL_TAGS_TEST));
+		try {
+			Thread.sleep(timeout * 10);
+			result.hasNext();
+			fail("Should fail since timeout should have been reached");
+		} catch (RetsException e) {
+			// success
+		}
+	}
+
+	public void testNextBatch() throws RetsException {
+		int rows = 10000;
+		StringBuilder input = new StringBuilder("<RETS ReplyCode=\"0\" ReplyText=\"Success\">\r\n");
+		input.append("<DELIMITER value=\"09\"/>\r\n<COLUMNS>\tColumn1\tColumn2\t</COLUMNS>\r\n");
+		for (int i = 0; i < rows; i++) {
+			input.append("<DATA>\t").append(i).append("\tY\t</DATA>\r\n");
+		}
+		input.append("</RETS>\r\n");
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			RingBufferSearchResultProcessor processor = new RingBufferSearchResultProcessor(64, 0, executor);
+			RingBufferSearchResultSet result = processor.parse(new StringReader(input.toString()));
+			assertEquals("wrong column count", 2, result.getColumns().length);
+			int seen = 0;
+			List<String[]> batch;
+			while (!(batch = result.nextBatch(50)).isEmpty()) {
+				assertTrue("batch too large", batch.size() <= 50);
+				for (String[] row : batch) {
+					assertEquals("rows out of order", Integer.toString(seen++), row[0]);
+				}
+			}
+			assertEquals("rows lost", rows, seen);
+			assertTrue("search not complete", result.isComplete());
+			assertFalse("max rows wrong", result.isMaxRows());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
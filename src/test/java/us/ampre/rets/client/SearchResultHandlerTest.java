@@ -117,6 +117,40 @@ public class SearchResultHandlerTest extends RetsTestCase {
 		assertEquals(LATE_ERROR_CODE, testInvalidReplyCodeHandler.getReplyCode());
 	}
 
+	SearchResult runRootCheckTest(String input) throws RetsException {
+		SearchResultImpl res = new SearchResultImpl();
+		SearchResultHandler h = new SearchResultHandler(res);
+		h.setRootCheck(true);
+		h.parse(new InputSource(new StringReader(input)));
+		return res;
+	}
+
+	public void testRootCheckSuccess() throws RetsException {
+		SearchResult result = runRootCheckTest(ALL_TAGS_TEST);
+		assertTrue("search not complete", result.isComplete());
+		assertEquals("wrong row[1] data", "Data2", result.getRow(1)[0]);
+	}
+
+	public void testRootCheckReplyCode() throws RetsException {
+		try {
+			runRootCheckTest(EMPTY_REPLYCODE);
+			fail("Expected an InvalidReplyCodeException");
+		} catch (InvalidReplyCodeException e) {
+			assertEquals(ReplyCode.NO_RECORDS_FOUND.getValue(), e.getReplyCodeValue());
+		}
+	}
+
+	public void testRootCheckMalformed() {
+		try {
+			runRootCheckTest("<HTML><BODY>Service Unavailable</BODY></HTML>");
+			fail("Expected a RetsException");
+		} catch (InvalidReplyCodeException e) {
+			fail("Expected a malformed response, not a reply code");
+		} catch (RetsException e) {
+			// "success"
+		}
+	}
+
 	public static final String CRLF = "\r\n";
 
 	public static final String GOOD_SMALL_TEST = "<RETS ReplyCode=\"0\" " + "ReplyText=\"Success\">" + CRLF
@@ -0,0 +1,82 @@
+package us.ampre.rets.client;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import us.ampre.rets.common.metadata.MetadataType;
+import us.ampre.rets.common.metadata.types.MClass;
+import us.ampre.rets.common.metadata.types.MTable;
+
+public class SelectProjectionTest extends RetsTestCase {
+	private static MClass listingClass() {
+		MClass mClass = new MClass();
+		mClass.setAttribute(MClass.CLASSNAME, "RES");
+		String[][] fields = {{"LN", "ListingKey"}, {"LP", "ListPrice"}, {"ST", "Status"}, {"RMK", null}};
+		for (String[] field : fields) {
+			MTable table = new MTable();
+			table.setAttribute(MTable.SYSTEMNAME, field[0]);
+			if (field[1] != null)
+				table.setAttribute(MTable.STANDARDNAME, field[1]);
+			mClass.addChild(MetadataType.TABLE, table);
+		}
+		return mClass;
+	}
+
+	public void testNormalizes() {
+		SelectProjection select = new SelectProjection(listingClass(), false)
+			.add("ListPrice", "LN, lp ,Nope", "ST", "status", null);
+		assertEquals("fields", new String[]{"LP", "LN", "ST"}, select.getFields());
+		assertEquals("LP,LN,ST", select.toSelect());
+		assertEquals(1, select.getDropped().size());
+		assertEquals("Nope", select.getDropped().get(0));
+
+		SearchRequest req = new SearchRequest("Property", "RES", "(LP=0+)");
+		req.setStandardNames();
+		select.apply(req);
+		assertEquals("LP,LN,ST", req.getSelect());
+		assertNull(req.getQueryParameter(SearchRequest.KEY_STANDARDNAMES));
+	}
+
+	public void testStandardNames() {
+		SelectProjection select = new SelectProjection(listingClass(), true).add("LN,LP,RMK");
+		assertEquals("fields", new String[]{"ListingKey", "ListPrice"}, select.getFields());
+		assertEquals("RMK", select.getDropped().get(0));
+
+		SearchRequest req = new SearchRequest("Property", "RES", "(ListPrice=0+)");
+		select.apply(req);
+		assertEquals("1", req.getQueryParameter(SearchRequest.KEY_STANDARDNAMES));
+
+		try {
+			new SelectProjection(listingClass(), false).add("Nope").apply(req);
+			fail("Expected an IllegalStateException");
+		} catch (IllegalStateException e) {
+			// success
+		}
+	}
+
+	public void testIndex() {
+		SelectProjection select = new SelectProjection(listingClass(), false).add("LP,LN,ST");
+		int[] index = select.getIndex(new String[]{"ln", "RMK", "LP"});
+		assertEquals(3, index.length);
+		assertEquals(2, index[0]);
+		assertEquals(0, index[1]);
+		assertEquals(-1, index[2]);
+	}
+
+	public void testProjectsRows() throws RetsException {
+		SelectProjection select = new SelectProjection(listingClass(), false).add("LP,LN");
+		String response = "<RETS ReplyCode=\"0\" ReplyText=\"Success\">\r\n<DELIMITER value=\"09\"/>\r\n"
+			+ "<COLUMNS>\tLN\tRMK\tLP\t</COLUMNS>\r\n"
+			+ "<DATA>\t1\tnice\t100\t</DATA>\r\n"
+			+ "<DATA>\t2\t</DATA>\r\n"
+			+ "</RETS>\r\n";
+		SearchResultImpl result = new SearchResultImpl();
+		new SearchResultHandler(select.project(result)).parse(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)), "UTF-8");
+		assertEquals("columns", new String[]{"LP", "LN"}, result.getColumns());
+		assertEquals(2, result.getRowCount());
+		assertEquals("row 0", new String[]{"100", "1"}, result.getRow(0));
+		assertNull(result.getRow(1)[0]);
+		assertEquals("2", result.getRow(1)[1]);
+		assertTrue("search not complete", result.isComplete());
+	}
+}
@@ -0,0 +1,81 @@
+package us.ampre.rets.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+public class SinglePartInputStreamTest extends RetsTestCase {
+	private static final String BOUNDARY = "--simple boundary";
+
+	/**
+	 * Hands out a few bytes per read, so delimiters straddle buffer refills.
+	 */
+	private static InputStream trickle(byte[] data, int chunk) {
+		return new ByteArrayInputStream(data) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, chunk));
+			}
+		};
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	public void testStopsBeforeDelimiter() throws IOException {
+		String[] parts = {"plain", "CR\rinside", "ends with\r\n\r\n", "--simple boundar", "\n-", ""};
+		for (String part : parts) {
+			for (String eol : new String[]{"\r\n", "\n"}) {
+				for (int chunk : new int[]{1, 3, 7, 1000}) {
+					MultipartInputStream input = new MultipartInputStream(trickle(bytes(part + eol + BOUNDARY + "\r\nrest"), chunk), 16);
+					SinglePartInputStream in = new SinglePartInputStream(input, BOUNDARY);
+					assertEquals("part [" + part + "] chunk " + chunk, part, new String(in.readAllBytes(), StandardCharsets.ISO_8859_1));
+					assertEquals(-1, in.read());
+					assertEquals('\n', eol.equals("\n") ? input.read() : input.read() == '\r' ? input.read() : -2);
+					assertEquals(BOUNDARY + "\r\nrest", new String(input.readAllBytes(), StandardCharsets.ISO_8859_1));
+				}
+			}
+		}
+	}
+
+	public void testNoDelimiter() throws IOException {
+		MultipartInputStream input = new MultipartInputStream(trickle(bytes("no boundary at all\r"), 2), 16);
+		assertEquals("no boundary at all\r", new String(new SinglePartInputStream(input, BOUNDARY).readAllBytes(), StandardCharsets.ISO_8859_1));
+	}
+
+	public void testBulkAndTransferTo() throws IOException {
+		byte[] photo = new byte[3 * 1024 * 1024];
+		new Random(42).nextBytes(photo);
+		// plant partial delimiters in the binary data
+		byte[] near = bytes("\r\n--simple boundar");
+		for (int i = 1000; i < photo.length - near.length; i += 100_000) {
+			System.arraycopy(near, 0, photo, i, near.length);
+		}
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		body.write(photo);
+		body.write(bytes("\r\n" + BOUNDARY + "\r\n"));
+		body.write(photo, 0, 10);
+		body.write(bytes("\r\n" + BOUNDARY + "--"));
+		MultipartInputStream input = new MultipartInputStream(trickle(body.toByteArray(), 5000), 8192);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(photo.length, new SinglePartInputStream(input, BOUNDARY).transferTo(out));
+		assertTrue("first part differs", Arrays.equals(photo, out.toByteArray()));
+		assertEquals('\r', input.read());
+		assertEquals('\n', input.read());
+		assertEquals(BOUNDARY.length(), input.read(new byte[BOUNDARY.length()]));
+		input.read(new byte[2]);
+
+		SinglePartInputStream second = new SinglePartInputStream(input, BOUNDARY);
+		byte[] buf = new byte[64];
+		int n = second.read(buf, 0, buf.length);
+		assertEquals(10, n);
+		assertTrue(Arrays.equals(Arrays.copyOf(photo, 10), Arrays.copyOf(buf, n)));
+		assertEquals(-1, second.read(buf, 0, buf.length));
+	}
+}
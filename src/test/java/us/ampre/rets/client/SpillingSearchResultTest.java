@@ -0,0 +1,123 @@
+package us.ampre.rets.client;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public class SpillingSearchResultTest extends RetsTestCase {
+	private static String[] row(int i) {
+		return new String[]{Integer.toString(i), i % 3 == 0 ? "" : "caf\u00e9 " + i, i % 5 == 0 ? null : "x".repeat(i % 300)};
+	}
+
+	public void testSpillsAfterMemoryRows() throws Exception {
+		Path file;
+		try (SpillingSearchResult result = new SpillingSearchResult(10)) {
+			result.setColumns(new String[]{"Id", "Remarks", "Filler"});
+			for (int i = 0; i < 1000; i++) {
+				result.addRow(row(i));
+			}
+			result.setComplete();
+			assertEquals(1000, result.getRowCount());
+			assertEquals(1000, result.getCount());
+			assertEquals(990, result.getSpilledRowCount());
+			file = result.getFile();
+			assertTrue("no spill file", Files.exists(file));
+
+			// random access, then a full pass
+			for (int i : new int[]{999, 0, 10, 9, 500}) {
+				assertRow(i, result.getRow(i));
+			}
+			Iterator<String[]> rows = result.iterator();
+			for (int i = 0; i < 1000; i++) {
+				assertRow(i, rows.next());
+			}
+			assertFalse(rows.hasNext());
+			try {
+				result.getRow(1000);
+				fail("Expected a NoSuchElementException");
+			} catch (NoSuchElementException e) {
+				// success
+			}
+		}
+		assertFalse("spill file not deleted", Files.exists(file));
+	}
+
+	private void assertRow(int i, String[] actual) {
+		String[] expected = row(i);
+		assertEquals(expected.length, actual.length);
+		for (int j = 0; j < expected.length; j++) {
+			assertEquals("row " + i + " field " + j, expected[j], actual[j]);
+		}
+	}
+
+	public void testReadWhileWriting() {
+		try (SpillingSearchResult result = new SpillingSearchResult(0)) {
+			result.setColumns(new String[]{"Id", "Remarks", "Filler"});
+			for (int i = 0; i < 100; i++) {
+				result.addRow(row(i));
+				assertRow(i, result.getRow(i));
+				assertRow(i / 2, result.getRow(i / 2));
+			}
+		}
+	}
+
+	public void testRowLargerThanReadBuffer() {
+		try (SpillingSearchResult result = new SpillingSearchResult(0)) {
+			result.setColumns(new String[]{"Id", "Remarks"});
+			String large = "y".repeat(200_000);
+			result.addRow(new String[]{"0", "small"});
+			result.addRow(new String[]{"1", large});
+			result.addRow(new String[]{"2", "small"});
+			result.setComplete();
+			assertEquals("row 0", new String[]{"0", "small"}, result.getRow(0));
+			assertEquals("row 1", new String[]{"1", large}, result.getRow(1));
+			assertEquals("row 2", new String[]{"2", "small"}, result.getRow(2));
+		}
+	}
+
+	public void testInMemoryOnly() {
+		SpillingSearchResult result = new SpillingSearchResult();
+		result.setColumns(new String[]{"Id"});
+		result.addRow(new String[]{"1"});
+		result.setComplete();
+		assertNull("spilled without need", result.getFile());
+		assertEquals("row 0", new String[]{"1"}, result.getRow(0));
+		result.close();
+		assertEquals("memory rows lost on close", new String[]{"1"}, result.getRow(0));
+	}
+
+	public void testFromParser() throws RetsException {
+		StringBuilder response = new StringBuilder("<RETS ReplyCode=\"0\" ReplyText=\"Success\">\r\n<DELIMITER value=\"09\"/>\r\n<COLUMNS>\tA\tB\t</COLUMNS>\r\n");
+		for (int i = 0; i < 50; i++) {
+			response.append("<DATA>\t").append(i).append("\tA &amp; B\t</DATA>\r\n");
+		}
+		response.append("<MAXROWS/>\r\n</RETS>\r\n");
+		try (SpillingSearchResult result = new SpillingSearchResult(5)) {
+			new SearchResultHandler(result).parse(new ByteArrayInputStream(response.toString().getBytes(StandardCharsets.UTF_8)), "UTF-8");
+			assertTrue(result.isComplete());
+			assertTrue(result.isMaxRows());
+			assertEquals(50, result.getRowCount());
+			assertEquals("row 49", new String[]{"49", "A & B"}, result.getRow(49));
+		}
+	}
+
+	public void testFromSessionIsNotCaptured() throws RetsException {
+		RetsSession session = new RetsSession("http://localhost/login", RetsTransportTest.echoClient());
+		assertTrue(session.getTransport().isCaptureResponse());
+		SearchRequest req = new SearchRequest("Property", "RES", "(ListPrice=0+)");
+		req.setHeader("X-Test-Tag", "spilled");
+		try (SpillingSearchResult result = session.search(req, 1)) {
+			assertEquals("row 0", new String[]{"spilled"}, result.getRow(0));
+		}
+		assertNull("body captured", session.getXmlResponse());
+
+		try {
+			session.search(new SearchRequest("Property", "RES", "(ListPrice=0+)"), 1);
+			fail("non RETS body accepted");
+		} catch (RetsException expected) {
+		}
+	}
+}
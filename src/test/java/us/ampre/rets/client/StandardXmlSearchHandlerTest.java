@@ -0,0 +1,151 @@
+package us.ampre.rets.client;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class StandardXmlSearchHandlerTest extends RetsTestCase {
+	private static final String LISTINGS =
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n" +
+		"<RETS ReplyCode=\"0\" ReplyText=\"Success\">\r\n" +
+		"  <COUNT Records=\"2\"/>\r\n" +
+		"  <REData>\r\n" +
+		"    <REProperties>\r\n" +
+		"      <ResidentialProperty>\r\n" +
+		"        <Listing>\r\n" +
+		"          <ListingID>L1</ListingID>\r\n" +
+		"          <ListPrice>500000</ListPrice>\r\n" +
+		"          <Remarks><![CDATA[Close to <everything>]]></Remarks>\r\n" +
+		"          <Photo><Url>a.jpg</Url></Photo>\r\n" +
+		"          <Photo><Url>b.jpg</Url></Photo>\r\n" +
+		"        </Listing>\r\n" +
+		"      </ResidentialProperty>\r\n" +
+		"      <ResidentialProperty>\r\n" +
+		"        <Listing>\r\n" +
+		"          <ListingID>L2</ListingID>\r\n" +
+		"          <ListPrice>625000</ListPrice>\r\n" +
+		"          <Remarks/>\r\n" +
+		"        </Listing>\r\n" +
+		"      </ResidentialProperty>\r\n" +
+		"    </REProperties>\r\n" +
+		"  </REData>\r\n" +
+		"  <MAXROWS/>\r\n" +
+		"</RETS>\r\n";
+
+	static class RecordList implements StandardXmlRecordCollector {
+		int count = -1;
+		boolean maxRows;
+		boolean complete;
+		final List<Map<String, String>> records = new ArrayList<>();
+
+		public void setCount(int count) {
+			this.count = count;
+		}
+
+		public boolean addRecord(Map<String, String> record) {
+			this.records.add(new LinkedHashMap<>(record));
+			return true;
+		}
+
+		public void setMaxRows() {
+			this.maxRows = true;
+		}
+
+		public void setComplete() {
+			this.complete = true;
+		}
+	}
+
+	private static RecordList parse(String xml, boolean rootCheck) throws RetsException {
+		RecordList records = new RecordList();
+		StandardXmlSearchHandler handler = new StandardXmlSearchHandler(records);
+		handler.setRootCheck(rootCheck);
+		handler.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), null);
+		return records;
+	}
+
+	public void testRecords() throws RetsException {
+		RecordList records = parse(LISTINGS, true);
+		assertEquals(2, records.count);
+		assertTrue(records.maxRows);
+		assertTrue(records.complete);
+		assertEquals(2, records.records.size());
+		Map<String, String> first = records.records.get(0);
+		assertEquals("L1", first.get("Listing.ListingID"));
+		assertEquals("500000", first.get("Listing.ListPrice"));
+		assertEquals("Close to <everything>", first.get("Listing.Remarks"));
+		assertEquals("a.jpg,b.jpg", first.get("Listing.Photo.Url"));
+		assertEquals(4, first.size());
+		Map<String, String> second = records.records.get(1);
+		assertEquals("L2", second.get("Listing.ListingID"));
+		assertEquals("", second.get("Listing.Remarks"));
+		assertNull(second.get("Listing.Photo.Url"));
+	}
+
+	public void testRows() throws RetsException {
+		SearchResultImpl result = new SearchResultImpl();
+		StandardXmlSearchHandler handler = new StandardXmlSearchHandler(new StandardXmlRowCollector(result, new String[]{"ListPrice", "ListingID"}));
+		handler.parse(new ByteArrayInputStream(LISTINGS.getBytes(StandardCharsets.UTF_8)), "UTF-8");
+		assertTrue(result.isComplete());
+		assertTrue(result.isMaxRows());
+		assertEquals(2, result.getCount());
+		assertEquals("columns", new String[]{"ListPrice", "ListingID"}, result.getColumns());
+		assertEquals("row 0", new String[]{"500000", "L1"}, result.getRow(0));
+		assertEquals("row 1", new String[]{"625000", "L2"}, result.getRow(1));
+	}
+
+	public void testNoRecords() throws RetsException {
+		RecordList records = parse("<RETS ReplyCode=\"20201\" ReplyText=\"No Records Found\"/>", false);
+		assertTrue(records.complete);
+		assertTrue(records.records.isEmpty());
+		try {
+			parse("<RETS ReplyCode=\"20201\" ReplyText=\"No Records Found\"/>", true);
+			fail("expected InvalidReplyCodeException");
+		} catch (InvalidReplyCodeException e) {
+			assertEquals(20201, e.getReplyCodeValue());
+		}
+	}
+
+	public void testInvalidReplyCode() {
+		try {
+			parse("<RETS ReplyCode=\"20203\" ReplyText=\"Miscellaneous search error\"/>", false);
+			fail("expected InvalidReplyCodeException");
+		} catch (RetsException e) {
+			assertTrue(e instanceof InvalidReplyCodeException);
+			assertEquals(20203, ((InvalidReplyCodeException) e).getReplyCodeValue());
+		}
+	}
+
+	public void testRootCheck() {
+		try {
+			parse("<HTML><BODY>error</BODY></HTML>", true);
+			fail("expected RetsException");
+		} catch (RetsException e) {
+			assertTrue(e.getMessage().contains("Root element is not 'RETS'"));
+		}
+	}
+
+	public void testSessionSearch() throws RetsException {
+		RetsHttpClient client = new StubHttpClient(request -> {
+			assertEquals(SearchRequest.FORMAT_STANDARD_XML, ((SearchRequest) request).getFormat());
+			return LISTINGS;
+		});
+		RetsSession session = new RetsSession("http://localhost/login", client);
+		SearchRequest req = new SearchRequest("Property", "RES", "(ListPrice=0+)");
+		req.setFormatStandardXml();
+
+		SearchResultImpl result = new SearchResultImpl();
+		session.search(req, result);
+		assertEquals("columns", new String[]{"Listing.ListingID", "Listing.ListPrice", "Listing.Remarks", "Listing.Photo.Url"}, result.getColumns());
+		assertEquals("row 1", new String[]{"L2", "625000", "", ""}, result.getRow(1));
+		assertEquals(LISTINGS, session.getXmlResponse());
+
+		session.setCaptureSearchResponse(false);
+		RecordList records = new RecordList();
+		session.search(new SearchRequest("Property", "RES", "(ListPrice=0+)"), records);
+		assertEquals(2, records.records.size());
+	}
+}
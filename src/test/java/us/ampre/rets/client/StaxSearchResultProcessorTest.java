@@ -0,0 +1,89 @@
+package us.ampre.rets.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the StreamingSearchResultProcessor tests against the StAX
+ * implementation.
+ */
+public class StaxSearchResultProcessorTest extends StreamingSearchResultProcessorTest {
+	@Override
+	protected SearchResultProcessor createProcessor(InvalidReplyCodeHandler invalidReplyCodeHandler) {
+		StaxSearchResultProcessor processor = new StaxSearchResultProcessor();
+		if (invalidReplyCodeHandler != null)
+			processor.setInvalidRelyCodeHandler(invalidReplyCodeHandler);
+		return processor;
+	}
+
+	private static String rows(int rows) {
+		StringBuilder input = new StringBuilder("<RETS ReplyCode=\"0\" ReplyText=\"Success\">\r\n");
+		input.append("<COUNT Records=\"").append(rows).append("\"/>\r\n");
+		input.append("<DELIMITER value=\"09\"/>\r\n<COLUMNS>\tColumn1\tColumn2\t</COLUMNS>\r\n");
+		for (int i = 0; i < rows; i++) {
+			input.append("<DATA>\t").append(i).append("\tA &amp; B\t</DATA>\r\n");
+		}
+		input.append("</RETS>\r\n");
+		return input.toString();
+	}
+
+	public void testManyRows() throws RetsException {
+		int rows = 10000;
+		StaxSearchResultSet result = new StaxSearchResultProcessor().parse(new StringReader(rows(rows)));
+		assertEquals("wrong count", rows, result.getCount());
+		assertEquals("wrong column count", 2, result.getColumns().length);
+		int seen = 0;
+		while (result.hasNext()) {
+			String[] row = result.next();
+			assertEquals("rows out of order", Integer.toString(seen++), row[0]);
+			assertEquals("entity not decoded", "A & B", row[1]);
+		}
+		assertEquals("rows lost", rows, seen);
+		assertTrue("search not complete", result.isComplete());
+		assertFalse("max rows wrong", result.isMaxRows());
+	}
+
+	public void testPullsOnDemand() throws RetsException {
+		AtomicBoolean closed = new AtomicBoolean();
+		ByteArrayInputStream in = new ByteArrayInputStream(rows(3).getBytes(StandardCharsets.UTF_8)) {
+			@Override
+			public void close() {
+				closed.set(true);
+			}
+		};
+		StaxSearchResultSet result = new StaxSearchResultProcessor().parse(in, "UTF-8");
+		assertTrue("iterator should have more", result.hasNext());
+		assertEquals("wrong row data", "0", result.next()[0]);
+		assertFalse("search should not be complete", result.isComplete());
+		assertFalse("response closed early", closed.get());
+
+		result.close();
+		assertTrue("response not closed", closed.get());
+		assertTrue("search not complete", result.isComplete());
+		assertFalse("rows should be exhausted", result.hasNext());
+	}
+
+	public void testMissingDelimiter() {
+		StaxSearchResultSet result;
+		try {
+			result = new StaxSearchResultProcessor().parse(new StringReader("<RETS ReplyCode=\"0\"><COLUMNS>\tA\t</COLUMNS></RETS>"));
+		} catch (RetsException e) {
+			fail(e.getMessage());
+			return;
+		}
+		try {
+			result.getColumns();
+			fail("Expected a RetsException");
+		} catch (RetsException e) {
+			// success
+		}
+		try {
+			result.hasNext();
+			fail("Expected the RetsException again");
+		} catch (RetsException e) {
+			// success
+		}
+	}
+}
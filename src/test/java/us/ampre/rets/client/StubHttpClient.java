@@ -0,0 +1,90 @@
+package us.ampre.rets.client;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+
+/**
+ * Answers every request with a 200 response whose body is made from the
+ * request, and counts the requests and how many were in flight at once.
+ * Clients that keep state override body(); those that need headers or a
+ * different entity override respond().
+ */
+class StubHttpClient extends RetsHttpClient {
+	final AtomicInteger requests = new AtomicInteger();
+	final AtomicInteger inFlight = new AtomicInteger();
+	final AtomicInteger maxInFlight = new AtomicInteger();
+	private final Function<RetsHttpRequest, String> body;
+	private long delayMillis;
+	private boolean streaming;
+
+	StubHttpClient(Function<RetsHttpRequest, String> body) {
+		this.body = body;
+	}
+
+	/**
+	 * For subclasses that override body() or respond().
+	 */
+	StubHttpClient() {
+		this(null);
+	}
+
+	/**
+	 * Keep every request in flight for a while, so overlapping requests can
+	 * be observed.
+	 */
+	StubHttpClient setDelayMillis(long delayMillis) {
+		this.delayMillis = delayMillis;
+		return this;
+	}
+
+	/**
+	 * Hand out the entity as a streaming response instead of buffering it.
+	 */
+	StubHttpClient setStreaming(boolean streaming) {
+		this.streaming = streaming;
+		return this;
+	}
+
+	@Override
+	public void setUserCredentials(String userName, String password) {
+	}
+
+	@Override
+	public RetsHttpResponseImpl doRequest(String httpMethod, RetsHttpRequest request) throws RetsException {
+		this.requests.incrementAndGet();
+		this.maxInFlight.accumulateAndGet(this.inFlight.incrementAndGet(), Math::max);
+		try {
+			BasicClassicHttpResponse response = new BasicClassicHttpResponse(200);
+			respond(request, response);
+			if (this.delayMillis > 0)
+				Thread.sleep(this.delayMillis);
+			return new RetsHttpResponseImpl(CloseableHttpResponse.adapt(response), Map.of(), this.streaming);
+		} catch (IOException e) {
+			throw new RetsException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RetsException(e);
+		} finally {
+			this.inFlight.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Fill in the response to a request; by default a UTF-8 body.  It is
+	 * called before the delay, with the request already counted in flight.
+	 */
+	protected void respond(RetsHttpRequest request, BasicClassicHttpResponse response) throws RetsException {
+		response.setEntity(new StringEntity(body(request), StandardCharsets.UTF_8));
+	}
+
+	protected String body(RetsHttpRequest request) throws RetsException {
+		return this.body.apply(request);
+	}
+}
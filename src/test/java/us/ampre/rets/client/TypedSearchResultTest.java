@@ -0,0 +1,231 @@
+package us.ampre.rets.client;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import us.ampre.rets.common.metadata.MetadataType;
+import us.ampre.rets.common.metadata.types.MClass;
+import us.ampre.rets.common.metadata.types.MTable;
+
+public class TypedSearchResultTest extends RetsTestCase {
+	private static final String HEADER = "<RETS ReplyCode=\"0\" ReplyText=\"Success\">\r\n<COUNT Records=\"3\"/>\r\n<DELIMITER value=\"09\"/>\r\n"
+		+ "<COLUMNS>\tId\tPrice\tSold\tListed\tModified\tShowing\tStatus\tRemarks\t</COLUMNS>\r\n";
+
+	private static MTable table(String name, String dataType, String precision, String interpretation) {
+		MTable table = new MTable();
+		table.setAttribute(MTable.SYSTEMNAME, name);
+		table.setAttribute(MTable.DATATYPE, dataType);
+		if (precision != null)
+			table.setAttribute(MTable.PRECISION, precision);
+		if (interpretation != null)
+			table.setAttribute(MTable.INTERPRETATION, interpretation);
+		return table;
+	}
+
+	private static MClass listingClass() {
+		MClass mClass = new MClass();
+		mClass.setAttribute(MClass.CLASSNAME, "RES");
+		mClass.addChild(MetadataType.TABLE, table("Id", "Long", null, null));
+		mClass.addChild(MetadataType.TABLE, table("Price", "Decimal", "2", "Currency"));
+		mClass.addChild(MetadataType.TABLE, table("Sold", "Boolean", null, null));
+		mClass.addChild(MetadataType.TABLE, table("Listed", "Date", null, null));
+		mClass.addChild(MetadataType.TABLE, table("Modified", "DateTime", null, null));
+		mClass.addChild(MetadataType.TABLE, table("Showing", "Time", null, null));
+		mClass.addChild(MetadataType.TABLE, table("Status", "Int", null, "Lookup"));
+		// Remarks has no metadata and stays a String
+		return mClass;
+	}
+
+	private static TypedSearchResult parse(String body) throws RetsException {
+		TypedSearchResult result = new TypedSearchResult(listingClass());
+		new SearchResultHandler(result).parse(new ByteArrayInputStream((HEADER + body + "</RETS>\r\n").getBytes(StandardCharsets.UTF_8)), "UTF-8");
+		return result;
+	}
+
+	private static long millis(LocalDateTime time) {
+		return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+	}
+
+	public void testFieldTypes() throws RetsException {
+		TypedSearchResult result = parse("");
+		TypedSearchResult.FieldType[] expected = {TypedSearchResult.FieldType.LONG, TypedSearchResult.FieldType.DECIMAL,
+			TypedSearchResult.FieldType.BOOLEAN, TypedSearchResult.FieldType.DATE, TypedSearchResult.FieldType.DATETIME,
+			TypedSearchResult.FieldType.TIME, TypedSearchResult.FieldType.STRING, TypedSearchResult.FieldType.STRING};
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(result.getColumns()[i], expected[i], result.getFieldType(i));
+		}
+		assertTrue("search not complete", result.isComplete());
+		assertEquals(0, result.getRowCount());
+	}
+
+	public void testDecoding() throws RetsException {
+		TypedSearchResult result = parse("<DATA>\t-42\t1234.5\t1\t2024-02-29\t2024-03-01T10:15:30.25\t09:30\t01\tA &amp; B\t</DATA>\r\n"
+			+ "<DATA>\t9223372036854775807\t0.1\tN\t1970-01-01\t2024-03-01 10:15:30-05:00\t23:59:59.999\t02\t\t</DATA>\r\n");
+		assertEquals(2, result.getRowCount());
+		assertEquals(3, result.getCount());
+
+		TypedSearchResult.Row row = result.row(0);
+		assertEquals(-42L, row.getLong(0));
+		assertEquals(1234.5, row.getDouble(1), 0.0);
+		assertEquals(new BigDecimal("1234.50"), row.getDecimal(1));
+		assertTrue(row.getBoolean(2));
+		assertEquals(LocalDate.of(2024, 2, 29).toEpochDay() * 86_400_000L, row.getEpochMillis(3));
+		assertEquals(millis(LocalDateTime.of(2024, 3, 1, 10, 15, 30, 250_000_000)), row.getEpochMillis(4));
+		assertEquals((9 * 60 + 30) * 60_000L, row.getEpochMillis(5));
+		assertEquals("01", row.getString(6));
+		assertEquals("A & B", row.getString(7));
+
+		assertEquals(Long.MAX_VALUE, result.getLong(1, 0));
+		assertEquals(0.1, result.getDouble(1, 1), 0.0);
+		assertFalse(result.getBoolean(1, 2));
+		assertEquals(0L, result.getEpochMillis(1, 3));
+		assertEquals(millis(LocalDateTime.of(2024, 3, 1, 15, 15, 30)), result.getEpochMillis(1, 4));
+		assertEquals(86_399_999L, result.getEpochMillis(1, 5));
+		assertTrue(result.isNull(1, 7));
+
+		assertEquals("row 0", new String[]{"-42", "1234.50", "1", "2024-02-29", "2024-03-01T10:15:30.250", "09:30", "01", "A & B"}, result.getRow(0));
+		assertEquals("row 1", new String[]{"9223372036854775807", "0.10", "0", "1970-01-01", "2024-03-01T15:15:30", "23:59:59.999", "02", ""}, result.getRow(1));
+	}
+
+	public void testEmptyAndInvalidCells() throws RetsException {
+		TypedSearchResult result = parse("<DATA>\t\t\t\t\t\t\t\t\t</DATA>\r\n"
+			+ "<DATA>\tN/A\t1,000\tmaybe\t2023-02-30\t2024-03-01\t25:00\t\t\t</DATA>\r\n"
+			+ "<DATA>\t9223372036854775808\t1e3\ttrue\t2024-01-01\t2024-01-01T00:00Z\t00:00:00\t\t\t</DATA>\r\n");
+		for (int i = 0; i < 6; i++) {
+			assertTrue("cell " + i, result.isNull(0, i));
+			assertNull("cell " + i, result.getString(0, i));
+			assertFalse("cell " + i, result.isInvalid(0, i));
+		}
+		try {
+			result.getLong(0, 0);
+			fail("Expected an IllegalStateException");
+		} catch (IllegalStateException e) {
+			// success
+		}
+
+		String[] sent = {"N/A", "1,000", "maybe", "2023-02-30", "2024-03-01", "25:00"};
+		for (int i = 0; i < sent.length; i++) {
+			assertTrue("cell " + i, result.isInvalid(1, i));
+			assertEquals("cell " + i, sent[i], result.getString(1, i));
+		}
+		try {
+			result.getDouble(1, 1);
+			fail("Expected an IllegalStateException");
+		} catch (IllegalStateException e) {
+			// success
+		}
+
+		assertTrue("overflow", result.isInvalid(2, 0));
+		assertEquals(1000.0, result.getDouble(2, 1), 0.0);
+		assertTrue(result.getBoolean(2, 2));
+		assertEquals(millis(LocalDateTime.of(2024, 1, 1, 0, 0)), result.getEpochMillis(2, 4));
+		try {
+			result.getLong(2, 1);
+			fail("Expected an IllegalStateException");
+		} catch (IllegalStateException e) {
+			// success
+		}
+	}
+
+	public void testStringRows() throws RetsException {
+		// rows from a String based parser, including a short one
+		TypedSearchResult result = new TypedSearchResult(listingClass());
+		result.setZone(ZoneId.of("America/Toronto"));
+		result.setColumns(new String[]{"Id", "Price", "Modified", "Remarks"});
+		result.addRow(new String[]{"7", "19.99", "2024-07-01T12:00:00", "x"});
+		result.addRow(new String[]{"8", "5"});
+		result.setComplete();
+
+		assertEquals(7L, result.getLong(0, 0));
+		assertEquals(19.99, result.getDouble(0, 1), 0.0);
+		assertEquals(millis(LocalDateTime.of(2024, 7, 1, 16, 0)), result.getEpochMillis(0, 2));
+		assertEquals("row 0", new String[]{"7", "19.99", "2024-07-01T12:00:00", "x"}, result.getRow(0));
+		assertEquals("5.00", result.getString(1, 1));
+		assertTrue(result.isNull(1, 2));
+		assertNull(result.getString(1, 3));
+		assertEquals(3, result.getColumnIndex("Remarks"));
+		assertEquals(-1, result.getColumnIndex("Nope"));
+	}
+
+	public void testBadRowsUsePolicy() throws RetsException {
+		TypedSearchResult result = new TypedSearchResult(listingClass());
+		SearchResultHandler handler = new SearchResultHandler(result, InvalidReplyCodeHandler.FAIL, CompactRowPolicy.DROP);
+		handler.parse(new ByteArrayInputStream((HEADER + "<DATA>\t1\t</DATA>\r\n<DATA>\t2\t3\t1\t2024-01-01\t2024-01-01T00:00:00\t00:00\t1\tx\t</DATA>\r\n</RETS>")
+			.getBytes(StandardCharsets.UTF_8)), "UTF-8");
+		assertEquals(1, result.getRowCount());
+		assertEquals(2L, result.getLong(0, 0));
+	}
+
+	public void testBadRowLeavesNothingBehind() throws RetsException {
+		TypedSearchResult result = new TypedSearchResult(listingClass());
+		SearchResultHandler handler = new SearchResultHandler(result, InvalidReplyCodeHandler.FAIL, CompactRowPolicy.DROP);
+		handler.parse(new ByteArrayInputStream((HEADER + "<DATA>\t\tN/A\t1\t</DATA>\r\n<DATA>\t2\t3\t0\t2024-01-01\t2024-01-01T00:00:00\t00:00\t1\tx\t</DATA>\r\n</RETS>")
+			.getBytes(StandardCharsets.UTF_8)), "UTF-8");
+		assertEquals(1, result.getRowCount());
+		assertFalse(result.isNull(0, 0));
+		assertFalse(result.isInvalid(0, 1));
+		assertEquals(new BigDecimal("3.00"), result.getDecimal(0, 1));
+		assertFalse(result.getBoolean(0, 2));
+	}
+
+	public void testCompactScanner() throws RetsException {
+		AtomicInteger typedRows = new AtomicInteger();
+		TypedSearchResult result = new TypedSearchResult(listingClass()) {
+			@Override
+			public void endRow() {
+				typedRows.incrementAndGet();
+				super.endRow();
+			}
+		};
+		String body = HEADER + "<DATA>\t-42\t1234.5\t1\t2024-02-29\t2024-03-01T10:15:30.25\t09:30\t01\tA &amp; B\t</DATA>\r\n"
+			+ "<DATA>\t1\t</DATA>\r\n"
+			+ "<!-- the rest goes to SAX -->\r\n"
+			+ "<DATA>\t9223372036854775807\t0.1\tN\t1970-01-01\t2024-03-01 10:15:30-05:00\t23:59:59.999\t02\t\t</DATA>\r\n</RETS>\r\n";
+		CompactSearchScanner scanner = new CompactSearchScanner(result, InvalidReplyCodeHandler.FAIL, CompactRowPolicy.DROP);
+		scanner.parse(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), "UTF-8");
+
+		assertTrue("no fallback", scanner.isFallback());
+		assertEquals("rows passed by field", 2, typedRows.get());
+		assertEquals(2, result.getRowCount());
+		assertEquals(3, result.getCount());
+		assertEquals(-42L, result.getLong(0, 0));
+		assertEquals(new BigDecimal("1234.50"), result.getDecimal(0, 1));
+		assertEquals("A & B", result.getString(0, 7));
+		assertEquals(Long.MAX_VALUE, result.getLong(1, 0));
+		assertFalse(result.getBoolean(1, 2));
+		assertEquals(millis(LocalDateTime.of(2024, 3, 1, 15, 15, 30)), result.getEpochMillis(1, 4));
+		assertTrue(result.isNull(1, 7));
+	}
+
+	public void testDecimalPrecision() throws RetsException {
+		TypedSearchResult result = parse("<DATA>\t1\t12345678901234567.89\t\t\t\t\t\t\t</DATA>\r\n"
+			+ "<DATA>\t2\t-123456789012345678901234.5\t\t\t\t\t\t\t</DATA>\r\n"
+			+ "<DATA>\t3\t-0.05\t\t\t\t\t\t\t</DATA>\r\n");
+		assertEquals(new BigDecimal("12345678901234567.89"), result.getDecimal(0, 1));
+		assertEquals("12345678901234567.89", result.getString(0, 1));
+		assertEquals(1.234567890123456789E16, result.getDouble(0, 1), 0.0);
+		assertEquals(new BigDecimal("-123456789012345678901234.50"), result.getDecimal(1, 1));
+		assertEquals(-1.2345678901234568E23, result.getDouble(1, 1), 1E8);
+		assertEquals(new BigDecimal("-0.05"), result.getDecimal(2, 1));
+		assertEquals(-0.05, result.getDouble(2, 1), 0.0);
+	}
+
+	public void testManyRows() throws RetsException {
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			body.append("<DATA>\t").append(i).append('\t').append(i).append(".25\t1\t2024-01-01\t2024-01-01T00:00:00\t00:00\t1\tr\t</DATA>\r\n");
+		}
+		TypedSearchResult result = parse(body.toString());
+		assertEquals(1000, result.getRowCount());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i, result.getLong(i, 0));
+			assertEquals(i + 0.25, result.getDouble(i, 1), 0.0);
+		}
+	}
+}